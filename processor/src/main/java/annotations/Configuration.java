@@ -0,0 +1,29 @@
+package annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the class that holds the settings from a properties file, such as <code>utils.Bot</code>. Every
+ * <code>public static</code> field that isn't <code>final</code>, in the class or any of its nested classes, is bound
+ * to the property with the same name in lowercase:
+ * <p>
+ * <code>@Configuration("bot.properties")<br>public class Bot</code>
+ * <p>
+ * When the bot is compiled, a binder named after the class (such as <code>utils.BotBinder</code>) is generated with a
+ * typed setter and converter for each property, so loading the file doesn't need reflection. If the build passes the
+ * <code>templatebot.resources</code> option, the properties file is checked as well: a property without a matching
+ * field, a field of an unsupported type, or a value that can't be converted is reported as a compile error.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface Configuration {
+    /**
+     * The name of the properties file, relative to the resources directory.
+     *
+     * @return the file name
+     */
+    String value();
+}
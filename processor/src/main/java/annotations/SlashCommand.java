@@ -0,0 +1,76 @@
+package annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method as the handler for a slash command, such as <code>/help</code>. The method must be <code>public
+ * static</code>, and it must accept a <code>SlashCommandEvent</code>:
+ * <p>
+ * <code>@SlashCommand(name = "help", description = "Get info about {bot}")<br>public static void
+ * help(SlashCommandEvent event)</code>
+ * <p>
+ * When the bot is compiled, the command is added to the dispatch table and to the global or local registration list
+ * in the generated <code>commands.CommandTable</code> class. There's no need to register it anywhere else.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface SlashCommand {
+    /**
+     * The name of the command. This must be 1-32 lowercase letters, digits, dashes, or underscores.
+     *
+     * @return the command name
+     */
+    String name();
+
+    /**
+     * The description shown to users in Discord. This must be 1-100 characters. The text <code>{bot}</code> is
+     * replaced with the bot's name when the command is registered.
+     *
+     * @return the command description
+     */
+    String description();
+
+    /**
+     * Whether the command is registered globally or only in the development server.
+     *
+     * @return the scope of the command
+     */
+    Scope scope() default Scope.GLOBAL;
+
+    /**
+     * Whether the command's response is only visible to the user who used it. This only matters if the handler takes
+     * too long to reply, and the dispatcher calls <code>deferReply()</code> for it: whether the deferred reply is
+     * ephemeral has to be decided before the handler's response exists, so it's decided here. Set this for commands
+     * whose handler calls <code>setEphemeral(true)</code>.
+     *
+     * @return <code>true</code> if the response is ephemeral
+     */
+    boolean ephemeral() default false;
+
+    /**
+     * How long the handler can run, in milliseconds, before it's interrupted and the user is told that the command
+     * failed. Set this for commands that are expected to be slower or faster than most. An entry for the command in
+     * <code>command_timeouts</code> in <code>bot.properties</code> takes precedence over this.
+     *
+     * @return the timeout, or <code>0</code> to use <code>command_timeout_ms</code> from <code>bot.properties</code>
+     */
+    long timeoutMs() default 0;
+
+    /**
+     * The places where a slash command can be registered.
+     */
+    enum Scope {
+        /**
+         * The command is registered with Discord for every server and direct message.
+         */
+        GLOBAL,
+
+        /**
+         * The command is only registered in the development server.
+         */
+        LOCAL
+    }
+}
@@ -0,0 +1,36 @@
+package annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method as the handler for a text command, such as <code>!ping</code>. The method must be <code>public
+ * static</code>, and it must accept a <code>MessageReceivedEvent</code> and the parsed <code>CommandArgs</code>:
+ * <p>
+ * <code>@TextCommand("ping")<br>public static void ping(MessageReceivedEvent event, CommandArgs args)</code>
+ * <p>
+ * The command is added to the dispatch table in the generated <code>commands.CommandTable</code> class when the bot is
+ * compiled. There's no need to register it anywhere else.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface TextCommand {
+    /**
+     * The name of the command, followed by any aliases. Names are matched case-insensitively, and must consist of
+     * lowercase letters, digits, dashes, and underscores.
+     *
+     * @return the names of the command
+     */
+    String[] value();
+
+    /**
+     * How long the handler can run, in milliseconds, before it's interrupted and the user is told that the command
+     * failed. Set this for commands that are expected to be slower or faster than most. An entry for the command in
+     * <code>command_timeouts</code> in <code>bot.properties</code> takes precedence over this.
+     *
+     * @return the timeout, or <code>0</code> to use <code>command_timeout_ms</code> from <code>bot.properties</code>
+     */
+    long timeoutMs() default 0;
+}
@@ -0,0 +1,432 @@
+package processor;
+
+import annotations.SlashCommand;
+import annotations.TextCommand;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * This annotation processor generates the <code>commands.CommandTable</code> class from every method annotated with
+ * {@link TextCommand} or {@link SlashCommand}. The generated class contains:
+ * <ul>
+ *     <li>One <code>Command</code> constant for each handler.
+ *     <li>A text command lookup that switches on the precomputed hash of each command name, so that routing a
+ *     message takes constant time and doesn't allocate, no matter how many commands there are.
+ *     <li>A slash command lookup that switches on the command name.
+ *     <li>The global and local <code>CommandData</code> lists that are sent to Discord when registering slash
+ *     commands.
+ * </ul>
+ * Mistakes such as a duplicate command name, a handler that isn't <code>public static</code>, or a handler with the
+ * wrong parameters are reported as compile errors on the offending method.
+ */
+@SupportedAnnotationTypes({"annotations.TextCommand", "annotations.SlashCommand"})
+public class CommandProcessor extends AbstractProcessor {
+    /**
+     * The package and simple name of the generated class.
+     */
+    private static final String PACKAGE = "commands", CLASS = "CommandTable";
+
+    private static final String MESSAGE_EVENT = "net.dv8tion.jda.api.events.message.MessageReceivedEvent";
+    private static final String SLASH_EVENT = "net.dv8tion.jda.api.events.interaction.SlashCommandEvent";
+    private static final String COMMAND_ARGS = "utils.CommandArgs";
+
+    /**
+     * The rules Discord applies to slash command names, which are also used for text command names.
+     */
+    private static final Pattern NAME = Pattern.compile("[a-z0-9_-]{1,32}");
+
+    /**
+     * The text in a {@link SlashCommand#description() description} that is replaced with the bot's name.
+     */
+    private static final String BOT_PLACEHOLDER = "{bot}";
+
+    /**
+     * Whether the table has already been generated. It's generated once, in the first round with annotated methods.
+     */
+    private boolean generated = false;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        if (generated || annotations.isEmpty())
+            return false;
+
+        // Text command names, mapped to the handler for each
+        Map<String, ExecutableElement> text = new TreeMap<>();
+
+        // Slash commands, in the order that they're declared within each class
+        List<Slash> slash = new ArrayList<>();
+        Set<String> slashNames = new HashSet<>();
+
+        for (Element element : round.getElementsAnnotatedWith(TextCommand.class)) {
+            ExecutableElement method = (ExecutableElement) element;
+            if (!checkHandler(method, MESSAGE_EVENT, COMMAND_ARGS))
+                continue;
+
+            for (String name : method.getAnnotation(TextCommand.class).value()) {
+                if (!NAME.matcher(name).matches())
+                    error(method, "Invalid text command name '" + name + "'. Names must be 1-32 lowercase letters, " +
+                                  "digits, dashes, or underscores.");
+                else if (text.containsKey(name))
+                    error(method, "Duplicate text command name '" + name + "'. It's already used by " +
+                                  describe(text.get(name)) + ".");
+                else
+                    text.put(name, method);
+            }
+        }
+
+        for (Element element : round.getElementsAnnotatedWith(SlashCommand.class)) {
+            ExecutableElement method = (ExecutableElement) element;
+            if (!checkHandler(method, SLASH_EVENT))
+                continue;
+
+            SlashCommand command = method.getAnnotation(SlashCommand.class);
+            int descriptionLength = command.description().replace(BOT_PLACEHOLDER, "").length();
+
+            if (!NAME.matcher(command.name()).matches())
+                error(method, "Invalid slash command name '" + command.name() + "'. Names must be 1-32 lowercase " +
+                              "letters, digits, dashes, or underscores.");
+            else if (descriptionLength < 1 || descriptionLength > 100)
+                error(method, "The description of slash command '" + command.name() + "' must be 1-100 " +
+                              "characters.");
+            else if (!slashNames.add(command.name()))
+                error(method, "Duplicate slash command name '" + command.name() + "'.");
+            else
+                slash.add(new Slash(command, method));
+        }
+
+        generated = true;
+
+        try {
+            write(text, slash);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Failed to generate " + PACKAGE + "." + CLASS + ": " + e.getMessage());
+        }
+
+        return true;
+    }
+
+    /**
+     * Write the generated source file.
+     *
+     * @param text  the text command names and their handlers
+     * @param slash the slash commands
+     */
+    private void write(Map<String, ExecutableElement> text, List<Slash> slash) throws IOException {
+        // Group the text command names by their hash, in case of collisions
+        Map<Integer, List<String>> buckets = new TreeMap<>();
+        for (String name : text.keySet())
+            buckets.computeIfAbsent(name.hashCode(), h -> new ArrayList<>()).add(name);
+
+        // Each handler gets one Command constant, shared by all of its aliases
+        Set<String> used = new HashSet<>();
+        Map<ExecutableElement, String> textConstants = new LinkedHashMap<>();
+        for (ExecutableElement method : text.values()) {
+            String name = method.getAnnotation(TextCommand.class).value()[0];
+            if (!textConstants.containsKey(method))
+                textConstants.put(method, constant("TEXT_", name, used));
+        }
+
+        Map<Slash, String> slashConstants = new LinkedHashMap<>();
+        for (Slash command : slash)
+            slashConstants.put(command, constant("SLASH_", command.command.name(), used));
+
+        List<Element> origins = new ArrayList<>(textConstants.keySet());
+        slash.forEach(c -> origins.add(c.method));
+
+        StringBuilder s = new StringBuilder();
+        s.append("package ").append(PACKAGE).append(";\n\n");
+        s.append("import net.dv8tion.jda.api.interactions.commands.build.CommandData;\n");
+        s.append("import utils.Bot;\n");
+        s.append("import utils.CommandArgs;\n\n");
+        s.append("import javax.annotation.Nonnull;\n");
+        s.append("import javax.annotation.Nullable;\n");
+        s.append("import java.util.List;\n\n");
+        s.append("/**\n");
+        s.append(" * The dispatch table for the bot's commands. <b>This class is generated</b> by <code>")
+                .append(CommandProcessor.class.getName()).append("</code>\n");
+        s.append(" * from the <code>@TextCommand</code> and <code>@SlashCommand</code> annotations. Don't edit it.\n");
+        s.append(" * <p>\n");
+        s.append(" * This only finds commands. They're run by <code>events.CommandExecutor</code>, which\n");
+        s.append(" * applies the deduplication, rate limits, timeouts, and metrics that every command goes through.\n");
+        s.append(" */\n");
+        s.append("@javax.annotation.processing.Generated(\"").append(CommandProcessor.class.getName())
+                .append("\")\n");
+        s.append("public final class ").append(CLASS).append(" {\n");
+        s.append("    private ").append(CLASS).append("() {\n    }\n\n");
+
+        // Command constants
+        for (Map.Entry<ExecutableElement, String> entry : textConstants.entrySet())
+            s.append("    public static final Command<TextHandler> ").append(entry.getValue())
+                    .append(" = new Command<>(").append(literal(entry.getKey().getAnnotation(TextCommand.class)
+                            .value()[0])).append(", ").append(reference(entry.getKey())).append(", false, ")
+                    .append(entry.getKey().getAnnotation(TextCommand.class).timeoutMs()).append("L);\n");
+        if (!textConstants.isEmpty())
+            s.append("\n");
+
+        for (Map.Entry<Slash, String> entry : slashConstants.entrySet())
+            s.append("    public static final Command<SlashHandler> ").append(entry.getValue())
+                    .append(" = new Command<>(").append(literal(entry.getKey().command.name())).append(", ")
+                    .append(reference(entry.getKey().method)).append(", ")
+                    .append(entry.getKey().command.ephemeral()).append(", ")
+                    .append(entry.getKey().command.timeoutMs()).append("L);\n");
+        if (!slashConstants.isEmpty())
+            s.append("\n");
+
+        // Command name lists
+        s.append("    /**\n     * The names and aliases of every text command.\n     */\n");
+        s.append("    public static final List<String> TEXT_COMMANDS = List.of(")
+                .append(join(text.keySet())).append(");\n\n");
+
+        List<String> slashNames = new ArrayList<>();
+        slash.forEach(c -> slashNames.add(c.command.name()));
+        s.append("    /**\n     * The names of every slash command, both global and local.\n     */\n");
+        s.append("    public static final List<String> SLASH_COMMANDS = List.of(")
+                .append(join(slashNames)).append(");\n\n");
+
+        // Text lookup
+        s.append("    /**\n");
+        s.append("     * Find the text command named by the first argument. This does not allocate.\n");
+        s.append("     *\n");
+        s.append("     * @param args the parsed arguments, where argument <code>0</code> is the command name\n");
+        s.append("     *\n");
+        s.append("     * @return the command, or <code>null</code> if there is no command with that name\n");
+        s.append("     */\n");
+        s.append("    @Nullable\n");
+        s.append("    public static Command<TextHandler> findText(@Nonnull CommandArgs args) {\n");
+        s.append("        switch (args.hash(0)) {\n");
+        for (Map.Entry<Integer, List<String>> bucket : buckets.entrySet()) {
+            s.append("            case ").append(bucket.getKey()).append(" -> {\n");
+            for (String name : bucket.getValue()) {
+                s.append("                if (args.is(0, ").append(literal(name)).append("))\n");
+                s.append("                    return ").append(textConstants.get(text.get(name))).append(";\n");
+            }
+            s.append("            }\n");
+        }
+        s.append("        }\n");
+        s.append("        return null;\n");
+        s.append("    }\n\n");
+
+        // Slash lookup
+        s.append("    /**\n");
+        s.append("     * Find the slash command with the given name.\n");
+        s.append("     *\n");
+        s.append("     * @param name the name of the command\n");
+        s.append("     *\n");
+        s.append("     * @return the command, or <code>null</code> if there is no command with that name\n");
+        s.append("     */\n");
+        s.append("    @Nullable\n");
+        s.append("    public static Command<SlashHandler> findSlash(@Nonnull String name) {\n");
+        s.append("        return switch (name) {\n");
+        for (Map.Entry<Slash, String> entry : slashConstants.entrySet())
+            s.append("            case ").append(literal(entry.getKey().command.name())).append(" -> ")
+                    .append(entry.getValue()).append(";\n");
+        s.append("            default -> null;\n");
+        s.append("        };\n");
+        s.append("    }\n\n");
+
+        // Registration payloads
+        for (SlashCommand.Scope scope : SlashCommand.Scope.values()) {
+            String lower = scope.name().toLowerCase(Locale.ROOT);
+            s.append("    /**\n");
+            s.append("     * Get the ").append(lower).append(" slash commands to send to Discord.\n");
+            s.append("     *\n");
+            s.append("     * @return the ").append(lower).append(" commands\n");
+            s.append("     */\n");
+            s.append("    @Nonnull\n");
+            s.append("    public static List<CommandData> ").append(lower).append("SlashCommands() {\n");
+            s.append("        return List.of(");
+
+            boolean first = true;
+            for (Slash command : slash) {
+                if (command.command.scope() != scope)
+                    continue;
+                s.append(first ? "\n" : ",\n");
+                s.append("                new CommandData(").append(literal(command.command.name())).append(", ")
+                        .append(description(command.command.description())).append(")");
+                first = false;
+            }
+
+            s.append(");\n");
+            s.append("    }\n");
+            if (scope.ordinal() < SlashCommand.Scope.values().length - 1)
+                s.append("\n");
+        }
+
+        s.append("}\n");
+
+        try (Writer writer = processingEnv.getFiler()
+                .createSourceFile(PACKAGE + "." + CLASS, origins.toArray(new Element[0]))
+                .openWriter()) {
+            writer.write(s.toString());
+        }
+    }
+
+    /**
+     * Make sure that a handler method is <code>public static</code> and takes exactly the given parameter types. If
+     * not, an error is reported on the method.
+     *
+     * @param method the handler
+     * @param params the fully qualified names of the expected parameter types
+     *
+     * @return <code>true</code> if the handler is valid
+     */
+    private boolean checkHandler(ExecutableElement method, String... params) {
+        Set<Modifier> modifiers = method.getModifiers();
+        if (!modifiers.contains(Modifier.PUBLIC) || !modifiers.contains(Modifier.STATIC) ||
+            !method.getEnclosingElement().getModifiers().contains(Modifier.PUBLIC)) {
+            error(method, "Command handlers must be public static methods in a public class.");
+            return false;
+        }
+
+        List<? extends VariableElement> actual = method.getParameters();
+        boolean matches = actual.size() == params.length;
+        for (int i = 0; matches && i < params.length; i++) {
+            TypeMirror type = processingEnv.getTypeUtils().erasure(actual.get(i).asType());
+            matches = type.toString().equals(params[i]);
+        }
+
+        if (!matches) {
+            error(method, "This command handler must take exactly these parameters: (" +
+                          String.join(", ", params) + ").");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the Java method reference for a handler method.
+     *
+     * @param method the handler
+     *
+     * @return the method reference
+     */
+    private static String reference(ExecutableElement method) {
+        return ((TypeElement) method.getEnclosingElement()).getQualifiedName() + "::" + method.getSimpleName();
+    }
+
+    /**
+     * Get a unique constant name for a command, such as <code>TEXT_PING</code>.
+     *
+     * @param prefix the prefix for the kind of command
+     * @param name   the command name
+     * @param used   the constant names that have already been used, which this name is added to
+     *
+     * @return the constant name
+     */
+    private static String constant(String prefix, String name, Set<String> used) {
+        String base = prefix + name.toUpperCase(Locale.ROOT).replace('-', '_');
+        String constant = base;
+        for (int i = 2; !used.add(constant); i++)
+            constant = base + "_" + i;
+        return constant;
+    }
+
+    /**
+     * Get a readable description of a handler method for error messages.
+     *
+     * @param method the handler
+     *
+     * @return the class and method name
+     */
+    private static String describe(ExecutableElement method) {
+        return method.getEnclosingElement().getSimpleName() + "." + method.getSimpleName() + "()";
+    }
+
+    /**
+     * Get the Java expression for a slash command description, replacing {@link #BOT_PLACEHOLDER} with the bot's
+     * name.
+     *
+     * @param description the description from the annotation
+     *
+     * @return the Java expression
+     */
+    private static String description(String description) {
+        List<String> parts = new ArrayList<>();
+        String[] pieces = description.split(Pattern.quote(BOT_PLACEHOLDER), -1);
+        for (int i = 0; i < pieces.length; i++) {
+            if (i > 0)
+                parts.add("Bot.Self.NAME");
+            if (!pieces[i].isEmpty())
+                parts.add(literal(pieces[i]));
+        }
+        return String.join(" + ", parts);
+    }
+
+    /**
+     * Join strings as a comma-separated list of Java string literals.
+     *
+     * @param values the strings
+     *
+     * @return the list of literals
+     */
+    private static String join(Collection<String> values) {
+        List<String> literals = new ArrayList<>();
+        values.forEach(v -> literals.add(literal(v)));
+        return String.join(", ", literals);
+    }
+
+    /**
+     * Get a Java string literal with the given value.
+     *
+     * @param value the string
+     *
+     * @return the quoted and escaped literal
+     */
+    static String literal(String value) {
+        StringBuilder s = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> s.append("\\\"");
+                case '\\' -> s.append("\\\\");
+                case '\n' -> s.append("\\n");
+                case '\r' -> s.append("\\r");
+                case '\t' -> s.append("\\t");
+                default -> {
+                    if (c < 0x20 || c > 0x7E)
+                        s.append(String.format("\\u%04X", (int) c));
+                    else
+                        s.append(c);
+                }
+            }
+        }
+        return s.append('"').toString();
+    }
+
+    /**
+     * Report a compile error on an element.
+     *
+     * @param element the element
+     * @param message the error message
+     */
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * A slash command and its handler.
+     */
+    private static class Slash {
+        private final SlashCommand command;
+        private final ExecutableElement method;
+
+        private Slash(SlashCommand command, ExecutableElement method) {
+            this.command = command;
+            this.method = method;
+        }
+    }
+}
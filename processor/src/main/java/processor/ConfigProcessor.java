@@ -0,0 +1,349 @@
+package processor;
+
+import annotations.Configuration;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * This annotation processor generates a binder for each class annotated with {@link Configuration}, such as
+ * <code>utils.BotBinder</code> for <code>utils.Bot</code>. The generated class contains:
+ * <ul>
+ *     <li>The lowercase name of every property that can be set.
+ *     <li>A <code>set(key, value)</code> method that switches on the property name and assigns the converted value
+ *     straight to its field, with no reflection.
+ *     <li>One converter for each field type that's used. Boxed types share the converter of their primitive type.
+ * </ul>
+ * Fields of other types, like <code>Bot.Self.USER</code>, are derived from the properties at runtime and aren't bound.
+ * <p>
+ * If the {@link #RESOURCES} option names the resources directory, the properties file is also checked against the
+ * fields. A property without a matching field, a property whose field has an unsupported type, or a value that can't
+ * be converted is reported as a compile error on the annotated class.
+ */
+@SupportedAnnotationTypes("annotations.Configuration")
+@SupportedOptions(ConfigProcessor.RESOURCES)
+public class ConfigProcessor extends AbstractProcessor {
+    /**
+     * The option with the path to the resources directory that contains the properties file.
+     */
+    static final String RESOURCES = "templatebot.resources";
+
+    /**
+     * The keys accepted by <code>OnlineStatus.fromKey()</code>. An empty value and <code>unknown</code> both mean
+     * <code>OnlineStatus.UNKNOWN</code>.
+     */
+    private static final Set<String> ONLINE_STATUSES = Set.of("online", "idle", "dnd", "invisible", "offline",
+            "unknown", "");
+
+    /**
+     * The supported field types, by their qualified names.
+     */
+    private static final Map<String, Converter> CONVERTERS = new HashMap<>();
+
+    static {
+        Converter string = new Converter(null, null, null, v -> true);
+        Converter bool = new Converter("toBoolean", "boolean", """
+                        if (value.equalsIgnoreCase("true"))
+                            return true;
+                        if (value.equalsIgnoreCase("false"))
+                            return false;
+                        throw new IllegalArgumentException("Expected 'true' or 'false', but found '" + value + "'.");
+                """, v -> v.equalsIgnoreCase("true") || v.equalsIgnoreCase("false"));
+        Converter character = new Converter("toChar", "char", """
+                        if (value.isEmpty())
+                            throw new IllegalArgumentException("Expected a character, but found nothing.");
+                        return value.charAt(0);
+                """, v -> !v.isEmpty());
+        Converter integer = new Converter("toInt", "int", """
+                        return Integer.parseInt(value);
+                """, v -> parses(() -> Integer.parseInt(v)));
+        Converter longInteger = new Converter("toLong", "long", """
+                        return Long.parseLong(value);
+                """, v -> parses(() -> Long.parseLong(v)));
+        Converter shortInteger = new Converter("toShort", "short", """
+                        return Short.parseShort(value);
+                """, v -> parses(() -> Short.parseShort(v)));
+        Converter byteInteger = new Converter("toByte", "byte", """
+                        return Byte.parseByte(value);
+                """, v -> parses(() -> Byte.parseByte(v)));
+        Converter doubleFloat = new Converter("toDouble", "double", """
+                        return Double.parseDouble(value);
+                """, v -> parses(() -> Double.parseDouble(v)));
+        Converter singleFloat = new Converter("toFloat", "float", """
+                        return Float.parseFloat(value);
+                """, v -> parses(() -> Float.parseFloat(v)));
+
+        CONVERTERS.put("java.lang.String", string);
+        CONVERTERS.put("boolean", bool);
+        CONVERTERS.put("java.lang.Boolean", bool);
+        CONVERTERS.put("char", character);
+        CONVERTERS.put("java.lang.Character", character);
+        CONVERTERS.put("int", integer);
+        CONVERTERS.put("java.lang.Integer", integer);
+        CONVERTERS.put("long", longInteger);
+        CONVERTERS.put("java.lang.Long", longInteger);
+        CONVERTERS.put("short", shortInteger);
+        CONVERTERS.put("java.lang.Short", shortInteger);
+        CONVERTERS.put("byte", byteInteger);
+        CONVERTERS.put("java.lang.Byte", byteInteger);
+        CONVERTERS.put("double", doubleFloat);
+        CONVERTERS.put("java.lang.Double", doubleFloat);
+        CONVERTERS.put("float", singleFloat);
+        CONVERTERS.put("java.lang.Float", singleFloat);
+
+        CONVERTERS.put("net.dv8tion.jda.api.OnlineStatus", new Converter("toOnlineStatus",
+                "net.dv8tion.jda.api.OnlineStatus", """
+                        net.dv8tion.jda.api.OnlineStatus status = net.dv8tion.jda.api.OnlineStatus.fromKey(value);
+                        if (status == net.dv8tion.jda.api.OnlineStatus.UNKNOWN && !value.isEmpty()
+                            && !value.equalsIgnoreCase("unknown"))
+                            throw new IllegalArgumentException("Unknown online status '" + value + "'.");
+                        return status;
+                """, v -> ONLINE_STATUSES.contains(v.toLowerCase(Locale.ROOT))));
+        CONVERTERS.put("java.awt.Color", new Converter("toColor", "java.awt.Color", """
+                        return new java.awt.Color(Integer.parseInt(value, 16));
+                """, v -> v.length() <= 6 && parses(() -> Integer.parseInt(v, 16))));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (Element element : round.getElementsAnnotatedWith(Configuration.class)) {
+            TypeElement type = (TypeElement) element;
+
+            // Property names, mapped to the field for each
+            Map<String, VariableElement> fields = new LinkedHashMap<>();
+            collectFields(type, fields);
+
+            String resource = type.getAnnotation(Configuration.class).value();
+            String resources = processingEnv.getOptions().get(RESOURCES);
+            if (resources != null)
+                validate(type, Path.of(resources).resolve(resource), fields);
+
+            try {
+                write(type, resource, fields);
+            } catch (IOException e) {
+                error(type, "Failed to generate the binder for " + type.getQualifiedName() + ": " + e.getMessage());
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Add every <code>public static</code>, non-<code>final</code> field in a class and its nested classes to the
+     * map. A field whose name was already used in another class is reported as an error.
+     *
+     * @param type   the class to search
+     * @param fields the fields found so far, by their property names
+     */
+    private void collectFields(TypeElement type, Map<String, VariableElement> fields) {
+        for (Element member : type.getEnclosedElements()) {
+            Set<Modifier> modifiers = member.getModifiers();
+            if (!modifiers.contains(Modifier.PUBLIC) || !modifiers.contains(Modifier.STATIC))
+                continue;
+
+            if (member.getKind() == ElementKind.CLASS)
+                collectFields((TypeElement) member, fields);
+            else if (member.getKind() == ElementKind.FIELD && !modifiers.contains(Modifier.FINAL)) {
+                String key = member.getSimpleName().toString().toLowerCase(Locale.ROOT);
+                if (fields.putIfAbsent(key, (VariableElement) member) != null)
+                    error(member, "Duplicate configuration field name '" + member.getSimpleName() + "'. It's " +
+                                  "already declared in " + fields.get(key).getEnclosingElement() + ".");
+            }
+        }
+    }
+
+    /**
+     * Check each property in the properties file against the fields. Any mismatch is reported as an error on the
+     * annotated class.
+     *
+     * @param type   the annotated class
+     * @param file   the properties file
+     * @param fields the fields, by their property names
+     */
+    private void validate(TypeElement type, Path file, Map<String, VariableElement> fields) {
+        Properties properties = new Properties();
+        try (InputStream stream = Files.newInputStream(file)) {
+            properties.load(stream);
+        } catch (IOException e) {
+            error(type, "Failed to read " + file + ": " + e.getMessage());
+            return;
+        }
+
+        for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+            String value = properties.getProperty(key);
+            VariableElement field = fields.get(key.toLowerCase(Locale.ROOT));
+
+            if (field == null)
+                error(type, file.getFileName() + ": There's no public static field named '" +
+                            key.toUpperCase(Locale.ROOT) + "' for the property '" + key + "'.");
+            else if (converter(field) == null)
+                error(type, file.getFileName() + ": The property '" + key + "' can't be set, since the field " +
+                            field.getEnclosingElement() + "." + field.getSimpleName() + " has the unsupported " +
+                            "type " + field.asType() + ".");
+            else if (!converter(field).valid.test(value))
+                error(type, file.getFileName() + ": The value '" + value + "' of the property '" + key + "' " +
+                            "isn't a valid " + field.asType() + ".");
+        }
+    }
+
+    /**
+     * Write the generated source file.
+     *
+     * @param type     the annotated class
+     * @param resource the name of the properties file
+     * @param fields   the fields, by their property names
+     */
+    private void write(TypeElement type, String resource, Map<String, VariableElement> fields) throws IOException {
+        String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String name = type.getSimpleName() + "Binder";
+
+        // Only fields with a supported type are bound
+        Map<String, VariableElement> bound = new LinkedHashMap<>();
+        fields.forEach((key, field) -> {
+            if (converter(field) != null)
+                bound.put(key, field);
+        });
+
+        StringBuilder s = new StringBuilder();
+        if (!pkg.isEmpty())
+            s.append("package ").append(pkg).append(";\n\n");
+        s.append("import javax.annotation.Nonnull;\n");
+        s.append("import java.util.List;\n");
+        s.append("import java.util.Locale;\n\n");
+        s.append("/**\n");
+        s.append(" * Sets the fields in {@link ").append(type.getSimpleName()).append("} from <code>").append(resource)
+                .append("</code>. <b>This class is generated</b> by\n");
+        s.append(" * <code>").append(ConfigProcessor.class.getName())
+                .append("</code> from the <code>@Configuration</code> annotation. Don't edit it.\n");
+        s.append(" */\n");
+        s.append("@javax.annotation.processing.Generated(\"").append(ConfigProcessor.class.getName())
+                .append("\")\n");
+        s.append("public final class ").append(name).append(" {\n");
+        s.append("    private ").append(name).append("() {\n    }\n\n");
+
+        // Keys
+        s.append("    /**\n");
+        s.append("     * The lowercase name of every property that can be set.\n");
+        s.append("     */\n");
+        s.append("    public static final List<String> KEYS = List.of(");
+        boolean first = true;
+        for (String key : bound.keySet()) {
+            s.append(first ? "\n" : ",\n").append("            ").append(CommandProcessor.literal(key));
+            first = false;
+        }
+        s.append(");\n\n");
+
+        // Setter
+        s.append("    /**\n");
+        s.append("     * Convert a value and store it in the field for a property.\n");
+        s.append("     *\n");
+        s.append("     * @param key   the property name, which is case-insensitive\n");
+        s.append("     * @param value the value\n");
+        s.append("     *\n");
+        s.append("     * @return <code>true</code> if the field was set; <code>false</code> if there's no field for ")
+                .append("the property\n");
+        s.append("     * @throws IllegalArgumentException if the value can't be converted to the field's type\n");
+        s.append("     */\n");
+        s.append("    public static boolean set(@Nonnull String key, @Nonnull String value) {\n");
+        s.append("        switch (key.toLowerCase(Locale.ROOT)) {\n");
+        for (Map.Entry<String, VariableElement> entry : bound.entrySet()) {
+            VariableElement field = entry.getValue();
+            Converter converter = converter(field);
+            s.append("            case ").append(CommandProcessor.literal(entry.getKey())).append(" -> ")
+                    .append(((TypeElement) field.getEnclosingElement()).getQualifiedName()).append(".")
+                    .append(field.getSimpleName()).append(" = ")
+                    .append(converter.method == null ? "value" : converter.method + "(value)").append(";\n");
+        }
+        s.append("            default -> {\n");
+        s.append("                return false;\n");
+        s.append("            }\n");
+        s.append("        }\n");
+        s.append("        return true;\n");
+        s.append("    }\n");
+
+        // Converters, once each, in a stable order
+        Map<String, Converter> converters = new TreeMap<>();
+        for (VariableElement field : bound.values()) {
+            Converter converter = converter(field);
+            if (converter.method != null)
+                converters.put(converter.method, converter);
+        }
+        for (Converter converter : converters.values()) {
+            s.append("\n");
+            s.append("    private static ").append(converter.type).append(" ").append(converter.method)
+                    .append("(String value) {\n");
+            s.append(converter.body);
+            s.append("    }\n");
+        }
+
+        s.append("}\n");
+
+        try (Writer writer = processingEnv.getFiler()
+                .createSourceFile(pkg.isEmpty() ? name : pkg + "." + name, type)
+                .openWriter()) {
+            writer.write(s.toString());
+        }
+    }
+
+    /**
+     * Get the converter for a field's type.
+     *
+     * @param field the field
+     *
+     * @return the converter, or <code>null</code> if the type isn't supported
+     */
+    private static Converter converter(VariableElement field) {
+        return CONVERTERS.get(field.asType().toString());
+    }
+
+    /**
+     * Check whether parsing a value succeeds.
+     *
+     * @param parse the parser to run
+     *
+     * @return <code>true</code> if it didn't throw a {@link NumberFormatException}
+     */
+    private static boolean parses(Runnable parse) {
+        try {
+            parse.run();
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Report an error on an element.
+     *
+     * @param element the element that caused the error
+     * @param message the error message
+     */
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * A generated converter for one field type.
+     *
+     * @param method the name of the converter method, or <code>null</code> if the value is used as is
+     * @param type   the return type of the converter
+     * @param body   the body of the converter, which converts the <code>value</code> parameter
+     * @param valid  checks whether a value in the properties file can be converted
+     */
+    private record Converter(String method, String type, String body, Predicate<String> valid) {
+    }
+}
@@ -0,0 +1,176 @@
+package benchmarks;
+
+import main.Main;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.OnlineStatus;
+import net.dv8tion.jda.api.entities.*;
+import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import utils.Bot;
+import utils.ConfigSnapshot;
+import utils.PrefixMap;
+
+import javax.annotation.Nonnull;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Shared synthetic Discord state for the benchmarks: a fake bot account, a fake user, and factories for the events
+ * that the bot's listeners receive. All of it is built from {@link Stubs}.
+ */
+public class Fixtures {
+    /**
+     * The id of the synthetic user that sends messages and uses slash commands.
+     */
+    public static final long USER_ID = 286925155125420033L;
+
+    /**
+     * The id of the synthetic bot account.
+     */
+    public static final long SELF_ID = 865665419493011466L;
+
+    /**
+     * The id of the synthetic channel that messages are sent in.
+     */
+    public static final long CHANNEL_ID = 865654836061274152L;
+
+    /**
+     * The number of distinct ids handed out by {@link #IDS}. This is well above the capacity of the {@link
+     * events.OnMessage#HANDLED deduplicators}, so an id has been forgotten by the time it comes around again.
+     */
+    private static final int DISTINCT_IDS = 1 << 20;
+
+    /**
+     * Gives each message and interaction a new id every time it's asked for one, so that benchmarks which handle the
+     * same event repeatedly aren't ignored as duplicates after the first call. The ids are boxed up front and reused in
+     * turn, so handing one out doesn't allocate.
+     */
+    private static final Supplier<Long> IDS = new Supplier<>() {
+        private final Long[] ids = new Long[DISTINCT_IDS];
+        private final AtomicInteger next = new AtomicInteger();
+
+        {
+            for (int i = 0; i < ids.length; i++)
+                ids[i] = 900000000000000000L + i;
+        }
+
+        @Override
+        public Long get() {
+            return ids[next.getAndIncrement() & (DISTINCT_IDS - 1)];
+        }
+    };
+
+    /**
+     * Populate {@link Bot} and {@link Main#JDA} with the values that the handlers read, as if the bot had finished
+     * starting up with the default <code>bot.properties</code>.
+     */
+    public static void configureBot() {
+        SelfUser self = Stubs.of(SelfUser.class, Map.of(
+                "getIdLong", SELF_ID,
+                "getName", "TemplateBot",
+                "getDiscriminator", "0000",
+                "getAsTag", "TemplateBot#0000",
+                "isBot", true
+        ));
+
+        Main.JDA = Stubs.of(JDA.class, Map.of("getSelfUser", self));
+
+        Bot.Self.USER = self;
+        Bot.Self.ID = SELF_ID;
+        Bot.Self.NAME = "TemplateBot";
+        Bot.Self.DESCRIPTION = "I'm a template Discord bot created with JDA.";
+        Bot.Self.VERSION = "1.0.0_0";
+        Bot.Config.PREFIX = "!";
+        Bot.Config.PREFIXES = PrefixMap.parse("!", "");
+        Bot.Config.EXECUTION_MODE = "event";
+        // Send each reply immediately, so that the benchmarks measure the whole send path on the calling thread
+        Bot.Config.COALESCE_WINDOW_MS = 0;
+        Bot.Config.DEFER_AFTER_MS = 2000;
+        Bot.Status.STATUS = OnlineStatus.ONLINE;
+        ConfigSnapshot.publish();
+    }
+
+    /**
+     * Create the synthetic user. It has a name, discriminator, avatar, and one profile flag, so that every section of
+     * {@link utils.Utils#getUserPanel(User) getUserPanel()} is exercised.
+     *
+     * @return the user
+     */
+    @Nonnull
+    public static User user() {
+        return Stubs.of(User.class, Map.of(
+                "getIdLong", USER_ID,
+                "getName", "Alice",
+                "getDiscriminator", "0001",
+                "getAsTag", "Alice#0001",
+                "getFlags", EnumSet.of(User.UserFlag.EARLY_SUPPORTER),
+                "getEffectiveAvatarUrl", "https://cdn.discordapp.com/embed/avatars/1.png",
+                "isBot", false
+        ));
+    }
+
+    /**
+     * Create a message sent by the synthetic {@link #user() user}.
+     *
+     * @param content the raw content of the message
+     *
+     * @return the message
+     */
+    @Nonnull
+    public static Message message(@Nonnull String content) {
+        MessageChannel channel = Stubs.of(MessageChannel.class, Map.of(
+                "getIdLong", CHANNEL_ID,
+                "getType", ChannelType.TEXT
+        ));
+
+        return Stubs.of(Message.class, Map.of(
+                "getIdLong", IDS,
+                "getContentRaw", content,
+                "getAuthor", user(),
+                "getChannel", channel,
+                "getChannelType", ChannelType.TEXT,
+                "isFromGuild", true
+        ));
+    }
+
+    /**
+     * Create a {@link MessageReceivedEvent} for a {@link #message(String) message} with the given contents.
+     *
+     * @param content the raw content of the message
+     *
+     * @return the event
+     */
+    @Nonnull
+    public static MessageReceivedEvent messageEvent(@Nonnull String content) {
+        return Stubs.event(MessageReceivedEvent.class, Main.JDA, message(content));
+    }
+
+    /**
+     * Create a {@link SlashCommandEvent} for the slash command with the given name, used by the synthetic {@link
+     * #user() user}.
+     *
+     * @param name the name of the slash command
+     *
+     * @return the event
+     */
+    @Nonnull
+    public static SlashCommandEvent slashEvent(@Nonnull String name) {
+        User user = user();
+        Member member = Stubs.of(Member.class, Map.of(
+                "getUser", user,
+                "getEffectiveName", "Alice"
+        ));
+
+        Object interaction = Stubs.of(Stubs.wrappedType(SlashCommandEvent.class), Map.of(
+                "getIdLong", IDS,
+                "getName", name,
+                "getUser", user,
+                "getMember", member,
+                "isAcknowledged", false
+        ));
+
+        return Stubs.event(SlashCommandEvent.class, Main.JDA, interaction);
+    }
+}
@@ -0,0 +1,433 @@
+package benchmarks;
+
+import events.EventRecorder;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local stand-in for Discord, which lets the real bot start up without a token or a network connection. It serves
+ * the few REST routes that JDA calls while logging in, and a gateway websocket that answers <code>IDENTIFY</code> with
+ * a <code>READY</code> event for a bot in no guilds, so JDA fires its <code>ReadyEvent</code> right away.
+ * <p>
+ * The bot is pointed here with the <code>templatebot.api</code> system property (see <code>utils.GatewayConfig</code>).
+ * Everything else the bot sends is accepted and ignored: messages it sends get a minimal message back, and other
+ * requests get an empty object or list. Both the HTTP server and the websocket are implemented directly on sockets,
+ * since the JDK has no websocket server.
+ * <p>
+ * The stand-in can also {@link #start(List, double) replay} an {@link EventRecorder event recording}. The recorded
+ * <code>READY</code> replaces the empty one, and the rest of the events follow it, numbered in order, at the recorded
+ * pace or faster. Setup events (the <code>GUILD_CREATE</code>s that follow <code>READY</code>) are always sent
+ * immediately.
+ */
+public class GatewayStandIn implements Closeable {
+    /**
+     * The token to start the bot with. The stand-in doesn't check it.
+     */
+    public static final String TOKEN = "stand-in.token";
+
+    private static final String SELF_USER = "{\"id\":\"865654626996453377\",\"username\":\"TemplateBot\"," +
+                                            "\"discriminator\":\"0000\",\"avatar\":null,\"bot\":true," +
+                                            "\"verified\":true,\"mfa_enabled\":false,\"flags\":0," +
+                                            "\"public_flags\":0}";
+
+    /**
+     * The key that websocket servers append to the client's key before hashing it, from RFC 6455.
+     */
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final Pattern OP = Pattern.compile("\"op\"\\s*:\\s*(\\d+)");
+    private static final Pattern SHARD = Pattern.compile("\"shard\"\\s*:\\s*\\[\\s*(\\d+)\\s*,\\s*(\\d+)\\s*]");
+
+    private static final Pattern CHANNEL = Pattern.compile("^/channels/(\\d+)/messages$");
+
+    private final ServerSocket server;
+    private final List<EventRecorder.Entry> replay;
+    private final double speed;
+
+    /**
+     * Completed with the number of events replayed once the last one has been sent.
+     */
+    private final CompletableFuture<Integer> replayed = new CompletableFuture<>();
+    private final AtomicBoolean replayStarted = new AtomicBoolean();
+
+    private GatewayStandIn(ServerSocket server, List<EventRecorder.Entry> replay, double speed) {
+        this.server = server;
+        this.replay = replay;
+        this.speed = speed;
+    }
+
+    /**
+     * Start the stand-in on a free port on the loopback interface.
+     *
+     * @return the running stand-in
+     */
+    public static GatewayStandIn start() throws IOException {
+        return start(List.of(), 0);
+    }
+
+    /**
+     * Start the stand-in on a free port on the loopback interface, replaying a recording to the first connection
+     * once it identifies.
+     *
+     * @param replay the recorded events
+     * @param speed  how many times faster than recorded to replay the events, or <code>0</code> to send them as fast
+     *               as possible
+     *
+     * @return the running stand-in
+     */
+    public static GatewayStandIn start(List<EventRecorder.Entry> replay, double speed) throws IOException {
+        GatewayStandIn standIn = new GatewayStandIn(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()),
+                replay, speed);
+        Thread thread = new Thread(standIn::accept, "Gateway Stand-In");
+        thread.setDaemon(true);
+        thread.start();
+        return standIn;
+    }
+
+    /**
+     * Get the result of the replay.
+     *
+     * @return a future that completes with the number of events replayed, once the last one has been sent
+     */
+    public CompletableFuture<Integer> getReplayed() {
+        return replayed;
+    }
+
+    /**
+     * Get the base URL to send the bot's requests to.
+     *
+     * @return the URL, such as <code>http://127.0.0.1:41234</code>
+     */
+    public String getUrl() {
+        return "http://" + server.getInetAddress().getHostAddress() + ":" + server.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Accept connections until the stand-in is closed, handling each on its own thread.
+     */
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread thread = new Thread(() -> handle(socket), "Gateway Stand-In Connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException ignore) {
+                // The server was closed
+            }
+        }
+    }
+
+    /**
+     * Serve HTTP requests on a connection until it's closed, or until it's upgraded to a websocket.
+     *
+     * @param socket the connection
+     */
+    private void handle(Socket socket) {
+        try (socket) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            String requestLine;
+            while ((requestLine = readLine(in)) != null) {
+                String[] request = requestLine.split(" ");
+                String websocketKey = null;
+                int contentLength = 0;
+                for (String header = readLine(in); header != null && !header.isEmpty(); header = readLine(in)) {
+                    int colon = header.indexOf(':');
+                    String name = header.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                    String value = header.substring(colon + 1).trim();
+                    if (name.equals("sec-websocket-key"))
+                        websocketKey = value;
+                    else if (name.equals("content-length"))
+                        contentLength = Integer.parseInt(value);
+                }
+                in.skipNBytes(contentLength);
+
+                if (websocketKey != null) {
+                    gateway(websocketKey, in, out);
+                    return;
+                }
+                respond(out, request[0], request[1]);
+            }
+        } catch (IOException ignore) {
+            // The bot disconnected
+        }
+    }
+
+    /**
+     * Answer a REST request. The routes used while logging in get a realistic response; anything else gets an empty
+     * JSON object.
+     *
+     * @param out    the connection
+     * @param method the HTTP method
+     * @param path   the request path, such as <code>/api/v9/gateway</code>
+     */
+    private void respond(OutputStream out, String method, String path) throws IOException {
+        String route = path.replaceFirst("^/api/v\\d+", "").replaceFirst("\\?.*$", "");
+        String gateway = "ws://" + server.getInetAddress().getHostAddress() + ":" + server.getLocalPort();
+
+        Matcher channel = CHANNEL.matcher(route);
+        String body = method.equals("POST") && channel.matches() ? message(channel.group(1))
+                : route.endsWith("/commands") && !method.equals("POST") ? "[]"
+                : !method.equals("GET") ? "{}" : switch (route) {
+            case "/users/@me" -> SELF_USER;
+            case "/gateway" -> "{\"url\":\"" + gateway + "\"}";
+            case "/gateway/bot" -> "{\"url\":\"" + gateway + "\",\"shards\":1,\"session_start_limit\":{" +
+                                   "\"total\":1000,\"remaining\":1000,\"reset_after\":0,\"max_concurrency\":1}}";
+            case "/oauth2/applications/@me" -> "{\"id\":\"865654626996453377\",\"name\":\"TemplateBot\"," +
+                                               "\"description\":\"\",\"icon\":null,\"bot_public\":false," +
+                                               "\"bot_require_code_grant\":false,\"flags\":0,\"owner\":" +
+                                               SELF_USER + "}";
+            default -> "{}";
+        };
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + bytes.length +
+                   "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.write(bytes);
+        out.flush();
+    }
+
+    /**
+     * Build a minimal message from the bot, as the response to sending one.
+     *
+     * @param channel the channel id
+     *
+     * @return the message
+     */
+    private static String message(String channel) {
+        return "{\"id\":\"" + (System.nanoTime() & Long.MAX_VALUE) + "\",\"channel_id\":\"" + channel +
+               "\",\"type\":0,\"content\":\"\",\"author\":" + SELF_USER + ",\"timestamp\":" +
+               "\"2021-07-16T00:00:00.000000+00:00\",\"edited_timestamp\":null,\"tts\":false," +
+               "\"mention_everyone\":false,\"mentions\":[],\"mention_roles\":[],\"attachments\":[]," +
+               "\"embeds\":[],\"pinned\":false}";
+    }
+
+    /**
+     * Upgrade the connection to a websocket and act as the gateway: say hello, answer heartbeats, and send
+     * <code>READY</code> after the bot identifies.
+     *
+     * @param key the client's <code>Sec-WebSocket-Key</code>
+     * @param in  the connection's input
+     * @param out the connection's output
+     */
+    private void gateway(String key, InputStream in, OutputStream out) throws IOException {
+        String accept;
+        try {
+            accept = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1")
+                    .digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+                   "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        send(out, 0x1, "{\"op\":10,\"d\":{\"heartbeat_interval\":41250},\"s\":null,\"t\":null}");
+
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        while (true) {
+            int first = in.read(), second = in.read();
+            if (first < 0 || second < 0)
+                return;
+
+            // Read one frame. Frames from the client are always masked.
+            long length = second & 0x7F;
+            if (length == 126)
+                length = new DataInputStream(in).readUnsignedShort();
+            else if (length == 127)
+                length = new DataInputStream(in).readLong();
+            byte[] mask = (second & 0x80) != 0 ? in.readNBytes(4) : new byte[4];
+            byte[] payload = in.readNBytes((int) length);
+            for (int i = 0; i < payload.length; i++)
+                payload[i] ^= mask[i & 3];
+
+            int opcode = first & 0x0F;
+            if (opcode == 0x8) {
+                send(out, 0x8, payload);
+                return;
+            } else if (opcode == 0x9) {
+                send(out, 0xA, payload);
+                continue;
+            }
+
+            // Text messages can be split into several frames
+            message.write(payload);
+            if ((first & 0x80) == 0)
+                continue;
+            String text = message.toString(StandardCharsets.UTF_8);
+            message.reset();
+
+            Matcher op = OP.matcher(text);
+            if (!op.find())
+                continue;
+            switch (Integer.parseInt(op.group(1))) {
+                // Heartbeat
+                case 1 -> send(out, 0x1, "{\"op\":11,\"d\":null,\"s\":null,\"t\":null}");
+                // Identify
+                case 2 -> identify(text, out);
+                // Resume, which the stand-in can't do
+                case 6 -> send(out, 0x1, "{\"op\":9,\"d\":false,\"s\":null,\"t\":null}");
+            }
+        }
+    }
+
+    /**
+     * Answer an <code>IDENTIFY</code>: send <code>READY</code>, and start the replay if there is one and it hasn't
+     * already been sent to another connection.
+     *
+     * @param identify the <code>IDENTIFY</code> payload
+     * @param out      the connection
+     */
+    private void identify(String identify, OutputStream out) throws IOException {
+        if (replay.isEmpty() || !replayStarted.compareAndSet(false, true)) {
+            send(out, 0x1, ready(identify));
+            return;
+        }
+
+        // Use the recorded READY if there is one, with this connection's shard
+        boolean recordedReady = replay.get(0).type().equals("READY");
+        if (recordedReady) {
+            Matcher shard = SHARD.matcher(identify);
+            String shardInfo = shard.find() ? "[" + shard.group(1) + "," + shard.group(2) + "]" : "[0,1]";
+            String data = SHARD.matcher(replay.get(0).data()).replaceFirst("\"shard\":" + shardInfo);
+            send(out, 0x1, new EventRecorder.Entry(0, "READY", data).toPayload(1));
+        } else
+            send(out, 0x1, ready(identify));
+
+        Thread thread = new Thread(() -> replay(out, recordedReady ? 1 : 0), "Gateway Stand-In Replay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Send the recorded events after <code>READY</code>, at the {@link #speed} of the replay. The events are numbered
+     * from <code>2</code>, since <code>READY</code> is <code>1</code>.
+     *
+     * @param out  the connection
+     * @param from the index of the first event to send
+     */
+    private void replay(OutputStream out, int from) {
+        int sent = 0;
+        try {
+            // The setup events are sent immediately, and the rest are timed from the first one after them
+            int first = from;
+            while (first < replay.size() && replay.get(first).type().equals("GUILD_CREATE"))
+                first++;
+
+            long start = 0;
+            for (int i = from; i < replay.size(); i++) {
+                EventRecorder.Entry entry = replay.get(i);
+                if (i == first)
+                    start = System.nanoTime();
+                else if (i > first && speed > 0) {
+                    long due = start + (long) ((entry.nanos() - replay.get(first).nanos()) / speed);
+                    for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime())
+                        LockSupport.parkNanos(wait);
+                }
+
+                send(out, 0x1, entry.toPayload(sent + 2));
+                sent++;
+            }
+            replayed.complete(sent);
+        } catch (IOException e) {
+            replayed.completeExceptionally(new IOException("The bot disconnected after " + sent + " events", e));
+        }
+    }
+
+    /**
+     * Build the <code>READY</code> event for an <code>IDENTIFY</code> payload. The bot is in no guilds, and the shard
+     * is copied from the payload.
+     *
+     * @param identify the <code>IDENTIFY</code> payload
+     *
+     * @return the event
+     */
+    private static String ready(String identify) {
+        Matcher shard = SHARD.matcher(identify);
+        String shardInfo = shard.find() ? "[" + shard.group(1) + "," + shard.group(2) + "]" : "[0,1]";
+
+        return "{\"op\":0,\"s\":1,\"t\":\"READY\",\"d\":{\"v\":9,\"user\":" + SELF_USER + ",\"guilds\":[]," +
+               "\"session_id\":\"stand-in\",\"private_channels\":[],\"relationships\":[],\"presences\":[]," +
+               "\"guild_join_requests\":[],\"geo_ordered_rtc_regions\":[],\"user_settings\":{}," +
+               "\"application\":{\"id\":\"865654626996453377\",\"flags\":0},\"shard\":" + shardInfo + "," +
+               "\"_trace\":[\"gateway-stand-in\"]}}";
+    }
+
+    /**
+     * Send a text message to the bot.
+     *
+     * @param out    the connection
+     * @param opcode the websocket opcode
+     * @param text   the message
+     */
+    private static void send(OutputStream out, int opcode, String text) throws IOException {
+        send(out, opcode, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Send one unmasked, unfragmented frame to the bot.
+     *
+     * @param out     the connection
+     * @param opcode  the websocket opcode
+     * @param payload the frame's payload
+     */
+    private static void send(OutputStream out, int opcode, byte[] payload) throws IOException {
+        // The replay and the replies to the bot are sent from different threads
+        synchronized (out) {
+            sendFrame(out, opcode, payload);
+        }
+    }
+
+    private static void sendFrame(OutputStream out, int opcode, byte[] payload) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeByte(0x80 | opcode);
+        if (payload.length < 126)
+            data.writeByte(payload.length);
+        else if (payload.length < 65536) {
+            data.writeByte(126);
+            data.writeShort(payload.length);
+        } else {
+            data.writeByte(127);
+            data.writeLong(payload.length);
+        }
+        data.write(payload);
+        data.flush();
+    }
+
+    /**
+     * Read one line of an HTTP request, without the line ending.
+     *
+     * @param in the connection
+     *
+     * @return the line, or <code>null</code> if the connection was closed
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            if (c < 0)
+                return line.isEmpty() ? null : line.toString();
+            if (c != '\r')
+                line.append((char) c);
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package benchmarks;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import org.openjdk.jmh.annotations.*;
+import utils.RingBufferAppender;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what one log call costs the thread that makes it, such as the gateway thread, with the console written to
+ * directly (<code>STDOUT</code>) and through the {@link RingBufferAppender} (<code>ASYNC</code>), as selected in
+ * <code>logback.xml</code>. Both use the same pattern as <code>logback.xml</code>.
+ * <p>
+ * The console is simulated by a stream that throws the output away after {@link #consoleMicros} microseconds per write.
+ * With <code>0</code>, this is the cost of formatting alone; with a delay, it's a slow terminal or a full pipe, as
+ * under incident load, where the direct appender makes every logging thread wait for the console.
+ * <p>
+ * The debug benchmarks log below the configured level, comparing a parameterized message with one built by string
+ * concatenation, which is built whether or not it's logged.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LoggingBenchmark {
+    private static final String PATTERN = "%d{HH:mm:ss.SSS} %boldCyan(%-34.-34thread) %red(%10.10X{jda.shard}) " +
+                                          "%boldGreen(%-15.-15logger{0}) %highlight(%-6level) %msg%n";
+
+    @Param({"STDOUT", "ASYNC"})
+    public String appender;
+
+    @Param({"0", "20"})
+    public int consoleMicros;
+
+    private LoggerContext context;
+    private Logger log;
+    private String command = "ping";
+    private long user = 164136837244665856L;
+    private int millis = 12;
+
+    @Setup
+    public void setup() {
+        context = new LoggerContext();
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern(PATTERN);
+        encoder.start();
+
+        OutputStreamAppender<ILoggingEvent> console = new OutputStreamAppender<>();
+        console.setContext(context);
+        console.setName("STDOUT");
+        console.setEncoder(encoder);
+        console.setOutputStream(new Console(TimeUnit.MICROSECONDS.toNanos(consoleMicros)));
+        console.start();
+
+        Appender<ILoggingEvent> root = console;
+        if (appender.equals("ASYNC")) {
+            RingBufferAppender async = new RingBufferAppender();
+            async.setContext(context);
+            async.setName("ASYNC");
+            async.addAppender(console);
+            async.start();
+            root = async;
+        }
+
+        Logger rootLogger = context.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        rootLogger.setLevel(Level.INFO);
+        rootLogger.addAppender(root);
+        log = context.getLogger("events.CommandExecutor");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.stop();
+    }
+
+    @Benchmark
+    public void info() {
+        log.info("Ran the '{}' command for {} in {} ms", command, user, millis);
+    }
+
+    @Benchmark
+    public void debugParameterized() {
+        log.debug("Ran the '{}' command for {} in {} ms", command, user, millis);
+    }
+
+    @Benchmark
+    public void debugConcatenated() {
+        log.debug("Ran the '" + command + "' command for " + user + " in " + millis + " ms");
+    }
+
+    /**
+     * A console that takes a fixed time to accept each write, and discards it.
+     */
+    private static class Console extends OutputStream {
+        private final long nanos;
+
+        Console(long nanos) {
+            this.nanos = nanos;
+        }
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            long end = System.nanoTime() + nanos;
+            while (System.nanoTime() < end)
+                Thread.onSpinWait();
+        }
+    }
+}
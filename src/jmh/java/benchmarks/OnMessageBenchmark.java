@@ -0,0 +1,74 @@
+package benchmarks;
+
+import events.OnMessage;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import utils.Bot;
+import utils.ConfigSnapshot;
+import utils.CommandArgs;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for text commands handled by {@link OnMessage#onMessageReceived(MessageReceivedEvent)}. Each
+ * <code>content</code> parameter takes a different path through the handler: a known command, a command that builds
+ * an embed, an unknown command, and ordinary chatter that doesn't use the prefix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OnMessageBenchmark {
+    @Param({"!ping", "!user", "!unknown with some arguments", "just chatting without the prefix"})
+    public String content;
+
+    /**
+     * The {@link Bot.Config#EXECUTION_MODE execution mode}. In virtual mode, the benchmark measures only the
+     * time that the event thread spends before handing the command off.
+     */
+    @Param({"event", "virtual"})
+    public String mode;
+
+    private OnMessage listener;
+    private MessageReceivedEvent event;
+    private CommandArgs args;
+
+    @Setup
+    public void setup() {
+        Fixtures.configureBot();
+        Bot.Config.EXECUTION_MODE = mode;
+        ConfigSnapshot.publish();
+        listener = new OnMessage();
+        event = Fixtures.messageEvent(content);
+        args = new CommandArgs();
+    }
+
+    /**
+     * The full handler: prefix check, argument parsing, command dispatch, and the (stubbed) reply.
+     */
+    @Benchmark
+    public void onMessageReceived() {
+        listener.onMessageReceived(event);
+    }
+
+    /**
+     * Only the prefix match and argument parsing, as done at the top of the handler. This separates the cost of
+     * parsing from the cost of the command itself.
+     */
+    @Benchmark
+    public void parseArguments(Blackhole blackhole) {
+        int prefix = Bot.Config.PREFIXES.match(0, content);
+        if (prefix >= 0)
+            blackhole.consume(args.parse(content, prefix).hash(0));
+    }
+
+    /**
+     * The previous implementation of argument parsing, which stripped the prefix with <code>substring</code> and then
+     * used a regular expression split. This is kept as a baseline for {@link #parseArguments(Blackhole)}.
+     */
+    @Benchmark
+    public void splitArguments(Blackhole blackhole) {
+        if (content.startsWith(Bot.Config.PREFIX) && content.length() > Bot.Config.PREFIX.length())
+            blackhole.consume(content.substring(Bot.Config.PREFIX.length()).split("\\s+"));
+    }
+}
@@ -0,0 +1,45 @@
+package benchmarks;
+
+import events.OnSlash;
+import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
+import org.openjdk.jmh.annotations.*;
+import utils.Bot;
+import utils.ConfigSnapshot;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for slash commands routed by {@link OnSlash#onSlashCommand(SlashCommandEvent)}, covering each registered
+ * command and the fallback reply for unknown commands.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OnSlashBenchmark {
+    @Param({"ping", "help", "hello", "unknown"})
+    public String name;
+
+    /**
+     * The {@link Bot.Config#EXECUTION_MODE execution mode}. In virtual mode, the benchmark measures only the
+     * time that the event thread spends before handing the command off.
+     */
+    @Param({"event", "virtual"})
+    public String mode;
+
+    private OnSlash listener;
+    private SlashCommandEvent event;
+
+    @Setup
+    public void setup() {
+        Fixtures.configureBot();
+        Bot.Config.EXECUTION_MODE = mode;
+        ConfigSnapshot.publish();
+        listener = new OnSlash();
+        event = Fixtures.slashEvent(name);
+    }
+
+    @Benchmark
+    public void onSlashCommand() {
+        listener.onSlashCommand(event);
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import events.OnStartup;
+import org.openjdk.jmh.annotations.*;
+import utils.BotBinder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the <code>bot.properties</code> pipeline in {@link OnStartup}: loading the whole file, and setting
+ * individual values of each type through the generated {@link BotBinder}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OnStartupBenchmark {
+    @Setup
+    public void setup() {
+        Fixtures.configureBot();
+    }
+
+    /**
+     * The whole pipeline: read <code>bot.properties</code> and set each property.
+     */
+    @Benchmark
+    public OnStartup.Result loadProperties() {
+        return OnStartup.loadProperties();
+    }
+
+    @Benchmark
+    public boolean setString() {
+        return BotBinder.set("description", "I'm a template Discord bot created with JDA.");
+    }
+
+    @Benchmark
+    public boolean setLong() {
+        return BotBinder.set("development", "865654626996453376");
+    }
+
+    @Benchmark
+    public boolean setBoolean() {
+        return BotBinder.set("enable_startup_message", "true");
+    }
+
+    @Benchmark
+    public boolean setOnlineStatus() {
+        return BotBinder.set("status", "online");
+    }
+
+    @Benchmark
+    public boolean setUnknown() {
+        return BotBinder.set("not_a_property", "value");
+    }
+}
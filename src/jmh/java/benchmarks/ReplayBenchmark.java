@@ -0,0 +1,172 @@
+package benchmarks;
+
+import events.EventRecorder;
+import events.OnStartup;
+import main.Main;
+import metrics.Histogram;
+import metrics.Metrics;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.hooks.EventListener;
+import utils.Bot;
+import utils.GatewayConfig;
+
+import javax.annotation.Nonnull;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays an {@link EventRecorder event recording} through the whole bot, offline, and reports how fast it handled the
+ * events. The bot runs in this JVM, exactly as <code>main.Main</code> starts it, but connected to a {@link
+ * GatewayStandIn} that replays the recording and answers every REST request with a stub. Nothing is sent to Discord.
+ * <p>
+ * The events go through JDA's real gateway handling, so this covers everything from parsing the payloads to {@link
+ * events.OnMessage OnMessage}, {@link events.OnSlash OnSlash}, and {@link OnStartup OnStartup}. The same recording
+ * always produces the same events in the same order, so runs can be compared, such as in CI.
+ * <p>
+ * Settings that would reach outside the replay are turned off: syncing slash commands, the startup message, the
+ * metrics server, recording, and member chunking (which the stand-in doesn't answer). Everything else comes from
+ * <code>bot.properties</code>.
+ */
+public class ReplayBenchmark {
+    /**
+     * How long the bot can go without handling an event, after the last one is sent, before the replay is considered
+     * finished. Some events (such as those for unknown guilds) don't produce any JDA event, so the last one can't
+     * always be seen.
+     */
+    private static final long IDLE_MILLIS = 2000;
+
+    /**
+     * How long to wait for the bot to connect and for the whole replay.
+     */
+    private static final long TIMEOUT_MINUTES = 120;
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args options: <code>--recording</code> for the recording to replay, <code>--speed</code> for how many
+     *             times faster than recorded to replay it (or <code>max</code> to send every event as fast as
+     *             possible, which is the default), and <code>--output</code> for a JSON report
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2)
+            options.put(args[i], args[i + 1]);
+        if (!options.containsKey("--recording"))
+            throw new IllegalArgumentException("Give the recording to replay with --recording <file>");
+
+        String speedOption = options.getOrDefault("--speed", "max");
+        double speed = speedOption.equals("max") ? 0 : Double.parseDouble(speedOption);
+        List<EventRecorder.Entry> events = EventRecorder.read(Path.of(options.get("--recording")));
+        System.out.printf("Replaying %d events at %s%n", events.size(),
+                speed > 0 ? speed + "x speed" : "maximum speed");
+
+        Progress progress = new Progress();
+        try (GatewayStandIn gateway = GatewayStandIn.start(events, speed)) {
+            System.setProperty(GatewayConfig.API_PROPERTY, gateway.getUrl());
+            OnStartup.loadProperties();
+            Bot.Config.LOAD_GLOBAL_COMMANDS = false;
+            Bot.Config.LOAD_LOCAL_COMMANDS = false;
+            Bot.Config.ENABLE_STARTUP_MESSAGE = false;
+            Bot.Config.METRICS_PORT = 0;
+            Bot.Gateway.RECORD_EVENTS = "";
+            Bot.Gateway.CHUNKING_FILTER = "none";
+            Bot.Gateway.SHARDS_TOTAL = 0;
+
+            Main.connect(GatewayStandIn.TOKEN);
+            Main.JDA.addEventListener(progress);
+
+            int sent = gateway.getReplayed().get(TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            progress.awaitIdle(sent + 1);
+
+            long millis = TimeUnit.NANOSECONDS.toMillis(progress.last - progress.first);
+            System.out.printf("Handled %d events in %d ms (%.0f events/s)%n", sent, millis,
+                    millis == 0 ? 0 : sent * 1000.0 / millis);
+            String report = report(sent, millis, speedOption);
+
+            if (options.containsKey("--output")) {
+                Path output = Path.of(options.get("--output"));
+                Files.createDirectories(output.toAbsolutePath().getParent());
+                Files.writeString(output, report);
+                System.out.println("Saved the results to " + output);
+            }
+        } finally {
+            if (Main.JDA != null)
+                Main.JDA.shutdownNow();
+        }
+
+        // JDA's threads aren't daemons
+        System.exit(0);
+    }
+
+    /**
+     * Print the latency of each event type and command, and build the JSON report.
+     *
+     * @param events the number of events replayed
+     * @param millis the time taken to handle them
+     * @param speed  the replay speed option
+     *
+     * @return the report
+     */
+    @Nonnull
+    private static String report(int events, long millis, @Nonnull String speed) {
+        StringBuilder json = new StringBuilder("{\"events\":").append(events)
+                .append(",\"millis\":").append(millis)
+                .append(",\"speed\":\"").append(speed).append("\"");
+
+        for (String metric : new String[]{"templatebot_event_seconds", "templatebot_command_seconds"}) {
+            json.append(",\"").append(metric).append("\":{");
+            System.out.printf("%n%-60s %10s %10s %10s %10s%n", metric, "count", "p50 us", "p99 us", "max us");
+
+            boolean first = true;
+            for (Map.Entry<String, Histogram> entry : Metrics.histograms(metric).entrySet()) {
+                Histogram histogram = entry.getValue();
+                if (histogram.getCount() == 0)
+                    continue;
+
+                long p50 = histogram.getPercentile(50) / 1000, p99 = histogram.getPercentile(99) / 1000,
+                        max = histogram.getPercentile(100) / 1000;
+                System.out.printf("%-60s %10d %10d %10d %10d%n", entry.getKey(), histogram.getCount(), p50, p99, max);
+                json.append(first ? "" : ",").append('"').append(entry.getKey().replace("\"", "\\\"")).append("\":{")
+                        .append("\"count\":").append(histogram.getCount())
+                        .append(",\"p50Micros\":").append(p50)
+                        .append(",\"p99Micros\":").append(p99)
+                        .append(",\"maxMicros\":").append(max)
+                        .append('}');
+                first = false;
+            }
+            json.append('}');
+        }
+        return json.append("}\n").toString();
+    }
+
+    /**
+     * Tracks how far through the replay the bot is, from the sequence numbers of the events it handles.
+     */
+    private static class Progress implements EventListener {
+        private volatile long sequence, first, last;
+
+        @Override
+        public void onEvent(@Nonnull GenericEvent event) {
+            long now = System.nanoTime();
+            // The replayed events are numbered from 2, after READY
+            if (event.getResponseNumber() >= 2 && first == 0)
+                first = now;
+            last = now;
+            sequence = Math.max(sequence, event.getResponseNumber());
+        }
+
+        /**
+         * Wait until the bot has handled the last event, or has stopped handling events.
+         *
+         * @param lastSequence the sequence number of the last event
+         */
+        void awaitIdle(long lastSequence) throws InterruptedException {
+            while (sequence < lastSequence && System.nanoTime() - last < TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS))
+                Thread.sleep(50);
+        }
+    }
+}
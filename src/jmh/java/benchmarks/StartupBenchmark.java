@@ -0,0 +1,222 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures how long the real bot takes to start, from launching the JVM to {@link events.OnStartup#onReady
+ * onReady()}, and how much memory it uses at that point. Unlike the JMH benchmarks, this launches
+ * <code>main.Main</code> in a new process for every run, connected to a {@link GatewayStandIn} instead of Discord.
+ * <p>
+ * It works on the fast-startup distribution in <code>build/fast-startup</code>, and has two modes:
+ * <ul>
+ *     <li><code>train</code> starts the bot once with <code>-XX:ArchiveClassesAtExit</code> and stops it after it's
+ *     ready, which records every class it loaded in the AppCDS archive <code>app.jsa</code>. This is run by
+ *     <code>gradlew fastStartupDist</code>.
+ *     <li><code>measure</code> starts the bot several times with and without the archive and reports the median and
+ *     best times and resident set sizes. This is run by <code>gradlew startupBenchmark</code>.
+ * </ul>
+ * Resident set sizes are read from <code>/proc</code>, so they're only reported on Linux.
+ */
+public class StartupBenchmark {
+    /**
+     * The line that {@link events.OnStartup#onReady onReady()} logs once every shard is ready.
+     */
+    private static final Pattern READY = Pattern.compile("Ready (-?\\d+) ms after the JVM started");
+
+    /**
+     * How long to wait for the bot to become ready before giving up on a run.
+     */
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private static final String ARCHIVE = "app.jsa";
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the mode (<code>train</code> or <code>measure</code>), followed by options: <code>--dir</code> for
+     *             the distribution directory, <code>--classpath</code> for the bot's classpath within it,
+     *             <code>--runs</code> for the number of runs of each variant, and <code>--output</code> for the JSON
+     *             report
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i + 1 < args.length; i += 2)
+            options.put(args[i], args[i + 1]);
+
+        Path dir = Path.of(options.get("--dir"));
+        String classpath = options.get("--classpath");
+
+        try (GatewayStandIn gateway = GatewayStandIn.start()) {
+            switch (args[0]) {
+                case "train" -> train(gateway, dir, classpath);
+                case "measure" -> measure(gateway, dir, classpath,
+                        Integer.parseInt(options.getOrDefault("--runs", "5")),
+                        options.containsKey("--output") ? Path.of(options.get("--output")) : null);
+                default -> throw new IllegalArgumentException("Unknown mode '" + args[0] + "'");
+            }
+        }
+    }
+
+    /**
+     * Record the AppCDS archive from one run of the bot.
+     */
+    private static void train(GatewayStandIn gateway, Path dir, String classpath) throws Exception {
+        Files.deleteIfExists(dir.resolve(ARCHIVE));
+        Run run = launch(gateway, dir, classpath, List.of("-XX:ArchiveClassesAtExit=" + ARCHIVE));
+
+        if (!Files.exists(dir.resolve(ARCHIVE)))
+            throw new IllegalStateException("The JVM didn't write " + dir.resolve(ARCHIVE));
+        System.out.printf("Recorded %s (%d KB) from a training run that was ready in %d ms%n",
+                dir.resolve(ARCHIVE), Files.size(dir.resolve(ARCHIVE)) >> 10, run.millis);
+    }
+
+    /**
+     * Start the bot several times with and without the archive, and report the results.
+     */
+    private static void measure(GatewayStandIn gateway, Path dir, String classpath, int runs, Path output)
+            throws Exception {
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        variants.put("default", List.of());
+        if (Files.exists(dir.resolve(ARCHIVE)))
+            variants.put("appcds", List.of("-XX:SharedArchiveFile=" + ARCHIVE));
+        else
+            System.out.println("No " + ARCHIVE + " in " + dir + ", so only the default CDS archive is measured");
+
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, List<String>> variant : variants.entrySet()) {
+            // The first run only warms up the file system cache
+            launch(gateway, dir, classpath, variant.getValue());
+
+            long[] millis = new long[runs], reported = new long[runs], rss = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                Run run = launch(gateway, dir, classpath, variant.getValue());
+                millis[i] = run.millis;
+                reported[i] = run.reported;
+                rss[i] = run.rssKilobytes;
+            }
+            Arrays.sort(millis);
+            Arrays.sort(reported);
+            Arrays.sort(rss);
+
+            System.out.printf("%-8s JVM start to onReady: median %5d ms, best %5d ms (%d ms reported by the bot). " +
+                              "RSS: median %6d KB%n",
+                    variant.getKey(), millis[runs / 2], millis[0], reported[runs / 2], rss[runs / 2]);
+            json.append(json.length() > 1 ? "," : "")
+                    .append("\"").append(variant.getKey()).append("\":{")
+                    .append("\"runs\":").append(runs)
+                    .append(",\"readyMillisMedian\":").append(millis[runs / 2])
+                    .append(",\"readyMillisBest\":").append(millis[0])
+                    .append(",\"reportedMillisMedian\":").append(reported[runs / 2])
+                    .append(",\"rssKilobytesMedian\":").append(rss[runs / 2])
+                    .append("}");
+        }
+        json.append("}\n");
+
+        if (output != null) {
+            Files.createDirectories(output.toAbsolutePath().getParent());
+            Files.writeString(output, json);
+            System.out.println("Saved the results to " + output);
+        }
+    }
+
+    /**
+     * Launch the bot, wait until it's ready, measure it, and stop it.
+     *
+     * @param gateway    the stand-in to connect to
+     * @param dir        the distribution directory
+     * @param classpath  the bot's classpath, relative to the directory
+     * @param jvmOptions extra options for the JVM
+     *
+     * @return the measurements
+     */
+    private static Run launch(GatewayStandIn gateway, Path dir, String classpath, List<String> jvmOptions)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(dir.resolve("runtime/bin/java").toString());
+        command.addAll(jvmOptions);
+        command.add("-Dtemplatebot.api=" + gateway.getUrl());
+        command.add("-cp");
+        command.add(classpath);
+        command.add("main.Main");
+
+        ProcessBuilder builder = new ProcessBuilder(command).directory(dir.toFile()).redirectErrorStream(true);
+        builder.environment().put("BOT_TOKEN", GatewayStandIn.TOKEN);
+
+        long start = System.nanoTime();
+        Process process = builder.start();
+        CompletableFuture<Long> ready = new CompletableFuture<>();
+        StringBuffer log = new StringBuffer();
+
+        // Keep reading the output after the bot is ready, so that it never blocks on a full pipe
+        Thread reader = new Thread(() -> {
+            try (BufferedReader lines = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+                    Matcher matcher = READY.matcher(line);
+                    if (matcher.find())
+                        ready.complete(Long.parseLong(matcher.group(1)));
+                    else if (!ready.isDone())
+                        log.append(line).append('\n');
+                }
+            } catch (IOException ignore) {
+                // The process ended
+            }
+            ready.completeExceptionally(new IllegalStateException("The bot exited before it was ready:\n" + log));
+        }, "Startup Benchmark Output");
+        reader.setDaemon(true);
+        reader.start();
+
+        try {
+            long reported = ready.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            return new Run(millis, reported, rss(process.pid()));
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("The bot didn't become ready:\n" + log, e);
+        } finally {
+            // A normal shutdown, which also writes the archive when training
+            process.destroy();
+            if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                process.destroyForcibly();
+        }
+    }
+
+    /**
+     * Get the resident set size of a process.
+     *
+     * @param pid the process id
+     *
+     * @return the size in kilobytes, or <code>-1</code> if it's unavailable
+     */
+    private static long rss(long pid) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", Long.toString(pid), "status")))
+                if (line.startsWith("VmRSS:"))
+                    return Long.parseLong(line.replaceAll("\\D", ""));
+        } catch (IOException | NumberFormatException ignore) {
+            // Not Linux
+        }
+        return -1;
+    }
+
+    /**
+     * The measurements from one run.
+     *
+     * @param millis       the time from launching the JVM until the bot was ready, as measured here
+     * @param reported     the same time, as measured by the bot itself from the JVM's start time
+     * @param rssKilobytes the resident set size once the bot was ready, in kilobytes
+     */
+    private record Run(long millis, long reported, long rssKilobytes) {
+    }
+}
@@ -0,0 +1,154 @@
+package benchmarks;
+
+import net.dv8tion.jda.api.JDA;
+
+import javax.annotation.Nonnull;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * This class builds synthetic JDA entities and events for the benchmarks, so that the real event handlers can be
+ * driven without a bot token or a connection to Discord.
+ * <p>
+ * Every stub is a {@link Proxy} of a JDA interface. Calls to the stub are answered as follows:
+ * <ol>
+ *     <li>If the method name is a key in the <code>answers</code> map, the mapped value is returned. If the value is a
+ *     {@link Supplier}, it's called each time, and its result is returned instead.
+ *     <li>If the method returns an interface (such as a {@link net.dv8tion.jda.api.requests.RestAction RestAction}),
+ *     another stub is returned. This makes calls like <code>channel.sendMessage("pong").queue()</code> into no-ops.
+ *     <li>If the method is a <code>default</code> method, the real implementation is invoked. This lets methods like
+ *     {@link net.dv8tion.jda.api.entities.ISnowflake#getTimeCreated() getTimeCreated()} work from the stubbed id.
+ *     <li>Otherwise, the zero value of the return type is returned (an empty string for {@link String}).
+ * </ol>
+ * Nested stubs are cached per method, so repeated calls during a benchmark don't allocate new proxies.
+ */
+public class Stubs {
+    /**
+     * Create a stub of the given interface.
+     *
+     * @param type    the interface to stub
+     * @param answers a map of method names to the values they should return
+     * @param <T>     the type of the interface
+     *
+     * @return the stub
+     */
+    @Nonnull
+    public static <T> T of(@Nonnull Class<T> type, @Nonnull Map<String, Object> answers) {
+        Map<Method, Object> nested = new ConcurrentHashMap<>();
+
+        InvocationHandler handler = (proxy, method, args) -> {
+            String name = method.getName();
+
+            // Object methods
+            if (method.getDeclaringClass() == Object.class)
+                return switch (name) {
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> type.getSimpleName() + " stub";
+                };
+
+            if (answers.containsKey(name))
+                return answers.get(name) instanceof Supplier<?> supplier ? supplier.get() : answers.get(name);
+
+            Class<?> returnType = method.getReturnType();
+
+            if (returnType.isInterface())
+                return nested.computeIfAbsent(method, m -> of(returnType, Map.of()));
+
+            if (method.isDefault())
+                return InvocationHandler.invokeDefault(proxy, method, args);
+
+            return zero(returnType);
+        };
+
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * Create a stub of the given interface that returns the default answers for every method.
+     *
+     * @param type the interface to stub
+     * @param <T>  the type of the interface
+     *
+     * @return the stub
+     */
+    @Nonnull
+    public static <T> T of(@Nonnull Class<T> type) {
+        return of(type, Map.of());
+    }
+
+    /**
+     * Create a synthetic JDA event. JDA events are constructed with a {@link JDA} instance, a response number, and the
+     * entity (a message or an interaction) that they wrap. This finds that constructor and passes it the given entity,
+     * so the same code works for both message and interaction events.
+     *
+     * @param eventType the class of the event to create
+     * @param jda       the (stubbed) JDA instance
+     * @param entity    the entity that the event wraps, typically created with {@link #of(Class, Map)}
+     * @param <E>       the type of the event
+     *
+     * @return the new event
+     */
+    @Nonnull
+    public static <E> E event(@Nonnull Class<E> eventType, @Nonnull JDA jda, @Nonnull Object entity) {
+        for (Constructor<?> constructor : eventType.getConstructors()) {
+            Class<?>[] params = constructor.getParameterTypes();
+            if (params.length == 3 && params[0].isInstance(jda) && params[1] == Long.TYPE &&
+                params[2].isInstance(entity)) {
+                try {
+                    return eventType.cast(constructor.newInstance(jda, 0L, entity));
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Failed to create a synthetic " + eventType.getSimpleName(), e);
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("No (JDA, long, " + entity.getClass().getSimpleName() +
+                                           ") constructor found for " + eventType.getSimpleName());
+    }
+
+    /**
+     * Get the interface that a synthetic event wraps, according to the third parameter of its constructor. Use this
+     * to stub the right interaction type for an event without hard-coding JDA's internal class names.
+     *
+     * @param eventType the class of the event
+     *
+     * @return the interface wrapped by the event
+     */
+    @Nonnull
+    public static Class<?> wrappedType(@Nonnull Class<?> eventType) {
+        for (Constructor<?> constructor : eventType.getConstructors()) {
+            Class<?>[] params = constructor.getParameterTypes();
+            if (params.length == 3 && params[1] == Long.TYPE && params[2].isInterface())
+                return params[2];
+        }
+
+        throw new IllegalArgumentException("No constructor wrapping an interface found for " +
+                                           eventType.getSimpleName());
+    }
+
+    /**
+     * Get the zero value of the given type, or an empty string for {@link String}.
+     *
+     * @param type the type
+     *
+     * @return the zero value
+     */
+    private static Object zero(Class<?> type) {
+        if (type == String.class) return "";
+        if (type == Boolean.TYPE) return false;
+        if (type == Long.TYPE) return 0L;
+        if (type == Integer.TYPE) return 0;
+        if (type == Short.TYPE) return (short) 0;
+        if (type == Byte.TYPE) return (byte) 0;
+        if (type == Character.TYPE) return '\0';
+        if (type == Double.TYPE) return 0d;
+        if (type == Float.TYPE) return 0f;
+        return null;
+    }
+}
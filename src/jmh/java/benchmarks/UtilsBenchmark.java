@@ -0,0 +1,68 @@
+package benchmarks;
+
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dv8tion.jda.api.entities.User;
+import org.openjdk.jmh.annotations.*;
+import utils.Colors;
+import utils.EmbedCache;
+import utils.UserPanelCache;
+import utils.Utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the embed builders in {@link Utils}, and for the {@link EmbedCache} and {@link UserPanelCache} that
+ * replace them on the hot paths. Each benchmark builds the final {@link MessageEmbed}, since that's what every caller
+ * sends.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UtilsBenchmark {
+    private User user;
+    private Exception exception;
+
+    @Setup
+    public void setup() {
+        Fixtures.configureBot();
+        user = Fixtures.user();
+        exception = new IllegalStateException("Something went wrong");
+    }
+
+    @Benchmark
+    public MessageEmbed makeEmbed() {
+        return Utils.makeEmbed("Title", "Description", Colors.BLURPLE,
+                Utils.makeField("Field", "Value", true)).build();
+    }
+
+    @Benchmark
+    public MessageEmbed errorString() {
+        return Utils.error("Sorry, I don't recognize that command.").build();
+    }
+
+    /**
+     * The same error as {@link #errorString()}, copied from the {@link EmbedCache} as the error senders do.
+     */
+    @Benchmark
+    public MessageEmbed errorCached() {
+        return EmbedCache.error("Sorry, I don't recognize that command.");
+    }
+
+    @Benchmark
+    public MessageEmbed errorThrowable() {
+        return Utils.error(exception).build();
+    }
+
+    @Benchmark
+    public MessageEmbed getUserPanel() {
+        return Utils.getUserPanel(user).build();
+    }
+
+    /**
+     * The same panel as {@link #getUserPanel()}, served from the {@link UserPanelCache} as <code>!user</code> does.
+     */
+    @Benchmark
+    public MessageEmbed getUserPanelCached() {
+        return UserPanelCache.get(user);
+    }
+}
@@ -0,0 +1,141 @@
+package commands;
+
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.Metrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A command found in the generated {@link CommandTable}: its name and its handler. There is exactly one instance for
+ * each command, created when {@link CommandTable} is loaded, so looking up a command never allocates.
+ * <p>
+ * Each command also has its own {@link Metrics metrics}: how long its handler takes, and how many times it has thrown
+ * an exception or timed out, and for slash commands, how many times its reply had to be deferred. They're created
+ * along with the command, so recording them doesn't allocate either.
+ *
+ * @param <H> the type of handler, either {@link TextHandler} or {@link SlashHandler}
+ */
+public class Command<H> {
+    private final String name;
+    private final H handler;
+    private final Histogram latency;
+    private final Counter errors;
+    private final Counter deferrals;
+    private final Counter timeouts;
+    private final boolean ephemeral;
+    private final long timeoutMillis;
+
+    public Command(@Nonnull String name, @Nonnull H handler) {
+        this(name, handler, false, 0);
+    }
+
+    public Command(@Nonnull String name, @Nonnull H handler, boolean ephemeral, long timeoutMillis) {
+        this.name = name;
+        this.handler = handler;
+        this.ephemeral = ephemeral;
+        this.timeoutMillis = timeoutMillis;
+
+        String type = handler instanceof SlashHandler ? "slash" : "text";
+        this.latency = Metrics.histogram("templatebot_command_seconds",
+                "The time taken by command handlers, by command.", "command", name, "type", type);
+        this.errors = Metrics.counter("templatebot_command_errors_total",
+                "Exceptions thrown by command handlers, by command.", "command", name, "type", type);
+        this.timeouts = Metrics.counter("templatebot_command_timeouts_total",
+                "Command handlers interrupted for running too long, by command.", "command", name, "type", type);
+        this.deferrals = handler instanceof SlashHandler ? Metrics.counter("templatebot_command_deferrals_total",
+                "Slash commands whose reply was deferred because the handler was slow, by command.", "command", name)
+                : null;
+    }
+
+    /**
+     * Get the name of the command. For a text command with aliases, this is always the first name given in the
+     * annotation, regardless of which alias was used.
+     *
+     * @return the command name
+     */
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the handler that runs the command.
+     *
+     * @return the handler
+     */
+    @Nonnull
+    public H getHandler() {
+        return handler;
+    }
+
+    /**
+     * Get the histogram of how long this command's handler takes, from when it starts until it returns. Its count is
+     * the number of times the command has been run.
+     *
+     * @return the histogram
+     */
+    @Nonnull
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Get the number of times this command's handler has thrown an exception.
+     *
+     * @return the counter
+     */
+    @Nonnull
+    public Counter getErrors() {
+        return errors;
+    }
+
+    /**
+     * Get the number of times this command's handler ran for longer than its {@link events.CommandTimeouts timeout} and
+     * was interrupted.
+     *
+     * @return the counter
+     */
+    @Nonnull
+    public Counter getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Get the timeout declared in the command's annotation. The timeout that's enforced may be different; see {@link
+     * events.CommandTimeouts#getBudget(Command)}.
+     *
+     * @return the timeout in milliseconds, or <code>0</code> to use the default
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Get the number of times this command's handler hadn't replied within the {@link
+     * utils.Bot.Config#DEFER_AFTER_MS deferral budget}, so its reply was deferred by the {@link events.ReplyWatchdog}.
+     *
+     * @return the counter, or <code>null</code> for text commands, which are never deferred
+     */
+    @Nullable
+    public Counter getDeferrals() {
+        return deferrals;
+    }
+
+    /**
+     * Check whether the command's response is only visible to the user who used it, as declared with {@link
+     * annotations.SlashCommand#ephemeral()}. This decides whether a reply deferred by the {@link events.ReplyWatchdog}
+     * is ephemeral.
+     *
+     * @return <code>true</code> if the response is ephemeral; always <code>false</code> for text commands
+     */
+    public boolean isEphemeral() {
+        return ephemeral;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
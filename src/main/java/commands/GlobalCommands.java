@@ -1,42 +1,35 @@
 package commands;
 
-import events.OnStartup;
-import main.Main;
+import annotations.SlashCommand;
+import metrics.LatencyProbe;
 import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
-import net.dv8tion.jda.api.interactions.commands.build.CommandData;
-import net.dv8tion.jda.api.requests.restaction.CommandListUpdateAction;
 import utils.Bot;
+import utils.EmbedCache;
+import utils.RestScheduler;
 import utils.Utils;
 
 import java.awt.Color;
 import java.time.Duration;
 import java.time.OffsetDateTime;
-import java.util.ArrayList;
-import java.util.List;
 
 public class GlobalCommands {
-    public static void registerGlobalSlashCommands(CommandListUpdateAction action) {
-        List<CommandData> commands = new ArrayList<>();
-
-        commands.add(new CommandData("ping", "Ping the bot."));
-        commands.add(new CommandData("help", "Get info about " + Main.JDA.getSelfUser().getName()));
-
-        action.addCommands(commands).queue();
-        OnStartup.LOG.info("Registered global slash commands");
-    }
-
+    @SlashCommand(name = "ping", description = "Ping the bot.")
     public static void ping(SlashCommandEvent event) {
-        event.reply(String.format("Pong (%d)",
-                        Duration.between(OffsetDateTime.now(), event.getTimeCreated()).toMillis()))
-                .queue();
+        // The interaction's age includes Discord, the network, and the bot, and depends on the clocks agreeing.
+        // The probe's percentiles split that up.
+        RestScheduler.queue(event.reply(String.format("Pong! This command took %d ms to reach me.\n%s",
+                Duration.between(event.getTimeCreated(), OffsetDateTime.now()).toMillis(),
+                LatencyProbe.summarize())), RestScheduler.Priority.INTERACTION);
     }
 
+    @SlashCommand(name = "help", description = "Get info about {bot}", ephemeral = true)
     public static void help(SlashCommandEvent event) {
-        event.replyEmbeds(Utils.makeEmbed(
+        // The embed only depends on bot.properties, so it's built once and cached
+        RestScheduler.queue(event.replyEmbeds(EmbedCache.get("help", () -> Utils.makeEmbed(
                 Bot.Self.NAME + " Info",
                 "Hi, I'm " + Bot.Self.NAME + "! " + Bot.Self.DESCRIPTION,
                 Color.WHITE,
                 Utils.makeField("Version", "I'm currently running `" + Bot.Self.VERSION + "`.", true)
-        ).build()).setEphemeral(true).queue();
+        ))).setEphemeral(true), RestScheduler.Priority.INTERACTION);
     }
 }
@@ -0,0 +1,20 @@
+package commands;
+
+import annotations.SlashCommand;
+import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The handler for a slash command. Methods annotated with {@link SlashCommand} are referenced through this interface
+ * in the generated {@link CommandTable}.
+ */
+@FunctionalInterface
+public interface SlashHandler {
+    /**
+     * Run the command.
+     *
+     * @param event the slash command event
+     */
+    void handle(@Nonnull SlashCommandEvent event);
+}
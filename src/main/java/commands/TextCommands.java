@@ -0,0 +1,86 @@
+package commands;
+
+import annotations.TextCommand;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import storage.GuildSettings;
+import storage.Storage;
+import utils.CommandArgs;
+import utils.ConfigSnapshot;
+import utils.OutboundQueue;
+import utils.PrefixMap;
+import utils.UserPanelCache;
+import utils.Utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TextCommands {
+    @TextCommand("ping")
+    public static void ping(MessageReceivedEvent event, CommandArgs args) {
+        OutboundQueue.send(event.getChannel(), "pong");
+    }
+
+    @TextCommand("pong")
+    public static void pong(MessageReceivedEvent event, CommandArgs args) {
+        OutboundQueue.send(event.getChannel(), "ping");
+    }
+
+    @TextCommand("user")
+    public static void user(MessageReceivedEvent event, CommandArgs args) {
+        OutboundQueue.send(event.getChannel(), UserPanelCache.get(event.getAuthor()));
+    }
+
+    /**
+     * Show the prefixes used in this guild, set them (<code>prefix ! ?</code>), or go back to the ones in
+     * <code>bot.properties</code> (<code>prefix reset</code>). Changing them requires the Manage Server permission.
+     * They're saved in the guild's {@link GuildSettings settings}.
+     */
+    @TextCommand("prefix")
+    public static void prefix(MessageReceivedEvent event, CommandArgs args) {
+        if (!event.isFromGuild()) {
+            Utils.error(event.getMessage(), "Prefixes can only be changed in a server.");
+            return;
+        }
+
+        long guild = event.getGuild().getIdLong();
+        // Argument 0 is the command name, so the prefixes to set start at 1
+        if (!args.has(1)) {
+            OutboundQueue.reply(event.getMessage(), "The prefixes here are: " +
+                                                    String.join(" ", prefixes(guild)));
+            return;
+        }
+
+        Member member = event.getMember();
+        if (member == null || !member.hasPermission(Permission.MANAGE_SERVER)) {
+            Utils.error(event.getMessage(), "You need the Manage Server permission to change the prefixes.");
+            return;
+        }
+        if (!Storage.isOpen()) {
+            Utils.error(event.getMessage(), "Prefixes can't be changed, since settings aren't being saved.");
+            return;
+        }
+
+        List<String> prefixes = null;
+        if (!(args.size() == 2 && args.is(1, "reset"))) {
+            prefixes = new ArrayList<>(args.size() - 1);
+            for (int i = 1; i < args.size(); i++)
+                prefixes.add(args.get(i));
+        }
+
+        try {
+            GuildSettings.set(guild, new GuildSettings(prefixes));
+            OutboundQueue.reply(event.getMessage(), "The prefixes here are now: " +
+                                                    String.join(" ", prefixes(guild)));
+        } catch (IOException | IllegalArgumentException e) {
+            Utils.error(event.getMessage(), e);
+        }
+    }
+
+    private static List<String> prefixes(long guild) {
+        PrefixMap prefixes = ConfigSnapshot.get().getPrefixes();
+        return prefixes == null ? List.of() : prefixes.get(guild).getPrefixes();
+    }
+}
@@ -0,0 +1,22 @@
+package commands;
+
+import annotations.TextCommand;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import utils.CommandArgs;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The handler for a text command. Methods annotated with {@link TextCommand} are referenced through this interface in
+ * the generated {@link CommandTable}.
+ */
+@FunctionalInterface
+public interface TextHandler {
+    /**
+     * Run the command.
+     *
+     * @param event the event for the message containing the command
+     * @param args  the parsed arguments, where the argument at index <code>0</code> is the command name
+     */
+    void handle(@Nonnull MessageReceivedEvent event, @Nonnull CommandArgs args);
+}
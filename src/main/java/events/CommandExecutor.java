@@ -0,0 +1,276 @@
+package events;
+
+import commands.Command;
+import commands.SlashHandler;
+import commands.TextHandler;
+import metrics.LatencyProbe;
+import metrics.Metrics;
+import metrics.TimedEventManager;
+import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+import utils.Bot;
+import utils.CommandArgs;
+import utils.ConfigSnapshot;
+import utils.LatencyRecorder;
+import utils.OutboundQueue;
+import utils.RestScheduler;
+
+import javax.annotation.Nonnull;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This runs command handlers once {@link OnMessage} or {@link OnSlash} has routed them. Where they run depends on the
+ * {@link Bot.Config#EXECUTION_MODE execution mode}:
+ * <ul>
+ *     <li><code>event</code> runs each handler directly on the JDA event thread. This is simplest, but a slow handler
+ *     (for example, one that calls <code>complete()</code>) delays every other event for that shard.
+ *     <li><code>virtual</code> runs each handler on its own virtual thread, so the event thread only parses and routes
+ *     commands. Blocking calls in a handler are cheap, since they only park the virtual thread.
+ * </ul>
+ * Either way, the time that each command holds the event thread is recorded in {@link #EVENT_THREAD}. In virtual mode,
+ * the delay between routing a command and its handler starting is recorded in {@link #HANDOFF}. Both are {@link #LOG
+ * logged} periodically. The delay from the command's event being dispatched until its handler starts is recorded in
+ * {@link LatencyProbe#HANDLER_DELAY} for <code>/ping</code>.
+ * <p>
+ * In both modes, each handler runs within its {@link CommandTimeouts timeout}, and is interrupted if it overruns.
+ */
+public class CommandExecutor {
+    /**
+     * This logger is used for errors thrown by command handlers on virtual threads, and for the periodic latency
+     * summaries.
+     */
+    public static final Logger LOG = JDALogger.getLog(CommandExecutor.class);
+
+    /**
+     * The time that each command holds the event thread, from routing until the handler finishes (in event mode) or is
+     * handed off (in virtual mode).
+     */
+    public static final LatencyRecorder EVENT_THREAD = new LatencyRecorder("Event thread time per command",
+            Metrics.histogram("templatebot_event_thread_seconds",
+                    "The time that each command holds the event thread."));
+
+    /**
+     * The delay between a command being handed off to a virtual thread and its handler starting.
+     */
+    public static final LatencyRecorder HANDOFF = new LatencyRecorder("Virtual thread handoff delay",
+            Metrics.histogram("templatebot_handoff_seconds",
+                    "The delay between routing a command and its handler starting on a virtual thread."));
+
+    /**
+     * How often the latency summaries are logged, in minutes.
+     */
+    private static final long SUMMARY_INTERVAL = 10;
+
+    /**
+     * The executor that starts a new virtual thread for each command. It's created the first time it's needed.
+     */
+    private static volatile ExecutorService virtualThreads;
+
+    /**
+     * Run a text command.
+     *
+     * @param command the command
+     * @param event   the event for the message containing the command
+     * @param args    the parsed arguments. In virtual mode, these are copied before the handler runs, since the event
+     *                thread reuses its instance for the next message.
+     */
+    public static void run(@Nonnull Command<TextHandler> command, @Nonnull MessageReceivedEvent event,
+                           @Nonnull CommandArgs args) {
+        long start = System.nanoTime();
+        long dispatched = TimedEventManager.getDispatchStart();
+
+        if (isVirtual()) {
+            CommandArgs copy = args.copy();
+            submit(command, event, start, dispatched, () -> command.getHandler().handle(event, copy));
+        } else {
+            // Inlined rather than passed to handle(), since a capturing lambda would allocate on the event thread
+            if (dispatched != 0)
+                LatencyProbe.HANDLER_DELAY.record(start - dispatched);
+            CommandTimeouts.Deadline deadline = CommandTimeouts.start(command, event);
+            try {
+                command.getHandler().handle(event, args);
+            } catch (Throwable t) {
+                if (!deadline.isExpired()) {
+                    command.getErrors().increment();
+                    throw t;
+                }
+            } finally {
+                deadline.finish();
+                command.getLatency().record(System.nanoTime() - start);
+            }
+        }
+
+        EVENT_THREAD.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Run a slash command. The handler is given a {@link ReplyWatchdog watched} event, so that its reply is deferred if
+     * it takes too long.
+     *
+     * @param command the command
+     * @param event   the slash command event
+     */
+    public static void run(@Nonnull Command<SlashHandler> command, @Nonnull SlashCommandEvent event) {
+        long start = System.nanoTime();
+        long dispatched = TimedEventManager.getDispatchStart();
+        SlashCommandEvent watched = ReplyWatchdog.watch(command, event);
+
+        if (isVirtual()) {
+            submit(command, watched, start, dispatched, () -> ReplyWatchdog.handle(command, watched));
+        } else {
+            if (dispatched != 0)
+                LatencyProbe.HANDLER_DELAY.record(start - dispatched);
+            CommandTimeouts.Deadline deadline = CommandTimeouts.start(command, watched);
+            try {
+                ReplyWatchdog.handle(command, watched);
+            } catch (Throwable t) {
+                if (!deadline.isExpired()) {
+                    command.getErrors().increment();
+                    throw t;
+                }
+            } finally {
+                deadline.finish();
+                command.getLatency().record(System.nanoTime() - start);
+            }
+        }
+
+        EVENT_THREAD.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Check whether commands run on virtual threads, according to the {@link Bot.Config#EXECUTION_MODE execution
+     * mode}.
+     *
+     * @return <code>true</code> in virtual mode; <code>false</code> in event mode
+     */
+    public static boolean isVirtual() {
+        return ConfigSnapshot.get().isVirtual();
+    }
+
+    /**
+     * Start logging the latency summaries every {@link #SUMMARY_INTERVAL} minutes. This is called once on {@link
+     * OnStartup startup}.
+     *
+     * @return {@link OnStartup.Result#SUCCESS Success} if the execution mode is recognized; otherwise {@link
+     *         OnStartup.Result#FAILURE failure}, in which case commands run on the event thread.
+     */
+    static OnStartup.Result start() {
+        String mode = Bot.Config.EXECUTION_MODE == null ? "" : Bot.Config.EXECUTION_MODE.toLowerCase(Locale.ROOT);
+        if (!mode.equals("event") && !mode.equals("virtual")) {
+            OnStartup.LOG.error("Unrecognized execution_mode '{}'. It must be 'event' or 'virtual'. Commands will " +
+                                "run on the event thread.", Bot.Config.EXECUTION_MODE);
+            return OnStartup.Result.FAILURE;
+        }
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "CommandExecutor Reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(CommandExecutor::logSummary, SUMMARY_INTERVAL, SUMMARY_INTERVAL, TimeUnit.MINUTES);
+
+        OnStartup.LOG.info("Commands will run {}",
+                           mode.equals("virtual") ? "on virtual threads." : "on the event thread.");
+        return OnStartup.Result.SUCCESS;
+    }
+
+    /**
+     * Log the latency summaries for the commands run since the last summary, if there were any.
+     */
+    private static void logSummary() {
+        if (EVENT_THREAD.getCount() == 0)
+            return;
+
+        LOG.info(EVENT_THREAD.summarize(true));
+        if (HANDOFF.getCount() > 0)
+            LOG.info(HANDOFF.summarize(true));
+        LOG.info("Commands denied by rate limits since startup: {}", RateLimits.getDenied());
+        LOG.info("Duplicate events ignored since startup: {} messages, {} interactions",
+                 OnMessage.HANDLED.getDuplicates(), OnSlash.HANDLED.getDuplicates());
+        String deferred = ReplyWatchdog.summarize();
+        if (deferred != null)
+            LOG.info(deferred);
+        LOG.info(RestScheduler.summarize());
+        if (OutboundQueue.FLUSH.getCount() > 0) {
+            LOG.info(OutboundQueue.summarize());
+            LOG.info(OutboundQueue.FLUSH.summarize(true));
+        }
+    }
+
+    /**
+     * Run a handler on a new virtual thread, recording the {@link #HANDOFF handoff} delay and logging any exception
+     * that it throws.
+     *
+     * @param command    the command being run, for the error message
+     * @param event      the event passed to the handler, for the {@link CommandTimeouts timeout} reply
+     * @param submitted  the {@link System#nanoTime()} when the command was routed
+     * @param dispatched the {@link TimedEventManager#getDispatchStart() time} its event started being dispatched, or
+     *                   <code>0</code> if unknown
+     * @param handler    the handler to run
+     */
+    private static void submit(@Nonnull Command<?> command, @Nonnull Object event, long submitted, long dispatched,
+                               @Nonnull Runnable handler) {
+        executor().execute(() -> {
+            long start = System.nanoTime();
+            HANDOFF.record(start - submitted);
+            if (dispatched != 0)
+                LatencyProbe.HANDLER_DELAY.record(start - dispatched);
+            try {
+                handle(command, event, handler);
+            } catch (Throwable t) {
+                LOG.error("Encountered an unexpected error while running the '{}' command.", command, t);
+            }
+        });
+    }
+
+    /**
+     * Run a handler on the current thread within its {@link CommandTimeouts timeout}, recording its {@link
+     * Command#getLatency() latency} and any {@link Command#getErrors() error} in the command's metrics. Exceptions are
+     * rethrown, unless they were caused by the handler being interrupted for timing out. This is the virtual thread
+     * version of what {@link #run(Command, SlashCommandEvent) run()} does inline in event mode.
+     *
+     * @param command the command being run
+     * @param event   the event passed to the handler
+     * @param handler the handler to run
+     */
+    private static void handle(@Nonnull Command<?> command, @Nonnull Object event, @Nonnull Runnable handler) {
+        long start = System.nanoTime();
+        CommandTimeouts.Deadline deadline = CommandTimeouts.start(command, event);
+        try {
+            handler.run();
+        } catch (Throwable t) {
+            if (!deadline.isExpired()) {
+                command.getErrors().increment();
+                throw t;
+            }
+        } finally {
+            deadline.finish();
+            command.getLatency().record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Get the virtual thread executor, creating it if necessary.
+     *
+     * @return the executor
+     */
+    @Nonnull
+    private static ExecutorService executor() {
+        ExecutorService executor = virtualThreads;
+        if (executor == null) {
+            synchronized (CommandExecutor.class) {
+                executor = virtualThreads;
+                if (executor == null)
+                    virtualThreads = executor = Executors.newThreadPerTaskExecutor(
+                            Thread.ofVirtual().name("Command-", 0).factory());
+            }
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,430 @@
+package events;
+
+import commands.CommandTable;
+import main.Main;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.interactions.commands.Command;
+import net.dv8tion.jda.api.interactions.commands.build.CommandData;
+import net.dv8tion.jda.api.interactions.commands.build.OptionData;
+import net.dv8tion.jda.api.interactions.commands.build.SubcommandData;
+import net.dv8tion.jda.api.interactions.commands.build.SubcommandGroupData;
+import net.dv8tion.jda.api.requests.RestAction;
+import utils.Bot;
+import utils.Utils;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * This keeps the slash commands registered with Discord in sync with the ones in the generated {@link CommandTable},
+ * without sending anything that hasn't changed.
+ * <p>
+ * Each set of commands is hashed, and the hash is saved in the {@link Bot.Config#COMMAND_HASH_FILE command hash file}
+ * once Discord has the same commands. On startup, a set whose hash matches the saved one is skipped with no REST
+ * requests at all. Otherwise, the registered commands are retrieved and compared one by one: only new or changed
+ * commands are sent, and commands that no longer exist are deleted. If the registered commands already match (for
+ * example, on a new machine without the hash file), nothing is sent besides the one request to retrieve them.
+ * <p>
+ * Global commands are synced once. Local commands are synced to each of the {@link Bot.Config#LOCAL_COMMAND_GUILDS
+ * local command guilds}, with at most {@link Bot.Config#COMMAND_SYNC_CONCURRENCY} guilds at a time, and the progress is
+ * {@link OnStartup#LOG logged} as the rollout goes.
+ */
+public class CommandSync {
+    /**
+     * The hash file key for the global commands. Each guild's key is its id.
+     */
+    private static final String GLOBAL = "global";
+
+    /**
+     * The saved hashes, loaded from the {@link Bot.Config#COMMAND_HASH_FILE hash file} on first use.
+     */
+    private static Properties hashes;
+
+    /**
+     * How a set of commands was synced.
+     */
+    private enum Change {
+        /**
+         * The hash matched the saved one, so nothing was sent.
+         */
+        UNCHANGED,
+
+        /**
+         * The registered commands were retrieved, and they already matched.
+         */
+        MATCHED,
+
+        /**
+         * Some commands were sent or deleted.
+         */
+        UPDATED
+    }
+
+    /**
+     * Where to sync a set of commands.
+     *
+     * @param key      the key for its hash in the hash file
+     * @param name     a description for the log
+     * @param retrieve retrieves the registered commands
+     * @param upsert   creates or replaces one command
+     * @param delete   deletes one command, by id
+     */
+    private record Target(String key, String name, Supplier<RestAction<List<Command>>> retrieve,
+                          Function<CommandData, RestAction<?>> upsert, Function<String, RestAction<?>> delete) {
+        @Nonnull
+        static Target of(@Nonnull JDA jda) {
+            return new Target(GLOBAL, "global commands", jda::retrieveCommands, jda::upsertCommand,
+                    jda::deleteCommandById);
+        }
+
+        @Nonnull
+        static Target of(@Nonnull Guild guild) {
+            return new Target(guild.getId(), "commands in " + guild.getName(), guild::retrieveCommands,
+                    guild::upsertCommand, guild::deleteCommandById);
+        }
+    }
+
+    /**
+     * Sync the global commands, if {@link Bot.Config#LOAD_GLOBAL_COMMANDS enabled}. This is called on {@link
+     * OnStartup startup}.
+     *
+     * @return {@link OnStartup.Result#SUCCESS Success} if the commands are in sync; {@link OnStartup.Result#OMITTED
+     *         omitted} if this is disabled; or {@link OnStartup.Result#FAILURE failure} if there was an error
+     */
+    static OnStartup.Result syncGlobal() {
+        if (!Bot.Config.LOAD_GLOBAL_COMMANDS)
+            return OnStartup.Result.OMITTED;
+
+        try {
+            List<CommandData> commands = CommandTable.globalSlashCommands();
+            Change change = sync(Target.of(Main.JDA), commands, hash(commands)).join();
+            OnStartup.LOG.info("Synced {} global slash commands: {}", commands.size(),
+                               change.name().toLowerCase(Locale.ROOT));
+            return OnStartup.Result.SUCCESS;
+        } catch (Exception e) {
+            OnStartup.LOG.error("Failed to sync the global slash commands.", e);
+            return OnStartup.Result.FAILURE;
+        } finally {
+            saveHashes();
+        }
+    }
+
+    /**
+     * Sync the local commands to each of the {@link Bot.Config#LOCAL_COMMAND_GUILDS local command guilds}, if {@link
+     * Bot.Config#LOAD_LOCAL_COMMANDS enabled}. This is called on {@link OnStartup startup}, and returns once every
+     * guild has been synced.
+     *
+     * @return {@link OnStartup.Result#SUCCESS Success} if every guild is in sync; {@link OnStartup.Result#OMITTED
+     *         omitted} if this is disabled; or {@link OnStartup.Result#FAILURE failure} if any guild failed
+     */
+    static OnStartup.Result syncLocal() {
+        if (!Bot.Config.LOAD_LOCAL_COMMANDS)
+            return OnStartup.Result.OMITTED;
+
+        List<CommandData> commands = CommandTable.localSlashCommands();
+        String hash = hash(commands);
+        List<Guild> guilds;
+        try {
+            guilds = localGuilds();
+        } catch (IllegalArgumentException e) {
+            OnStartup.LOG.error("Failed to sync the local slash commands. {}", e.getMessage());
+            return OnStartup.Result.FAILURE;
+        }
+
+        int concurrency = Math.max(1, Bot.Config.COMMAND_SYNC_CONCURRENCY);
+        Semaphore permits = new Semaphore(concurrency);
+        EnumMap<Change, AtomicInteger> changes = new EnumMap<>(Change.class);
+        for (Change change : Change.values())
+            changes.put(change, new AtomicInteger());
+        AtomicInteger done = new AtomicInteger(), failed = new AtomicInteger();
+
+        try {
+            for (Guild guild : guilds) {
+                permits.acquire();
+                sync(Target.of(guild), commands, hash).whenComplete((change, error) -> {
+                    if (error != null) {
+                        failed.incrementAndGet();
+                        OnStartup.LOG.error("Failed to sync the local slash commands in {}.", guild.getName(),
+                                error);
+                    } else
+                        changes.get(change).incrementAndGet();
+
+                    // Report the progress every tenth of the way through
+                    int count = done.incrementAndGet();
+                    if (guilds.size() >= 10 && count % (guilds.size() / 10) == 0 && count < guilds.size())
+                        OnStartup.LOG.info("Synced local slash commands in {}/{} guilds", count, guilds.size());
+                    permits.release();
+                });
+            }
+
+            // Wait for the last guilds to finish
+            permits.acquire(concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            OnStartup.LOG.error("Stopped waiting for the local slash commands after {}/{} guilds. The rest are " +
+                                "still being synced.", done.get(), guilds.size());
+            return OnStartup.Result.FAILURE;
+        } finally {
+            saveHashes();
+        }
+
+        OnStartup.LOG.info("Synced {} local slash commands in {} guilds: {} unchanged, {} matched, {} updated, " +
+                           "{} failed", commands.size(), guilds.size(), changes.get(Change.UNCHANGED).get(),
+                changes.get(Change.MATCHED).get(), changes.get(Change.UPDATED).get(), failed.get());
+        return failed.get() == 0 ? OnStartup.Result.SUCCESS : OnStartup.Result.FAILURE;
+    }
+
+    /**
+     * Sync one set of commands to one target, skipping it entirely if its hash matches the saved one.
+     *
+     * @param target   where to sync the commands
+     * @param commands the commands
+     * @param hash     the {@link #hash(List) hash} of the commands
+     *
+     * @return what was changed. This completes once Discord has accepted every change.
+     */
+    @Nonnull
+    private static CompletableFuture<Change> sync(@Nonnull Target target, @Nonnull List<CommandData> commands,
+                                                  @Nonnull String hash) {
+        if (hash.equals(getHash(target.key())))
+            return CompletableFuture.completedFuture(Change.UNCHANGED);
+
+        CompletableFuture<List<Command>> retrieved;
+        try {
+            retrieved = target.retrieve().get().submit();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return retrieved.thenCompose(registered -> {
+            Map<String, Command> existing = new HashMap<>();
+            for (Command command : registered)
+                existing.put(command.getName(), command);
+
+            List<CompletableFuture<?>> requests = new ArrayList<>();
+            int sent = 0, deleted = 0;
+            for (CommandData command : commands) {
+                Command current = existing.remove(command.getName());
+                if (current == null || !signature(current).equals(signature(command))) {
+                    requests.add(target.upsert().apply(command).submit());
+                    sent++;
+                }
+            }
+            for (Command stale : existing.values()) {
+                requests.add(target.delete().apply(stale.getId()).submit());
+                deleted++;
+            }
+
+            if (!requests.isEmpty())
+                OnStartup.LOG.info("Updating {}: sending {}, deleting {}", target.name(), sent, deleted);
+            return CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(ignore -> {
+                        setHash(target.key(), hash);
+                        return requests.isEmpty() ? Change.MATCHED : Change.UPDATED;
+                    });
+        });
+    }
+
+    /**
+     * Get the guilds to sync the local commands to, from {@link Bot.Config#LOCAL_COMMAND_GUILDS}.
+     *
+     * @return the guilds. Guilds that the bot isn't in are {@link Utils#getGuild(long) logged} and left out.
+     * @throws IllegalArgumentException if the setting is malformed
+     */
+    @Nonnull
+    private static List<Guild> localGuilds() {
+        String setting = Bot.Config.LOCAL_COMMAND_GUILDS == null ? "" : Bot.Config.LOCAL_COMMAND_GUILDS.trim();
+        if (setting.equalsIgnoreCase("all"))
+            return Main.SHARDS != null ? Main.SHARDS.getGuilds() : Main.JDA.getGuilds();
+
+        List<Guild> guilds = new ArrayList<>();
+        List<String> ids = setting.isEmpty()
+                ? List.of(Long.toString(Bot.ID.Guild.DEVELOPMENT))
+                : List.of(setting.split("[,\\s]+"));
+        for (String id : ids) {
+            try {
+                Guild guild = Utils.getGuild(Long.parseLong(id));
+                if (guild != null)
+                    guilds.add(guild);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid guild id '" + id + "' in local_command_guilds.");
+            }
+        }
+        return guilds;
+    }
+
+    /**
+     * Hash a set of commands. The hash only depends on the commands' {@link #signature(CommandData) signatures}, not
+     * their order.
+     *
+     * @param commands the commands
+     *
+     * @return the SHA-256 hash, in hexadecimal
+     */
+    @Nonnull
+    static String hash(@Nonnull List<CommandData> commands) {
+        List<String> signatures = new ArrayList<>();
+        for (CommandData command : commands)
+            signatures.add(signature(command));
+        Collections.sort(signatures);
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String signature : signatures)
+                digest.update((signature + "\n").getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    /**
+     * Describe everything about a command that Discord stores, so that a command to be sent can be compared to one
+     * that's registered.
+     *
+     * @param command the command to be sent
+     *
+     * @return the signature, in the same format as {@link #signature(Command)}
+     */
+    @Nonnull
+    private static String signature(@Nonnull CommandData command) {
+        StringJoiner s = new StringJoiner("|", command.getName() + "|" + command.getDescription() + "|", "");
+        for (OptionData option : command.getOptions())
+            s.add(option(option.getType().name(), option.getName(), option.getDescription(), option.isRequired(),
+                    option.getChoices()));
+        for (SubcommandData sub : command.getSubcommands())
+            s.add(subcommand(sub));
+        for (SubcommandGroupData group : command.getSubcommandGroups()) {
+            StringJoiner g = new StringJoiner(",", "group(" + group.getName() + ":" + group.getDescription() + ":",
+                    ")");
+            for (SubcommandData sub : group.getSubcommands())
+                g.add(subcommand(sub));
+            s.add(g.toString());
+        }
+        return s.toString();
+    }
+
+    /**
+     * Describe a registered command in the same format as {@link #signature(CommandData)}.
+     *
+     * @param command the registered command
+     *
+     * @return the signature
+     */
+    @Nonnull
+    private static String signature(@Nonnull Command command) {
+        StringJoiner s = new StringJoiner("|", command.getName() + "|" + command.getDescription() + "|", "");
+        for (Command.Option option : command.getOptions())
+            s.add(option(option.getType().name(), option.getName(), option.getDescription(), option.isRequired(),
+                    option.getChoices()));
+        for (Command.Subcommand sub : command.getSubcommands())
+            s.add(subcommand(sub));
+        for (Command.SubcommandGroup group : command.getSubcommandGroups()) {
+            StringJoiner g = new StringJoiner(",", "group(" + group.getName() + ":" + group.getDescription() + ":",
+                    ")");
+            for (Command.Subcommand sub : group.getSubcommands())
+                g.add(subcommand(sub));
+            s.add(g.toString());
+        }
+        return s.toString();
+    }
+
+    @Nonnull
+    private static String subcommand(@Nonnull SubcommandData sub) {
+        StringJoiner s = new StringJoiner(",", "sub(" + sub.getName() + ":" + sub.getDescription() + ":", ")");
+        for (OptionData option : sub.getOptions())
+            s.add(option(option.getType().name(), option.getName(), option.getDescription(), option.isRequired(),
+                    option.getChoices()));
+        return s.toString();
+    }
+
+    @Nonnull
+    private static String subcommand(@Nonnull Command.Subcommand sub) {
+        StringJoiner s = new StringJoiner(",", "sub(" + sub.getName() + ":" + sub.getDescription() + ":", ")");
+        for (Command.Option option : sub.getOptions())
+            s.add(option(option.getType().name(), option.getName(), option.getDescription(), option.isRequired(),
+                    option.getChoices()));
+        return s.toString();
+    }
+
+    @Nonnull
+    private static String option(@Nonnull String type, @Nonnull String name, @Nonnull String description,
+                                 boolean required, @Nonnull List<Command.Choice> choices) {
+        StringJoiner s = new StringJoiner(",", "option(" + type + ":" + name + ":" + description + ":" + required +
+                                               ":", ")");
+        for (Command.Choice choice : choices)
+            s.add(choice.getName() + "=" + choice.getAsString());
+        return s.toString();
+    }
+
+    /**
+     * Get the saved hash for a target, loading the hash file if it hasn't been loaded yet.
+     *
+     * @param key the target's key
+     *
+     * @return the hash, or <code>null</code> if there isn't one
+     */
+    private static synchronized String getHash(@Nonnull String key) {
+        if (hashes == null) {
+            hashes = new Properties();
+            try (InputStream in = Files.newInputStream(hashFile())) {
+                hashes.load(in);
+            } catch (NoSuchFileException ignore) {
+                // Nothing has been synced yet
+            } catch (IOException e) {
+                OnStartup.LOG.warn("Failed to read the command hash file {}. Every command set will be compared " +
+                                   "with Discord.", hashFile(), e);
+            }
+        }
+        return hashes.getProperty(key);
+    }
+
+    private static synchronized void setHash(@Nonnull String key, @Nonnull String hash) {
+        hashes.setProperty(key, hash);
+    }
+
+    /**
+     * Write the saved hashes to the hash file. The file is replaced in one step, so it's never left half written.
+     */
+    private static synchronized void saveHashes() {
+        if (hashes == null)
+            return;
+
+        Path file = hashFile();
+        try {
+            if (file.getParent() != null)
+                Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "commands", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                hashes.store(out, "Hashes of the slash commands registered with Discord. Delete this file to " +
+                                  "compare every command again.");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            OnStartup.LOG.warn("Failed to save the command hash file {}. The commands will be compared with " +
+                               "Discord again on the next start.", file, e);
+        }
+    }
+
+    @Nonnull
+    private static Path hashFile() {
+        String file = Bot.Config.COMMAND_HASH_FILE;
+        return Path.of(file == null || file.isBlank() ? "command-hashes.properties" : file.trim());
+    }
+}
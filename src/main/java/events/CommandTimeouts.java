@@ -0,0 +1,304 @@
+package events;
+
+import commands.Command;
+import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import utils.Bot;
+import utils.Utils;
+
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This bounds how long a command handler can run, so that a handler that hangs (for example, on a blocking
+ * <code>complete()</code> or a slow downstream service) can't hold its thread forever. {@link CommandExecutor} starts a
+ * {@link Deadline} for every handler it runs. If the handler is still running when its budget is up, the thread
+ * running it is interrupted, the user gets a standard {@link Utils#error(String) error} reply, and the {@link
+ * Command#getTimeouts() timeout} is counted.
+ * <p>
+ * Each command's budget is the first of these that's set:
+ * <ol>
+ *     <li>Its entry in {@link Bot.Config#COMMAND_TIMEOUTS}.
+ *     <li>The <code>timeoutMs</code> declared in its <code>@TextCommand</code> or <code>@SlashCommand</code>
+ *     annotation.
+ *     <li>The default, {@link Bot.Config#COMMAND_TIMEOUT_MS}.
+ * </ol>
+ * A budget of <code>0</code> means no limit.
+ * <p>
+ * Cancellation is cooperative. Blocking calls like <code>complete()</code>, <code>Thread.sleep()</code>, and most I/O
+ * return early with an exception when the thread is interrupted, which unwinds the handler and releases its resources
+ * through the usual <code>finally</code> blocks. A handler that loops without blocking should check {@link
+ * Thread#isInterrupted()}. Once the handler returns, the interrupt is cleared, so that it doesn't leak into whatever
+ * the thread does next. In event mode, that's the JDA event thread.
+ * <p>
+ * Deadlines are checked by one background thread every {@value #CHECK_INTERVAL_MILLIS} ms, instead of scheduling a
+ * timer for each command. Each platform thread reuses its deadline, so starting and finishing one on the event thread
+ * doesn't allocate.
+ */
+public class CommandTimeouts {
+    /**
+     * How often the deadlines are checked, in milliseconds. Timeouts are enforced to within about this much.
+     */
+    private static final long CHECK_INTERVAL_MILLIS = 100;
+
+    /**
+     * The message sent to the user when their command times out.
+     */
+    private static final String TIMEOUT_MESSAGE = "Sorry, that command took too long, so it was stopped.";
+
+    /**
+     * The budget for commands that don't declare their own, in milliseconds, or <code>0</code> for no limit.
+     */
+    private static volatile long defaultMillis;
+
+    /**
+     * The budgets set in <code>bot.properties</code> for individual commands, by command name.
+     */
+    private static volatile Map<String, Long> overrides = Map.of();
+
+    /**
+     * Every deadline that could currently be running.
+     */
+    private static final Set<Deadline> DEADLINES = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The reusable deadline for each platform thread that runs commands.
+     */
+    private static final ThreadLocal<Deadline> PLATFORM_DEADLINES = ThreadLocal.withInitial(() -> {
+        Deadline deadline = new Deadline(Thread.currentThread());
+        DEADLINES.add(deadline);
+        return deadline;
+    });
+
+    private static ScheduledExecutorService checker;
+
+    /**
+     * Load the timeout settings, and start checking deadlines if that hasn't started yet. This is called on {@link
+     * OnStartup startup} and whenever <code>bot.properties</code> is reloaded.
+     *
+     * @return {@link OnStartup.Result#SUCCESS Success} if every timeout was loaded; {@link OnStartup.Result#FAILURE
+     *         failure} if any of them were malformed, in which case those commands use their declared or default
+     *         timeout.
+     */
+    static synchronized OnStartup.Result load() {
+        OnStartup.Result result = OnStartup.Result.SUCCESS;
+
+        long millis = Bot.Config.COMMAND_TIMEOUT_MS;
+        if (millis < 0) {
+            OnStartup.LOG.error("Failed to load command_timeout_ms. The timeout can't be negative.");
+            millis = 0;
+            result = OnStartup.Result.FAILURE;
+        }
+
+        Map<String, Long> map = new HashMap<>();
+        String timeouts = Bot.Config.COMMAND_TIMEOUTS;
+        if (timeouts != null) {
+            for (String entry : timeouts.split(";")) {
+                if (entry.isBlank())
+                    continue;
+
+                int colon = entry.indexOf(':');
+                try {
+                    if (colon < 0)
+                        throw new IllegalArgumentException("Each entry must be a command name, a colon, and a " +
+                                                           "timeout in milliseconds.");
+                    long timeout = Long.parseLong(entry.substring(colon + 1).trim());
+                    if (timeout < 0)
+                        throw new IllegalArgumentException("The timeout can't be negative.");
+                    map.put(entry.substring(0, colon).trim().toLowerCase(Locale.ROOT), timeout);
+                } catch (IllegalArgumentException e) {
+                    OnStartup.LOG.error("Failed to load the command timeout '{}'. {}", entry.trim(), e.getMessage());
+                    result = OnStartup.Result.FAILURE;
+                }
+            }
+        }
+
+        defaultMillis = millis;
+        overrides = Map.copyOf(map);
+
+        if (checker == null) {
+            checker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Command Timeouts");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checker.scheduleAtFixedRate(CommandTimeouts::check, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        OnStartup.LOG.info("Loaded command timeouts: {} by default, and {} command-specific timeouts {}",
+                           millis == 0 ? "no limit" : millis + " ms", overrides.size(), overrides);
+        return result;
+    }
+
+    /**
+     * Get the budget for a command.
+     *
+     * @param command the command
+     *
+     * @return the budget in milliseconds, or <code>0</code> for no limit
+     */
+    public static long getBudget(@Nonnull Command<?> command) {
+        Long override = overrides.get(command.getName());
+        if (override != null)
+            return override;
+        return command.getTimeoutMillis() > 0 ? command.getTimeoutMillis() : defaultMillis;
+    }
+
+    /**
+     * Start the deadline for a handler that's about to run on the current thread. Every call must be followed by
+     * {@link Deadline#finish()} once the handler returns, whether or not it threw an exception.
+     *
+     * @param command the command
+     * @param event   the event passed to the handler, which is either a {@link MessageReceivedEvent} or a {@link
+     *                SlashCommandEvent}. It's used to tell the user if the command times out.
+     *
+     * @return the deadline
+     */
+    @Nonnull
+    static Deadline start(@Nonnull Command<?> command, @Nonnull Object event) {
+        Deadline deadline;
+        if (Thread.currentThread().isVirtual()) {
+            // Virtual threads run a single command, so their deadline is dropped when it finishes
+            deadline = new Deadline(Thread.currentThread());
+            DEADLINES.add(deadline);
+        } else {
+            deadline = PLATFORM_DEADLINES.get();
+        }
+
+        deadline.start(command, event, getBudget(command));
+        return deadline;
+    }
+
+    /**
+     * Check every running deadline, and interrupt the handlers that have overrun.
+     */
+    private static void check() {
+        long now = System.nanoTime();
+        for (Deadline deadline : DEADLINES) {
+            try {
+                deadline.check(now);
+            } catch (RuntimeException e) {
+                // An exception would stop the checker, so it's only logged
+                CommandExecutor.LOG.error("Encountered an unexpected error while timing out a command.", e);
+            }
+        }
+    }
+
+    /**
+     * Tell the user that their command timed out.
+     *
+     * @param event the event passed to the handler
+     */
+    private static void reply(@Nonnull Object event) {
+        if (event instanceof MessageReceivedEvent message)
+            Utils.error(message.getMessage(), TIMEOUT_MESSAGE);
+        else if (event instanceof SlashCommandEvent slash)
+            ReplyWatchdog.fail(slash, TIMEOUT_MESSAGE);
+    }
+
+    /**
+     * The deadline for the handler running on one thread. On a platform thread, it's reused for every handler that
+     * the thread runs; on a virtual thread, it's only used once.
+     * <p>
+     * The owning thread and the checker only change it while holding its lock, which is uncontended unless the
+     * handler is timing out. That's what makes sure the thread is only interrupted while the handler is running.
+     */
+    static final class Deadline {
+        private final Thread thread;
+        private Command<?> command;
+        private Object event;
+        private long budgetMillis;
+        private long expiresAt;
+        private volatile boolean expired;
+
+        private Deadline(@Nonnull Thread thread) {
+            this.thread = thread;
+        }
+
+        /**
+         * Start timing a handler.
+         *
+         * @param command      the command
+         * @param event        the event passed to the handler
+         * @param budgetMillis the budget, or <code>0</code> for no limit
+         */
+        private synchronized void start(@Nonnull Command<?> command, @Nonnull Object event, long budgetMillis) {
+            this.command = budgetMillis == 0 ? null : command;
+            this.event = budgetMillis == 0 ? null : event;
+            this.budgetMillis = budgetMillis;
+            this.expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+            this.expired = false;
+        }
+
+        /**
+         * Check whether the handler ran out of time. Exceptions thrown by a handler after that are expected, since
+         * it was interrupted, so they aren't treated as errors.
+         *
+         * @return <code>true</code> if the handler timed out
+         */
+        boolean isExpired() {
+            return expired;
+        }
+
+        /**
+         * Stop timing the handler, and clear the interrupt if it timed out. This must be called on the thread that
+         * ran the handler.
+         */
+        synchronized void finish() {
+            command = null;
+            event = null;
+            if (expired)
+                Thread.interrupted();
+            if (thread.isVirtual())
+                DEADLINES.remove(this);
+        }
+
+        /**
+         * Time out the handler if it has overrun. This is called by the checker.
+         *
+         * @param now the current {@link System#nanoTime()}
+         */
+        private void check(long now) {
+            Command<?> command;
+            Object event;
+            long budget;
+            Throwable where;
+            synchronized (this) {
+                if (this.command == null || expired) {
+                    // Platform threads that have died don't need their deadline anymore
+                    if (!thread.isAlive())
+                        DEADLINES.remove(this);
+                    return;
+                }
+                if (now - expiresAt < 0)
+                    return;
+
+                command = this.command;
+                event = this.event;
+                budget = budgetMillis;
+                where = new Throwable("The handler was at");
+                where.setStackTrace(thread.getStackTrace());
+                expired = true;
+                thread.interrupt();
+            }
+
+            command.getTimeouts().increment();
+            CommandExecutor.LOG.warn("The '{}' command ran for longer than {} ms on {}, so it was interrupted.",
+                                     command, budget, thread.getName(), where);
+            reply(event);
+        }
+
+        @Override
+        public String toString() {
+            return "Deadline(" + thread.getName() + ")";
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package events;
+
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+import utils.ConfigSnapshot;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.*;
+
+/**
+ * This reloads <code>bot.properties</code> whenever it changes, so that settings can be changed without restarting
+ * the bot and reconnecting to Discord.
+ * <p>
+ * The bundled resource can't change while the bot is running, so this only works with an external file. Set the
+ * <code>bot.properties</code> system property (or the <code>BOT_PROPERTIES</code> environment variable) to its path,
+ * for example with <code>-Dbot.properties=/etc/templatebot/bot.properties</code>. The external file is then used
+ * instead of the resource, and a background thread watches it with a {@link WatchService}.
+ * <p>
+ * On each change, the file is loaded again, the derived settings (prefixes, rate limits, and presence) are rebuilt,
+ * and a new {@link ConfigSnapshot} is published. Settings that are only used while connecting, like the {@link
+ * utils.Bot.Gateway gateway} settings, still need a restart.
+ */
+public class ConfigWatcher {
+    /**
+     * This logger is used for errors while watching the file.
+     */
+    public static final Logger LOG = JDALogger.getLog(ConfigWatcher.class);
+
+    /**
+     * How long to wait after a change before reloading. Editors often save a file in several steps, and this lets
+     * them finish so that the file is only reloaded once.
+     */
+    private static final long DEBOUNCE_MILLIS = 250;
+
+    /**
+     * Get the external <code>bot.properties</code> file, if one is configured.
+     *
+     * @return the path to the file, or <code>null</code> to use the bundled resource
+     */
+    @Nullable
+    public static Path getFile() {
+        String path = System.getProperty("bot.properties", System.getenv("BOT_PROPERTIES"));
+        return path == null || path.isBlank() ? null : Path.of(path).toAbsolutePath();
+    }
+
+    /**
+     * Start watching the external file for changes. This is called once on {@link OnStartup startup}.
+     *
+     * @return {@link OnStartup.Result#SUCCESS Success} if the file is being watched; {@link OnStartup.Result#OMITTED
+     *         omitted} if there is no external file; or {@link OnStartup.Result#FAILURE failure} if it couldn't be
+     *         watched.
+     */
+    static OnStartup.Result start() {
+        Path file = getFile();
+        if (file == null)
+            return OnStartup.Result.OMITTED;
+
+        try {
+            WatchService watcher = file.getFileSystem().newWatchService();
+            file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+
+            Thread thread = new Thread(() -> watch(watcher, file), "Config Watcher");
+            thread.setDaemon(true);
+            thread.start();
+
+            OnStartup.LOG.info("Watching {} for changes", file);
+            return OnStartup.Result.SUCCESS;
+        } catch (IOException e) {
+            OnStartup.LOG.error("Failed to watch {} for changes. It will only be loaded on startup.", file, e);
+            return OnStartup.Result.FAILURE;
+        }
+    }
+
+    /**
+     * Wait for changes to the file and reload it after each one. This runs until the thread is interrupted or the
+     * directory containing the file can no longer be watched.
+     *
+     * @param watcher the watch service, registered on the file's directory
+     * @param file    the file to watch
+     */
+    private static void watch(@Nonnull WatchService watcher, @Nonnull Path file) {
+        try (watcher) {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents())
+                    if (file.getFileName().equals(event.context()))
+                        changed = true;
+
+                if (!key.reset()) {
+                    LOG.error("Stopped watching {}, since its directory is no longer accessible.", file);
+                    return;
+                }
+                if (!changed)
+                    continue;
+
+                // Let the editor finish saving, and ignore the rest of its events
+                Thread.sleep(DEBOUNCE_MILLIS);
+                for (WatchKey extra = watcher.poll(); extra != null; extra = watcher.poll()) {
+                    extra.pollEvents();
+                    extra.reset();
+                }
+
+                try {
+                    OnStartup.reload();
+                } catch (Exception e) {
+                    LOG.error("Encountered an unexpected error while reloading {}.", file, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOG.error("Failed to close the watch service for {}.", file, e);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package events;
+
+import net.dv8tion.jda.api.events.RawGatewayEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import utils.Bot;
+import utils.GatewayConfig;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This records every gateway dispatch the bot receives to a file, so that a real stream of events (such as a busy hour
+ * in production) can be replayed later without a Discord connection. It's enabled by setting {@link
+ * Bot.Gateway#RECORD_EVENTS record_events} to a file path, which also turns on JDA's raw events.
+ * <p>
+ * A recording is a gzip stream that starts with {@link #MAGIC}, followed by one entry per dispatch: the time since
+ * the recording started in nanoseconds (a <code>long</code>), the event type (as {@link DataOutput#writeUTF(String)
+ * modified UTF-8}), the length of the event data (an <code>int</code>), and the data itself (the <code>d</code> field
+ * of the payload) as UTF-8 JSON. Sequence numbers aren't kept, since a replay numbers the events
+ * itself. Only the first <code>READY</code> is kept, since a replay is one session; later <code>READY</code> and
+ * <code>RESUMED</code> dispatches from reconnects are skipped.
+ * <p>
+ * The file is completed when the bot shuts down normally. A recording that was cut off (for example, because the
+ * process was killed) can still be {@link #read(Path) read} up to the last complete entry.
+ * <p>
+ * <b>Recordings contain everything the bot can see, including message contents.</b> Treat them like a database
+ * dump.
+ */
+public class EventRecorder extends ListenerAdapter {
+    /**
+     * This logger is used for errors while writing the recording.
+     */
+    public static final Logger LOG = JDALogger.getLog(EventRecorder.class);
+
+    /**
+     * The bytes at the start of every recording, which identify the format and its version.
+     */
+    private static final byte[] MAGIC = "TBREC1".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The maximum number of entries waiting to be written.
+     */
+    private static final int BUFFERED_ENTRIES = 1 << 16;
+
+    /**
+     * How long to wait for the waiting entries to be written when the bot shuts down, in milliseconds.
+     */
+    private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * The dispatch that tells the writer to stop.
+     */
+    private static final Dispatch END = new Dispatch(0, "", new byte[0]);
+
+    private final DataOutputStream out;
+    private final long start = System.nanoTime();
+    private final BlockingQueue<Dispatch> pending = new ArrayBlockingQueue<>(BUFFERED_ENTRIES);
+    private final Thread writer = new Thread(this::write, "Event Recorder");
+    private boolean ready, closed;
+
+    /**
+     * Whether the gateway thread has had to wait for the writer, which is only logged the first time.
+     */
+    private volatile boolean behind;
+
+    /**
+     * The number of entries written, and whether the file has been closed. These are guarded by {@link #out}.
+     */
+    private long entries;
+    private boolean finished;
+
+    private EventRecorder(@Nonnull DataOutputStream out) {
+        this.out = out;
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Start recording to the {@link Bot.Gateway#RECORD_EVENTS record_events} file, if it's set. The file is replaced
+     * if it exists, and closed when the JVM shuts down.
+     *
+     * @return the recorder, which must be added as an event listener, or <code>null</code> if recording is disabled
+     *         or the file couldn't be created
+     */
+    @Nullable
+    public static EventRecorder create() {
+        if (!isEnabled()) {
+            if (isSet())
+                LOG.warn("Events aren't recorded when the bot is sharded, since a recording is replayed as a single " +
+                         "session. Set shards_total to 0 to record events.");
+            return null;
+        }
+
+        Path file = Path.of(Bot.Gateway.RECORD_EVENTS.trim());
+        try {
+            if (file.toAbsolutePath().getParent() != null)
+                Files.createDirectories(file.toAbsolutePath().getParent());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(file), 1 << 16), 1 << 16));
+            out.write(MAGIC);
+
+            EventRecorder recorder = new EventRecorder(out);
+            Runtime.getRuntime().addShutdownHook(new Thread(recorder::close, "Event Recorder Shutdown"));
+            LOG.warn("Recording every gateway event to {}. Recordings include message contents.",
+                     file.toAbsolutePath());
+            return recorder;
+        } catch (IOException e) {
+            LOG.error("Failed to create the event recording {}. Events won't be recorded.", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Check whether events are being recorded, which requires JDA's raw events to be enabled.
+     *
+     * @return <code>true</code> if {@link Bot.Gateway#RECORD_EVENTS record_events} is set and the bot isn't {@link
+     *         GatewayConfig#isSharded() sharded}
+     */
+    public static boolean isEnabled() {
+        return isSet() && !GatewayConfig.isSharded();
+    }
+
+    /**
+     * Check whether a recording file is set.
+     *
+     * @return <code>true</code> if {@link Bot.Gateway#RECORD_EVENTS record_events} isn't blank
+     */
+    private static boolean isSet() {
+        return Bot.Gateway.RECORD_EVENTS != null && !Bot.Gateway.RECORD_EVENTS.isBlank();
+    }
+
+    @Override
+    public void onRawGateway(@NotNull RawGatewayEvent event) {
+        String type = event.getType();
+        long nanos = System.nanoTime() - start;
+        synchronized (this) {
+            if (closed || type.equals("RESUMED") || type.equals("READY") && ready)
+                return;
+            ready |= type.equals("READY");
+        }
+
+        Dispatch dispatch = new Dispatch(nanos, type, event.getPayload().toJson());
+        if (pending.offer(dispatch))
+            return;
+
+        if (!behind) {
+            behind = true;
+            LOG.warn("The event recording is falling behind, so event handling is waiting for it.");
+        }
+        try {
+            pending.put(dispatch);
+        } catch (InterruptedException e) {
+            LOG.error("Interrupted while recording a {} event. The recording is missing it.", type);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write entries as they arrive, until the recording is {@link #close() closed}. This runs on the {@link #writer}
+     * thread.
+     */
+    private void write() {
+        while (true) {
+            Dispatch dispatch;
+            try {
+                dispatch = pending.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (dispatch == END)
+                return;
+
+            synchronized (out) {
+                if (finished)
+                    return;
+                try {
+                    out.writeLong(dispatch.nanos());
+                    out.writeUTF(dispatch.type());
+                    out.writeInt(dispatch.data().length);
+                    out.write(dispatch.data());
+                    entries++;
+                } catch (IOException e) {
+                    LOG.error("Failed to record a {} event.", dispatch.type(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finish the recording, once the entries that are waiting have been written.
+     */
+    private void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        try {
+            if (pending.offer(END, CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                writer.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive())
+            LOG.warn("Timed out writing the last {} events to the recording.", pending.size());
+
+        synchronized (out) {
+            finished = true;
+            try {
+                out.close();
+                LOG.info("Recorded {} gateway events to {}", entries, Bot.Gateway.RECORD_EVENTS.trim());
+            } catch (IOException e) {
+                LOG.error("Failed to finish the event recording.", e);
+            }
+        }
+    }
+
+    /**
+     * Read a recording.
+     *
+     * @param file the recording
+     *
+     * @return its entries, in the order they were received
+     * @throws IOException if the file can't be read or isn't a recording
+     */
+    @Nonnull
+    public static List<Entry> read(@Nonnull Path file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file), 1 << 16), 1 << 16))) {
+            if (!Arrays.equals(in.readNBytes(MAGIC.length), MAGIC))
+                throw new IOException(file + " isn't an event recording.");
+
+            while (true) {
+                long nanos;
+                try {
+                    nanos = in.readLong();
+                } catch (EOFException end) {
+                    break;
+                }
+                String type = in.readUTF();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                entries.add(new Entry(nanos, type, new String(data, StandardCharsets.UTF_8)));
+            }
+        } catch (EOFException e) {
+            // The recording was cut off, so the last entry is incomplete
+            LOG.warn("{} ends partway through an entry. Using the first {} entries.", file, entries.size());
+        }
+        return entries;
+    }
+
+    /**
+     * A dispatch waiting to be written.
+     *
+     * @param nanos the time since the recording started, in nanoseconds
+     * @param type  the event type
+     * @param data  the event data, as UTF-8 JSON
+     */
+    private record Dispatch(long nanos, @Nonnull String type, @Nonnull byte[] data) {
+    }
+
+    /**
+     * One recorded dispatch.
+     *
+     * @param nanos the time since the recording started, in nanoseconds
+     * @param type  the event type, such as <code>MESSAGE_CREATE</code>
+     * @param data  the event data, which is the <code>d</code> field of the gateway payload, as JSON
+     */
+    public record Entry(long nanos, @Nonnull String type, @Nonnull String data) {
+        /**
+         * Get the gateway payload for this event.
+         *
+         * @param sequence the sequence number to give it
+         *
+         * @return the payload, as JSON
+         */
+        @Nonnull
+        public String toPayload(long sequence) {
+            return "{\"op\":0,\"s\":" + sequence + ",\"t\":\"" + type + "\",\"d\":" + data + "}";
+        }
+    }
+}
@@ -1,17 +1,36 @@
 package events;
 
+import commands.Command;
+import commands.CommandTable;
+import commands.TextHandler;
+import metrics.Metrics;
 import net.dv8tion.jda.api.entities.Message;
-import net.dv8tion.jda.api.entities.MessageChannel;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import org.jetbrains.annotations.NotNull;
 import utils.Bot;
+import utils.CommandArgs;
+import utils.ConfigSnapshot;
+import utils.Deduplicator;
+import utils.PrefixMap;
 import utils.Utils;
 
-import java.util.Locale;
-
 public class OnMessage extends ListenerAdapter {
+    /**
+     * Each event thread reuses one {@link CommandArgs} instance, so that parsing a message doesn't allocate.
+     */
+    private static final ThreadLocal<CommandArgs> ARGS = ThreadLocal.withInitial(CommandArgs::new);
+
+    /**
+     * The messages recently handled as commands, so that a message Discord replays after a resume doesn't run its
+     * command twice. Only messages that start with a prefix are recorded, so the table covers the last few thousand
+     * commands rather than every message.
+     */
+    public static final Deduplicator HANDLED = new Deduplicator(1 << 16,
+            Metrics.counter("templatebot_duplicate_events_total",
+                    "Messages and interactions ignored because they were already handled.", "type", "message"));
+
     public void onMessageReceived(@NotNull MessageReceivedEvent event) {
         // Get the user who sent the message
         User user = event.getAuthor();
@@ -24,22 +43,33 @@ public class OnMessage extends ListenerAdapter {
         Message message = event.getMessage();
         String contents = message.getContentRaw();
 
-        // Ignore messages that don't use the prefix. If the prefix IS used, remove it.
-        if (contents.startsWith(Bot.Config.PREFIX) && contents.length() > Bot.Config.PREFIX.length())
-            contents = contents.substring(Bot.Config.PREFIX.length());
-        else
+        // Ignore messages that don't use one of the guild's prefixes. If one IS used, parse the arguments after it.
+        PrefixMap prefixes = ConfigSnapshot.get().getPrefixes();
+        if (prefixes == null)
+            return;
+
+        int prefix = prefixes.match(event.isFromGuild() ? event.getGuild().getIdLong() : 0, contents);
+        if (prefix < 0)
+            return;
+
+        CommandArgs args = ARGS.get().parse(contents, prefix);
+        if (args.isEmpty())
+            return;
+
+        // Ignore a message that was already handled, before it uses up any of the user's rate limit
+        if (!HANDLED.firstSeen(message.getIdLong()))
             return;
 
-        // Get the channel that the message was sent in, and parse the command arguments
-        MessageChannel channel = event.getChannel();
-        String[] args = contents.split("\\s+");
-
-        // Check and evaluate commands
-        switch (args[0].toLowerCase(Locale.ROOT)) {
-            case "ping" -> channel.sendMessage("pong").queue();
-            case "pong" -> channel.sendMessage("ping").queue();
-            case "user" -> channel.sendMessageEmbeds(Utils.getUserPanel(user).build()).queue();
-            default -> Utils.error(message, "Sorry, I don't recognize that command.");
-        }
+        // Check and evaluate commands. Text commands are declared with @TextCommand in the commands package.
+        Command<TextHandler> command = CommandTable.findText(args);
+
+        // Silently ignore users who are over their rate limit, since replying would only use more of it
+        if (!RateLimits.allow(command, user.getIdLong(), event.isFromGuild() ? event.getGuild().getIdLong() : 0))
+            return;
+
+        if (command == null)
+            Utils.error(message, "Sorry, I don't recognize that command.");
+        else
+            CommandExecutor.run(command, event, args);
     }
 }
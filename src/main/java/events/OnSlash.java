@@ -1,21 +1,40 @@
 package events;
 
-import commands.GlobalCommands;
-import commands.LocalCommands;
+import commands.Command;
+import commands.CommandTable;
+import commands.SlashHandler;
+import metrics.Metrics;
 import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import org.jetbrains.annotations.NotNull;
+import utils.Deduplicator;
+import utils.RestScheduler;
 
 public class OnSlash extends ListenerAdapter {
+    /**
+     * The interactions recently handled, so that an interaction Discord replays after a resume isn't answered twice.
+     * The second answer would fail anyway, since an interaction can only be acknowledged once.
+     */
+    public static final Deduplicator HANDLED = new Deduplicator(1 << 14,
+            Metrics.counter("templatebot_duplicate_events_total",
+                    "Messages and interactions ignored because they were already handled.", "type", "interaction"));
+
     public void onSlashCommand(@NotNull SlashCommandEvent event) {
-        switch (event.getName()) {
-            case "ping" -> GlobalCommands.ping(event);
-            case "help" -> GlobalCommands.help(event);
-            case "hello" -> LocalCommands.hello(event);
-            default -> event
-                    .reply("Sorry, I don't recognize that command. Please try again later.")
-                    .setEphemeral(true)
-                    .queue();
-        }
+        if (!HANDLED.firstSeen(event.getIdLong()))
+            return;
+
+        // Slash commands are declared with @SlashCommand in the commands package
+        Command<SlashHandler> command = CommandTable.findSlash(event.getName());
+
+        // Interactions must always be answered, so users over their rate limit get a short ephemeral reply
+        long guild = event.getGuild() == null ? 0 : event.getGuild().getIdLong();
+        if (!RateLimits.allow(command, event.getUser().getIdLong(), guild))
+            RestScheduler.queue(event.reply("You're using commands too quickly. Please wait a few seconds and try " +
+                                            "again.").setEphemeral(true), RestScheduler.Priority.INTERACTION);
+        else if (command == null)
+            RestScheduler.queue(event.reply("Sorry, I don't recognize that command. Please try again later.")
+                    .setEphemeral(true), RestScheduler.Priority.INTERACTION);
+        else
+            CommandExecutor.run(command, event);
     }
 }
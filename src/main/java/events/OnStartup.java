@@ -1,8 +1,8 @@
 package events;
 
-import commands.GlobalCommands;
-import commands.LocalCommands;
 import main.Main;
+import metrics.LatencyProbe;
+import metrics.MetricsServer;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.OnlineStatus;
 import net.dv8tion.jda.api.entities.Activity;
@@ -10,20 +10,33 @@ import net.dv8tion.jda.api.entities.TextChannel;
 import net.dv8tion.jda.api.events.ReadyEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.managers.Presence;
+import net.dv8tion.jda.api.sharding.ShardManager;
 import net.dv8tion.jda.api.utils.TimeFormat;
 import net.dv8tion.jda.internal.utils.JDALogger;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
+import storage.GuildSettings;
+import storage.Storage;
 import utils.Bot;
+import utils.BotBinder;
 import utils.Colors;
+import utils.ConfigSnapshot;
+import utils.EmbedCache;
+import utils.GatewayConfig;
+import utils.PrefixMap;
+import utils.RestScheduler;
 import utils.Utils;
 
 import javax.annotation.Nonnull;
-import java.awt.Color;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class contains almost all of the code specific to TemplateBot. This is what retrieves the settings defined in
@@ -35,33 +48,107 @@ import java.util.*;
  * <ol>
  *     <li>Write a <code>public static</code> method to execute the desired task. Make sure all {@link Exception
  *     Exceptions} are caught within the method.
- *     <li>Call your method somewhere in {@link #startupTasks(Map)}. It will run exactly once when the bot is started.
- *     <li>Optionally, have your method return a {@link Result Result} indicating whether it was successful, and add
- *     that result and a short description of the task to the <code>results</code> map. (See the implementation of
- *     {@link #setStatus()} within {@link #startupTasks(Map) startupTasks()} for an example).
+ *     <li>Have your method return a {@link Result Result} indicating whether it was successful.
+ *     <li>Add your method and a short description of the task to the {@link StartupTasks} in {@link
+ *     #startupTasks(StartupTasks)}, along with any tasks that must finish before it starts. It will run exactly once
+ *     when the bot is started, at the same time as the tasks that it doesn't depend on. (See {@link #setStatus()}
+ *     within {@link #startupTasks(StartupTasks) startupTasks()} for an example).
  * </ol>
  */
 public class OnStartup extends ListenerAdapter {
     /**
-     * This method runs once when the bot starts. Add code to this method that you need to run when the bot loads.
+     * This method runs once when the bot starts. Add the tasks that you need to run when the bot loads to
+     * <code>tasks</code>.
      * <p>
-     * Optionally, add a description of the task and a {@link Result Result} to <code>results</code>, and the task will
-     * be printed in the {@link Bot.Config#ENABLE_STARTUP_MESSAGE startup message} that the bot sends to the {@link
-     * Bot.ID.Channel#LOG log} channel.
+     * Each task is printed with its {@link Result Result} and how long it took in the {@link
+     * Bot.Config#ENABLE_STARTUP_MESSAGE startup message} that the bot sends to the {@link Bot.ID.Channel#LOG log}
+     * channel.
      */
-    private static void startupTasks(@Nonnull Map<String, Result> results) {
-        // Set the bot status and activity
-        results.put("Set bot status/activity", setStatus());
+    private static void startupTasks(@Nonnull StartupTasks tasks) {
+        // Load the per-guild settings into memory, before the prefix map is built from them
+        StartupTasks.Task storage = tasks.add("Loaded the settings store", Storage::open);
 
-        // Load slash commands, if enabled
-        loadSlashCommands(results);
+        // Build the command prefix map
+        StartupTasks.Task prefixes = tasks.add("Loaded command prefixes", OnStartup::loadPrefixes, storage);
+
+        // Build the command rate limiters
+        StartupTasks.Task rateLimits = tasks.add("Loaded rate limits", RateLimits::load);
+
+        // Load the command timeouts and start enforcing them
+        StartupTasks.Task timeouts = tasks.add("Loaded command timeouts", CommandTimeouts::load);
+
+        // Start sending outbound requests in priority order
+        StartupTasks.Task scheduler = tasks.add("Loaded the REST scheduler", RestScheduler::load);
+
+        // Check the execution mode and start reporting command latency
+        StartupTasks.Task executor = tasks.add("Started command executor", CommandExecutor::start);
+
+        // Serve the metrics, if enabled, and start measuring the latency for /ping
+        tasks.add("Started metrics server", MetricsServer::start);
+        tasks.add("Started latency probe", LatencyProbe::start);
+
+        // Create the bot activity from its type, text, and URL
+        StartupTasks.Task activity = tasks.add("Loaded bot activity", OnStartup::loadActivity);
+
+        // Make the settings above visible to the event handlers, and reload them whenever bot.properties changes
+        StartupTasks.Task watcher = tasks.add("Watching `bot.properties` for changes", () -> {
+            ConfigSnapshot.publish();
+            return ConfigWatcher.start();
+        }, prefixes, rateLimits, timeouts, scheduler, executor, activity);
+
+        // Set the bot status and activity, once they're in the published snapshot
+        tasks.add("Set bot status/activity", OnStartup::setStatus, watcher);
+
+        // Sync slash commands with Discord, if enabled. Unchanged commands aren't sent.
+        tasks.add("Synced global slash commands", CommandSync::syncGlobal);
+        tasks.add("Synced local slash commands", CommandSync::syncLocal);
+    }
+
+    /**
+     * This reloads <code>bot.properties</code> after it changes, rebuilding everything that depends on it and
+     * publishing a new {@link ConfigSnapshot}. It's called by the {@link ConfigWatcher}. If the file can't be read,
+     * the previous settings are kept.
+     */
+    static void reload() {
+        LOG.info("Reloading bot.properties...");
+        if (loadProperties() == Result.FAILURE) {
+            LOG.error("Failed to reload bot.properties. The previous settings are still in use.");
+            return;
+        }
+
+        loadPrefixes();
+        RateLimits.load();
+        CommandTimeouts.load();
+        RestScheduler.load();
+        loadActivity();
+
+        LOG.info("Reloaded bot.properties as {}", ConfigSnapshot.publish());
+        setStatus();
     }
 
     /**
      * This is the logger for printing bot startup information. Use this only for logging done through {@link
-     * #startupTasks(Map)} and the methods that it calls.
+     * #startupTasks(StartupTasks)} and the methods that it calls.
      */
     public static final Logger LOG = JDALogger.getLog(OnStartup.class);
+
+    /**
+     * The result of {@link #loadProperties()}, or {@link Result#OMITTED omitted} if it hasn't been called yet.
+     */
+    private static Result propertiesResult = Result.OMITTED;
+
+    /**
+     * The number of shards that have sent a {@link ReadyEvent}, and the guilds that they reported.
+     */
+    private static final AtomicInteger readyShards = new AtomicInteger(),
+            guildsAvailable = new AtomicInteger(),
+            guildsUnavailable = new AtomicInteger();
+
+    /**
+     * How long the last {@link #loadProperties()} took, in milliseconds.
+     */
+    private static long propertiesMillis = 0;
+
     private static int propertiesTotal = 0;
 
     private static int propertiesSuccessful = 0;
@@ -118,54 +205,104 @@ public class OnStartup extends ListenerAdapter {
      * This method is called once when the bot initially starts. It performs basic setup tasks including loading the bot
      * properties and updating the bot's presence. It also lists the basic information provided with the {@link
      * ReadyEvent}, sending the guild counts to the console.
+     * <p>
+     * When the bot is {@link GatewayConfig#isSharded() sharded}, this is called once for each shard. The guild counts
+     * are collected from every shard, and the setup tasks run once, after the last shard is ready.
      *
      * @param event the startup event
      */
     public void onReady(@NotNull ReadyEvent event) {
-        System.out.println();
+        LOG.info("ReadyEvent for shard {}: {} available guilds; {} unavailable guilds. Total: {}",
+                event.getJDA().getShardInfo().getShardString(),
+                event.getGuildAvailableCount(),
+                event.getGuildUnavailableCount(),
+                event.getGuildTotalCount());
+
+        // When sharded, wait until every shard is ready, and then run the startup processes once
+        guildsAvailable.addAndGet(event.getGuildAvailableCount());
+        guildsUnavailable.addAndGet(event.getGuildUnavailableCount());
+        // The shard manager comes from the event, since Main.SHARDS may not be assigned yet
+        ShardManager shards = event.getJDA().getShardManager();
+        int ready = readyShards.incrementAndGet(), expected = GatewayConfig.getShardCount(shards);
+        if (ready < expected) {
+            LOG.info("Waiting for {} more shards to start", expected - ready);
+            return;
+        } else if (ready > expected)
+            return;
+
+        if (shards != null)
+            Main.SHARDS = shards;
+        Main.JDA = event.getJDA();
+
+        // This is the cold start time, from launching the JVM to connecting to Discord (see StartupBenchmark)
+        LOG.info("Ready {} ms after the JVM started", ProcessHandle.current().info().startInstant()
+                .map(start -> Duration.between(start, Instant.now()).toMillis())
+                .orElse(-1L));
+
         LOG.info("Running startup processes...");
+        long started = System.nanoTime();
 
-        // This map stores the results of all the startup tasks. It's used to help print the startup message.
-        Map<String, Result> startupResults = new LinkedHashMap<>();
+        // This map stores the outcomes of all the startup tasks. It's used to help print the startup message.
+        Map<String, StartupTasks.Outcome> startupResults = new LinkedHashMap<>();
 
-        LOG.info(String.format("ReadyEvent count: %d available guilds; %d unavailable guilds. Total: %d",
-                event.getGuildAvailableCount(),
-                event.getGuildUnavailableCount(),
-                event.getGuildTotalCount()));
+        if (expected > 1)
+            LOG.info("All {} shards ready: {} available guilds; {} unavailable guilds. Total: {}",
+                    expected, guildsAvailable.get(), guildsUnavailable.get(),
+                    guildsAvailable.get() + guildsUnavailable.get());
 
-        // Load bot.properties and store the results
-        if (loadProperties() == Result.FAILURE)
+        // Store the bot's own user
+        loadSelf();
+
+        // Main normally loads bot.properties before connecting, since it configures the gateway
+        if (propertiesResult == Result.OMITTED)
+            loadProperties();
+        if (propertiesResult == Result.FAILURE)
             return;
 
         if (propertiesTotal == propertiesSuccessful)
-            startupResults.put("Loaded `bot.properties`", Result.SUCCESS);
+            startupResults.put("Loaded `bot.properties`",
+                    new StartupTasks.Outcome(Result.SUCCESS, propertiesMillis, false));
         else
-            startupResults.put("Partial failure loading `bot.properties`", Result.FAILURE);
+            startupResults.put("Partial failure loading `bot.properties`",
+                    new StartupTasks.Outcome(Result.FAILURE, propertiesMillis, false));
 
-        // Run startup tasks
+        // Run startup tasks in the background, so that the event thread is free to handle events in the meantime
+        StartupTasks tasks = new StartupTasks();
         try {
-            startupTasks(startupResults);
+            startupTasks(tasks);
         } catch (Exception e) {
-            LOG.error("Encountered an error while running startup tasks.");
-            e.printStackTrace();
+            LOG.error("Encountered an error while adding startup tasks.", e);
         }
 
-        // Send the startup message (if enabled)
-        if (Bot.Config.ENABLE_STARTUP_MESSAGE)
-            sendLogMessage(startupResults);
+        tasks.run(Bot.Config.STARTUP_THREADS, Bot.Config.STARTUP_TASK_TIMEOUT_MS, Bot.Config.STARTUP_TIMEOUT_MS)
+                .thenAccept(outcomes -> {
+                    startupResults.putAll(outcomes);
+                    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+                    // Report the memory used by the gateway and cache settings
+                    GatewayConfig.logCacheSizes();
 
-        // Create break in console now that setup has finished
-        LOG.info("Finished startup processes");
-        System.out.println();
+                    // Send the startup message (if enabled)
+                    if (Bot.Config.ENABLE_STARTUP_MESSAGE)
+                        sendLogMessage(startupResults, millis);
+
+                    LOG.info("Finished startup processes in {} ms", millis);
+                })
+                .exceptionally(e -> {
+                    LOG.error("Encountered an error while running startup tasks.", e);
+                    return null;
+                });
     }
 
     /**
      * This sends a message to the {@link Bot.ID.Channel#LOG log} channel containing information on the initial bot
-     * state and a report on which {@link #startupTasks(Map) startup tasks} were completed successfully.
+     * state and a report on which {@link #startupTasks(StartupTasks) startup tasks} were completed successfully, and
+     * how long each one took.
      *
-     * @param startupResults the map of startup tasks and their corresponding result when executed
+     * @param startupResults the map of startup tasks and their corresponding outcome when executed
+     * @param millis         the time taken by all the startup tasks together, in milliseconds
      */
-    private static void sendLogMessage(@Nonnull Map<String, Result> startupResults) {
+    private static void sendLogMessage(@Nonnull Map<String, StartupTasks.Outcome> startupResults, long millis) {
         // Define the initial log message
         EmbedBuilder log = Utils.makeEmbed(
                 Bot.Self.NAME + " Startup Log",
@@ -192,13 +329,23 @@ public class OnStartup extends ListenerAdapter {
 
         StringBuilder tasksLog = new StringBuilder();
 
-        // Build the startup checklist for each of the properties
-        for (String property : startupResults.keySet())
+        // Build the startup checklist for each of the properties, with the time each one took
+        long total = 0;
+        for (String property : startupResults.keySet()) {
+            StartupTasks.Outcome outcome = startupResults.get(property);
+            total += outcome.millis();
             tasksLog
                     .append("\n")
-                    .append(Result.emoji(startupResults.get(property)))
+                    .append(Result.emoji(outcome.result()))
                     .append(" ")
-                    .append(property);
+                    .append(property)
+                    .append(outcome.timedOut() ? " (timed out after `" : " (`")
+                    .append(outcome.millis())
+                    .append(" ms`)");
+        }
+
+        // Since tasks run in parallel, the total can be much less than the sum of the individual tasks
+        tasksLog.append(String.format("\n\nFinished in **%d ms** (**%d ms** of task time)", millis, total));
 
         log.addField(Utils.makeField(
                 "Startup Tasks",
@@ -208,7 +355,8 @@ public class OnStartup extends ListenerAdapter {
         try {
             TextChannel channel = Utils.getGuild(Bot.ID.Guild.DEVELOPMENT).getTextChannelById(Bot.ID.Channel.LOG);
             assert channel != null;
-            channel.sendMessageEmbeds(log.build()).queue();
+            RestScheduler.queue(channel.sendMessageEmbeds(log.build()), RestScheduler.Priority.DIAGNOSTIC,
+                    channel.getIdLong());
         } catch (NullPointerException ignore) {
             LOG.error("Failed to send the startup message. Couldn't get log channel in development server. " +
                       "Check IDs in bot.properties.");
@@ -217,219 +365,108 @@ public class OnStartup extends ListenerAdapter {
         }
     }
 
+    /**
+     * This stores the bot's own {@link Bot.Self#USER user}, {@link Bot.Self#ID id}, and {@link Bot.Self#NAME name},
+     * which are only available once the bot has connected.
+     */
+    private static void loadSelf() {
+        Bot.Self.USER = Main.JDA.getSelfUser();
+        Bot.Self.ID = Bot.Self.USER.getIdLong();
+        Bot.Self.NAME = Bot.Self.USER.getName();
+    }
+
     /**
      * This loads the configuration settings from the <code>bot.properties</code> resource file and stores the data as
-     * instance variables within {@link Bot}.
+     * instance variables within {@link Bot}. It's called by {@link Main} before the bot connects to Discord, since the
+     * {@link Bot.Gateway gateway} settings are needed to connect.
      *
      * @return {@link Result#SUCCESS success} if the <code>bot.properties</code> file is loaded successfully. Otherwise
      *         returns {@link Result#FAILURE failure}. This is not directly related to whether any of the properties
      *         themselves are properly loaded.
      */
     @Nonnull
-    private static Result loadProperties() {
-        Properties prop = new Properties();
-        Class<Bot> botClass = Bot.class;
-
-        // Set the Bot ID and Name
-        Bot.Self.USER = Main.JDA.getSelfUser();
-        Bot.Self.ID = Bot.Self.USER.getIdLong();
-        Bot.Self.NAME = Bot.Self.USER.getName();
+    public static Result loadProperties() {
+        long start = System.nanoTime();
+        propertiesResult = readProperties();
+        propertiesMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Cached embeds may use the old properties
+        EmbedCache.invalidate();
+        return propertiesResult;
+    }
 
-        // Attempt to load bot.properties
-        try {
-            InputStream stream = Utils.getResourceStream("/bot.properties");
+    /**
+     * Read <code>bot.properties</code> and set each {@link Bot} field. See {@link #loadProperties()}.
+     *
+     * @return {@link Result#SUCCESS success} if the file was read; otherwise {@link Result#FAILURE failure}
+     */
+    @Nonnull
+    private static Result readProperties() {
+        Properties prop = new Properties();
+        propertiesTotal = 0;
+        propertiesSuccessful = 0;
+
+        // Attempt to load bot.properties, from the external file if there is one
+        Path file = ConfigWatcher.getFile();
+        try (InputStream stream = file != null
+                ? Files.newInputStream(file)
+                : Utils.getResourceStream("/bot.properties")) {
             prop.load(stream);
-            stream.close();
         } catch (NullPointerException e) {
             LOG.error("Unable to locate the bot.properties file. Confirm that it is located in the " +
                       "resources folder for the module containing Main.java.");
             return Result.FAILURE;
         } catch (IOException e) {
-            LOG.error("Failed to read the bot.properties file on startup (IOException).", e);
+            LOG.error("Failed to read the bot.properties file{} (IOException).", file == null ? "" : " " + file, e);
             return Result.FAILURE;
         }
 
-        // Get all the fields in the Bot class and its subclasses
-        Map<String, Field> fields = getAllFields(botClass);
-
         // Iterate through each of the properties in bot.properties and set the corresponding Bot class field
         propertiesTotal = prop.stringPropertyNames().size();
         for (String property : prop.stringPropertyNames())
-            if (setProperty(property, prop.getProperty(property), fields) == Result.SUCCESS)
+            if (setProperty(property, prop.getProperty(property)) == Result.SUCCESS)
                 propertiesSuccessful++;
 
         // Log result to console
-        LOG.info(String.format("Loaded %d properties with %d %s from bot.properties",
+        LOG.info("Loaded {} properties with {} {} from bot.properties",
                 propertiesTotal,
                 propertiesTotal - propertiesSuccessful,
-                propertiesTotal - propertiesSuccessful == 1 ? "failure" : "failures"));
+                propertiesTotal - propertiesSuccessful == 1 ? "failure" : "failures");
 
         return Result.SUCCESS;
     }
 
     /**
-     * Store the value of the given property in the field with the same name.
+     * Store the value of the given property in the field with the same name, using the generated {@link BotBinder}.
      *
      * @param property the property name
      * @param value    the property value
-     * @param fields   the list of all fields in the {@link Bot} class.
      *
      * @return {@link Result#SUCCESS Success} if and only if the value is set without errors; {@link Result#FAILURE
-     *         failure} if an exception is thrown and an error is {@link #LOG logged} to the console.
+     *         failure} if there's no matching field or the value can't be converted, in which case an error is {@link
+     *         #LOG logged} to the console.
      */
     @Nonnull
-    private static Result setProperty(@Nonnull String property, @Nonnull String value,
-                                      @Nonnull Map<String, Field> fields) {
-        String name = property.toUpperCase();
+    private static Result setProperty(@Nonnull String property, @Nonnull String value) {
+        String name = property.toUpperCase(Locale.ROOT);
 
         try {
-            // Attempt to set the field
-            Field field = fields.get(property.toUpperCase());
-            if (field == null)
-                throw new NoSuchFieldException();
-            field.set(null, cast(value, field.getType()));
-
-            return Result.SUCCESS;
-        } catch (NoSuchFieldException e) {
-            LOG.error("Unable to find a static Bot field with the name '" + name +
-                      "'. This property was not set.");
-        } catch (SecurityException |
-                IllegalAccessException |
-                NullPointerException |
-                IllegalArgumentException e) {
-            LOG.error("Unable to set the property '" + name + "'. Is it marked public, static, and not final?");
-        } catch (ClassNotFoundException e) {
-            // The data type was not recognized. Use the custom error message thrown by the cast() method
-            LOG.error("Unable to set the property '" + name + "'. " + e.getMessage());
-        } catch (Exception e) {
-            LOG.error("Unable to set the property '" + name + "'. Cause is unknown.", e);
+            if (BotBinder.set(property, value))
+                return Result.SUCCESS;
+            LOG.error("Unable to find a static Bot field with the name '{}'. This property was not set.", name);
+        } catch (IllegalArgumentException e) {
+            // This includes NumberFormatException
+            LOG.error("Unable to set the property '{}'. {}", name, e.getMessage());
         }
 
         return Result.FAILURE;
     }
 
     /**
-     * Attempt to parse/cast the {@link String} value obtained from <code>bot.properties</code> into the requested
-     * type.
-     *
-     * @param value the value to parse/cast
-     * @param type  the type to convert it to
-     *
-     * @return the converted object matching the Java type of the type parameter
-     */
-    @Nonnull
-    private static Object cast(@Nonnull String value, @Nonnull Class<?> type) throws ClassNotFoundException {
-        if (type == String.class)
-            return value;
-
-            // Check primitive types
-        else if (type == Boolean.class || type == Boolean.TYPE)
-            return Boolean.parseBoolean(value);
-        else if (type == Integer.class || type == Integer.TYPE)
-            return Integer.parseInt(value);
-        else if (type == Double.class || type == Double.TYPE)
-            return Double.parseDouble(value);
-        else if (type == Long.class || type == Long.TYPE)
-            return Long.parseLong(value);
-        else if (type == Float.class || type == Float.TYPE)
-            return Float.parseFloat(value);
-        else if (type == Short.class || type == Short.TYPE)
-            return Short.parseShort(value);
-        else if (type == Character.class || type == Character.TYPE)
-            return value.charAt(0);
-        else if (type == Byte.class || type == Byte.TYPE)
-            return Byte.valueOf(value);
-
-            // Check JDA types
-        else if (type == OnlineStatus.class)
-            return OnlineStatus.fromKey(value);
-
-            // Check misc types
-        else if (type == Color.class)
-            return new Color(Integer.parseInt(value, 16));
-
-        throw new ClassNotFoundException("Failed to recognize class type " + type.toGenericString());
-    }
-
-    /**
-     * Get all the {@link Field Fields} accessible within a given {@link Class} and return them as a map based on their
-     * {@link Field#getName() name}.
-     * <p>
-     * If multiple fields with the same name are found, a warning is {@link #LOG logged} to the console and only the
-     * first encountered field is included.
-     * <p>
-     * If any exception occurs that prevents retrieving the fields, a warning is logged and an empty map is returned.
-     *
-     * @param baseClass the base class to search (all its sub classes are searched as well)
-     *
-     * @return a map of fields based on their names
-     */
-    @Nonnull
-    private static Map<String, Field> getAllFields(@Nonnull Class<?> baseClass) {
-        Map<String, Field> allFields = new HashMap<>();
-
-        // Go through each subclass looking for fields
-        List<Class<?>> subClasses = getSubClasses(baseClass);
-
-        //List<Class<?>> subClasses = new ArrayList<>(List.of(baseClass));
-        for (Class<?> subClass : subClasses) {
-            try {
-                // Get each field in the class and add it to the fields map
-                Field[] fields = subClass.getDeclaredFields();
-                for (Field field : fields)
-                    if (allFields.containsKey(field.getName()))
-                        LOG.warn(String.format(
-                                "Found duplicate field name '%s' within class '%s'. Ignoring duplicate instance.",
-                                field.getName(), baseClass.getName()
-                        ));
-                    else
-                        allFields.put(field.getName(), field);
-
-            } catch (SecurityException ignore) {
-                LOG.error("Unable to load subclasses of '" + baseClass.getName() + "' class. " +
-                          "Encountered a security exception.");
-            }
-        }
-
-        return allFields;
-    }
-
-    /**
-     * Retrieve a list of all the subclasses contained within the given class (including the baseClass itself). This
-     * runs recursively.
-     * <p>
-     * If any exception occurs that prevents retrieving the fields, a warning is {@link #LOG logged} and an empty list
-     * is returned.
-     *
-     * @param baseClass the top level class to consider
-     *
-     * @return an array of the top level class and all sub classes
-     */
-    @Nonnull
-    private static List<Class<?>> getSubClasses(@Nonnull Class<?> baseClass) {
-        try {
-            List<Class<?>> classes = new ArrayList<>();
-            List<Class<?>> subClasses = new ArrayList<>(List.of(baseClass.getClasses()));
-
-            for (Class<?> subClass : subClasses)
-                classes.addAll(getSubClasses(subClass));
-
-            classes.add(baseClass);
-            return classes;
-        } catch (SecurityException e) {
-            LOG.error("Unable to load subclasses of '" + baseClass.getName() + "' class. " +
-                      "Encountered a security exception.", e);
-            return new ArrayList<>();
-        }
-    }
-
-    /**
-     * This creates and sets an {@link Activity} based on the {@link Bot.Status#ACTIVITY_TYPE type}, {@link
+     * This creates the {@link Bot.Status#ACTIVITY activity} based on the {@link Bot.Status#ACTIVITY_TYPE type}, {@link
      * Bot.Status#ACTIVITY_TEXT text}, and {@link Bot.Status#ACTIVITY_URL URL} parameters from
-     * <code>bot.properties</code>.
-     * <p>
-     * It also sets the bot {@link Bot.Status#STATUS status} at the same time. If the bot status is {@link
-     * OnlineStatus#UNKNOWN unknown} or <code>null</code>, no activity or status is set.
+     * <code>bot.properties</code>. It's only applied by {@link #setStatus()}, once the activity has been {@link
+     * ConfigSnapshot#publish() published} along with the rest of the settings.
      * <p>
      * Activity types are based on the names and keys of {@link Activity.ActivityType} enums. The following activity
      * type values are recognized:
@@ -442,81 +479,100 @@ public class OnStartup extends ListenerAdapter {
      *     <li>'<code>playing</code>'</li>
      * </ul>
      *
+     * @return {@link Result#SUCCESS Success} if the activity was created, or there is none; {@link Result#FAILURE
+     *         failure} if the activity parameters are invalid.
+     */
+    private static Result loadActivity() {
+        try {
+            Bot.Status.ACTIVITY = switch (Bot.Status.ACTIVITY_TYPE.toLowerCase(Locale.ROOT)) {
+                case "streaming", "1" -> Activity.streaming(Bot.Status.ACTIVITY_TEXT, Bot.Status.ACTIVITY_URL);
+                case "playing" -> Activity.playing(Bot.Status.ACTIVITY_TEXT);
+                case "listening", "2" -> Activity.listening(Bot.Status.ACTIVITY_TEXT);
+                case "watching", "3" -> Activity.watching(Bot.Status.ACTIVITY_TEXT);
+                case "competing", "5" -> Activity.competing(Bot.Status.ACTIVITY_TEXT);
+                default -> null;
+            };
+            return Result.SUCCESS;
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid activity parameters: bot status was not set. Failed to compile activity properly. " +
+                      "Check activity_type, activity_text, and activity_url properties.\n{}: {}",
+                      e.getClass().getName(), e.getMessage());
+        } catch (Exception e) {
+            LOG.error("Encountered an unexpected error while creating the bot activity:\n{}: {}",
+                      e.getClass().getName(), e.getMessage());
+        }
+
+        Bot.Status.ACTIVITY = null;
+        return Result.FAILURE;
+    }
+
+    /**
+     * This sets the bot's status and activity from the {@link ConfigSnapshot#get() current} config snapshot, rather
+     * than from the {@link Bot.Status} fields, so that it never sees a reload that's only partly finished. If the bot
+     * status is {@link OnlineStatus#UNKNOWN unknown} or <code>null</code>, no activity or status is set.
+     *
      * @return {@link Result#SUCCESS Success} if the status and activity {@link Presence#setPresence(OnlineStatus,
      *         Activity) presence} data were set. Returns {@link Result#OMITTED not_attempted} if this was intentionally
      *         disabled by setting the status to {@link OnlineStatus#UNKNOWN unknown}. Otherwise, returns {@link
      *         Result#FAILURE failure} to indicate an error or failure of some sort.
      */
     private static Result setStatus() {
+        ConfigSnapshot config = ConfigSnapshot.get();
+        OnlineStatus status = config.getStatus();
+        Activity activity = config.getActivity();
         try {
-            try {
-                // Create the desired Activity
-                Bot.Status.ACTIVITY = switch (Bot.Status.ACTIVITY_TYPE.toLowerCase(Locale.ROOT)) {
-                    case "streaming", "1" -> Activity.streaming(Bot.Status.ACTIVITY_TEXT, Bot.Status.ACTIVITY_URL);
-                    case "playing" -> Activity.playing(Bot.Status.ACTIVITY_TEXT);
-                    case "listening", "2" -> Activity.listening(Bot.Status.ACTIVITY_TEXT);
-                    case "watching", "3" -> Activity.watching(Bot.Status.ACTIVITY_TEXT);
-                    case "competing", "5" -> Activity.competing(Bot.Status.ACTIVITY_TEXT);
-                    default -> null;
-                };
-            } catch (IllegalArgumentException e) {
-                LOG.error("Invalid activity parameters: bot status was not set. Failed to compile activity properly. " +
-                          "Check activity_type, activity_text, and activity_url properties.\n" +
-                          e.getClass().getName() + ": " + e.getMessage());
-                Bot.Status.ACTIVITY = null;
-                return Result.FAILURE;
-            }
-
-            if (Bot.Status.STATUS == OnlineStatus.UNKNOWN)
+            if (status == OnlineStatus.UNKNOWN)
                 return Result.OMITTED;
 
             // If the status or activity is null or unknown, don't set it.
-            if (Bot.Status.ACTIVITY == null || Bot.Status.STATUS == null)
+            if (activity == null || status == null)
                 return Result.FAILURE;
 
             // Set bot status and activity
-            Main.JDA.getPresence().setPresence(Bot.Status.STATUS, Bot.Status.ACTIVITY);
-            LOG.info("Updated bot presence. Set status to " + Bot.Status.STATUS.name() + ".");
+            if (Main.SHARDS != null)
+                Main.SHARDS.setPresence(status, activity);
+            else
+                Main.JDA.getPresence().setPresence(status, activity);
+            LOG.info("Updated bot presence. Set status to {}.", status.name());
 
         } catch (Exception e) {
-            LOG.error("Encountered an unexpected error while attempting to set the bot status and activity:\n" +
-                      e.getClass().getName() + ": " + e.getMessage());
+            LOG.error("Encountered an unexpected error while attempting to set the bot status and activity:\n{}: {}",
+                      e.getClass().getName(), e.getMessage());
         }
 
         return Result.SUCCESS;
     }
 
     /**
-     * Load the slash commands, if enabled.
+     * This builds the {@link Bot.Config#PREFIXES prefix map} from the {@link Bot.Config#PREFIX default} and {@link
+     * Bot.Config#GUILD_PREFIXES guild} prefixes in <code>bot.properties</code>, and the prefixes that guilds have set
+     * in their {@link GuildSettings settings}, which take precedence. If the guild prefixes are malformed, the default
+     * prefixes are still used in the guilds without settings. It's called again whenever a guild's prefixes change.
      *
-     * @param results the map in which to log the {@link Result Results}
+     * @return {@link Result#SUCCESS Success} if all the prefixes were loaded; {@link Result#FAILURE failure} if the
+     *         guild prefixes couldn't be parsed, or if even the default prefix is missing.
      */
-    private static void loadSlashCommands(@Nonnull Map<String, Result> results) {
-        Result global, local;
-
+    public static synchronized Result loadPrefixes() {
         try {
-            if (Bot.Config.LOAD_GLOBAL_COMMANDS) {
-                GlobalCommands.registerGlobalSlashCommands(Main.JDA.updateCommands());
-                global = Result.SUCCESS;
-            } else
-                global = Result.OMITTED;
+            PrefixMap prefixes = PrefixMap.parse(Bot.Config.PREFIX, Bot.Config.GUILD_PREFIXES);
+            int stored = GuildSettings.addPrefixes(prefixes);
+            Bot.Config.PREFIXES = prefixes;
+            LOG.info("Loaded command prefixes: {} ({} guilds with custom prefixes, {} from their settings)",
+                     prefixes.getDefaults(), prefixes.size(), stored);
+            return Result.SUCCESS;
+        } catch (IllegalArgumentException e) {
+            LOG.error("Failed to load the guild prefixes. Using the default prefix everywhere. {}", e.getMessage());
         } catch (Exception e) {
-            LOG.error("Encountered an unexpected error while attempting to load global slash commands.", e);
-            global = Result.FAILURE;
+            LOG.error("Encountered an unexpected error while loading the command prefixes.", e);
         }
 
         try {
-            if (Bot.Config.LOAD_LOCAL_COMMANDS) {
-                LocalCommands.registerLocalSlashCommands(Utils.getGuild(Bot.ID.Guild.DEVELOPMENT).updateCommands());
-                local = Result.SUCCESS;
-            } else
-                local = Result.OMITTED;
+            // The stored prefixes aren't added here, since they may be what failed
+            PrefixMap prefixes = PrefixMap.parse(Bot.Config.PREFIX, null);
+            Bot.Config.PREFIXES = prefixes;
         } catch (Exception e) {
-            LOG.error("Encountered an unexpected error while attempting to load local slash commands.", e);
-            local = Result.FAILURE;
+            LOG.error("Failed to load the default prefix. Text commands are disabled. Check the prefix property.");
         }
-
-        results.put("Loaded global slash commands", global);
-        results.put("Loaded local slash commands", local);
+        return Result.FAILURE;
     }
 }
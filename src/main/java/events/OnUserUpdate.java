@@ -0,0 +1,31 @@
+package events;
+
+import net.dv8tion.jda.api.events.user.update.*;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.jetbrains.annotations.NotNull;
+import utils.UserPanelCache;
+
+/**
+ * This removes a user's cached {@link UserPanelCache panel} whenever any of the information it shows changes.
+ */
+public class OnUserUpdate extends ListenerAdapter {
+    @Override
+    public void onUserUpdateName(@NotNull UserUpdateNameEvent event) {
+        UserPanelCache.invalidate(event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onUserUpdateDiscriminator(@NotNull UserUpdateDiscriminatorEvent event) {
+        UserPanelCache.invalidate(event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onUserUpdateAvatar(@NotNull UserUpdateAvatarEvent event) {
+        UserPanelCache.invalidate(event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onUserUpdateFlags(@NotNull UserUpdateFlagsEvent event) {
+        UserPanelCache.invalidate(event.getUser().getIdLong());
+    }
+}
@@ -0,0 +1,186 @@
+package events;
+
+import commands.Command;
+import metrics.Counter;
+import metrics.Metrics;
+import utils.Bot;
+import utils.RateLimiter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This limits how often commands can be used, so that one user (or one busy guild) can't spam commands and use up the
+ * bot's global Discord rate limit. {@link OnMessage} and {@link OnSlash} check every command here before it is
+ * {@link CommandExecutor run}.
+ * <p>
+ * There are three kinds of limits, all set in <code>bot.properties</code> and each backed by a {@link RateLimiter}:
+ * <ul>
+ *     <li>{@link Bot.Config#RATE_LIMIT_USER} limits all commands from one user.
+ *     <li>{@link Bot.Config#RATE_LIMIT_GUILD} limits all commands in one guild. Direct messages aren't limited by this.
+ *     <li>{@link Bot.Config#RATE_LIMITS} limits individual commands per user, such as one that is expensive to run.
+ * </ul>
+ * A request must pass every limit that applies to it. Any limit left blank is disabled.
+ */
+public class RateLimits {
+    /**
+     * The number of buckets in each limiter. Each bucket uses 16 bytes, so this is about 1 MB per limiter. Buckets are
+     * only held by users who have used a command within the last period, so this comfortably covers very large bots.
+     */
+    private static final int SLOTS = 1 << 16;
+
+    /**
+     * The limiter for all commands from each user, or <code>null</code> if there is no limit.
+     */
+    private static volatile RateLimiter users;
+
+    /**
+     * The limiter for all commands in each guild, or <code>null</code> if there is no limit.
+     */
+    private static volatile RateLimiter guilds;
+
+    /**
+     * The per-user limiters for individual commands, by command name.
+     */
+    private static volatile Map<String, RateLimiter> commands = Map.of();
+
+    /**
+     * The number of commands denied by each kind of limit since startup, for the {@link Metrics metrics}. Unlike
+     * {@link #getDenied()}, these aren't reset when the limits are reloaded.
+     */
+    private static final Counter DENIED_USER = denied("user"), DENIED_GUILD = denied("guild"),
+            DENIED_COMMAND = denied("command");
+
+    /**
+     * Check whether a command may be used, and use up one permit from each limit that applies to it. This doesn't
+     * lock or allocate.
+     *
+     * @param command the command, or <code>null</code> if the command wasn't recognized. Unrecognized commands still
+     *                count towards the user and guild limits, since replying to them uses the rate limit too.
+     * @param user    the id of the user using the command
+     * @param guild   the id of the guild it was used in, or <code>0</code> for direct messages
+     *
+     * @return <code>true</code> if the command is allowed; <code>false</code> if it should be ignored
+     */
+    public static boolean allow(@Nullable Command<?> command, long user, long guild) {
+        RateLimiter limiter = users;
+        if (limiter != null && !limiter.tryAcquire(user)) {
+            DENIED_USER.increment();
+            return false;
+        }
+
+        limiter = guilds;
+        if (limiter != null && !limiter.tryAcquire(guild)) {
+            DENIED_GUILD.increment();
+            return false;
+        }
+
+        if (command == null)
+            return true;
+
+        limiter = commands.get(command.getName());
+        if (limiter != null && !limiter.tryAcquire(user)) {
+            DENIED_COMMAND.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Build the limiters from the rate limit settings. This is called on {@link OnStartup startup}.
+     *
+     * @return {@link OnStartup.Result#SUCCESS Success} if every limit was loaded; {@link OnStartup.Result#FAILURE
+     *         failure} if any of them were malformed, in which case those limits are disabled.
+     */
+    static OnStartup.Result load() {
+        OnStartup.Result result = OnStartup.Result.SUCCESS;
+
+        try {
+            users = parse(Bot.Config.RATE_LIMIT_USER);
+        } catch (IllegalArgumentException e) {
+            OnStartup.LOG.error("Failed to load rate_limit_user. {}", e.getMessage());
+            result = OnStartup.Result.FAILURE;
+        }
+
+        try {
+            guilds = parse(Bot.Config.RATE_LIMIT_GUILD);
+        } catch (IllegalArgumentException e) {
+            OnStartup.LOG.error("Failed to load rate_limit_guild. {}", e.getMessage());
+            result = OnStartup.Result.FAILURE;
+        }
+
+        Map<String, RateLimiter> map = new HashMap<>();
+        String limits = Bot.Config.RATE_LIMITS;
+        if (limits != null) {
+            for (String entry : limits.split(";")) {
+                if (entry.isBlank())
+                    continue;
+
+                int colon = entry.indexOf(':');
+                try {
+                    if (colon < 0)
+                        throw new IllegalArgumentException("Each entry must be a command name, a colon, and a limit.");
+                    map.put(entry.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                            RateLimiter.parse(entry.substring(colon + 1), SLOTS));
+                } catch (IllegalArgumentException e) {
+                    OnStartup.LOG.error("Failed to load the rate limit '{}'. {}", entry.trim(), e.getMessage());
+                    result = OnStartup.Result.FAILURE;
+                }
+            }
+        }
+        commands = Map.copyOf(map);
+
+        OnStartup.LOG.info("Loaded rate limits: {} per user, {} per guild, and {} command-specific limits {}",
+                           describe(users), describe(guilds), commands.size(), commands);
+        return result;
+    }
+
+    /**
+     * Get the total number of commands that have been denied by all the limits.
+     *
+     * @return the number of denied commands
+     */
+    public static long getDenied() {
+        long denied = 0;
+        for (RateLimiter limiter : new RateLimiter[]{users, guilds})
+            if (limiter != null)
+                denied += limiter.getDenied();
+        for (RateLimiter limiter : commands.values())
+            denied += limiter.getDenied();
+        return denied;
+    }
+
+    @Nonnull
+    private static Counter denied(@Nonnull String limit) {
+        return Metrics.counter("templatebot_rate_limited_total", "Commands denied by the rate limits, by limit.",
+                "limit", limit);
+    }
+
+    /**
+     * Parse one limit setting.
+     *
+     * @param limit the setting, in the form <code>count/seconds</code>, or a blank string for no limit
+     *
+     * @return the limiter, or <code>null</code> if there is no limit
+     * @throws IllegalArgumentException if the setting is malformed
+     */
+    @Nullable
+    private static RateLimiter parse(@Nullable String limit) {
+        return limit == null || limit.isBlank() ? null : RateLimiter.parse(limit, SLOTS);
+    }
+
+    /**
+     * Describe a limiter for the startup log.
+     *
+     * @param limiter the limiter, or <code>null</code>
+     *
+     * @return the limit, or "no limit"
+     */
+    @Nonnull
+    private static String describe(@Nullable RateLimiter limiter) {
+        return limiter == null ? "no limit" : limiter.toString();
+    }
+}
@@ -0,0 +1,371 @@
+package events;
+
+import commands.Command;
+import commands.CommandTable;
+import commands.SlashHandler;
+import metrics.Counter;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
+import net.dv8tion.jda.api.interactions.InteractionHook;
+import net.dv8tion.jda.api.requests.restaction.WebhookMessageUpdateAction;
+import net.dv8tion.jda.api.requests.restaction.interactions.ReplyAction;
+import utils.Bot;
+import utils.ConfigSnapshot;
+import utils.RestScheduler;
+import utils.Utils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * This makes sure that every slash command is acknowledged before Discord's 3-second deadline, even if its handler is
+ * slow. Handlers reply with <code>event.reply(...)</code> as usual. If a handler hasn't replied within the {@link
+ * Bot.Config#DEFER_AFTER_MS deferral budget}, the watchdog {@link SlashCommandEvent#deferReply(boolean) defers} the
+ * reply on its behalf, so the user sees "Bot is thinking..." instead of "This interaction failed". When the handler
+ * replies afterwards, its reply is sent through the {@link InteractionHook} instead, replacing the deferred message.
+ * <p>
+ * To do this, {@link CommandExecutor} passes handlers a {@link Watched} copy of the event, whose replies go through the
+ * watchdog. The handler's reply and the watchdog's deferral race for the same atomic state, so exactly one of them
+ * acknowledges the interaction. Whether the deferred reply is ephemeral is decided by the command's {@link
+ * annotations.SlashCommand#ephemeral() annotation}, since the handler's reply doesn't exist yet.
+ * <p>
+ * Each deferral is counted in the command's {@link Command#getDeferrals() metrics} and in the periodic {@link
+ * #summarize() summary}. A command that's deferred often should defer its reply itself, before it starts the slow
+ * work.
+ */
+public class ReplyWatchdog {
+    /**
+     * The handler hasn't replied, and the reply hasn't been deferred.
+     */
+    private static final int PENDING = 0;
+
+    /**
+     * The handler replied in time.
+     */
+    private static final int REPLIED = 1;
+
+    /**
+     * The watchdog deferred the reply, and the handler hasn't replied yet.
+     */
+    private static final int DEFERRED = 2;
+
+    /**
+     * The watchdog deferred the reply, and the handler has since replied through the hook.
+     */
+    private static final int ANSWERED = 3;
+
+    /**
+     * The message sent if a handler throws an exception before it replies.
+     */
+    private static final String FAILURE_MESSAGE = "Sorry, something went wrong while running that command.";
+
+    /**
+     * The thread that defers replies once their budget runs out. Cancelled timers are removed right away, since almost
+     * every handler replies in time.
+     */
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "Reply Watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Start timing a slash command. This is called on the event thread as soon as the command is routed, so that the
+     * budget includes any delay before the handler starts.
+     *
+     * @param command the command
+     * @param event   the event received from JDA
+     *
+     * @return the event to pass to the handler, which is the given event if the watchdog is {@link
+     *         Bot.Config#DEFER_AFTER_MS disabled}
+     */
+    @Nonnull
+    static SlashCommandEvent watch(@Nonnull Command<SlashHandler> command, @Nonnull SlashCommandEvent event) {
+        long budget = ConfigSnapshot.get().getDeferAfterMillis();
+        if (budget == 0 || event.isAcknowledged())
+            return event;
+
+        Watched watched = new Watched(command, event);
+        watched.timer = TIMER.schedule(watched::expire, budget, TimeUnit.MILLISECONDS);
+        return watched;
+    }
+
+    /**
+     * Run a slash command's handler with a {@link #watch(Command, SlashCommandEvent) watched} event. If the handler
+     * throws an exception before it replies, an error is sent in its place, through the hook if the reply was
+     * deferred. The exception is then rethrown.
+     *
+     * @param command the command
+     * @param event   the event returned by {@link #watch(Command, SlashCommandEvent) watch()}
+     */
+    static void handle(@Nonnull Command<SlashHandler> command, @Nonnull SlashCommandEvent event) {
+        try {
+            command.getHandler().handle(event);
+        } catch (Throwable t) {
+            if (event instanceof Watched watched)
+                watched.fail(FAILURE_MESSAGE);
+            throw t;
+        }
+    }
+
+    /**
+     * Send an error in place of a slash command's reply, if the handler hasn't replied yet. If the reply was
+     * deferred, the error is sent through the hook instead.
+     *
+     * @param event   the event passed to the handler
+     * @param message the error message
+     */
+    static void fail(@Nonnull SlashCommandEvent event, @Nonnull String message) {
+        if (event instanceof Watched watched)
+            watched.fail(message);
+        else if (!event.isAcknowledged())
+            Utils.error(event, message);
+    }
+
+    /**
+     * Summarize how often each slash command has had its reply deferred since startup.
+     *
+     * @return the summary, or <code>null</code> if no replies have been deferred
+     */
+    @Nullable
+    static String summarize() {
+        StringJoiner summary = new StringJoiner(", ", "Slash command replies deferred since startup: ", "");
+        boolean any = false;
+        for (String name : CommandTable.SLASH_COMMANDS) {
+            Command<SlashHandler> command = CommandTable.findSlash(name);
+            Counter deferrals = command == null ? null : command.getDeferrals();
+            if (deferrals == null || deferrals.get() == 0)
+                continue;
+
+            long runs = Math.max(command.getLatency().getCount(), deferrals.get());
+            summary.add(String.format(Locale.ROOT, "%s %d of %d (%.1f%%)",
+                    name, deferrals.get(), runs, 100.0 * deferrals.get() / runs));
+            any = true;
+        }
+        return any ? summary.toString() : null;
+    }
+
+    /**
+     * A slash command event whose replies go through the watchdog. Every method other than {@link #deferReply()}
+     * delegates to the original event. The <code>reply(...)</code> and <code>replyEmbeds(...)</code> methods all call
+     * {@link #deferReply()}, so that covers every way of replying.
+     * <p>
+     * The handler counts as having replied as soon as it <i>builds</i> its reply, not when it queues it. That's what
+     * lets chained actions like <code>event.reply(...).flatMap(...)</code> work, since the reply is sent by JDA rather
+     * than by the action this returns. It also means that a handler that builds its reply, and then blocks before
+     * calling <code>queue()</code>, has already stopped the watchdog, and can still miss Discord's deadline. Build the
+     * reply when it's ready to be sent, or defer it first.
+     */
+    static final class Watched extends SlashCommandEvent {
+        private final Command<SlashHandler> command;
+        private final SlashCommandEvent original;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private volatile ScheduledFuture<?> timer;
+
+        private Watched(@Nonnull Command<SlashHandler> command, @Nonnull SlashCommandEvent original) {
+            super(original.getJDA(), original.getResponseNumber(), original);
+            this.command = command;
+            this.original = original;
+        }
+
+        /**
+         * Start a reply to the interaction. If the handler is in time, this is the original event's reply, and the
+         * watchdog is stopped. If the watchdog already deferred the reply, it's a {@link LateReply} that edits the
+         * deferred message instead.
+         *
+         * @return the reply
+         */
+        @Nonnull
+        @Override
+        public ReplyAction deferReply() {
+            if (state.compareAndSet(PENDING, REPLIED)) {
+                ScheduledFuture<?> timer = this.timer;
+                if (timer != null)
+                    timer.cancel(false);
+                return original.deferReply();
+            }
+
+            if (state.get() >= DEFERRED)
+                return LateReply.of(this);
+
+            // Replying twice fails in JDA as it normally would
+            return original.deferReply();
+        }
+
+        /**
+         * Defer the reply, if the handler hasn't replied yet. This runs on the watchdog thread once the budget is up.
+         */
+        private void expire() {
+            if (!state.compareAndSet(PENDING, DEFERRED))
+                return;
+
+            Counter deferrals = command.getDeferrals();
+            if (deferrals != null)
+                deferrals.increment();
+            RestScheduler.queue(original.deferReply(command.isEphemeral()), RestScheduler.Priority.INTERACTION, null,
+                    failure -> CommandExecutor.LOG.warn("Failed to defer the reply to the '{}' command.", command,
+                            failure));
+        }
+
+        /**
+         * Send an error in place of the handler's reply, if it hasn't replied. This is called when the handler throws
+         * an exception or times out.
+         *
+         * @param message the error message
+         */
+        private void fail(@Nonnull String message) {
+            if (state.compareAndSet(PENDING, REPLIED)) {
+                ScheduledFuture<?> timer = this.timer;
+                if (timer != null)
+                    timer.cancel(false);
+                Utils.error(original, message);
+            } else if (state.compareAndSet(DEFERRED, ANSWERED)) {
+                Utils.error(original.getHook(), message);
+            }
+        }
+    }
+
+    /**
+     * A {@link ReplyAction} for a handler that replies after its reply was deferred. It collects the content and
+     * embeds that the handler sets, and when it's queued (or completed, or submitted), it edits the deferred message
+     * through the {@link InteractionHook} instead.
+     * <p>
+     * JDA doesn't offer a way to turn a reply into a hook message, so this is a {@link Proxy} of the interface, which
+     * answers the handful of methods that matter by name. Everything else is ignored and returns the proxy, so that
+     * calls can still be chained. Ephemerality can't change once the reply is deferred, so a handler that disagrees
+     * with its {@link annotations.SlashCommand#ephemeral() annotation} is logged.
+     */
+    private static final class LateReply implements InvocationHandler {
+        private final Watched event;
+        private final InteractionHook hook;
+        private final List<MessageEmbed> embeds = new ArrayList<>();
+        private String content;
+
+        private LateReply(@Nonnull Watched event) {
+            this.event = event;
+            this.hook = event.original.getHook();
+        }
+
+        /**
+         * Create a late reply for a watched event.
+         *
+         * @param event the event whose reply was deferred
+         *
+         * @return the reply
+         */
+        @Nonnull
+        static ReplyAction of(@Nonnull Watched event) {
+            return (ReplyAction) Proxy.newProxyInstance(ReplyAction.class.getClassLoader(),
+                    new Class<?>[]{ReplyAction.class}, new LateReply(event));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (method.getDeclaringClass() == Object.class)
+                return switch (name) {
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> "LateReply(" + event.command + ")";
+                };
+
+            switch (name) {
+                case "setContent" -> content = (String) args[0];
+                case "addEmbeds" -> {
+                    if (args[0] instanceof MessageEmbed[] array)
+                        embeds.addAll(Arrays.asList(array));
+                    else
+                        embeds.addAll((Collection<? extends MessageEmbed>) args[0]);
+                }
+                case "setEphemeral" -> {
+                    if ((boolean) args[0] != event.command.isEphemeral())
+                        CommandExecutor.LOG.warn("The reply to the '{}' command was deferred, so it can't be made " +
+                                                 "{}. Declare the command with ephemeral = {}.", event.command,
+                                (boolean) args[0] ? "ephemeral" : "public", args[0]);
+                }
+                case "queue" -> {
+                    Consumer<Object> success = args != null && args.length > 0 ? (Consumer<Object>) args[0] : null;
+                    Consumer<? super Throwable> failure =
+                            args != null && args.length > 1 ? (Consumer<? super Throwable>) args[1] : null;
+                    if (isEmpty()) {
+                        if (success != null)
+                            success.accept(hook);
+                        return null;
+                    }
+                    RestScheduler.queue(send(), RestScheduler.Priority.INTERACTION, message -> {
+                        if (success != null)
+                            success.accept(hook);
+                    }, failure);
+                    return null;
+                }
+                case "complete" -> {
+                    if (!isEmpty())
+                        send().complete();
+                    return hook;
+                }
+                case "submit" -> {
+                    if (isEmpty())
+                        return CompletableFuture.completedFuture(hook);
+                    return send().submit().thenApply(message -> hook);
+                }
+                case "getJDA" -> {
+                    return hook.getJDA();
+                }
+                default -> {
+                    if (method.isDefault())
+                        return InvocationHandler.invokeDefault(proxy, method, args);
+                }
+            }
+
+            Class<?> type = method.getReturnType();
+            return type.isInstance(proxy) ? proxy : type == Boolean.TYPE ? false : null;
+        }
+
+        /**
+         * Check whether the handler didn't set anything to send. That's the case when the handler calls
+         * <code>deferReply()</code> itself after the watchdog already did, and there's nothing left to do, since
+         * Discord rejects an edit that would leave the message empty.
+         *
+         * @return <code>true</code> if there's no content and no embeds
+         */
+        private boolean isEmpty() {
+            return content == null && embeds.isEmpty();
+        }
+
+        /**
+         * Build the edit to the deferred message.
+         *
+         * @return the edit
+         */
+        @Nonnull
+        private WebhookMessageUpdateAction<Message> send() {
+            event.state.compareAndSet(DEFERRED, ANSWERED);
+            if (content == null)
+                return hook.editOriginalEmbeds(embeds.toArray(new MessageEmbed[0]));
+
+            WebhookMessageUpdateAction<Message> edit = hook.editOriginal(content);
+            return embeds.isEmpty() ? edit : edit.setEmbeds(embeds);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package events;
+
+import metrics.Metrics;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A set of tasks that run once on {@link OnStartup startup}. Each task can depend on tasks that were added before it,
+ * and it starts as soon as all of those have finished, so independent tasks run at the same time on a small pool of
+ * threads. The time until the bot is ready is then the longest chain of dependent tasks, rather than the sum of every
+ * task.
+ * <p>
+ * A dependency only orders the tasks: a task still runs if one of its dependencies fails, times out, or is omitted, in
+ * case it can do something useful anyway. Each task has its own timeout, counted from when it starts, and the whole
+ * set has an overall timeout. A task that runs too long is recorded as a {@link OnStartup.Result#FAILURE failure},
+ * and the tasks that depend on it start without waiting for it. Its thread is also interrupted, so that a task blocked
+ * on I/O or a <code>complete()</code> call gives its thread back to the pool instead of holding up the tasks queued
+ * behind it. A task that never checks for interruption keeps its thread until the whole set finishes.
+ * <p>
+ * The {@link Outcome} of each task, including how long it took, is shown in the startup message and exported in the
+ * {@link Metrics metrics}.
+ */
+public class StartupTasks {
+    /**
+     * The tasks, in the order they were added.
+     */
+    private final List<Task> tasks = new ArrayList<>();
+
+    /**
+     * Add a task.
+     *
+     * @param name         a short description of the task, which is shown in the startup message
+     * @param action       the task. It should catch its own exceptions and return a {@link OnStartup.Result Result};
+     *                     any exception it throws is logged and recorded as a {@link OnStartup.Result#FAILURE failure}.
+     * @param dependencies the tasks that must finish before this one starts
+     *
+     * @return the new task, which later tasks can depend on
+     */
+    @Nonnull
+    public Task add(@Nonnull String name, @Nonnull Supplier<OnStartup.Result> action, @Nonnull Task... dependencies) {
+        for (Task dependency : dependencies)
+            if (!tasks.contains(dependency))
+                throw new IllegalArgumentException("The task '" + name + "' depends on '" + dependency.name +
+                                                   "', which isn't part of this set of tasks.");
+
+        Task task = new Task(name, action, dependencies);
+        tasks.add(task);
+        return task;
+    }
+
+    /**
+     * Start running the tasks. This returns immediately; the tasks run on a new pool of daemon threads, which is shut
+     * down once they finish.
+     *
+     * @param threads            the maximum number of tasks that can run at once
+     * @param taskTimeoutMillis  how long each task can run before it's recorded as timed out
+     * @param totalTimeoutMillis how long all the tasks can take before every unfinished task is recorded as timed out
+     *
+     * @return the outcome of each task, by name, in the order they were added. This completes when all the tasks have
+     *         finished or the total timeout has passed.
+     */
+    @Nonnull
+    public CompletableFuture<Map<String, Outcome>> run(int threads, long taskTimeoutMillis, long totalTimeoutMillis) {
+        long started = System.nanoTime();
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())), r -> {
+            Thread thread = new Thread(r, "Startup Task " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Dependencies are always added first, so each task's dependencies are already scheduled
+        for (Task task : tasks) {
+            CompletableFuture<?>[] dependencies = new CompletableFuture<?>[task.dependencies.length];
+            for (int i = 0; i < dependencies.length; i++)
+                dependencies[i] = task.dependencies[i].outcome;
+
+            CompletableFuture.allOf(dependencies).thenRunAsync(() -> task.run(taskTimeoutMillis), pool);
+        }
+
+        CompletableFuture<?>[] all = tasks.stream().map(task -> task.outcome).toArray(CompletableFuture<?>[]::new);
+        return CompletableFuture.allOf(all)
+                .completeOnTimeout(null, totalTimeoutMillis, TimeUnit.MILLISECONDS)
+                .thenApply(ignore -> {
+                    // Interrupt any tasks that are still running
+                    pool.shutdownNow();
+
+                    Map<String, Outcome> outcomes = new LinkedHashMap<>();
+                    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                    for (Task task : tasks)
+                        outcomes.put(task.name, task.outcome.getNow(Outcome.timedOut(elapsed)));
+                    return outcomes;
+                });
+    }
+
+    /**
+     * One startup task. Instances are created by {@link #add(String, Supplier, Task...) add()}.
+     */
+    public static final class Task {
+        private final String name;
+        private final Supplier<OnStartup.Result> action;
+        private final Task[] dependencies;
+
+        /**
+         * Completed with the outcome when the task finishes or times out.
+         */
+        private final CompletableFuture<Outcome> outcome = new CompletableFuture<>();
+
+        /**
+         * The thread running the task, or <code>null</code> if it isn't running. This is guarded by the task's lock,
+         * so that the thread is only interrupted while it's running this task.
+         */
+        private Thread worker;
+
+        private Task(@Nonnull String name, @Nonnull Supplier<OnStartup.Result> action, @Nonnull Task[] dependencies) {
+            this.name = name;
+            this.action = action;
+            this.dependencies = dependencies;
+        }
+
+        /**
+         * Run the task and record its outcome.
+         *
+         * @param timeoutMillis how long the task can run before it's recorded as timed out
+         */
+        private void run(long timeoutMillis) {
+            synchronized (this) {
+                worker = Thread.currentThread();
+            }
+            outcome.completeOnTimeout(Outcome.timedOut(timeoutMillis), timeoutMillis, TimeUnit.MILLISECONDS)
+                    .thenAccept(done -> {
+                        if (done.timedOut())
+                            interrupt();
+                    });
+
+            long start = System.nanoTime();
+            OnStartup.Result result;
+            try {
+                result = action.get();
+            } catch (Exception e) {
+                OnStartup.LOG.error("Encountered an unexpected error in the startup task '{}'.", name, e);
+                result = OnStartup.Result.FAILURE;
+            } finally {
+                synchronized (this) {
+                    worker = null;
+                }
+                // Don't let an interrupt from the timeout leak into the next task on this thread
+                Thread.interrupted();
+            }
+            long nanos = System.nanoTime() - start;
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            Metrics.histogram("templatebot_startup_task_seconds", "The time taken by each startup task.",
+                    "task", name, "result", result.name().toLowerCase(Locale.ROOT)).record(nanos);
+
+            if (outcome.complete(new Outcome(result, millis, false)))
+                OnStartup.LOG.debug("Startup task '{}': {} in {} ms", name, result, millis);
+            else
+                OnStartup.LOG.warn("Startup task '{}' finished after timing out ({} ms)", name, millis);
+        }
+
+        /**
+         * Interrupt the thread running the task, if it's still running. This is called when the task times out.
+         */
+        private synchronized void interrupt() {
+            if (worker != null)
+                worker.interrupt();
+        }
+
+        /**
+         * Get the description of the task.
+         *
+         * @return the name
+         */
+        @Nonnull
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * How a startup task turned out.
+     *
+     * @param result   whether the task succeeded. A task that timed out is a {@link OnStartup.Result#FAILURE
+     *                 failure}.
+     * @param millis   the wall time of the task, in milliseconds. For a task that timed out, this is the timeout.
+     * @param timedOut whether the task ran too long
+     */
+    public record Outcome(@Nonnull OnStartup.Result result, long millis, boolean timedOut) {
+        /**
+         * Get the outcome of a task that timed out.
+         *
+         * @param millis the timeout, in milliseconds
+         *
+         * @return the outcome
+         */
+        @Nonnull
+        private static Outcome timedOut(long millis) {
+            return new Outcome(OnStartup.Result.FAILURE, millis, true);
+        }
+    }
+}
@@ -1,27 +1,69 @@
 package main;
 
+import events.EventRecorder;
 import events.OnMessage;
 import events.OnSlash;
 import events.OnStartup;
+import events.OnUserUpdate;
 import net.dv8tion.jda.api.JDA;
-import net.dv8tion.jda.api.JDABuilder;
+import net.dv8tion.jda.api.sharding.ShardManager;
+import utils.GatewayConfig;
 import utils.Utils;
 
 import javax.security.auth.login.LoginException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Main {
-    public static JDA JDA;
+    /**
+     * The bot's connection to Discord. When the bot is {@link GatewayConfig#isSharded() sharded}, this is one of the
+     * shards, set once they have all started. It can still be used for anything that isn't specific to a guild, like
+     * the bot's own user or its global slash commands. It's set by {@link OnStartup} once the bot is ready.
+     */
+    public static volatile JDA JDA;
+
+    /**
+     * The {@link ShardManager} that runs every shard, or <code>null</code> if the bot isn't sharded. The shards can
+     * start connecting before the builder returns, so {@link OnStartup} also sets this from the first {@link
+     * net.dv8tion.jda.api.events.ReadyEvent ReadyEvent}.
+     */
+    public static volatile ShardManager SHARDS;
 
     public static void main(String[] args) throws IOException, LoginException {
-        String token = new String(
-                Utils.getResourceStream("/bot.token").readAllBytes()
-        );
-
-        JDA = JDABuilder.createDefault(token)
-                .addEventListeners(new OnMessage())
-                .addEventListeners(new OnStartup())
-                .addEventListeners(new OnSlash())
-                .build();
+        // The BOT_TOKEN environment variable takes precedence over the bot.token resource
+        String token = System.getenv("BOT_TOKEN");
+        if (token == null || token.isBlank())
+            token = new String(
+                    Utils.getResourceStream("/bot.token").readAllBytes()
+            );
+
+        // Load bot.properties before connecting, since it configures the gateway intents and caches
+        OnStartup.loadProperties();
+        connect(token);
+    }
+
+    /**
+     * Connect to Discord with the bot's event listeners, setting {@link #JDA} or {@link #SHARDS}. This returns once
+     * the connection has started; {@link OnStartup} runs when it's ready. <code>bot.properties</code> must already be
+     * loaded.
+     *
+     * @param token the bot token
+     */
+    public static void connect(String token) throws LoginException {
+        List<Object> listeners = new ArrayList<>(List.of(new OnMessage(), new OnStartup(), new OnSlash(),
+                new OnUserUpdate()));
+        EventRecorder recorder = EventRecorder.create();
+        if (recorder != null)
+            listeners.add(recorder);
+
+        if (GatewayConfig.isSharded())
+            SHARDS = GatewayConfig.shardManagerBuilder(token)
+                    .addEventListeners(listeners.toArray())
+                    .build();
+        else
+            JDA = GatewayConfig.builder(token)
+                    .addEventListeners(listeners.toArray())
+                    .build();
     }
 }
@@ -0,0 +1,38 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up, such as the number of commands run. It's backed by a {@link LongAdder}, so incrementing
+ * it from many threads at once doesn't contend, and never allocates.
+ * <p>
+ * Counters are usually created through {@link Metrics#counter(String, String, String...)}, which exports them.
+ */
+public final class Counter {
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Add one to the count.
+     */
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * Add to the count.
+     *
+     * @param amount the amount to add, which should not be negative
+     */
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    /**
+     * Get the count.
+     *
+     * @return the count
+     */
+    public long get() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,199 @@
+package metrics;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds, with buckets that grow exponentially in the same way as an HDR histogram.
+ * Each power of two is split into {@value #SUB_BUCKETS} equal buckets, so any recorded duration is known to within
+ * about 12%, from single nanoseconds up to {@value #MAX_SECONDS} seconds. Longer durations are counted in the last
+ * bucket.
+ * <p>
+ * Recording is lock-free and does not allocate: it's a few bit operations and an atomic increment, so histograms can
+ * be recorded on the event thread. Reading a histogram while it's being recorded to is safe, though the result may
+ * include some of the concurrent recordings and not others.
+ * <p>
+ * Histograms are usually created through {@link Metrics#histogram(String, String, String...)}, which exports them.
+ */
+public final class Histogram {
+    /**
+     * The number of buckets in each power of two, as a power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * The number of buckets in each power of two.
+     */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The longest duration with its own bucket is just under 2<sup>40</sup> ns, which is about 18 minutes.
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    /**
+     * The longest duration with its own bucket, rounded down to whole seconds.
+     */
+    public static final long MAX_SECONDS = (1L << MAX_EXPONENT) / 1_000_000_000L;
+
+    /**
+     * The number of buckets.
+     */
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+
+    /**
+     * Record one duration.
+     *
+     * @param nanos the duration in nanoseconds. Negative durations are recorded as <code>0</code>.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        total.add(value);
+    }
+
+    /**
+     * Get the number of durations recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            count += counts.get(i);
+        return count;
+    }
+
+    /**
+     * Get the sum of every duration recorded.
+     *
+     * @return the sum in nanoseconds
+     */
+    public long getSum() {
+        return total.sum();
+    }
+
+    /**
+     * Get the number of durations recorded in a bucket.
+     *
+     * @param bucket the bucket, from <code>0</code> to <code>{@link #BUCKETS} - 1</code>
+     *
+     * @return the count
+     */
+    long getCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * Add this histogram's bucket counts to an array, such as to combine several histograms.
+     *
+     * @param totals the counts to add to, with one element for each bucket
+     *
+     * @return the number of durations added
+     */
+    long addTo(@Nonnull long[] totals) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = counts.get(i);
+            totals[i] += n;
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * Clear every recorded duration. Durations recorded while this runs may or may not be cleared.
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+        total.reset();
+    }
+
+    /**
+     * Estimate a percentile of the recorded durations. The estimate is the upper bound of the bucket that contains the
+     * percentile, so it's never less than the true value.
+     *
+     * @param percentile the percentile, from <code>0</code> to <code>100</code>
+     *
+     * @return the estimate in nanoseconds, or <code>0</code> if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        return percentile(snapshot, addTo(snapshot), percentile);
+    }
+
+    /**
+     * Estimate a percentile of a set of bucket counts. This is also used for windows of several histograms.
+     *
+     * @param counts     the count in each bucket
+     * @param count      the sum of the counts
+     * @param percentile the percentile, from <code>0</code> to <code>100</code>
+     *
+     * @return the upper bound of the bucket that contains the percentile, in nanoseconds, or <code>0</code> if the
+     *         counts are empty
+     */
+    static long percentile(@Nonnull long[] counts, long count, double percentile) {
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return upperBound(i);
+        }
+        return upperBound(counts.length - 1);
+    }
+
+    /**
+     * Get the bucket for a duration.
+     *
+     * @param nanos the duration, which must not be negative
+     *
+     * @return the bucket
+     */
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS)
+            return (int) nanos;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent >= MAX_EXPONENT)
+            return BUCKETS - 1;
+
+        int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Get the smallest duration in a bucket.
+     *
+     * @param bucket the bucket
+     *
+     * @return the duration in nanoseconds
+     */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Get the largest duration in a bucket. The last bucket also counts every longer duration, but its upper bound is
+     * still reported as the end of its range.
+     *
+     * @param bucket the bucket
+     *
+     * @return the duration in nanoseconds
+     */
+    static long upperBound(int bucket) {
+        return bucket + 1 < BUCKETS ? lowerBound(bucket + 1) - 1 : (1L << MAX_EXPONENT) - 1;
+    }
+}
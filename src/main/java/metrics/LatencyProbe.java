@@ -0,0 +1,181 @@
+package metrics;
+
+import events.OnStartup;
+import main.Main;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This continuously measures the three kinds of latency that make the bot feel slow, so that <code>/ping</code> can
+ * show which one is to blame:
+ * <ul>
+ *     <li>{@link #GATEWAY} is the gateway heartbeat round trip, from {@link JDA#getGatewayPing()}. If this is high,
+ *     the network between the bot and Discord is slow.
+ *     <li>{@link #REST} is the round trip of a small REST request, from {@link JDA#getRestPing()}. If this is high but
+ *     the gateway isn't, Discord's API is slow (or the bot is being rate limited).
+ *     <li>{@link #HANDLER_DELAY} is the time from a command's event being dispatched until its handler starts, which
+ *     includes the other listeners and, in virtual mode, the handoff to a virtual thread. If this is high, the bot
+ *     itself is slow. Events waiting in a busy {@link utils.Bot.Gateway#EVENT_POOL_SIZE event pool} aren't counted.
+ * </ul>
+ * The gateway and REST pings are sampled every {@value #SAMPLE_SECONDS} seconds, and the handler delay is recorded for
+ * every command. Each is kept in two {@link WindowedHistogram windows}, covering the last minute and the last hour, and
+ * in a histogram since startup that's exported in the {@link Metrics metrics}.
+ */
+public class LatencyProbe {
+    /**
+     * This logger is used for failed samples.
+     */
+    public static final Logger LOG = JDALogger.getLog(LatencyProbe.class);
+
+    /**
+     * How often the pings are sampled and the minute windows are rotated, in seconds.
+     */
+    private static final int SAMPLE_SECONDS = 10;
+
+    /**
+     * How often the hour windows are rotated, in samples. This is every 5 minutes.
+     */
+    private static final int HOUR_ROTATION = 30;
+
+    /**
+     * The gateway heartbeat round trip, for each shard.
+     */
+    public static final Signal GATEWAY = new Signal("Gateway", "templatebot_gateway_ping_seconds",
+            "The gateway heartbeat round trip.");
+    /**
+     * The round trip of a small REST request.
+     */
+    public static final Signal REST = new Signal("REST", "templatebot_rest_ping_seconds",
+            "The round trip of a small REST request.");
+    /**
+     * The time from a command's event being dispatched until its handler starts. This is recorded by the {@link
+     * events.CommandExecutor CommandExecutor}.
+     */
+    public static final Signal HANDLER_DELAY = new Signal("Handler", "templatebot_handler_delay_seconds",
+            "The time from a command's event being dispatched until its handler starts.");
+
+    private static final Signal[] SIGNALS = {GATEWAY, REST, HANDLER_DELAY};
+
+    /**
+     * One kind of latency, recorded in a window for the last minute and a window for the last hour.
+     */
+    public static final class Signal {
+        private final String label;
+        private final WindowedHistogram minute, hour;
+
+        private Signal(@Nonnull String label, @Nonnull String metric, @Nonnull String help) {
+            this.label = label;
+            this.minute = new WindowedHistogram(60 / SAMPLE_SECONDS, Metrics.histogram(metric, help));
+            this.hour = new WindowedHistogram(60 * 60 / (SAMPLE_SECONDS * HOUR_ROTATION), null);
+        }
+
+        /**
+         * Record one sample in both windows. This doesn't allocate.
+         *
+         * @param nanos the latency in nanoseconds
+         */
+        public void record(long nanos) {
+            minute.record(nanos);
+            hour.record(nanos);
+        }
+    }
+
+    /**
+     * The number of samples taken, for deciding when to rotate the hour windows. This is only used by the sampling
+     * thread.
+     */
+    private static int samples;
+
+    private static ScheduledExecutorService sampler;
+
+    /**
+     * Start sampling the pings. This is called once on {@link OnStartup startup}, once the bot is connected.
+     *
+     * @return {@link OnStartup.Result#SUCCESS Success}
+     */
+    public static synchronized OnStartup.Result start() {
+        if (sampler != null)
+            return OnStartup.Result.SUCCESS;
+
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Latency Probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(LatencyProbe::sample, 0, SAMPLE_SECONDS, TimeUnit.SECONDS);
+        return OnStartup.Result.SUCCESS;
+    }
+
+    /**
+     * Rotate the windows that are due, and take one sample of each ping.
+     */
+    private static void sample() {
+        try {
+            samples++;
+            for (Signal signal : SIGNALS) {
+                signal.minute.rotate();
+                if (samples % HOUR_ROTATION == 0)
+                    signal.hour.rotate();
+            }
+
+            List<JDA> shards = Main.SHARDS != null ? Main.SHARDS.getShards() : List.of(Main.JDA);
+            for (JDA jda : shards)
+                if (jda.getStatus() == JDA.Status.CONNECTED && jda.getGatewayPing() >= 0)
+                    GATEWAY.record(TimeUnit.MILLISECONDS.toNanos(jda.getGatewayPing()));
+
+            // One REST request is enough, since every shard shares the same API
+            long start = System.nanoTime();
+            Main.JDA.getRestPing().queue(
+                    ignore -> REST.record(System.nanoTime() - start),
+                    error -> LOG.debug("Failed to measure the REST ping.", error)
+            );
+        } catch (Exception e) {
+            // An exception would stop the sampling, so it's only logged
+            LOG.warn("Failed to sample the latency.", e);
+        }
+    }
+
+    /**
+     * Describe the latency percentiles over the last minute and the last hour, as a table in a code block.
+     *
+     * @return the table
+     */
+    @Nonnull
+    public static String summarize() {
+        StringBuilder s = new StringBuilder("```\n");
+        s.append(String.format("%-8s %-21s %s\n", "", "Last minute", "Last hour"));
+        s.append(String.format("%-8s %-21s %s\n", "", "p50 / p95 / p99 ms", "p50 / p95 / p99 ms"));
+        for (Signal signal : SIGNALS)
+            s.append(String.format("%-8s %-21s %s\n", signal.label,
+                    percentiles(signal.minute.snapshot()), percentiles(signal.hour.snapshot())));
+        return s.append("```").toString();
+    }
+
+    /**
+     * Format the median, 95th, and 99th percentiles of a window in milliseconds.
+     *
+     * @param snapshot the window
+     *
+     * @return the percentiles, or a dash if the window is empty
+     */
+    @Nonnull
+    private static String percentiles(@Nonnull WindowedHistogram.Snapshot snapshot) {
+        if (snapshot.count() == 0)
+            return "-";
+        return String.format("%s / %s / %s", millis(snapshot.getPercentile(50)),
+                millis(snapshot.getPercentile(95)), millis(snapshot.getPercentile(99)));
+    }
+
+    @Nonnull
+    private static String millis(long nanos) {
+        double millis = nanos / 1e6;
+        return millis < 10 ? String.format("%.1f", millis) : String.format("%.0f", millis);
+    }
+}
@@ -0,0 +1,255 @@
+package metrics;
+
+import javax.annotation.Nonnull;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * The registry of every metric the bot exports, which the {@link MetricsServer} serves in the Prometheus text format.
+ * <p>
+ * A metric is identified by a name and a set of labels, such as <code>templatebot_command_seconds</code> with
+ * <code>command="ping"</code>. Asking for the same name and labels again returns the same {@link Counter} or {@link
+ * Histogram}, so a metric can be looked up wherever it's convenient. Looking one up does allocate, though, so code on
+ * the event thread should look its metrics up once, ahead of time, and keep them in a field; recording to them is
+ * then allocation-free.
+ * <p>
+ * Names follow the Prometheus conventions: they start with <code>templatebot_</code>, counters end in
+ * <code>_total</code>, and histograms are exported in seconds and end in <code>_seconds</code>, even though they
+ * record nanoseconds.
+ */
+public class Metrics {
+    /**
+     * The bucket boundaries that histograms are exported with, in seconds. The buckets inside each {@link Histogram}
+     * are much finer than this, but Prometheus stores every exported bucket as its own series.
+     */
+    private static final double[] EXPORTED_BUCKETS = {
+            0.0001, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+
+    /**
+     * The metrics, by name.
+     */
+    private static final Map<String, Family> FAMILIES = new ConcurrentHashMap<>();
+
+    /**
+     * The kinds of metric, named as in the Prometheus <code># TYPE</code> line.
+     */
+    private enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    /**
+     * Every metric with the same name, each with its own labels.
+     *
+     * @param type   the kind of metric
+     * @param help   a description of the metric
+     * @param series the metrics, by their formatted labels. Each is a {@link Counter}, a {@link Histogram}, a {@link
+     *               LongSupplier} for counters kept elsewhere, or a {@link DoubleSupplier} for gauges.
+     */
+    private record Family(Type type, String help, Map<String, Object> series) {
+    }
+
+    /**
+     * Get a counter, creating it if it doesn't exist.
+     *
+     * @param name   the name, ending in <code>_total</code>
+     * @param help   a description, shown by Prometheus
+     * @param labels the label names and values, alternating, such as <code>"command", "ping"</code>
+     *
+     * @return the counter
+     * @throws IllegalArgumentException if the name is already used by another kind of metric
+     */
+    @Nonnull
+    public static Counter counter(@Nonnull String name, @Nonnull String help, @Nonnull String... labels) {
+        return (Counter) family(name, help, Type.COUNTER).series.computeIfAbsent(labels(labels), k -> new Counter());
+    }
+
+    /**
+     * Export a count that's kept somewhere else, such as the number of commands denied by the rate limits. The count
+     * is read each time the metrics are exported. Registering the same name and labels again replaces the previous
+     * count.
+     *
+     * @param name   the name, ending in <code>_total</code>
+     * @param help   a description, shown by Prometheus
+     * @param count  reads the count
+     * @param labels the label names and values, alternating
+     *
+     * @throws IllegalArgumentException if the name is already used by another kind of metric
+     */
+    public static void counter(@Nonnull String name, @Nonnull String help, @Nonnull LongSupplier count,
+                               @Nonnull String... labels) {
+        family(name, help, Type.COUNTER).series.put(labels(labels), count);
+    }
+
+    /**
+     * Export a value that can go up and down, such as the number of messages waiting to be sent. The value is read
+     * each time the metrics are exported. Registering the same name and labels again replaces the previous value.
+     *
+     * @param name   the name
+     * @param help   a description, shown by Prometheus
+     * @param value  reads the value
+     * @param labels the label names and values, alternating
+     *
+     * @throws IllegalArgumentException if the name is already used by another kind of metric
+     */
+    public static void gauge(@Nonnull String name, @Nonnull String help, @Nonnull DoubleSupplier value,
+                             @Nonnull String... labels) {
+        family(name, help, Type.GAUGE).series.put(labels(labels), value);
+    }
+
+    /**
+     * Get a histogram, creating it if it doesn't exist.
+     *
+     * @param name   the name, ending in <code>_seconds</code>
+     * @param help   a description, shown by Prometheus
+     * @param labels the label names and values, alternating
+     *
+     * @return the histogram, which records nanoseconds
+     * @throws IllegalArgumentException if the name is already used by another kind of metric
+     */
+    @Nonnull
+    public static Histogram histogram(@Nonnull String name, @Nonnull String help, @Nonnull String... labels) {
+        return (Histogram) family(name, help, Type.HISTOGRAM).series
+                .computeIfAbsent(labels(labels), k -> new Histogram());
+    }
+
+    /**
+     * Get every histogram with a name, such as to report them outside of Prometheus.
+     *
+     * @param name the name
+     *
+     * @return the histograms, by their labels as written in the Prometheus text format, such as
+     *         <code>{type="MessageReceivedEvent"}</code>. This is empty if there's no histogram with the name.
+     */
+    @Nonnull
+    public static Map<String, Histogram> histograms(@Nonnull String name) {
+        Family family = FAMILIES.get(name);
+        Map<String, Histogram> histograms = new TreeMap<>();
+        if (family != null && family.type == Type.HISTOGRAM)
+            family.series.forEach((labels, histogram) -> histograms.put(labels, (Histogram) histogram));
+        return histograms;
+    }
+
+    /**
+     * Write every metric in the Prometheus text format, version 0.0.4.
+     *
+     * @param out where to write the metrics
+     */
+    public static void write(@Nonnull StringBuilder out) {
+        for (Map.Entry<String, Family> entry : new TreeMap<>(FAMILIES).entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(escape(family.help, false)).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type.name().toLowerCase(Locale.ROOT))
+                    .append('\n');
+
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof Counter counter)
+                    sample(out, name, labels, counter.get());
+                else if (metric instanceof LongSupplier count)
+                    sample(out, name, labels, count.getAsLong());
+                else if (metric instanceof DoubleSupplier value)
+                    sample(out, name, labels, value.getAsDouble());
+                else if (metric instanceof Histogram histogram)
+                    writeHistogram(out, name, labels, histogram);
+            }
+        }
+    }
+
+    /**
+     * Write a histogram's buckets, sum, and count. Each exported bucket counts the internal buckets that lie entirely
+     * within it, so a duration close to a boundary may be counted in the next bucket up.
+     */
+    private static void writeHistogram(@Nonnull StringBuilder out, @Nonnull String name, @Nonnull String labels,
+                                       @Nonnull Histogram histogram) {
+        String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+
+        long cumulative = 0;
+        int bucket = 0;
+        for (double boundary : EXPORTED_BUCKETS) {
+            long nanos = (long) (boundary * 1e9);
+            for (; bucket < Histogram.BUCKETS && Histogram.upperBound(bucket) <= nanos; bucket++)
+                cumulative += histogram.getCount(bucket);
+            sample(out, name + "_bucket", prefix + "le=\"" + boundary + "\"}", cumulative);
+        }
+        for (; bucket < Histogram.BUCKETS; bucket++)
+            cumulative += histogram.getCount(bucket);
+
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"}", cumulative);
+        sample(out, name + "_sum", labels, histogram.getSum() / 1e9);
+        sample(out, name + "_count", labels, cumulative);
+    }
+
+    private static void sample(@Nonnull StringBuilder out, @Nonnull String name, @Nonnull String labels, long value) {
+        out.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(@Nonnull StringBuilder out, @Nonnull String name, @Nonnull String labels,
+                               double value) {
+        out.append(name).append(labels).append(' ');
+        if (Double.isNaN(value))
+            out.append("NaN");
+        else if (Double.isInfinite(value))
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        else
+            out.append(value);
+        out.append('\n');
+    }
+
+    /**
+     * Get the family for a name, creating it if it doesn't exist.
+     *
+     * @throws IllegalArgumentException if the name is invalid or is already used by another kind of metric
+     */
+    @Nonnull
+    private static Family family(@Nonnull String name, @Nonnull String help, @Nonnull Type type) {
+        if (!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*"))
+            throw new IllegalArgumentException("Invalid metric name '" + name + "'.");
+
+        Family family = FAMILIES.computeIfAbsent(name, k -> new Family(type, help, new ConcurrentSkipListMap<>()));
+        if (family.type != type)
+            throw new IllegalArgumentException("The metric '" + name + "' is already a " +
+                                               family.type.name().toLowerCase(Locale.ROOT) + ", not a " +
+                                               type.name().toLowerCase(Locale.ROOT) + ".");
+        return family;
+    }
+
+    /**
+     * Format a set of labels as they're written in the Prometheus text format.
+     *
+     * @param labels the label names and values, alternating
+     *
+     * @return the labels, such as <code>{command="ping",type="slash"}</code>, or an empty string if there are none
+     * @throws IllegalArgumentException if a label has no value
+     */
+    @Nonnull
+    private static String labels(@Nonnull String... labels) {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("Every label needs a name and a value.");
+        if (labels.length == 0)
+            return "";
+
+        StringBuilder s = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2)
+            s.append(i == 0 ? "" : ",").append(labels[i]).append("=\"").append(escape(labels[i + 1], true))
+                    .append('"');
+        return s.append('}').toString();
+    }
+
+    /**
+     * Escape a label value or help text. Both escape backslashes and line breaks, and label values also escape
+     * quotes.
+     */
+    @Nonnull
+    private static String escape(@Nonnull String text, boolean quotes) {
+        String escaped = text.replace("\\", "\\\\").replace("\n", "\\n");
+        return quotes ? escaped.replace("\"", "\\\"") : escaped;
+    }
+}
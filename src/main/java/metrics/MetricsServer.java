@@ -0,0 +1,96 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import events.OnStartup;
+import utils.Bot;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * This serves the {@link Metrics} at <code>/metrics</code> in the Prometheus text format, on the {@link
+ * Bot.Config#METRICS_PORT metrics port}. It uses the JDK's built-in HTTP server with a single daemon thread, since it's
+ * only meant to be scraped every few seconds.
+ * <p>
+ * By default the server only listens on the loopback interface, so the metrics aren't reachable from outside the
+ * machine. Set {@link Bot.Config#METRICS_ADDRESS} to listen elsewhere, such as for a Prometheus server in another
+ * container.
+ */
+public class MetricsServer {
+    /**
+     * The content type of the Prometheus text format.
+     */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * The running server, or <code>null</code> if it hasn't been started.
+     */
+    private static HttpServer server;
+
+    /**
+     * Start the server, if {@link Bot.Config#METRICS_PORT enabled}. This is called once on {@link OnStartup startup};
+     * changing the port afterwards requires a restart.
+     *
+     * @return {@link OnStartup.Result#SUCCESS Success} if the server started; {@link OnStartup.Result#OMITTED omitted}
+     *         if the port is <code>0</code>; or {@link OnStartup.Result#FAILURE failure} if it couldn't be started
+     */
+    public static synchronized OnStartup.Result start() {
+        if (Bot.Config.METRICS_PORT <= 0)
+            return OnStartup.Result.OMITTED;
+        if (server != null)
+            return OnStartup.Result.SUCCESS;
+
+        String address = Bot.Config.METRICS_ADDRESS == null || Bot.Config.METRICS_ADDRESS.isBlank()
+                ? "127.0.0.1" : Bot.Config.METRICS_ADDRESS.trim();
+        try {
+            server = HttpServer.create(new InetSocketAddress(address, Bot.Config.METRICS_PORT), 0);
+            server.createContext("/metrics", MetricsServer::handle);
+            server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "Metrics Server");
+                thread.setDaemon(true);
+                return thread;
+            }));
+            server.start();
+
+            OnStartup.LOG.info("Serving metrics at http://{}:{}/metrics", address, Bot.Config.METRICS_PORT);
+            return OnStartup.Result.SUCCESS;
+        } catch (IOException | IllegalArgumentException e) {
+            server = null;
+            OnStartup.LOG.error("Failed to serve metrics on {}:{}.", address, Bot.Config.METRICS_PORT, e);
+            return OnStartup.Result.FAILURE;
+        }
+    }
+
+    /**
+     * Answer one request for the metrics.
+     *
+     * @param exchange the request
+     */
+    private static void handle(@Nonnull HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            StringBuilder text = new StringBuilder(16 * 1024);
+            Metrics.write(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package metrics;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An OkHttp interceptor that records every REST request the bot sends to Discord in
+ * <code>templatebot_rest_seconds</code>, by method, route, and status.
+ * <p>
+ * The route is the request path with ids, tokens, and other values replaced by placeholders, such as
+ * <code>/channels/{id}/messages</code>, so that each route is one series no matter how many channels the bot uses.
+ * The status is the class of the response code (<code>2xx</code>, <code>4xx</code>, and so on), with rate-limited
+ * requests counted separately as <code>429</code>, and <code>error</code> for requests that failed without a response.
+ * <p>
+ * Recording doesn't allocate once a series exists. The route is built into a {@link StringBuilder} that each thread
+ * reuses, by a single pass over the URL rather than with regular expressions, and that is used to look up the
+ * histogram in {@link #SERIES}. Only the first request for each method, route, and status creates the histogram and
+ * its labels.
+ */
+public class RestMetrics implements Interceptor {
+    /**
+     * The status labels for each class of response code, indexed by the code's first digit.
+     */
+    private static final String[] STATUS_CLASSES = {"0xx", "1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    /**
+     * The histogram for each method, route, and status that has been seen.
+     */
+    private static final ConcurrentHashMap<Key, Histogram> SERIES = new ConcurrentHashMap<>();
+
+    /**
+     * The key that each thread reuses to look up its histogram.
+     */
+    private static final ThreadLocal<Key> LOOKUP = ThreadLocal.withInitial(() -> new Key(new StringBuilder(128)));
+
+    @Nonnull
+    @Override
+    public Response intercept(@Nonnull Chain chain) throws IOException {
+        Request request = chain.request();
+        long start = System.nanoTime();
+        String status = "error";
+        try {
+            Response response = chain.proceed(request);
+            int code = response.code();
+            status = code == 429 ? "429" : code >= 100 && code < 600 ? STATUS_CLASSES[code / 100] : code / 100 + "xx";
+            return response;
+        } finally {
+            // HttpUrl.toString() returns the URL that it already holds, while encodedPath() creates a new string
+            histogram(request.method(), request.url().toString(), status).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Get the histogram for a request, creating it if this is the first request with its method, route, and status.
+     *
+     * @param method the HTTP method
+     * @param url    the full URL
+     * @param status the status label
+     *
+     * @return the histogram
+     */
+    @Nonnull
+    private static Histogram histogram(@Nonnull String method, @Nonnull String url, @Nonnull String status) {
+        Key lookup = LOOKUP.get();
+        StringBuilder text = (StringBuilder) lookup.text;
+        text.setLength(0);
+        text.append(method).append(' ');
+        int routeStart = text.length();
+        route(url, text);
+        int routeEnd = text.length();
+        text.append(' ').append(status);
+        lookup.hash = hash(text);
+
+        Histogram histogram = SERIES.get(lookup);
+        if (histogram != null)
+            return histogram;
+
+        String route = text.substring(routeStart, routeEnd);
+        return SERIES.computeIfAbsent(new Key(text.toString()), key ->
+                Metrics.histogram("templatebot_rest_seconds", "The time taken by REST requests to Discord.",
+                        "method", method, "route", route, "status", status));
+    }
+
+    /**
+     * Append the route for a request URL, replacing ids and other values with placeholders. The segments replaced
+     * are:
+     * <ul>
+     *     <li>Snowflake ids, which are at least 15 digits, with <code>{id}</code>.
+     *     <li>Interaction and webhook tokens, which follow the id in those routes, with <code>{token}</code>.
+     *     <li>Emojis in reaction routes, which follow <code>reactions</code>, with <code>{emoji}</code>.
+     *     <li>Invite codes, which follow <code>invites</code>, with <code>{code}</code>.
+     * </ul>
+     * The API version at the start of the path, such as <code>/api/v9</code>, and the query string are left out.
+     *
+     * @param url the URL, such as <code>https://discord.com/api/v9/channels/865654836061274152/messages</code>
+     * @param out where to append the route, such as <code>/channels/{id}/messages</code>
+     */
+    static void route(@Nonnull CharSequence url, @Nonnull StringBuilder out) {
+        int end = url.length();
+        int start = indexOf(url, "://", 0, end);
+        start = start < 0 ? 0 : indexOf(url, "/", start + 3, end);
+        if (start < 0)
+            start = end;
+        for (int i = start; i < end; i++)
+            if (url.charAt(i) == '?' || url.charAt(i) == '#') {
+                end = i;
+                break;
+            }
+
+        // Skip the API version
+        if (startsWith(url, start, end, "/api/v")) {
+            int pos = start + 6;
+            while (pos < end && Character.isDigit(url.charAt(pos)))
+                pos++;
+            if (pos > start + 6 && (pos == end || url.charAt(pos) == '/'))
+                start = pos;
+        }
+
+        int routeStart = out.length();
+        int index = 0;
+        boolean tokenRoute = false, afterId = false, afterReactions = false, afterInvites = false;
+        for (int segment = start; segment < end; index++) {
+            int from = segment + 1, to = from;
+            while (to < end && url.charAt(to) != '/')
+                to++;
+
+            out.append('/');
+            boolean id = isId(url, from, to);
+            if (afterReactions && to > from)
+                out.append("{emoji}");
+            else if (afterInvites && to > from)
+                out.append("{code}");
+            else if (tokenRoute && index == 2 && afterId)
+                out.append("{token}");
+            else if (id)
+                out.append("{id}");
+            else
+                out.append(url, from, to);
+
+            if (index == 0)
+                tokenRoute = matches(url, from, to, "interactions") || matches(url, from, to, "webhooks");
+            afterId = id;
+            afterReactions = matches(url, from, to, "reactions");
+            afterInvites = matches(url, from, to, "invites");
+            segment = to;
+        }
+
+        if (out.length() == routeStart)
+            out.append('/');
+    }
+
+    /**
+     * Check whether a segment is a snowflake id.
+     *
+     * @param text the text
+     * @param from the start of the segment
+     * @param to   the end of the segment
+     *
+     * @return <code>true</code> if the segment is at least 15 digits
+     */
+    private static boolean isId(@Nonnull CharSequence text, int from, int to) {
+        if (to - from < 15)
+            return false;
+        for (int i = from; i < to; i++)
+            if (text.charAt(i) < '0' || text.charAt(i) > '9')
+                return false;
+        return true;
+    }
+
+    /**
+     * Check whether a segment is exactly the given text.
+     *
+     * @param text    the text
+     * @param from    the start of the segment
+     * @param to      the end of the segment
+     * @param segment the expected segment
+     *
+     * @return <code>true</code> if they match
+     */
+    private static boolean matches(@Nonnull CharSequence text, int from, int to, @Nonnull String segment) {
+        return to - from == segment.length() && startsWith(text, from, to, segment);
+    }
+
+    private static boolean startsWith(@Nonnull CharSequence text, int from, int to, @Nonnull String prefix) {
+        if (to - from < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++)
+            if (text.charAt(from + i) != prefix.charAt(i))
+                return false;
+        return true;
+    }
+
+    private static int indexOf(@Nonnull CharSequence text, @Nonnull String target, int from, int to) {
+        for (int i = from; i <= to - target.length(); i++)
+            if (startsWith(text, i, to, target))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Hash text the same way as {@link String#hashCode()}, without creating a string.
+     *
+     * @param text the text
+     *
+     * @return the hash
+     */
+    private static int hash(@Nonnull CharSequence text) {
+        int hash = 0;
+        for (int i = 0; i < text.length(); i++)
+            hash = 31 * hash + text.charAt(i);
+        return hash;
+    }
+
+    /**
+     * The method, route, and status of a request, as text, such as <code>POST /channels/{id}/messages 2xx</code>. The
+     * keys in {@link #SERIES} hold a {@link String}, while the {@link #LOOKUP lookup keys} hold a {@link StringBuilder}
+     * that's rewritten for each request. Both compare by their contents.
+     */
+    private static final class Key {
+        private final CharSequence text;
+        private int hash;
+
+        private Key(@Nonnull CharSequence text) {
+            this.text = text;
+            this.hash = hash(text);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key key && hash == key.hash && CharSequence.compare(text, key.text) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
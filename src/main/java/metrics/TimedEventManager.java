@@ -0,0 +1,57 @@
+package metrics;
+
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.hooks.InterfacedEventManager;
+
+import javax.annotation.Nonnull;
+
+/**
+ * JDA's default event manager, which also records how long every listener takes to handle each type of event, in
+ * <code>templatebot_event_seconds</code>. The type is the simple name of the event class, such as
+ * <code>MessageReceivedEvent</code>, and the histogram's count is the number of events of that type received.
+ * <p>
+ * Each event class's histogram is looked up once and cached in a {@link ClassValue}, so dispatching an event doesn't
+ * allocate.
+ * <p>
+ * The time each event starts being dispatched is also available to the listeners from {@link #getDispatchStart()},
+ * which the {@link LatencyProbe} uses to measure how long commands wait before their handlers start.
+ */
+public class TimedEventManager extends InterfacedEventManager {
+    private static final ClassValue<Histogram> HISTOGRAMS = new ClassValue<>() {
+        @Override
+        protected Histogram computeValue(@Nonnull Class<?> type) {
+            return Metrics.histogram("templatebot_event_seconds",
+                    "The time taken by every listener to handle a gateway event, by event type.",
+                    "type", type.getSimpleName());
+        }
+    };
+
+    /**
+     * The {@link System#nanoTime()} when the event being dispatched on each thread started, or <code>0</code> if no
+     * event is being dispatched. It's an array so that setting it doesn't allocate.
+     */
+    private static final ThreadLocal<long[]> DISPATCH_START = ThreadLocal.withInitial(() -> new long[1]);
+
+    @Override
+    public void handle(@Nonnull GenericEvent event) {
+        long[] dispatchStart = DISPATCH_START.get();
+        long start = dispatchStart[0] = System.nanoTime();
+        try {
+            super.handle(event);
+        } finally {
+            dispatchStart[0] = 0;
+            HISTOGRAMS.get(event.getClass()).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Get the time that the event currently being handled on this thread started being dispatched to the listeners.
+     * This doesn't allocate.
+     *
+     * @return the {@link System#nanoTime()} when dispatch started, or <code>0</code> if this thread isn't dispatching
+     *         an event through this manager (for example, in benchmarks that call the listeners directly)
+     */
+    public static long getDispatchStart() {
+        return DISPATCH_START.get()[0];
+    }
+}
@@ -0,0 +1,92 @@
+package metrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link Histogram} of only the recent durations, such as those from the last minute. The window is split into a
+ * ring of slots, each its own histogram. Durations are recorded in the current slot, and every time the window is
+ * {@link #rotate() rotated}, the oldest slot is cleared and becomes the current one. A window of <code>n</code> slots
+ * that's rotated every <code>t</code> seconds therefore covers between <code>(n - 1)t</code> and <code>nt</code>
+ * seconds.
+ * <p>
+ * Recording is as cheap as recording to a plain histogram, and doesn't allocate. Each duration can also be recorded
+ * in a histogram that covers the whole time since startup, which is how windows are exported in the {@link Metrics
+ * metrics}.
+ */
+public final class WindowedHistogram {
+    private final Histogram[] slots;
+    private final Histogram total;
+    private volatile int current;
+
+    /**
+     * Create a new window.
+     *
+     * @param slots the number of slots
+     * @param total a histogram to also record every duration in, or <code>null</code> for none
+     */
+    public WindowedHistogram(int slots, @Nullable Histogram total) {
+        if (slots < 1)
+            throw new IllegalArgumentException("A window must have at least one slot.");
+
+        this.slots = new Histogram[slots];
+        for (int i = 0; i < slots; i++)
+            this.slots[i] = new Histogram();
+        this.total = total;
+    }
+
+    /**
+     * Record one duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        slots[current].record(nanos);
+        if (total != null)
+            total.record(nanos);
+    }
+
+    /**
+     * Drop the oldest slot from the window and start recording in a new one. This must only be called from one thread
+     * at a time, such as a scheduled task.
+     */
+    public void rotate() {
+        int next = (current + 1) % slots.length;
+        slots[next].reset();
+        current = next;
+    }
+
+    /**
+     * Get a snapshot of the durations recorded within the window.
+     *
+     * @return the snapshot
+     */
+    @Nonnull
+    public Snapshot snapshot() {
+        long[] counts = new long[Histogram.BUCKETS];
+        long count = 0;
+        for (Histogram slot : slots)
+            count += slot.addTo(counts);
+        return new Snapshot(counts, count);
+    }
+
+    /**
+     * The durations in a window at one point in time.
+     *
+     * @param counts the number of durations in each of the {@link Histogram} buckets
+     * @param count  the total number of durations
+     */
+    public record Snapshot(@Nonnull long[] counts, long count) {
+        /**
+         * Estimate a percentile of the durations. The estimate is the upper bound of the bucket that contains the
+         * percentile, so it's never less than the true value.
+         *
+         * @param percentile the percentile, from <code>0</code> to <code>100</code>
+         *
+         * @return the estimate in nanoseconds, or <code>0</code> if there are no durations
+         */
+        public long getPercentile(double percentile) {
+            return Histogram.percentile(counts, count, percentile);
+        }
+    }
+}
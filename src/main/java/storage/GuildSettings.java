@@ -0,0 +1,193 @@
+package storage;
+
+import events.OnStartup;
+import utils.ConfigSnapshot;
+import utils.PrefixMap;
+import utils.PrefixTrie;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The settings that a guild has changed from the defaults in <code>bot.properties</code>, kept in the {@link
+ * Storage#GUILDS guild store}. Currently, that's only its command prefixes.
+ * <p>
+ * Each guild's settings are stored as a compact binary record: a format version (a <code>byte</code>), followed by
+ * each setting as a tag (a <code>byte</code>), the length of its value (an unsigned <code>short</code>), and the value.
+ * Settings with tags that aren't recognized are skipped, so settings can be added without changing the format.
+ *
+ * @param prefixes the guild's command prefixes, or <code>null</code> to use those in <code>bot.properties</code>
+ */
+public record GuildSettings(@Nullable List<String> prefixes) {
+    /**
+     * The settings of a guild that hasn't changed any.
+     */
+    public static final GuildSettings DEFAULT = new GuildSettings(null);
+
+    private static final byte FORMAT = 1;
+
+    /**
+     * The tag for the {@link #prefixes() prefixes}. The value is the number of prefixes (a <code>byte</code>), followed
+     * by each prefix as its length (a <code>byte</code>) and its UTF-8 bytes.
+     */
+    private static final byte TAG_PREFIXES = 1;
+
+    public GuildSettings {
+        prefixes = prefixes == null ? null : List.copyOf(prefixes);
+    }
+
+    /**
+     * Get the settings for a guild. This doesn't read from the disk once the store is {@link Storage#open() warmed
+     * up}.
+     *
+     * @param guild the id of the guild
+     *
+     * @return the guild's settings, which are the {@link #DEFAULT defaults} if it hasn't changed any or the store is
+     *         disabled
+     */
+    @Nonnull
+    public static GuildSettings get(long guild) {
+        SegmentStore store = Storage.GUILDS;
+        ByteBuffer record = store == null ? null : store.get(guild);
+        return record == null ? DEFAULT : decode(record);
+    }
+
+    /**
+     * Save the settings for a guild, replacing the ones it had. If the prefixes changed, the {@link
+     * utils.Bot.Config#PREFIXES prefix map} is rebuilt and published, so they take effect immediately.
+     *
+     * @param guild    the id of the guild
+     * @param settings the guild's new settings
+     *
+     * @throws IllegalStateException if the store is disabled, because {@link utils.Bot.Config#DATA_DIRECTORY
+     *                               data_directory} is blank or the store failed to open
+     * @throws IOException           if the settings couldn't be written
+     */
+    public static synchronized void set(long guild, @Nonnull GuildSettings settings) throws IOException {
+        SegmentStore store = Storage.GUILDS;
+        if (store == null)
+            throw new IllegalStateException("Settings can't be saved, since the settings store is disabled.");
+
+        GuildSettings previous;
+        try {
+            previous = get(guild);
+        } catch (RuntimeException e) {
+            // A record that can't be decoded is replaced, rather than blocking the guild from changing its settings
+            previous = DEFAULT;
+        }
+        if (settings.equals(DEFAULT))
+            store.delete(guild);
+        else
+            store.put(guild, settings.encode());
+
+        if (!Objects.equals(settings.prefixes, previous.prefixes)) {
+            OnStartup.loadPrefixes();
+            ConfigSnapshot.publish();
+        }
+    }
+
+    /**
+     * Add the prefixes of every guild that has set its own to a prefix map, replacing those from
+     * <code>bot.properties</code>. This is called whenever the prefix map is built. A record that can't be decoded is
+     * logged and skipped, so that guild uses the prefixes from <code>bot.properties</code> and every other guild keeps
+     * its own.
+     *
+     * @param map the prefix map, while it's being built
+     *
+     * @return the number of guilds whose prefixes were added
+     */
+    public static int addPrefixes(@Nonnull PrefixMap map) {
+        SegmentStore store = Storage.GUILDS;
+        if (store == null)
+            return 0;
+
+        int[] added = {0};
+        store.forEach((guild, record) -> {
+            List<String> prefixes;
+            try {
+                prefixes = decode(record).prefixes;
+            } catch (RuntimeException e) {
+                // This includes BufferUnderflowException for a record that was cut short
+                SegmentStore.LOG.error("Failed to decode the settings of guild {}, so it will use the default " +
+                                       "prefixes. {}", guild, e.toString());
+                return;
+            }
+            if (prefixes != null && !prefixes.isEmpty()) {
+                map.put(guild, new PrefixTrie(prefixes));
+                added[0]++;
+            }
+        });
+        return added[0];
+    }
+
+    /**
+     * Encode these settings as a record.
+     *
+     * @return the record
+     * @throws IllegalArgumentException if there are more than 255 prefixes, or a prefix is longer than 255 bytes
+     */
+    @Nonnull
+    public ByteBuffer encode() {
+        List<byte[]> encoded = new ArrayList<>();
+        int size = 1;
+        if (prefixes != null) {
+            if (prefixes.size() > 255)
+                throw new IllegalArgumentException("A guild can have at most 255 prefixes.");
+            size += 4;
+            for (String prefix : prefixes) {
+                byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > 255)
+                    throw new IllegalArgumentException("Prefixes can be at most 255 bytes long.");
+                encoded.add(bytes);
+                size += 1 + bytes.length;
+            }
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size).put(FORMAT);
+        if (prefixes != null) {
+            out.put(TAG_PREFIXES).putShort((short) (size - 4)).put((byte) encoded.size());
+            for (byte[] bytes : encoded)
+                out.put((byte) bytes.length).put(bytes);
+        }
+        return out.flip();
+    }
+
+    /**
+     * Decode a record written by {@link #encode()}.
+     *
+     * @param record the record, which isn't changed
+     *
+     * @return the settings
+     * @throws IllegalArgumentException if the record is in an unknown format
+     */
+    @Nonnull
+    public static GuildSettings decode(@Nonnull ByteBuffer record) {
+        ByteBuffer in = record.duplicate();
+        if (in.get() != FORMAT)
+            throw new IllegalArgumentException("Unknown guild settings format " + record.get(record.position()) + ".");
+
+        List<String> prefixes = null;
+        while (in.hasRemaining()) {
+            byte tag = in.get();
+            int length = Short.toUnsignedInt(in.getShort());
+            int end = in.position() + length;
+            if (tag == TAG_PREFIXES) {
+                int count = Byte.toUnsignedInt(in.get());
+                prefixes = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    byte[] bytes = new byte[Byte.toUnsignedInt(in.get())];
+                    in.get(bytes);
+                    prefixes.add(new String(bytes, StandardCharsets.UTF_8));
+                }
+            }
+            in.position(end);
+        }
+        return new GuildSettings(prefixes);
+    }
+}
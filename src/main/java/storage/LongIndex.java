@@ -0,0 +1,181 @@
+package storage;
+
+/**
+ * An open-addressing hash map from snowflake ids to <code>long</code> values, used by the {@link SegmentStore} to map
+ * each key to where its latest record is. Like {@link utils.PrefixMap}, it uses linear probing over a primitive array,
+ * so it never boxes and has no entry object per key. The keys and values are interleaved in a single array, so a
+ * reader always sees a table whose keys and values belong together, even if it's replaced by a resize.
+ * <p>
+ * This isn't thread-safe. The store only modifies it while holding its write lock.
+ */
+final class LongIndex {
+    /**
+     * The key used to mark empty slots. No snowflake has the id <code>0</code>.
+     */
+    static final long EMPTY = 0;
+
+    /**
+     * The value returned for keys that aren't in the map.
+     */
+    static final long ABSENT = -1;
+
+    /**
+     * The key of slot <code>i</code> at <code>2i</code>, and its value at <code>2i + 1</code>.
+     */
+    private long[] table;
+    private int size;
+
+    /**
+     * Create an empty map.
+     *
+     * @param expected the number of keys to make room for without resizing
+     */
+    LongIndex(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2)
+            capacity <<= 1;
+        table = new long[capacity * 2];
+    }
+
+    /**
+     * Get the value for a key.
+     *
+     * @param key the key
+     *
+     * @return the value, or {@link #ABSENT} if the key isn't in the map
+     */
+    long get(long key) {
+        long[] table = this.table;
+        int mask = (table.length >> 1) - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            long k = table[slot << 1];
+            if (k == key)
+                return table[(slot << 1) + 1];
+            if (k == EMPTY)
+                return ABSENT;
+        }
+    }
+
+    /**
+     * Set the value for a key, replacing any it already has.
+     *
+     * @param key   the key, which must not be <code>0</code>
+     * @param value the value, which must not be {@link #ABSENT}
+     *
+     * @return the previous value, or {@link #ABSENT} if the key wasn't in the map
+     */
+    long put(long key, long value) {
+        // Keep the load factor at or below 1/2, so that probe sequences stay short
+        if ((size + 1) * 4 > table.length)
+            resize(table.length);
+
+        int slot = slot(key);
+        long previous = ABSENT;
+        if (table[slot << 1] == EMPTY) {
+            table[slot << 1] = key;
+            size++;
+        } else {
+            previous = table[(slot << 1) + 1];
+        }
+        table[(slot << 1) + 1] = value;
+        return previous;
+    }
+
+    /**
+     * Remove a key. The keys after it in its probe sequence are shifted back, so no tombstones are left behind.
+     *
+     * @param key the key
+     *
+     * @return the value it had, or {@link #ABSENT} if it wasn't in the map
+     */
+    long remove(long key) {
+        int slot = slot(key);
+        if (table[slot << 1] == EMPTY)
+            return ABSENT;
+
+        long previous = table[(slot << 1) + 1];
+        int mask = (table.length >> 1) - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; table[next << 1] != EMPTY; next = (next + 1) & mask) {
+            // Move the key into the hole if the hole is between its home slot and where it is now
+            int home = mix(table[next << 1]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole << 1] = table[next << 1];
+                table[(hole << 1) + 1] = table[(next << 1) + 1];
+                hole = next;
+            }
+        }
+        table[hole << 1] = EMPTY;
+        table[(hole << 1) + 1] = 0;
+        size--;
+        return previous;
+    }
+
+    /**
+     * Get the number of keys in the map.
+     *
+     * @return the number of keys
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the table, for iterating over every entry. Slot <code>i</code> holds its key at <code>2i</code>, which is
+     * {@link #EMPTY} if the slot is empty, and its value at <code>2i + 1</code>. The array must not be modified.
+     *
+     * @return the table
+     */
+    long[] table() {
+        return table;
+    }
+
+    /**
+     * Find the slot for a key: either the slot that contains it, or the empty slot where it would be inserted.
+     *
+     * @param key the key
+     *
+     * @return the slot index
+     */
+    private int slot(long key) {
+        int mask = (table.length >> 1) - 1;
+        int slot = mix(key) & mask;
+        while (table[slot << 1] != EMPTY && table[slot << 1] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Double the table and reinsert every key.
+     *
+     * @param capacity the new capacity in slots, which must be a power of two
+     */
+    private void resize(int capacity) {
+        long[] old = table;
+        long[] resized = new long[capacity * 2];
+        int mask = capacity - 1;
+        for (int i = 0; i < old.length; i += 2) {
+            if (old[i] == EMPTY)
+                continue;
+            int slot = mix(old[i]) & mask;
+            while (resized[slot << 1] != EMPTY)
+                slot = (slot + 1) & mask;
+            resized[slot << 1] = old[i];
+            resized[(slot << 1) + 1] = old[i + 1];
+        }
+        table = resized;
+    }
+
+    /**
+     * Spread the bits of a snowflake id, which are mostly a timestamp in the high bits and a counter (often zero) in
+     * the low bits.
+     *
+     * @param id the snowflake id
+     *
+     * @return the hash
+     */
+    private static int mix(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
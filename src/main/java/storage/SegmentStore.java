@@ -0,0 +1,696 @@
+package storage;
+
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * An embedded key-value store, where the keys are snowflake ids and the values are small binary records, such as the
+ * {@link GuildSettings settings for a guild}. It needs no database: the records are kept in memory-mapped files in a
+ * directory, and an in-memory {@link LongIndex index} maps each key to its latest record.
+ * <p>
+ * The files are <i>segments</i> of {@value #SEGMENT_BYTES} bytes, named
+ * <code>&lt;store&gt;.&lt;generation&gt;.seg</code>. Writes only ever append: setting a key adds a record to the newest
+ * segment (starting a new one when it's full), and deleting a key adds a tombstone. Each record is a header of the
+ * key (a <code>long</code>), the length of the value (an <code>int</code>, or <code>-1</code> for a tombstone), and a
+ * CRC32C of both and the value (an <code>int</code>), followed by the value. When the store is opened, the segments are
+ * read in order to rebuild the index, stopping at the first record whose checksum doesn't match, so a write that was
+ * cut off by a crash is ignored.
+ * <p>
+ * Reads are zero-copy: {@link #get(long)} returns a read-only view of the value in the mapped file. They don't lock
+ * either, unless a write is updating the index at that moment. The memory of the segments is loaded on {@link
+ * #warmup() warmup}, so reads don't wait for the disk.
+ * <p>
+ * The records replaced by later writes are garbage. Once there's more garbage than live data, {@link
+ * #compactIfNeeded()} rewrites the live records into new segments and deletes the old ones. The first new segment is
+ * only marked as the base of the store once every live record has been copied, so a crash during compaction leaves
+ * the old segments in charge.
+ * <p>
+ * Values must be at most {@value #MAX_VALUE_BYTES} bytes. A store is safe to use from many threads, but only one
+ * process may open its directory at a time.
+ */
+public class SegmentStore implements AutoCloseable {
+    /**
+     * This logger is used for problems found while opening and compacting stores.
+     */
+    public static final Logger LOG = JDALogger.getLog(SegmentStore.class);
+
+    /**
+     * The size of each segment file.
+     */
+    public static final int SEGMENT_BYTES = 4 << 20;
+
+    /**
+     * The largest value that can be stored.
+     */
+    public static final int MAX_VALUE_BYTES = 64 << 10;
+
+    /**
+     * The stores don't compact until they have at least this much garbage, so small stores aren't rewritten often.
+     */
+    private static final long MIN_COMPACTION_GARBAGE = 256 << 10;
+
+    /**
+     * The first four bytes of every segment: <code>TBKV</code>.
+     */
+    private static final int MAGIC = 0x54424B56;
+    private static final short VERSION = 1;
+
+    /**
+     * The segment header flag that marks the first segment written by a completed compaction. Every older segment is
+     * ignored.
+     */
+    private static final short FLAG_BASE = 1;
+
+    /**
+     * The size of the segment header: the magic number, the version, and the flags.
+     */
+    private static final int SEGMENT_HEADER = 8;
+
+    /**
+     * The size of each record header: the key, the length, and the checksum.
+     */
+    private static final int RECORD_HEADER = 16;
+
+    private static final int TOMBSTONE = -1;
+    private static final int PAGE_BYTES = 4096;
+
+    private final Path directory;
+    private final String name;
+
+    /**
+     * Guards {@link #index} and {@link #segments} for readers. Writers also hold the store's monitor, so only one
+     * write or compaction runs at a time.
+     */
+    private final StampedLock lock = new StampedLock();
+    private LongIndex index;
+    private Segment[] segments;
+    private long nextGeneration;
+    private long liveBytes, garbageBytes;
+    private boolean closed;
+
+    private SegmentStore(@Nonnull Path directory, @Nonnull String name) {
+        this.directory = directory;
+        this.name = name;
+    }
+
+    /**
+     * Open a store, creating it if it doesn't exist. Every segment is read to build the index.
+     *
+     * @param directory the directory with the segments, which is created if it doesn't exist
+     * @param name      the name of the store, which is the start of each segment's file name
+     *
+     * @return the store
+     * @throws IOException if a segment can't be read or created
+     */
+    @Nonnull
+    public static SegmentStore open(@Nonnull Path directory, @Nonnull String name) throws IOException {
+        Files.createDirectories(directory);
+        SegmentStore store = new SegmentStore(directory, name);
+        store.load();
+        return store;
+    }
+
+    /**
+     * Map every segment and replay its records into a new index.
+     */
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(file -> generation(file) >= 0)
+                    .sorted(Comparator.comparingLong(this::generation))
+                    .forEach(files::add);
+        }
+
+        List<Segment> opened = new ArrayList<>();
+        for (Path file : files) {
+            Segment segment = Segment.open(file, generation(file));
+            if (segment.isBase()) {
+                // A completed compaction replaced everything before it
+                for (Segment old : opened)
+                    old.delete();
+                opened.clear();
+            }
+            opened.add(segment);
+        }
+
+        index = new LongIndex(0);
+        segments = opened.toArray(new Segment[0]);
+        for (int i = 0; i < segments.length; i++)
+            replay(i, i == segments.length - 1);
+
+        nextGeneration = segments.length == 0 ? 1 : segments[segments.length - 1].generation + 1;
+        if (segments.length == 0)
+            segments = new Segment[]{Segment.create(directory.resolve(fileName(nextGeneration)),
+                    nextGeneration++)};
+    }
+
+    /**
+     * Read the records in a segment into the index, and find where the next record goes.
+     *
+     * @param number the segment's position in {@link #segments}
+     * @param last   whether it's the newest segment, which any new records are appended to
+     */
+    private void replay(int number, boolean last) {
+        Segment segment = segments[number];
+        ByteBuffer buffer = segment.buffer;
+        int position = SEGMENT_HEADER;
+        while (position + RECORD_HEADER <= SEGMENT_BYTES) {
+            long key = buffer.getLong(position);
+            if (key == LongIndex.EMPTY)
+                break;
+
+            int length = buffer.getInt(position + 8);
+            if (length < TOMBSTONE || length > MAX_VALUE_BYTES
+                || position + RECORD_HEADER + Math.max(length, 0) > SEGMENT_BYTES
+                || buffer.getInt(position + 12) != checksum(buffer, position, length)) {
+                LOG.warn("Ignoring the end of {} from byte {}, which isn't a complete record. It was probably cut " +
+                         "off by a crash.", segment.file, position);
+                // Clear it, so the records appended in its place aren't followed by the remains of it
+                int end = Math.min(position + RECORD_HEADER + MAX_VALUE_BYTES, SEGMENT_BYTES);
+                if (last)
+                    for (int i = position; i < end; i++)
+                        buffer.put(i, (byte) 0);
+                break;
+            }
+
+            long previous = length == TOMBSTONE
+                    ? index.remove(key)
+                    : index.put(key, location(number, position));
+            if (previous != LongIndex.ABSENT)
+                forget(previous);
+            if (length == TOMBSTONE)
+                garbageBytes += RECORD_HEADER;
+            else
+                liveBytes += RECORD_HEADER + length;
+            position += RECORD_HEADER + Math.max(length, 0);
+        }
+        segment.position = position;
+    }
+
+    /**
+     * Get the value for a key. This doesn't copy the value or lock, and only allocates the returned view.
+     *
+     * @param key the key
+     *
+     * @return a read-only view of the value, or <code>null</code> if the key isn't set
+     */
+    @Nullable
+    public ByteBuffer get(long key) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            ByteBuffer value = read(key);
+            if (lock.validate(stamp))
+                return value;
+        }
+
+        // A write changed the index while it was being read, so read it again while no writes can happen
+        stamp = lock.readLock();
+        try {
+            return read(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Look up a key in the index and get a view of its value. This checks every bound, since without the read lock
+     * the index may be halfway through a change.
+     *
+     * @param key the key
+     *
+     * @return the value, or <code>null</code> if the key isn't set (or the index was being changed)
+     */
+    @Nullable
+    private ByteBuffer read(long key) {
+        long location = index.get(key);
+        Segment[] segments = this.segments;
+        if (location == LongIndex.ABSENT || (int) (location >>> 32) >= segments.length)
+            return null;
+
+        Segment segment = segments[(int) (location >>> 32)];
+        int position = (int) location;
+        if (position < SEGMENT_HEADER || position + RECORD_HEADER > SEGMENT_BYTES
+            || segment.buffer.getLong(position) != key)
+            return null;
+
+        int length = segment.buffer.getInt(position + 8);
+        if (length < 0 || position + RECORD_HEADER + length > SEGMENT_BYTES)
+            return null;
+        return segment.view.slice(position + RECORD_HEADER, length);
+    }
+
+    /**
+     * Check whether a key is set.
+     *
+     * @param key the key
+     *
+     * @return <code>true</code> if it has a value
+     */
+    public boolean contains(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Set the value for a key, replacing any it already has. The record is written to the disk before this returns.
+     *
+     * @param key   the key, which must not be <code>0</code>
+     * @param value the value, from its position to its limit. Its position isn't changed.
+     *
+     * @throws IllegalArgumentException if the key is <code>0</code> or the value is too long
+     * @throws IOException              if a new segment was needed and couldn't be created
+     */
+    public synchronized void put(long key, @Nonnull ByteBuffer value) throws IOException {
+        if (key == LongIndex.EMPTY)
+            throw new IllegalArgumentException("Key 0 is not valid.");
+        if (value.remaining() > MAX_VALUE_BYTES)
+            throw new IllegalArgumentException("Values can be at most " + MAX_VALUE_BYTES + " bytes, not " +
+                                               value.remaining() + ".");
+
+        long location = append(key, value, value.remaining());
+        long stamp = lock.writeLock();
+        long previous;
+        try {
+            previous = index.put(key, location);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        if (previous != LongIndex.ABSENT)
+            forget(previous);
+        liveBytes += RECORD_HEADER + value.remaining();
+    }
+
+    /**
+     * Remove a key and its value.
+     *
+     * @param key the key
+     *
+     * @return <code>true</code> if the key was set
+     * @throws IOException if a new segment was needed and couldn't be created
+     */
+    public synchronized boolean delete(long key) throws IOException {
+        if (key == LongIndex.EMPTY || index.get(key) == LongIndex.ABSENT)
+            return false;
+
+        append(key, null, TOMBSTONE);
+        long stamp = lock.writeLock();
+        long previous;
+        try {
+            previous = index.remove(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        forget(previous);
+        garbageBytes += RECORD_HEADER;
+        return true;
+    }
+
+    /**
+     * Write a record to the end of the newest segment, starting a new segment if it doesn't fit. This must be called
+     * while holding the store's monitor.
+     *
+     * @param key    the key
+     * @param value  the value, or <code>null</code> for a tombstone
+     * @param length the length of the value, or {@link #TOMBSTONE}
+     *
+     * @return the location of the record
+     */
+    private long append(long key, @Nullable ByteBuffer value, int length) throws IOException {
+        if (closed)
+            throw new IOException("The store '" + name + "' is closed.");
+
+        Segment segment = segments[segments.length - 1];
+        int size = RECORD_HEADER + Math.max(length, 0);
+        if (segment.position + size > SEGMENT_BYTES) {
+            segment.buffer.force();
+            Segment next = Segment.create(directory.resolve(fileName(nextGeneration)), nextGeneration++);
+            Segment[] grown = Arrays.copyOf(segments, segments.length + 1);
+            grown[grown.length - 1] = next;
+
+            long stamp = lock.writeLock();
+            try {
+                segments = grown;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            segment = next;
+        }
+
+        int position = segment.write(key, value, length);
+        return location(segments.length - 1, position);
+    }
+
+    /**
+     * Count the record at a location as garbage, since it's been replaced or deleted.
+     *
+     * @param location the location of the record
+     */
+    private void forget(long location) {
+        int length = segments[(int) (location >>> 32)].buffer.getInt((int) location + 8);
+        liveBytes -= RECORD_HEADER + length;
+        garbageBytes += RECORD_HEADER + length;
+    }
+
+    /**
+     * Visit every key and its value. The visitor must not write to the store.
+     *
+     * @param visitor the visitor, which is given each key and a read-only view of its value
+     */
+    public void forEach(@Nonnull Visitor visitor) {
+        long stamp = lock.readLock();
+        try {
+            long[] table = index.table();
+            for (int i = 0; i < table.length; i += 2) {
+                if (table[i] == LongIndex.EMPTY)
+                    continue;
+                Segment segment = segments[(int) (table[i + 1] >>> 32)];
+                int position = (int) table[i + 1];
+                visitor.visit(table[i], segment.view.slice(position + RECORD_HEADER,
+                        segment.buffer.getInt(position + 8)));
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Visits the entries in a store.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * Visit one entry.
+         *
+         * @param key   the key
+         * @param value a read-only view of its value
+         */
+        void visit(long key, @Nonnull ByteBuffer value);
+    }
+
+    /**
+     * Read every page of the segments that holds records into memory, so that reads don't wait for the disk.
+     */
+    public synchronized void warmup() {
+        for (Segment segment : segments)
+            for (int i = 0; i < segment.position; i += PAGE_BYTES)
+                segment.buffer.get(i);
+    }
+
+    /**
+     * {@link #compact() Compact} the store if more than half of it is garbage, and there's enough garbage to be worth
+     * it.
+     *
+     * @return <code>true</code> if the store was compacted
+     * @throws IOException if the new segments couldn't be written
+     */
+    public synchronized boolean compactIfNeeded() throws IOException {
+        if (garbageBytes < MIN_COMPACTION_GARBAGE || garbageBytes <= liveBytes)
+            return false;
+        compact();
+        return true;
+    }
+
+    /**
+     * Rewrite every live record into new segments, and delete the old segments. Reads continue from the old segments
+     * until the new ones are complete, but writes wait.
+     *
+     * @throws IOException if the new segments couldn't be written, in which case the old ones are still used
+     */
+    public synchronized void compact() throws IOException {
+        if (closed)
+            throw new IOException("The store '" + name + "' is closed.");
+
+        long garbage = garbageBytes;
+        List<Segment> written = new ArrayList<>();
+        LongIndex compacted = new LongIndex(index.size());
+        try {
+            Segment out = Segment.create(directory.resolve(fileName(nextGeneration)), nextGeneration++);
+            written.add(out);
+
+            long[] table = index.table();
+            for (int i = 0; i < table.length; i += 2) {
+                if (table[i] == LongIndex.EMPTY)
+                    continue;
+                Segment from = segments[(int) (table[i + 1] >>> 32)];
+                int position = (int) table[i + 1];
+                int length = from.buffer.getInt(position + 8);
+
+                if (out.position + RECORD_HEADER + length > SEGMENT_BYTES) {
+                    out = Segment.create(directory.resolve(fileName(nextGeneration)), nextGeneration++);
+                    written.add(out);
+                }
+                int copied = out.write(table[i], from.buffer.slice(position + RECORD_HEADER, length), length);
+                compacted.put(table[i], location(written.size() - 1, copied));
+            }
+
+            for (Segment segment : written)
+                segment.buffer.force();
+            written.get(0).markBase();
+        } catch (IOException | RuntimeException e) {
+            for (Segment segment : written)
+                segment.delete();
+            throw e;
+        }
+
+        Segment[] old = segments;
+        long stamp = lock.writeLock();
+        try {
+            segments = written.toArray(new Segment[0]);
+            index = compacted;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        garbageBytes = 0;
+
+        // Oldest first, so that a value is never left behind without the tombstone that deleted it
+        for (Segment segment : old)
+            segment.delete();
+        LOG.info("Compacted the store '{}': {} keys in {} segments, {} KB of garbage removed", name,
+                 compacted.size(), segments.length, garbage >> 10);
+    }
+
+    /**
+     * Get the number of keys in the store.
+     *
+     * @return the number of keys
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return index.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Get the size of the records that are still in use, including their headers.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Get the size of the records that have been replaced or deleted, and would be removed by compaction.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    /**
+     * Get the name of the store.
+     *
+     * @return the name
+     */
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Write every segment to the disk. The store can't be written to afterwards, but it can still be read.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        for (Segment segment : segments)
+            segment.close();
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + size() + " keys)";
+    }
+
+    /**
+     * Get a record's location in the index from its segment and its position within that segment.
+     */
+    private static long location(int segment, int position) {
+        return (long) segment << 32 | position;
+    }
+
+    /**
+     * Get the checksum of a record: its key, length, and value.
+     */
+    private static int checksum(@Nonnull ByteBuffer buffer, int position, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(position, 12));
+        if (length > 0)
+            crc.update(buffer.slice(position + RECORD_HEADER, length));
+        return (int) crc.getValue();
+    }
+
+    @Nonnull
+    private String fileName(long generation) {
+        return String.format("%s.%06d.seg", name, generation);
+    }
+
+    /**
+     * Get the generation of a segment file of this store from its name.
+     *
+     * @return the generation, or <code>-1</code> if it's not one of this store's segments
+     */
+    private long generation(@Nonnull Path file) {
+        String fileName = file.getFileName().toString();
+        if (!fileName.startsWith(name + ".") || !fileName.endsWith(".seg"))
+            return -1;
+        try {
+            return Long.parseLong(fileName.substring(name.length() + 1, fileName.length() - 4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * One memory-mapped segment file.
+     */
+    private static final class Segment {
+        private final Path file;
+        private final long generation;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        /**
+         * A read-only view of {@link #buffer}, which {@link #get(long)} slices.
+         */
+        private final ByteBuffer view;
+
+        /**
+         * Where the next record goes. This is only used while holding the store's monitor.
+         */
+        private int position = SEGMENT_HEADER;
+
+        private Segment(@Nonnull Path file, long generation, @Nonnull FileChannel channel) throws IOException {
+            this.file = file;
+            this.generation = generation;
+            this.channel = channel;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+            this.view = buffer.asReadOnlyBuffer();
+        }
+
+        /**
+         * Create a new, empty segment.
+         */
+        @Nonnull
+        static Segment create(@Nonnull Path file, long generation) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            Segment segment = new Segment(file, generation, channel);
+            segment.buffer.putInt(0, MAGIC);
+            segment.buffer.putShort(4, VERSION);
+            segment.buffer.putShort(6, (short) 0);
+            return segment;
+        }
+
+        /**
+         * Open an existing segment.
+         *
+         * @throws IOException if it can't be read or isn't a segment
+         */
+        @Nonnull
+        static Segment open(@Nonnull Path file, long generation) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(file, generation, channel);
+            if (segment.buffer.getInt(0) != MAGIC || segment.buffer.getShort(4) != VERSION) {
+                channel.close();
+                throw new IOException(file + " isn't a version " + VERSION + " store segment.");
+            }
+            return segment;
+        }
+
+        boolean isBase() {
+            return (buffer.getShort(6) & FLAG_BASE) != 0;
+        }
+
+        /**
+         * Mark this as the first segment of a completed compaction.
+         */
+        void markBase() {
+            buffer.putShort(6, FLAG_BASE);
+            buffer.force(0, SEGMENT_HEADER);
+        }
+
+        /**
+         * Append a record and write it to the disk.
+         *
+         * @return the position of the record
+         */
+        int write(long key, @Nullable ByteBuffer value, int length) {
+            int start = position;
+            buffer.putLong(start, key);
+            buffer.putInt(start + 8, length);
+            if (length > 0)
+                buffer.put(start + RECORD_HEADER, value, value.position(), length);
+            buffer.putInt(start + 12, checksum(buffer, start, length));
+            position = start + RECORD_HEADER + Math.max(length, 0);
+            buffer.force(start, position - start);
+            return start;
+        }
+
+        void close() {
+            try {
+                buffer.force();
+                channel.close();
+            } catch (IOException e) {
+                LOG.error("Failed to close the store segment {}.", file, e);
+            }
+        }
+
+        /**
+         * Close and delete the file. The memory stays mapped until it's garbage collected, so views of it that are
+         * still in use can be read.
+         */
+        void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOG.warn("Failed to delete the old store segment {}.", file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package storage;
+
+import events.OnStartup;
+import metrics.Metrics;
+import utils.Bot;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bot's settings stores, kept in the {@link Bot.Config#DATA_DIRECTORY data directory}: {@link #GUILDS} for
+ * per-guild settings (see {@link GuildSettings}) and {@link #USERS} for per-user settings. Both are {@link
+ * SegmentStore SegmentStores} keyed by snowflake id.
+ * <p>
+ * The stores are opened and warmed up by a {@link OnStartup startup} task, right after the bot is ready and before the
+ * prefix map is built from them, so that nothing on the message path waits for the disk. From then on, they're
+ * compacted in the background every {@value #COMPACTION_MINUTES} minutes if they've collected enough garbage, and
+ * closed when the JVM shuts down.
+ */
+public class Storage {
+    /**
+     * How often the stores are checked for compaction, in minutes.
+     */
+    private static final int COMPACTION_MINUTES = 5;
+
+    /**
+     * The per-guild settings, or <code>null</code> if the stores haven't been opened or are disabled.
+     */
+    public static volatile SegmentStore GUILDS;
+
+    /**
+     * The per-user settings, or <code>null</code> if the stores haven't been opened or are disabled. The core library
+     * doesn't store any per-user settings itself; this is for the bot's own commands.
+     */
+    public static volatile SegmentStore USERS;
+
+    private static ScheduledExecutorService compactor;
+
+    /**
+     * Open the stores, if {@link Bot.Config#DATA_DIRECTORY enabled}, and load them into memory. This is called once on
+     * {@link OnStartup startup}; changing the directory afterwards requires a restart.
+     *
+     * @return {@link OnStartup.Result#SUCCESS Success} if the stores were opened; {@link OnStartup.Result#OMITTED
+     *         omitted} if the data directory is blank; or {@link OnStartup.Result#FAILURE failure} if they couldn't be
+     *         opened, in which case no settings are stored
+     */
+    public static synchronized OnStartup.Result open() {
+        if (Bot.Config.DATA_DIRECTORY == null || Bot.Config.DATA_DIRECTORY.isBlank())
+            return OnStartup.Result.OMITTED;
+        if (GUILDS != null)
+            return OnStartup.Result.SUCCESS;
+
+        Path directory = Path.of(Bot.Config.DATA_DIRECTORY.trim());
+        SegmentStore guilds = null;
+        try {
+            guilds = SegmentStore.open(directory, "guilds");
+            SegmentStore users = SegmentStore.open(directory, "users");
+            guilds.warmup();
+            users.warmup();
+            GUILDS = guilds;
+            USERS = users;
+        } catch (IOException | RuntimeException e) {
+            if (guilds != null)
+                guilds.close();
+            OnStartup.LOG.error("Failed to open the settings store in {}. Settings won't be saved.",
+                                directory.toAbsolutePath(), e);
+            return OnStartup.Result.FAILURE;
+        }
+
+        for (SegmentStore store : new SegmentStore[]{GUILDS, USERS}) {
+            Metrics.gauge("templatebot_store_keys", "The keys in each settings store.", store::size,
+                    "store", store.getName());
+            Metrics.gauge("templatebot_store_bytes", "The size of the records in each settings store.",
+                    store::getLiveBytes, "store", store.getName(), "kind", "live");
+            Metrics.gauge("templatebot_store_bytes", "The size of the records in each settings store.",
+                    store::getGarbageBytes, "store", store.getName(), "kind", "garbage");
+        }
+
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Storage Compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(Storage::compact, COMPACTION_MINUTES, COMPACTION_MINUTES, TimeUnit.MINUTES);
+        Runtime.getRuntime().addShutdownHook(new Thread(Storage::close, "Storage Shutdown"));
+
+        OnStartup.LOG.info("Opened the settings store in {}: {}, {}", directory.toAbsolutePath(), GUILDS, USERS);
+        return OnStartup.Result.SUCCESS;
+    }
+
+    /**
+     * Compact each store that has collected enough garbage.
+     */
+    private static void compact() {
+        for (SegmentStore store : new SegmentStore[]{GUILDS, USERS}) {
+            try {
+                store.compactIfNeeded();
+            } catch (IOException | RuntimeException e) {
+                // An exception would stop the compaction task, so it's only logged
+                SegmentStore.LOG.warn("Failed to compact the store '{}'. It will be tried again later.",
+                                      store.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Close the stores, so that everything written is on the disk.
+     */
+    private static synchronized void close() {
+        if (compactor != null)
+            compactor.shutdownNow();
+        for (SegmentStore store : new SegmentStore[]{GUILDS, USERS})
+            if (store != null)
+                store.close();
+    }
+
+    /**
+     * Check whether the stores are open.
+     *
+     * @return <code>true</code> if settings can be saved
+     */
+    public static boolean isOpen() {
+        return GUILDS != null;
+    }
+}
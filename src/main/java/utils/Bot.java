@@ -1,6 +1,8 @@
 package utils;
 
+import annotations.Configuration;
 import events.OnStartup;
+import events.StartupTasks;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.OnlineStatus;
 import net.dv8tion.jda.api.entities.Activity;
@@ -22,9 +24,13 @@ import java.util.Map;
  * is all uppercase; the property name is case-insensitive in <code>bot.properties</code>. Make sure that the {@link
  * Bot} field is <code>public</code> and <code>static</code>, but <i>not</i> <code>final</code>.
  * <p>
- * The property will automatically be loaded from <code>bot.properties</code> to the {@link Bot} field by the private
- * {@link OnStartup#loadProperties() loadproperties()} method. If you use a non-standard field type, you will need to
- * modify the {@link OnStartup#cast(String, Class) cast()} method to support that type. By default, it supports:
+ * The property will automatically be loaded from <code>bot.properties</code> to the {@link Bot} field by the {@link
+ * OnStartup#loadProperties() loadProperties()} method, which runs before the bot connects to Discord. The {@link
+ * Configuration @Configuration} annotation generates {@link BotBinder} when the bot is compiled, which sets each field
+ * directly without reflection. The build also checks <code>bot.properties</code> against these fields: a property
+ * without a field, or a value that can't be converted to the field's type, is a compile error. If you use a
+ * non-standard field type, you will need to add a converter for it to <code>processor.ConfigProcessor</code>. By
+ * default, it supports:
  * <ul>
  * <li>{@link String}</li>
  * <li>{@link Character}</li>
@@ -33,12 +39,14 @@ import java.util.Map;
  * <li>{@link Integer}</li>
  * <li>{@link Long}</li>
  * <li>{@link Float}</li>
+ * <li>{@link Double}</li>
  * <li>{@link Short}</li>
  * <li>{@link OnlineStatus}</li>
  * <li>{@link Color}</li>
  * <li>And all respective primitive types.</li>
  * </ul><p>
  */
+@Configuration("bot.properties")
 public class Bot {
     /**
      * Constants pertaining to the bot's own {@link JDA#getSelfUser() self} user, along with its {@link #DESCRIPTION
@@ -108,33 +116,328 @@ public class Bot {
         public static boolean ENABLE_STARTUP_MESSAGE;
 
         /**
-         * The prefix that the bot uses for text-based commands in channels.
+         * The prefix that the bot uses for text-based commands in channels. Several prefixes can be given, separated
+         * by spaces. These are the defaults for direct messages and for any guild not listed in {@link
+         * #GUILD_PREFIXES}.
          * <p>
          * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #PREFIXES
          */
         public static String PREFIX;
 
         /**
-         * If enabled, the bot's global slash commands will be sent to Discord on {@link OnStartup#startupTasks(Map)
-         * startup}. Make sure to disable this while not actively modifying slash commands, as overuse can result in
-         * Discord rate-limiting or even banning the bot account.
+         * The prefixes used in specific guilds, overriding the default {@link #PREFIX prefix}. This is a list of
+         * entries separated by semicolons, where each entry is a guild id, a colon, and one or more prefixes separated
+         * by spaces. See {@link PrefixMap#parse(String, String)}.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #PREFIXES
+         */
+        public static String GUILD_PREFIXES;
+
+        /**
+         * The {@link PrefixMap} that text commands are matched against. This is created on {@link
+         * OnStartup#startupTasks(StartupTasks) startup} from the {@link #PREFIX default} and {@link #GUILD_PREFIXES
+         * guild} prefixes, and the prefixes that guilds set with the <code>prefix</code> command.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #PREFIX
+         * @see #GUILD_PREFIXES
+         */
+        public static PrefixMap PREFIXES;
+
+        /**
+         * If enabled, the bot's global slash commands will be synced with Discord on {@link
+         * OnStartup#startupTasks(StartupTasks) startup}. Only commands that are new or have changed since the last sync
+         * are sent (see {@link events.CommandSync CommandSync}), so this can be left on.
          * <p>
          * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
          *
          * @see #LOAD_LOCAL_COMMANDS
+         * @see #COMMAND_HASH_FILE
          */
         public static boolean LOAD_GLOBAL_COMMANDS;
 
         /**
-         * If enabled, the bot's local slash commands (for each server, namely the {@link ID.Guild#DEVELOPMENT
-         * development} one) will be sent to Discord on {@link OnStartup#startupTasks(Map) startup}. This should be
-         * disabled while not actively modifying slash commands.
+         * If enabled, the bot's local slash commands will be synced with each of the {@link #LOCAL_COMMAND_GUILDS local
+         * command guilds} on {@link OnStartup#startupTasks(StartupTasks) startup}. Like the {@link
+         * #LOAD_GLOBAL_COMMANDS global commands}, only commands that have changed are sent.
          * <p>
          * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
          *
          * @see #LOAD_GLOBAL_COMMANDS
+         * @see #COMMAND_SYNC_CONCURRENCY
          */
         public static boolean LOAD_LOCAL_COMMANDS;
+
+        /**
+         * The guilds to sync the {@link #LOAD_LOCAL_COMMANDS local commands} with: a list of guild ids separated by
+         * commas or spaces, <code>all</code> for every guild the bot is in, or blank for just the {@link
+         * ID.Guild#DEVELOPMENT development} guild.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static String LOCAL_COMMAND_GUILDS;
+
+        /**
+         * The most guilds that the {@link #LOAD_LOCAL_COMMANDS local commands} are synced with at once. Each guild
+         * takes at least one REST request, so a lower number spreads the rollout out over more time.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static int COMMAND_SYNC_CONCURRENCY;
+
+        /**
+         * The file that records a hash of the slash commands last synced with Discord, for the global commands and each
+         * local command guild. Commands whose hash matches are skipped on startup without any REST requests. Delete the
+         * file to compare every command with Discord again.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static String COMMAND_HASH_FILE;
+
+        /**
+         * Where command handlers run: <code>event</code> to run them on the JDA event thread, or <code>virtual</code>
+         * to run each one on its own virtual thread. See {@link events.CommandExecutor CommandExecutor}.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static String EXECUTION_MODE;
+
+        /**
+         * The limit on commands from each user, in the form <code>count/seconds</code>. For example, <code>5/10</code>
+         * allows each user 5 commands every 10 seconds. Leave this blank for no limit. See {@link
+         * events.RateLimits RateLimits}.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #RATE_LIMIT_GUILD
+         * @see #RATE_LIMITS
+         */
+        public static String RATE_LIMIT_USER;
+
+        /**
+         * The limit on commands in each guild, in the same form as {@link #RATE_LIMIT_USER}. Leave this blank for no
+         * limit.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #RATE_LIMIT_USER
+         */
+        public static String RATE_LIMIT_GUILD;
+
+        /**
+         * Limits on individual commands for each user. This is a list of entries separated by semicolons, where each
+         * entry is a command name, a colon, and a limit in the same form as {@link #RATE_LIMIT_USER}. These apply in
+         * addition to the user and guild limits.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #RATE_LIMIT_USER
+         */
+        public static String RATE_LIMITS;
+
+        /**
+         * How long, in milliseconds, the {@link OutboundQueue} waits to merge messages bound for the same channel into
+         * one. Set this to <code>0</code> to send every message immediately.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static long COALESCE_WINDOW_MS;
+
+        /**
+         * How long, in milliseconds, a slash command handler has to reply before the {@link events.ReplyWatchdog}
+         * defers the reply for it. Discord fails interactions that aren't acknowledged within 3 seconds. Set this to
+         * <code>0</code> to never defer replies automatically.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static long DEFER_AFTER_MS;
+
+        /**
+         * How long, in milliseconds, a command handler can run before it's interrupted, for commands that don't
+         * declare their own timeout. Set this to <code>0</code> for no limit. See {@link events.CommandTimeouts
+         * CommandTimeouts}.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #COMMAND_TIMEOUTS
+         */
+        public static long COMMAND_TIMEOUT_MS;
+
+        /**
+         * Timeouts for individual commands. This is a list of entries separated by semicolons, where each entry is a
+         * command name, a colon, and a timeout in milliseconds. These override the timeouts declared in the command
+         * annotations and {@link #COMMAND_TIMEOUT_MS}.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #COMMAND_TIMEOUT_MS
+         */
+        public static String COMMAND_TIMEOUTS;
+
+        /**
+         * The most text replies, error messages, and diagnostics that the {@link RestScheduler} lets JDA send at
+         * once, with at most one for each channel. The rest wait in priority order. Interaction responses aren't
+         * limited. Set this to <code>0</code> to send every request immediately.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #REST_QUEUE_LIMITS
+         */
+        public static int REST_CONCURRENCY;
+
+        /**
+         * The most requests that can wait in each {@link RestScheduler.Priority priority} queue of the {@link
+         * RestScheduler}. This is a list of entries separated by semicolons, where each entry is a priority name
+         * (<code>reply</code>, <code>error</code>, or <code>diagnostic</code>), a colon, and a limit.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #REST_CONCURRENCY
+         */
+        public static String REST_QUEUE_LIMITS;
+
+        /**
+         * The maximum number of {@link StartupTasks startup tasks} that can run at once.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static int STARTUP_THREADS;
+
+        /**
+         * How long, in milliseconds, each startup task can run before it's recorded as a failure.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #STARTUP_TIMEOUT_MS
+         */
+        public static long STARTUP_TASK_TIMEOUT_MS;
+
+        /**
+         * How long, in milliseconds, all the startup tasks together can take. Once this passes, the startup message is
+         * sent and any unfinished tasks are recorded as failures.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #STARTUP_TASK_TIMEOUT_MS
+         */
+        public static long STARTUP_TIMEOUT_MS;
+
+        /**
+         * The port that the {@link metrics.MetricsServer metrics server} listens on, or <code>0</code> to disable it.
+         * The metrics are served at <code>/metrics</code> in the Prometheus text format.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #METRICS_ADDRESS
+         */
+        public static int METRICS_PORT;
+
+        /**
+         * The address that the {@link metrics.MetricsServer metrics server} listens on. If this is blank, it only
+         * listens on the loopback interface.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #METRICS_PORT
+         */
+        public static String METRICS_ADDRESS;
+
+        /**
+         * The directory for the {@link storage.Storage settings store}, such as the prefixes that guilds set with the
+         * <code>prefix</code> command. Relative paths are resolved against the working directory. If this is blank,
+         * nothing is stored, and those settings can't be changed.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static String DATA_DIRECTORY;
+    }
+
+    /**
+     * Settings for the gateway connection and JDA's caches, which are applied by {@link GatewayConfig} when the bot
+     * connects to Discord. Any setting left blank uses the value from the {@link #GATEWAY_PRESET preset}.
+     */
+    public static class Gateway {
+        /**
+         * The {@link GatewayConfig.Preset preset} to start from: <code>minimal</code>, <code>balanced</code>, or
+         * <code>full</code>.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static String GATEWAY_PRESET;
+
+        /**
+         * A comma-separated list of {@link net.dv8tion.jda.api.requests.GatewayIntent GatewayIntent} names to use
+         * instead of the preset's intents.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static String GATEWAY_INTENTS;
+
+        /**
+         * Which members to cache: <code>none</code>, <code>all</code>, <code>online</code>, <code>voice</code>,
+         * <code>owner</code>, <code>pending</code>, or <code>default</code>. Several can be combined with
+         * <code>|</code>.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static String MEMBER_CACHE_POLICY;
+
+        /**
+         * Which guilds to request the full member list for on startup: <code>none</code> or <code>all</code>.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static String CHUNKING_FILTER;
+
+        /**
+         * A comma-separated list of {@link net.dv8tion.jda.api.utils.cache.CacheFlag CacheFlag} names to enable
+         * instead of the preset's, or <code>none</code>.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static String CACHE_FLAGS;
+
+        /**
+         * The total number of shards. Use <code>0</code> to connect without sharding, or <code>-1</code> to use the
+         * number that Discord recommends. See {@link GatewayConfig#isSharded()}.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #SHARD_RANGE
+         */
+        public static int SHARDS_TOTAL;
+
+        /**
+         * The shards that this process runs, as a single shard id or a range such as <code>0-3</code>. Leave this
+         * blank to run every shard. This lets the shards be split between several processes.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         *
+         * @see #SHARDS_TOTAL
+         */
+        public static String SHARD_RANGE;
+
+        /**
+         * The number of threads that handle events for each shard. Use <code>0</code> to handle events on the
+         * shard's gateway thread, which is JDA's default. With more than one thread, events may be handled out of
+         * order.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static int EVENT_POOL_SIZE;
+
+        /**
+         * A file to {@link events.EventRecorder record} every gateway event to, so that it can be replayed later
+         * without a Discord connection. Leave this blank to disable recording.
+         * <p>
+         * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
+         */
+        public static String RECORD_EVENTS;
     }
 
     /**
@@ -223,7 +526,8 @@ public class Bot {
         public static class Channel {
             /**
              * This is the channel in the {@link Guild#DEVELOPMENT development} server where the startup {@link
-             * Config#ENABLE_STARTUP_MESSAGE message} is sent when the bot {@link OnStartup#startupTasks(Map) starts}.
+             * Config#ENABLE_STARTUP_MESSAGE message} is sent when the bot {@link OnStartup#startupTasks(StartupTasks)
+             * starts}.
              * <p>
              * <i>This constant is used by the TemplateBot core library. It should not be renamed or removed.</i>
              *
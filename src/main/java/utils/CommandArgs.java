@@ -0,0 +1,400 @@
+package utils;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * This is a reusable tokenizer for text commands. It splits a message into whitespace-separated arguments by recording
+ * the start and end offsets of each argument in the raw {@link CharSequence}, rather than by creating a new {@link
+ * String} for each one.
+ * <p>
+ * Arguments are only located as far as they are needed, and the typed accessors like {@link #getInt(int)} and {@link
+ * #getUserMention(int)} parse the number directly from the raw text. This means that checking the command name (the
+ * argument at index <code>0</code>) and rejecting an unknown command creates no objects at all. Methods that return a
+ * {@link String}, such as {@link #get(int)} and {@link #rest(int)}, allocate only when they're called.
+ * <p>
+ * An instance holds a reference to the text that it last {@link #parse(CharSequence, int) parsed}, and it is not
+ * thread-safe. Reuse one instance per thread, and don't keep it after the command that it was parsed for is finished.
+ */
+public class CommandArgs {
+    /**
+     * The text being tokenized.
+     */
+    private CharSequence text = "";
+
+    /**
+     * The start (inclusive) and end (exclusive) offsets of each argument located so far.
+     */
+    private int[] starts = new int[8], ends = new int[8];
+
+    /**
+     * The number of arguments located so far.
+     */
+    private int count;
+
+    /**
+     * The offset at which to continue looking for arguments.
+     */
+    private int cursor;
+
+    /**
+     * Start tokenizing new text, discarding the arguments from any previous text. The text before the given offset,
+     * such as the command prefix, is ignored.
+     *
+     * @param text   the text to tokenize, typically the raw contents of a message
+     * @param offset the index at which the arguments start
+     *
+     * @return this instance, for chaining
+     */
+    @Nonnull
+    public CommandArgs parse(@Nonnull CharSequence text, int offset) {
+        this.text = text;
+        this.count = 0;
+        this.cursor = offset;
+        return this;
+    }
+
+    /**
+     * Create an independent copy of these arguments, for handing a command off to another thread. The copy shares the
+     * text, but not the offsets, so this instance can be reused right away.
+     *
+     * @return the copy
+     */
+    @Nonnull
+    public CommandArgs copy() {
+        size();
+
+        CommandArgs copy = new CommandArgs();
+        copy.text = text;
+        copy.starts = Arrays.copyOf(starts, Math.max(count, 1));
+        copy.ends = Arrays.copyOf(ends, Math.max(count, 1));
+        copy.count = count;
+        copy.cursor = cursor;
+        return copy;
+    }
+
+    /**
+     * Get the number of arguments, including the command name. This locates every remaining argument in the text.
+     *
+     * @return the number of arguments
+     */
+    public int size() {
+        while (next()) ;
+        return count;
+    }
+
+    /**
+     * Check whether there are no arguments at all, meaning that the text was empty or only whitespace.
+     *
+     * @return <code>true</code> if there is not even a command name
+     */
+    public boolean isEmpty() {
+        return !has(0);
+    }
+
+    /**
+     * Check whether an argument with the given index exists.
+     *
+     * @param index the index of the argument, where <code>0</code> is the command name
+     *
+     * @return <code>true</code> if the argument exists; <code>false</code> if it doesn't, or if the index is negative
+     */
+    public boolean has(int index) {
+        if (index < 0)
+            return false;
+        while (count <= index)
+            if (!next())
+                return false;
+        return true;
+    }
+
+    /**
+     * Get the length of an argument.
+     *
+     * @param index the index of the argument
+     *
+     * @return the number of characters in the argument
+     * @throws IndexOutOfBoundsException if there is no argument with the given index
+     */
+    public int length(int index) {
+        check(index);
+        return ends[index] - starts[index];
+    }
+
+    /**
+     * Check whether an argument is equal to the given value, ignoring case. This does not allocate.
+     *
+     * @param index the index of the argument
+     * @param value the value to compare against
+     *
+     * @return <code>true</code> if the argument exists and matches the value
+     */
+    public boolean is(int index, @Nonnull String value) {
+        if (!has(index) || ends[index] - starts[index] != value.length())
+            return false;
+
+        for (int i = 0, pos = starts[index]; i < value.length(); i++, pos++)
+            if (!sameIgnoreCase(text.charAt(pos), value.charAt(i)))
+                return false;
+        return true;
+    }
+
+    /**
+     * Get the {@link String#hashCode() hash code} that the lowercase form of an argument would have as a {@link
+     * String}, without creating that string. The generated command table switches on this value to find a command in
+     * constant time.
+     *
+     * @param index the index of the argument
+     *
+     * @return the hash of the lowercase argument, or <code>0</code> if the argument doesn't exist
+     */
+    public int hash(int index) {
+        if (!has(index))
+            return 0;
+
+        int hash = 0;
+        for (int pos = starts[index]; pos < ends[index]; pos++)
+            hash = 31 * hash + Character.toLowerCase(text.charAt(pos));
+        return hash;
+    }
+
+    /**
+     * Get an argument as a {@link String}. This allocates a new string; prefer {@link #is(int, String)} or the typed
+     * accessors where possible.
+     *
+     * @param index the index of the argument
+     *
+     * @return the argument
+     * @throws IndexOutOfBoundsException if there is no argument with the given index
+     */
+    @Nonnull
+    public String get(int index) {
+        check(index);
+        return text.subSequence(starts[index], ends[index]).toString();
+    }
+
+    /**
+     * Get the remainder of the text, starting at the given argument. The whitespace between the arguments is
+     * preserved, and trailing whitespace is removed. This is useful for commands that take a sentence as their last
+     * argument.
+     *
+     * @param index the index of the first argument to include
+     *
+     * @return the rest of the line, or an empty string if there is no argument with the given index
+     */
+    @Nonnull
+    public String rest(int index) {
+        if (!has(index))
+            return "";
+
+        int end = text.length();
+        while (end > starts[index] && Character.isWhitespace(text.charAt(end - 1)))
+            end--;
+        return text.subSequence(starts[index], end).toString();
+    }
+
+    /**
+     * Parse an argument as an <code>int</code>.
+     *
+     * @param index the index of the argument
+     *
+     * @return the parsed value
+     * @throws IndexOutOfBoundsException if there is no argument with the given index
+     * @throws NumberFormatException     if the argument is not a valid <code>int</code>
+     */
+    public int getInt(int index) {
+        long value = getLong(index);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw new NumberFormatException("Argument " + index + " is out of range for an int: " + get(index));
+        return (int) value;
+    }
+
+    /**
+     * Parse an argument as a <code>long</code>, such as a Discord snowflake id.
+     *
+     * @param index the index of the argument
+     *
+     * @return the parsed value
+     * @throws IndexOutOfBoundsException if there is no argument with the given index
+     * @throws NumberFormatException     if the argument is not a valid <code>long</code>
+     */
+    public long getLong(int index) {
+        check(index);
+        return parseLong(index, starts[index], ends[index]);
+    }
+
+    /**
+     * Check whether an argument is a valid <code>long</code> (and therefore a possible snowflake id), without throwing
+     * an exception if it isn't.
+     *
+     * @param index the index of the argument
+     *
+     * @return <code>true</code> if {@link #getLong(int)} would succeed
+     */
+    public boolean isLong(int index) {
+        if (!has(index))
+            return false;
+
+        int start = starts[index], end = ends[index];
+        if (start < end && (text.charAt(start) == '-' || text.charAt(start) == '+'))
+            start++;
+        if (start == end || end - start > 19)
+            return false;
+
+        for (int i = start; i < end; i++)
+            if (text.charAt(i) < '0' || text.charAt(i) > '9')
+                return false;
+
+        // 19 digits may still overflow, so defer to the parser for those
+        try {
+            getLong(index);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parse an argument as a user mention, in the form <code>&lt;@id&gt;</code> or <code>&lt;@!id&gt;</code>, and
+     * return the user's id. A plain id is also accepted.
+     *
+     * @param index the index of the argument
+     *
+     * @return the id of the mentioned user
+     * @throws IndexOutOfBoundsException if there is no argument with the given index
+     * @throws NumberFormatException     if the argument is not a user mention or id
+     * @see Utils#mentionUser(long)
+     */
+    public long getUserMention(int index) {
+        return parseMention(index, '@', '!');
+    }
+
+    /**
+     * Parse an argument as a channel mention, in the form <code>&lt;#id&gt;</code>, and return the channel's id. A
+     * plain id is also accepted.
+     *
+     * @param index the index of the argument
+     *
+     * @return the id of the mentioned channel
+     * @throws IndexOutOfBoundsException if there is no argument with the given index
+     * @throws NumberFormatException     if the argument is not a channel mention or id
+     * @see Utils#mentionChannel(long)
+     */
+    public long getChannelMention(int index) {
+        return parseMention(index, '#', '#');
+    }
+
+    /**
+     * Parse a mention of the form <code>&lt;{symbol}id&gt;</code>, optionally with an extra symbol after the first
+     * (as in nickname mentions <code>&lt;@!id&gt;</code>), or a plain id.
+     *
+     * @param index    the index of the argument
+     * @param symbol   the symbol that starts the mention
+     * @param optional an optional second symbol; pass the same value as <code>symbol</code> if there is none
+     *
+     * @return the id in the mention
+     */
+    private long parseMention(int index, char symbol, char optional) {
+        check(index);
+        int start = starts[index], end = ends[index];
+
+        if (end - start >= 4 && text.charAt(start) == '<' && text.charAt(start + 1) == symbol &&
+            text.charAt(end - 1) == '>') {
+            start += 2;
+            end--;
+            if (optional != symbol && text.charAt(start) == optional)
+                start++;
+        }
+
+        return parseLong(index, start, end);
+    }
+
+    /**
+     * Parse a <code>long</code> from a region of the text. This follows the rules of {@link Long#parseLong(String)},
+     * but doesn't create a substring first.
+     *
+     * @param index the index of the argument being parsed, for the exception message
+     * @param start the start of the region (inclusive)
+     * @param end   the end of the region (exclusive)
+     *
+     * @return the parsed value
+     */
+    private long parseLong(int index, int start, int end) {
+        boolean negative = false;
+        if (start < end && (text.charAt(start) == '-' || text.charAt(start) == '+')) {
+            negative = text.charAt(start) == '-';
+            start++;
+        }
+
+        if (start == end)
+            throw new NumberFormatException("Argument " + index + " is not a number: " + get(index));
+
+        // Accumulate negatively, as Long.parseLong does, so that Long.MIN_VALUE can be represented
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < limit / 10 || result * 10 < limit + digit)
+                throw new NumberFormatException("Argument " + index + " is not a valid number: " + get(index));
+            result = result * 10 - digit;
+        }
+
+        return negative ? result : -result;
+    }
+
+    /**
+     * Locate the next argument after the {@link #cursor}.
+     *
+     * @return <code>true</code> if another argument was found
+     */
+    private boolean next() {
+        int length = text.length();
+        int pos = cursor;
+
+        while (pos < length && Character.isWhitespace(text.charAt(pos)))
+            pos++;
+        if (pos == length) {
+            cursor = pos;
+            return false;
+        }
+
+        int start = pos;
+        while (pos < length && !Character.isWhitespace(text.charAt(pos)))
+            pos++;
+
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+
+        starts[count] = start;
+        ends[count] = pos;
+        count++;
+        cursor = pos;
+        return true;
+    }
+
+    /**
+     * Make sure that an argument with the given index exists.
+     *
+     * @param index the index of the argument
+     *
+     * @throws IndexOutOfBoundsException if it doesn't
+     */
+    private void check(int index) {
+        if (!has(index))
+            throw new IndexOutOfBoundsException("There is no argument at index " + index + ".");
+    }
+
+    /**
+     * Compare two characters, ignoring case.
+     *
+     * @param a the first character
+     * @param b the second character
+     *
+     * @return <code>true</code> if they are the same letter in either case, or the same character
+     */
+    private static boolean sameIgnoreCase(char a, char b) {
+        return a == b || Character.toLowerCase(a) == Character.toLowerCase(b);
+    }
+}
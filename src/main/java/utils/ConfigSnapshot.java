@@ -0,0 +1,146 @@
+package utils;
+
+import net.dv8tion.jda.api.OnlineStatus;
+import net.dv8tion.jda.api.entities.Activity;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable copy of the settings that are read on every message or command, and of the bot's presence. The {@link
+ * Bot} fields are written field by field while <code>bot.properties</code> is loaded, so a thread reading them during
+ * a {@link events.ConfigWatcher reload} could see a mix of old and new values. Instead, the hot paths and the presence
+ * read the {@link #get() current} snapshot, which is replaced in a single volatile write once every field has been
+ * loaded. Settings that are only read on startup, like the gateway settings and the startup message toggle, still
+ * come straight from {@link Bot}.
+ * <p>
+ * To make a new setting reloadable, add it here, set it in the constructor from its {@link Bot} field, and read it
+ * through {@link #get()} wherever it's used.
+ */
+public class ConfigSnapshot {
+    /**
+     * The snapshot used before the first one is {@link #publish() published}. It has no prefixes, so text commands are
+     * ignored until the properties are loaded.
+     */
+    private static final ConfigSnapshot EMPTY = new ConfigSnapshot(0, null, "event", 0, 0, OnlineStatus.UNKNOWN,
+            null);
+
+    /**
+     * The current snapshot.
+     */
+    private static volatile ConfigSnapshot current = EMPTY;
+
+    private final int version;
+    private final PrefixMap prefixes;
+    private final boolean virtual;
+    private final long coalesceWindowMillis;
+    private final long deferAfterMillis;
+    private final OnlineStatus status;
+    private final Activity activity;
+
+    private ConfigSnapshot(int version, @Nullable PrefixMap prefixes, @Nullable String executionMode,
+                           long coalesceWindowMillis, long deferAfterMillis, @Nullable OnlineStatus status,
+                           @Nullable Activity activity) {
+        this.version = version;
+        this.prefixes = prefixes;
+        this.virtual = "virtual".equalsIgnoreCase(executionMode);
+        this.coalesceWindowMillis = coalesceWindowMillis;
+        this.deferAfterMillis = Math.max(deferAfterMillis, 0);
+        this.status = status;
+        this.activity = activity;
+    }
+
+    /**
+     * Get the current snapshot. Read it once and keep the reference for the rest of the operation, so that every
+     * setting comes from the same snapshot.
+     *
+     * @return the current snapshot
+     */
+    @Nonnull
+    public static ConfigSnapshot get() {
+        return current;
+    }
+
+    /**
+     * Copy the current values of the {@link Bot} fields into a new snapshot, and make it the current one. This is
+     * called once the fields have been loaded and the derived values, like the {@link Bot.Config#PREFIXES prefix map}
+     * and the {@link Bot.Status#ACTIVITY activity}, have been built.
+     *
+     * @return the new snapshot
+     */
+    @Nonnull
+    public static synchronized ConfigSnapshot publish() {
+        ConfigSnapshot snapshot = new ConfigSnapshot(current.version + 1, Bot.Config.PREFIXES,
+                Bot.Config.EXECUTION_MODE, Bot.Config.COALESCE_WINDOW_MS, Bot.Config.DEFER_AFTER_MS, Bot.Status.STATUS,
+                Bot.Status.ACTIVITY);
+        current = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Get the command prefixes.
+     *
+     * @return the prefix map, or <code>null</code> if the prefixes haven't been loaded or failed to load
+     * @see Bot.Config#PREFIXES
+     */
+    @Nullable
+    public PrefixMap getPrefixes() {
+        return prefixes;
+    }
+
+    /**
+     * Check whether commands run on virtual threads.
+     *
+     * @return <code>true</code> if the {@link Bot.Config#EXECUTION_MODE execution mode} is <code>virtual</code>
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Get the window for merging outbound messages.
+     *
+     * @return the window in milliseconds, or <code>0</code> if messages are sent immediately
+     * @see Bot.Config#COALESCE_WINDOW_MS
+     */
+    public long getCoalesceWindowMillis() {
+        return coalesceWindowMillis;
+    }
+
+    /**
+     * Get how long a slash command handler has to reply before its reply is deferred.
+     *
+     * @return the budget in milliseconds, or <code>0</code> if replies are never deferred automatically
+     * @see Bot.Config#DEFER_AFTER_MS
+     */
+    public long getDeferAfterMillis() {
+        return deferAfterMillis;
+    }
+
+    /**
+     * Get the bot's status.
+     *
+     * @return the status, or <code>null</code> if it's not set
+     * @see Bot.Status#STATUS
+     */
+    @Nullable
+    public OnlineStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the bot's activity.
+     *
+     * @return the activity, or <code>null</code> if there is none
+     * @see Bot.Status#ACTIVITY
+     */
+    @Nullable
+    public Activity getActivity() {
+        return activity;
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigSnapshot #" + version;
+    }
+}
@@ -0,0 +1,97 @@
+package utils;
+
+import metrics.Counter;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers the snowflake ids of recently handled events, such as messages and interactions, so that an event Discord
+ * sends twice is only handled once. After a gateway resume, Discord replays the events the bot may have missed, and
+ * some of them may have been handled already.
+ * <p>
+ * The ids are kept in a fixed-size, direct-mapped table: each id has exactly one slot, chosen by its hash, and
+ * recording an id replaces whatever was in its slot. Checking and recording is a single atomic swap, so there are no
+ * locks and no allocation, and memory stays constant no matter how many events arrive. If two threads see the same id
+ * at once, only one of them handles it.
+ * <p>
+ * Since snowflakes are unique, a new event is never mistaken for a duplicate. A duplicate is only missed if another id
+ * has replaced it in its slot, which becomes likely once roughly as many ids as there are slots have been recorded
+ * since. Size the table well above the number of events handled between a disconnect and the resume that follows it.
+ */
+public class Deduplicator {
+    /**
+     * The id used to mark empty slots. No snowflake has the id <code>0</code>.
+     */
+    private static final long EMPTY = 0;
+
+    private final AtomicLongArray ids;
+    private final int mask;
+    private final Counter duplicates;
+
+    /**
+     * Create a new deduplicator.
+     *
+     * @param capacity   the number of ids to remember, which is rounded up to a power of two
+     * @param duplicates the counter to increment for each duplicate found
+     */
+    public Deduplicator(int capacity, @Nonnull Counter duplicates) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity must be positive.");
+
+        int size = Integer.highestOneBit(Math.min(capacity, 1 << 30) - 1) << 1;
+        this.ids = new AtomicLongArray(Math.max(size, 1));
+        this.mask = ids.length() - 1;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * Record an id, and check whether it has been seen recently. This does not allocate.
+     *
+     * @param id the snowflake id of the event
+     *
+     * @return <code>true</code> if this is the first time the id has been seen, and the event should be handled;
+     *         <code>false</code> if it's a duplicate
+     */
+    public boolean firstSeen(long id) {
+        if (id == EMPTY)
+            return true;
+
+        if (ids.getAndSet(mix(id) & mask, id) != id)
+            return true;
+
+        duplicates.increment();
+        return false;
+    }
+
+    /**
+     * Get the number of duplicates found.
+     *
+     * @return the number of duplicates
+     */
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    /**
+     * Get the number of ids that can be remembered.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return ids.length();
+    }
+
+    /**
+     * Spread the bits of a snowflake id. The low bits of a snowflake are a per-process counter that is often zero,
+     * so they can't be used as a hash directly.
+     *
+     * @param id the snowflake id
+     *
+     * @return the hash
+     */
+    private static int mix(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,118 @@
+package utils;
+
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * This caches {@link MessageEmbed MessageEmbeds} that are the same every time they're sent, such as the
+ * <code>/help</code> embed and {@link Utils#error(String) errors} with fixed messages. Each embed is built once from
+ * its template, and later uses only copy the finished embed with a new timestamp, so no {@link EmbedBuilder}, string
+ * formatting, or field list is created per message.
+ * <p>
+ * {@link MessageEmbed} is immutable, so a cached embed (and its field list) is shared safely between threads and
+ * messages. Templates that depend on <code>bot.properties</code>, like the bot's name and version, are rebuilt after
+ * the cache is {@link #invalidate() invalidated}, which happens whenever the properties are loaded.
+ */
+public class EmbedCache {
+    /**
+     * The maximum number of {@link #error(String) error} embeds to cache. Errors are usually fixed messages, but some
+     * include user input. Once this many are cached, new ones are built without being cached.
+     */
+    private static final int MAX_ERRORS = 256;
+
+    /**
+     * The cached embeds, by key.
+     */
+    private static final ConcurrentHashMap<String, MessageEmbed> EMBEDS = new ConcurrentHashMap<>();
+
+    /**
+     * The cached {@link Utils#error(String) error} embeds, by message.
+     */
+    private static final ConcurrentHashMap<String, MessageEmbed> ERRORS = new ConcurrentHashMap<>();
+
+    /**
+     * Get a cached embed, building it the first time.
+     *
+     * @param key      a unique key for the embed, such as the name of the command that sends it
+     * @param template creates the embed. This is only called when the embed isn't cached.
+     *
+     * @return the embed
+     */
+    @Nonnull
+    public static MessageEmbed get(@Nonnull String key, @Nonnull Supplier<EmbedBuilder> template) {
+        return EMBEDS.computeIfAbsent(key, k -> template.get().build());
+    }
+
+    /**
+     * Get a cached embed with its timestamp set to the current time, building it the first time.
+     *
+     * @param key      a unique key for the embed
+     * @param template creates the embed. This is only called when the embed isn't cached.
+     *
+     * @return a copy of the cached embed with the current time
+     */
+    @Nonnull
+    public static MessageEmbed stamped(@Nonnull String key, @Nonnull Supplier<EmbedBuilder> template) {
+        return withTimestamp(get(key, template), now());
+    }
+
+    /**
+     * Get an {@link Utils#error(String) error} embed with the given message, stamped with the current time.
+     *
+     * @param message the error message
+     *
+     * @return the error embed
+     */
+    @Nonnull
+    public static MessageEmbed error(@Nonnull String message) {
+        MessageEmbed embed = ERRORS.get(message);
+        if (embed == null) {
+            embed = Utils.error(message).build();
+            if (ERRORS.size() < MAX_ERRORS)
+                ERRORS.putIfAbsent(message, embed);
+        }
+        return withTimestamp(embed, now());
+    }
+
+    /**
+     * Remove every cached embed, so that each one is rebuilt the next time it's used. This is called after
+     * <code>bot.properties</code> is loaded, since many templates use its values.
+     */
+    public static void invalidate() {
+        EMBEDS.clear();
+        ERRORS.clear();
+    }
+
+    /**
+     * Copy an embed with a different timestamp. Every other part of the embed, including its field list, is shared
+     * with the original.
+     *
+     * @param embed     the embed to copy
+     * @param timestamp the new timestamp, or <code>null</code> for none
+     *
+     * @return the copy
+     */
+    @Nonnull
+    public static MessageEmbed withTimestamp(@Nonnull MessageEmbed embed, @Nullable OffsetDateTime timestamp) {
+        return new MessageEmbed(embed.getUrl(), embed.getTitle(), embed.getDescription(), embed.getType(), timestamp,
+                embed.getColorRaw(), embed.getThumbnail(), embed.getSiteProvider(), embed.getAuthor(),
+                embed.getVideoInfo(), embed.getFooter(), embed.getImage(), embed.getFields());
+    }
+
+    /**
+     * Get the current time, as Discord displays it.
+     *
+     * @return the current time in UTC
+     */
+    @Nonnull
+    private static OffsetDateTime now() {
+        return OffsetDateTime.now(ZoneOffset.UTC);
+    }
+}
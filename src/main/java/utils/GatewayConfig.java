@@ -0,0 +1,470 @@
+package utils;
+
+import events.EventRecorder;
+import main.Main;
+import metrics.RestMetrics;
+import metrics.TimedEventManager;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.JDABuilder;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.sharding.DefaultShardManagerBuilder;
+import net.dv8tion.jda.api.sharding.ShardManager;
+import net.dv8tion.jda.api.sharding.ThreadPoolProvider;
+import net.dv8tion.jda.api.utils.ChunkingFilter;
+import net.dv8tion.jda.api.utils.Compression;
+import net.dv8tion.jda.api.utils.MemberCachePolicy;
+import net.dv8tion.jda.api.utils.cache.CacheFlag;
+import net.dv8tion.jda.api.utils.cache.SnowflakeCacheView;
+import net.dv8tion.jda.internal.utils.IOUtil;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This configures which {@link GatewayIntent gateway intents} the bot uses and what JDA caches, based on the {@link
+ * Bot.Gateway} settings in <code>bot.properties</code>. These settings decide most of the bot's memory use, since the
+ * member, user, and presence caches grow with the size of its guilds.
+ * <p>
+ * Each setting starts from a {@link Preset preset}, and any of them can be overridden individually. Since these
+ * settings are used to connect to Discord, <code>bot.properties</code> is loaded before the {@link JDA} instance is
+ * built.
+ * <p>
+ * The same settings apply to every shard when the bot is {@link #isSharded() sharded}. A single connection can serve at
+ * most 2,500 guilds, so larger bots must split their guilds across shards, optionally running a {@link
+ * Bot.Gateway#SHARD_RANGE range} of them in each process.
+ */
+public class GatewayConfig {
+    /**
+     * This logger is used for invalid settings and for the cache report on startup.
+     */
+    public static final Logger LOG = JDALogger.getLog(GatewayConfig.class);
+
+    /**
+     * The system property that sends all of the bot's REST requests to another server instead of Discord, such as
+     * <code>-Dtemplatebot.api=http://127.0.0.1:41234</code>. The gateway URL comes from a REST request, so this also
+     * redirects the gateway connection. It's used to start the bot against a local stand-in for benchmarks, and must
+     * never be set in production.
+     */
+    public static final String API_PROPERTY = "templatebot.api";
+
+    /**
+     * The starting points for the gateway settings.
+     */
+    public enum Preset {
+        /**
+         * Only the intents needed for text commands, and no member, presence, voice, or emote caches. Members are
+         * still available from the events that include them, but can't be looked up afterwards. This uses the least
+         * memory, and suits large bots that only respond to commands.
+         * <p>
+         * Without the <code>GUILD_MEMBERS</code> intent and a member cache, the bot receives no user update events,
+         * so {@link events.OnUserUpdate OnUserUpdate} never runs, and a cached {@link UserPanelCache user panel} shows
+         * a user's old name or avatar until it {@link UserPanelCache#TTL_MILLIS expires}.
+         */
+        MINIMAL(EnumSet.of(GatewayIntent.GUILD_MESSAGES, GatewayIntent.DIRECT_MESSAGES),
+                MemberCachePolicy.NONE, ChunkingFilter.NONE, EnumSet.noneOf(CacheFlag.class)),
+
+        /**
+         * The same settings as {@link JDABuilder#createDefault(String)}: every non-privileged intent, members cached
+         * only while they're in voice channels or are the guild owner, and no member chunking.
+         */
+        BALANCED(GatewayIntent.getIntents(GatewayIntent.DEFAULT), MemberCachePolicy.DEFAULT, ChunkingFilter.NONE,
+                EnumSet.allOf(CacheFlag.class)),
+
+        /**
+         * Every intent, with every member and presence cached and every guild chunked on startup. This requires the
+         * privileged <code>GUILD_MEMBERS</code> and <code>GUILD_PRESENCES</code> intents to be enabled in the
+         * developer portal, and uses the most memory.
+         */
+        FULL(EnumSet.allOf(GatewayIntent.class), MemberCachePolicy.ALL, ChunkingFilter.ALL,
+                EnumSet.allOf(CacheFlag.class));
+
+        private final EnumSet<GatewayIntent> intents;
+        private final MemberCachePolicy memberCachePolicy;
+        private final ChunkingFilter chunkingFilter;
+        private final EnumSet<CacheFlag> cacheFlags;
+
+        Preset(@Nonnull EnumSet<GatewayIntent> intents, @Nonnull MemberCachePolicy memberCachePolicy,
+               @Nonnull ChunkingFilter chunkingFilter, @Nonnull EnumSet<CacheFlag> cacheFlags) {
+            this.intents = intents;
+            this.memberCachePolicy = memberCachePolicy;
+            this.chunkingFilter = chunkingFilter;
+            this.cacheFlags = cacheFlags;
+        }
+    }
+
+    /**
+     * The gateway and cache settings, after applying any overrides to the preset.
+     */
+    private record Settings(EnumSet<GatewayIntent> intents, MemberCachePolicy memberCachePolicy,
+                            ChunkingFilter chunkingFilter, EnumSet<CacheFlag> cacheFlags) {
+    }
+
+    /**
+     * Check whether the bot should connect with a {@link ShardManager}, which is the case when {@link
+     * Bot.Gateway#SHARDS_TOTAL shards_total} is not <code>0</code>.
+     *
+     * @return <code>true</code> to use sharding; <code>false</code> to use a single {@link JDA} instance
+     */
+    public static boolean isSharded() {
+        return Bot.Gateway.SHARDS_TOTAL != 0;
+    }
+
+    /**
+     * Create a {@link JDABuilder} for a single connection, with the gateway settings from <code>bot.properties</code>.
+     * Invalid settings are {@link #LOG logged}, and the preset's value is used instead.
+     *
+     * @param token the bot token
+     *
+     * @return the builder, to which event listeners can be added before building
+     */
+    @Nonnull
+    public static JDABuilder builder(@Nonnull String token) {
+        Settings settings = settings();
+        JDABuilder builder = JDABuilder.create(token, settings.intents())
+                .setMemberCachePolicy(settings.memberCachePolicy())
+                .setChunkingFilter(settings.chunkingFilter())
+                .disableCache(EnumSet.allOf(CacheFlag.class))
+                .enableCache(settings.cacheFlags());
+
+        HttpUrl api = apiOverride();
+        builder.setHttpClientBuilder(httpClient(api))
+                .setEventManager(new TimedEventManager())
+                .setRawEventsEnabled(EventRecorder.isEnabled());
+        if (api != null)
+            builder.setCompression(Compression.NONE);
+
+        if (Bot.Gateway.EVENT_POOL_SIZE > 0)
+            builder.setEventPool(eventPool(0), true);
+        return builder;
+    }
+
+    /**
+     * Create a {@link DefaultShardManagerBuilder} with the gateway settings from <code>bot.properties</code>, along
+     * with the {@link Bot.Gateway#SHARDS_TOTAL number of shards} and the {@link Bot.Gateway#SHARD_RANGE range} of
+     * shards that this process runs. If {@link Bot.Gateway#EVENT_POOL_SIZE event_pool_size} is set, each shard gets
+     * its own event pool, so a slow listener on one shard doesn't hold up the others.
+     *
+     * @param token the bot token
+     *
+     * @return the builder, to which event listeners can be added before building
+     */
+    @Nonnull
+    public static DefaultShardManagerBuilder shardManagerBuilder(@Nonnull String token) {
+        Settings settings = settings();
+        DefaultShardManagerBuilder builder = DefaultShardManagerBuilder.create(token, settings.intents())
+                .setMemberCachePolicy(settings.memberCachePolicy())
+                .setChunkingFilter(settings.chunkingFilter())
+                .disableCache(EnumSet.allOf(CacheFlag.class))
+                .enableCache(settings.cacheFlags())
+                .setShardsTotal(Bot.Gateway.SHARDS_TOTAL);
+
+        HttpUrl api = apiOverride();
+        builder.setHttpClientBuilder(httpClient(api))
+                .setEventManagerProvider(shardId -> new TimedEventManager())
+                .setRawEventsEnabled(EventRecorder.isEnabled());
+        if (api != null)
+            builder.setCompression(Compression.NONE);
+
+        int[] range = shardRange();
+        if (range != null) {
+            builder.setShards(range[0], range[1]);
+            LOG.info("Running shards {} to {} of {}", range[0], range[1], Bot.Gateway.SHARDS_TOTAL);
+        } else
+            LOG.info("Running all {} shards", Bot.Gateway.SHARDS_TOTAL < 0 ? "recommended" : Bot.Gateway.SHARDS_TOTAL);
+
+        if (Bot.Gateway.EVENT_POOL_SIZE > 0)
+            builder.setEventPoolProvider(new ThreadPoolProvider<>() {
+                @Override
+                public ExecutorService provide(int shardId) {
+                    return eventPool(shardId);
+                }
+
+                @Override
+                public boolean shouldShutdownAutomatically(int shardId) {
+                    return true;
+                }
+            });
+        return builder;
+    }
+
+    /**
+     * Get the number of shards that this process runs, and therefore the number of {@link
+     * net.dv8tion.jda.api.events.ReadyEvent ReadyEvents} to expect on startup.
+     *
+     * @param shards the shard manager, which is taken from the event rather than {@link Main#SHARDS}, since the shards
+     *               can be ready before that's set. This is <code>null</code> without sharding.
+     *
+     * @return the number of shards, or <code>1</code> without sharding
+     */
+    public static int getShardCount(@Nullable ShardManager shards) {
+        if (shards == null)
+            return 1;
+
+        int[] range = shardRange();
+        return range == null ? shards.getShardsTotal() : range[1] - range[0] + 1;
+    }
+
+    /**
+     * Get the settings from <code>bot.properties</code>, applying any overrides to the preset.
+     *
+     * @return the settings
+     */
+    @Nonnull
+    private static Settings settings() {
+        Preset preset = preset();
+
+        EnumSet<GatewayIntent> intents = preset.intents;
+        try {
+            if (!isBlank(Bot.Gateway.GATEWAY_INTENTS))
+                intents = parseEnums(Bot.Gateway.GATEWAY_INTENTS, GatewayIntent.class);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid gateway_intents. Using the {} preset instead. {}", name(preset), e.getMessage());
+        }
+
+        MemberCachePolicy memberCachePolicy = preset.memberCachePolicy;
+        try {
+            if (!isBlank(Bot.Gateway.MEMBER_CACHE_POLICY))
+                memberCachePolicy = parseMemberCachePolicy(Bot.Gateway.MEMBER_CACHE_POLICY);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid member_cache_policy. Using the {} preset instead. {}", name(preset), e.getMessage());
+        }
+
+        ChunkingFilter chunkingFilter = preset.chunkingFilter;
+        if (!isBlank(Bot.Gateway.CHUNKING_FILTER)) {
+            switch (Bot.Gateway.CHUNKING_FILTER.trim().toLowerCase(Locale.ROOT)) {
+                case "none" -> chunkingFilter = ChunkingFilter.NONE;
+                case "all" -> chunkingFilter = ChunkingFilter.ALL;
+                default -> LOG.error("Invalid chunking_filter '{}'. It must be 'none' or 'all'. Using the {} " +
+                                     "preset instead.", Bot.Gateway.CHUNKING_FILTER, name(preset));
+            }
+        }
+
+        EnumSet<CacheFlag> cacheFlags = EnumSet.copyOf(preset.cacheFlags);
+        try {
+            if (!isBlank(Bot.Gateway.CACHE_FLAGS))
+                cacheFlags = Bot.Gateway.CACHE_FLAGS.trim().equalsIgnoreCase("none")
+                        ? EnumSet.noneOf(CacheFlag.class) : parseEnums(Bot.Gateway.CACHE_FLAGS, CacheFlag.class);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid cache_flags. Using the {} preset instead. {}", name(preset), e.getMessage());
+        }
+
+        // JDA refuses to build with a cache flag whose intent is disabled, so leave those out
+        EnumSet<GatewayIntent> enabled = intents;
+        cacheFlags.removeIf(flag -> flag.getRequiredIntent() != null && !enabled.contains(flag.getRequiredIntent()));
+
+        LOG.info("Gateway settings: {} preset with intents {} and cache flags {}", name(preset), intents, cacheFlags);
+
+        return new Settings(intents, memberCachePolicy, chunkingFilter, cacheFlags);
+    }
+
+    /**
+     * Log the current heap usage and the size of each of JDA's caches, across all shards. This is called on {@link
+     * events.OnStartup startup}, to show how much memory the gateway settings use.
+     */
+    public static void logCacheSizes() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        ShardManager shards = Main.SHARDS;
+        JDA jda = Main.JDA;
+
+        SnowflakeCacheView<Guild> guilds = shards != null ? shards.getGuildCache() : jda.getGuildCache();
+        long members = 0;
+        for (Guild guild : guilds)
+            members += guild.getMemberCache().size();
+
+        LOG.info("Heap: {} MB used of {} MB max. Cached: {} guilds, {} users, {} members, {} text channels, " +
+                 "{} voice channels, {} roles, {} emotes",
+                used >> 20, runtime.maxMemory() >> 20,
+                guilds.size(),
+                shards != null ? shards.getUserCache().size() : jda.getUserCache().size(),
+                members,
+                shards != null ? shards.getTextChannelCache().size() : jda.getTextChannelCache().size(),
+                shards != null ? shards.getVoiceChannelCache().size() : jda.getVoiceChannelCache().size(),
+                shards != null ? shards.getRoleCache().size() : jda.getRoleCache().size(),
+                shards != null ? shards.getEmoteCache().size() : jda.getEmoteCache().size());
+    }
+
+    /**
+     * Get the server set with the {@link #API_PROPERTY} system property.
+     *
+     * @return the server's base URL, or <code>null</code> to connect to Discord
+     */
+    @Nullable
+    private static HttpUrl apiOverride() {
+        String api = System.getProperty(API_PROPERTY);
+        if (isBlank(api))
+            return null;
+
+        HttpUrl url = HttpUrl.parse(api.trim());
+        if (url == null) {
+            LOG.error("Invalid {} URL '{}'. Connecting to Discord instead.", API_PROPERTY, api);
+            return null;
+        }
+        LOG.warn("Sending every request meant for Discord to {} ({})", url, API_PROPERTY);
+        return url;
+    }
+
+    /**
+     * Create the HTTP client for REST requests, which records each request in the {@link RestMetrics metrics}. If an
+     * {@link #apiOverride() API override} is given, the client also sends every request to that server instead,
+     * keeping the path and query; the gateway connection is then uncompressed, since the stand-in servers that this is
+     * used with don't implement compression.
+     *
+     * @param target the server's base URL, or <code>null</code> to send requests to Discord
+     *
+     * @return the client builder
+     */
+    @Nonnull
+    private static OkHttpClient.Builder httpClient(@Nullable HttpUrl target) {
+        OkHttpClient.Builder client = IOUtil.newHttpClientBuilder().addInterceptor(new RestMetrics());
+        if (target == null)
+            return client;
+
+        return client.addInterceptor(chain -> {
+            Request request = chain.request();
+            HttpUrl url = request.url().newBuilder()
+                    .scheme(target.scheme())
+                    .host(target.host())
+                    .port(target.port())
+                    .build();
+            return chain.proceed(request.newBuilder().url(url).build());
+        });
+    }
+
+    /**
+     * Create the event pool for one shard. Events are handled in order when there is one thread, which is the
+     * default.
+     *
+     * @param shardId the id of the shard, for naming its threads
+     *
+     * @return the pool
+     */
+    @Nonnull
+    private static ExecutorService eventPool(int shardId) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(Bot.Gateway.EVENT_POOL_SIZE, r -> {
+            Thread thread = new Thread(r, "Shard-" + shardId + " Event-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Parse the {@link Bot.Gateway#SHARD_RANGE shard range}.
+     *
+     * @return the first and last shard id, or <code>null</code> if this process runs every shard
+     * @throws IllegalArgumentException if the range is malformed
+     */
+    @Nullable
+    private static int[] shardRange() {
+        String range = Bot.Gateway.SHARD_RANGE;
+        if (isBlank(range))
+            return null;
+
+        try {
+            int dash = range.indexOf('-');
+            int min = Integer.parseInt((dash < 0 ? range : range.substring(0, dash)).trim());
+            int max = dash < 0 ? min : Integer.parseInt(range.substring(dash + 1).trim());
+            if (min < 0 || max < min || (Bot.Gateway.SHARDS_TOTAL > 0 && max >= Bot.Gateway.SHARDS_TOTAL))
+                throw new NumberFormatException();
+            return new int[]{min, max};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid shard_range '" + range + "'. It must be a shard id or two " +
+                                               "ids separated by a dash, such as 0-3, within shards_total.");
+        }
+    }
+
+    /**
+     * Get the {@link Bot.Gateway#GATEWAY_PRESET preset}, defaulting to {@link Preset#BALANCED balanced} if it's
+     * missing or unrecognized.
+     *
+     * @return the preset
+     */
+    @Nonnull
+    private static Preset preset() {
+        String preset = Bot.Gateway.GATEWAY_PRESET;
+        if (isBlank(preset))
+            return Preset.BALANCED;
+
+        try {
+            return Preset.valueOf(preset.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LOG.error("Unrecognized gateway_preset '{}'. It must be 'minimal', 'balanced', or 'full'. Using the " +
+                      "balanced preset.", preset);
+            return Preset.BALANCED;
+        }
+    }
+
+    /**
+     * Parse a {@link MemberCachePolicy}. Several policies can be combined with <code>|</code>, in which case a member
+     * is cached if any of them apply.
+     *
+     * @param value the policy, such as <code>voice|owner</code>
+     *
+     * @return the policy
+     * @throws IllegalArgumentException if any part of the policy is unrecognized
+     */
+    @Nonnull
+    private static MemberCachePolicy parseMemberCachePolicy(@Nonnull String value) {
+        MemberCachePolicy policy = null;
+        for (String part : value.split("\\|")) {
+            MemberCachePolicy next = switch (part.trim().toLowerCase(Locale.ROOT)) {
+                case "none" -> MemberCachePolicy.NONE;
+                case "all" -> MemberCachePolicy.ALL;
+                case "online" -> MemberCachePolicy.ONLINE;
+                case "voice" -> MemberCachePolicy.VOICE;
+                case "owner" -> MemberCachePolicy.OWNER;
+                case "pending" -> MemberCachePolicy.PENDING;
+                case "default" -> MemberCachePolicy.DEFAULT;
+                default -> throw new IllegalArgumentException("Unrecognized policy '" + part.trim() + "'. Use none, " +
+                                                              "all, online, voice, owner, pending, or default.");
+            };
+            policy = policy == null ? next : policy.or(next);
+        }
+        return policy;
+    }
+
+    /**
+     * Parse a comma-separated list of enum constant names, ignoring case.
+     *
+     * @param value the list
+     * @param type  the enum class
+     * @param <E>   the enum type
+     *
+     * @return the set of constants
+     * @throws IllegalArgumentException if any name is unrecognized
+     */
+    @Nonnull
+    private static <E extends Enum<E>> EnumSet<E> parseEnums(@Nonnull String value, @Nonnull Class<E> type) {
+        EnumSet<E> set = EnumSet.noneOf(type);
+        for (String name : value.split(","))
+            if (!name.isBlank())
+                try {
+                    set.add(Enum.valueOf(type, name.trim().toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unrecognized " + type.getSimpleName() + " '" + name.trim() +
+                                                       "'.");
+                }
+        return set;
+    }
+
+    @Nonnull
+    private static String name(@Nonnull Preset preset) {
+        return preset.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isBlank(@Nullable String value) {
+        return value == null || value.isBlank();
+    }
+}
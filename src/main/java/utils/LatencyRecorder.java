@@ -0,0 +1,89 @@
+package utils;
+
+import metrics.Histogram;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This records the count, mean, and maximum of a stream of durations, such as the time each command takes. Recording
+ * is lock-free and does not allocate, so it can be used on the event thread.
+ * <p>
+ * A recorder can also feed a {@link Histogram}, so that the same durations are exported to the {@link
+ * metrics.Metrics metrics}. The histogram keeps every duration since startup, while the summary can be reset.
+ */
+public class LatencyRecorder {
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    private final Histogram histogram;
+
+    /**
+     * Create a new recorder.
+     *
+     * @param name a short description of what is being measured, used in the {@link #summarize(boolean) summary}
+     */
+    public LatencyRecorder(@Nonnull String name) {
+        this(name, null);
+    }
+
+    /**
+     * Create a new recorder that also records each duration in a histogram.
+     *
+     * @param name      a short description of what is being measured, used in the {@link #summarize(boolean)
+     *                  summary}
+     * @param histogram the histogram, or <code>null</code> for none
+     */
+    public LatencyRecorder(@Nonnull String name, @Nullable Histogram histogram) {
+        this.name = name;
+        this.histogram = histogram;
+    }
+
+    /**
+     * Record one duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+        if (histogram != null)
+            histogram.record(nanos);
+    }
+
+    /**
+     * Get the number of durations recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get a one-line summary of the recorded durations, in milliseconds.
+     *
+     * @param reset whether to clear the recorded durations afterwards, so that the next summary only covers the
+     *              durations recorded after this one
+     *
+     * @return the summary
+     */
+    @Nonnull
+    public String summarize(boolean reset) {
+        long n = reset ? count.sumThenReset() : count.sum();
+        long sum = reset ? total.sumThenReset() : total.sum();
+        long peak = reset ? max.getThenReset() : max.get();
+        double mean = n == 0 ? 0 : sum / (double) n;
+
+        return String.format("%s: %d samples, mean %.3f ms, max %.3f ms", name, n, mean / 1e6, peak / 1e6);
+    }
+
+    @Override
+    public String toString() {
+        return summarize(false);
+    }
+}
@@ -0,0 +1,331 @@
+package utils;
+
+import metrics.Counter;
+import metrics.Metrics;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dv8tion.jda.api.requests.restaction.MessageAction;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This sends short text replies and embeds to channels, merging the ones bound for the same channel within a short
+ * {@link Bot.Config#COALESCE_WINDOW_MS window} into a single message. Discord rate limits messages per channel, so
+ * under a burst of commands (such as during a raid) this turns many REST calls into a few.
+ * <p>
+ * The first item sent to a channel opens a batch, which is sent when the window ends. Anything sent to that channel
+ * in the meantime is added to the batch: text is joined with line breaks, up to {@link Message#MAX_CONTENT_LENGTH}
+ * characters, and embeds are collected, up to {@value #MAX_EMBEDS} per message. An item that doesn't fit sends the
+ * current batch right away and opens a new one. If the batch contains a {@link #reply(Message, String) reply}, the
+ * merged message replies to the first message that was replied to.
+ * <p>
+ * If the window is <code>0</code>, every item is sent on its own immediately. Either way, the number of items waiting
+ * is available from {@link #getDepth()}, and the time from an item being queued to its message being sent is recorded
+ * in {@link #FLUSH}.
+ * <p>
+ * Messages are sent through the {@link RestScheduler}. Text and embeds are {@link RestScheduler.Priority#REPLY
+ * replies}, and {@link #error(MessageChannel, MessageEmbed) errors} have the lower {@link RestScheduler.Priority#ERROR
+ * error} priority. A merged message has the highest priority of its items.
+ */
+public class OutboundQueue {
+    /**
+     * This logger is used for messages that failed to send.
+     */
+    public static final Logger LOG = JDALogger.getLog(OutboundQueue.class);
+
+    /**
+     * The time from the first item in a batch being queued until Discord accepts the message.
+     */
+    public static final LatencyRecorder FLUSH = new LatencyRecorder("Outbound message flush latency",
+            Metrics.histogram("templatebot_outbound_flush_seconds",
+                    "The time from queueing a reply or error message until Discord accepts it."));
+
+    /**
+     * The maximum number of embeds in one message, set by Discord.
+     */
+    public static final int MAX_EMBEDS = 10;
+
+    /**
+     * The open batches, by channel id.
+     */
+    private static final ConcurrentHashMap<Long, Batch> BATCHES = new ConcurrentHashMap<>();
+
+    /**
+     * The number of items that have been queued but not yet sent.
+     */
+    private static final AtomicInteger DEPTH = new AtomicInteger();
+
+    /**
+     * The number of items queued, and the number of messages that they were sent as.
+     */
+    private static final LongAdder ITEMS = new LongAdder(), MESSAGES = new LongAdder();
+
+    /**
+     * The same counts as {@link #ITEMS} and {@link #MESSAGES}, but since startup, for the {@link Metrics metrics}.
+     */
+    private static final Counter ITEMS_TOTAL = Metrics.counter("templatebot_outbound_items_total",
+            "Replies and error messages queued to be sent."),
+            MESSAGES_TOTAL = Metrics.counter("templatebot_outbound_messages_total",
+                    "Messages sent for the queued items, after merging.");
+
+    static {
+        Metrics.gauge("templatebot_outbound_depth", "Queued items that haven't been sent yet.",
+                OutboundQueue::getDepth);
+    }
+
+    /**
+     * This sends each batch when its window ends.
+     */
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "OutboundQueue Flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Send text to a channel.
+     *
+     * @param channel the channel
+     * @param text    the text
+     */
+    public static void send(@Nonnull MessageChannel channel, @Nonnull String text) {
+        enqueue(channel, null, text, null, RestScheduler.Priority.REPLY);
+    }
+
+    /**
+     * Send an embed to a channel.
+     *
+     * @param channel the channel
+     * @param embed   the embed
+     */
+    public static void send(@Nonnull MessageChannel channel, @Nonnull MessageEmbed embed) {
+        enqueue(channel, null, null, embed, RestScheduler.Priority.REPLY);
+    }
+
+    /**
+     * Send text as a reply to a message.
+     *
+     * @param message the message to reply to
+     * @param text    the text
+     */
+    public static void reply(@Nonnull Message message, @Nonnull String text) {
+        enqueue(message.getChannel(), message, text, null, RestScheduler.Priority.REPLY);
+    }
+
+    /**
+     * Send an embed as a reply to a message.
+     *
+     * @param message the message to reply to
+     * @param embed   the embed
+     */
+    public static void reply(@Nonnull Message message, @Nonnull MessageEmbed embed) {
+        enqueue(message.getChannel(), message, null, embed, RestScheduler.Priority.REPLY);
+    }
+
+    /**
+     * Send an error embed to a channel. This is like {@link #send(MessageChannel, MessageEmbed)}, but with the
+     * {@link RestScheduler.Priority#ERROR error} priority.
+     *
+     * @param channel the channel
+     * @param embed   the error embed
+     */
+    public static void error(@Nonnull MessageChannel channel, @Nonnull MessageEmbed embed) {
+        enqueue(channel, null, null, embed, RestScheduler.Priority.ERROR);
+    }
+
+    /**
+     * Send an error embed as a reply to a message. This is like {@link #reply(Message, MessageEmbed)}, but with the
+     * {@link RestScheduler.Priority#ERROR error} priority.
+     *
+     * @param message the message to reply to
+     * @param embed   the error embed
+     */
+    public static void error(@Nonnull Message message, @Nonnull MessageEmbed embed) {
+        enqueue(message.getChannel(), message, null, embed, RestScheduler.Priority.ERROR);
+    }
+
+    /**
+     * Get the number of items that have been queued but not yet sent.
+     *
+     * @return the queue depth
+     */
+    public static int getDepth() {
+        return DEPTH.get();
+    }
+
+    /**
+     * Get a one-line summary of how many items were queued and how many messages they were merged into since the last
+     * summary.
+     *
+     * @return the summary
+     */
+    @Nonnull
+    public static String summarize() {
+        long items = ITEMS.sumThenReset(), messages = MESSAGES.sumThenReset();
+        return String.format("Outbound queue: %d items sent as %d messages (%.1fx), %d waiting",
+                items, messages, messages == 0 ? 0 : items / (double) messages, getDepth());
+    }
+
+    /**
+     * Add an item to its channel's batch, opening a new batch if necessary.
+     *
+     * @param channel  the channel to send to
+     * @param replyTo  the message to reply to, or <code>null</code>
+     * @param text     the text, or <code>null</code> if this item is an embed
+     * @param embed    the embed, or <code>null</code> if this item is text
+     * @param priority the priority to send it with
+     */
+    private static void enqueue(@Nonnull MessageChannel channel, @Nullable Message replyTo, @Nullable String text,
+                                @Nullable MessageEmbed embed, @Nonnull RestScheduler.Priority priority) {
+        ITEMS.increment();
+        ITEMS_TOTAL.increment();
+        DEPTH.incrementAndGet();
+
+        long window = ConfigSnapshot.get().getCoalesceWindowMillis();
+        if (window <= 0) {
+            Batch batch = new Batch(channel);
+            batch.add(replyTo, text, embed, priority);
+            send(batch);
+            return;
+        }
+
+        // The batch is only modified inside compute(), which locks the channel's entry in the map. A batch that is
+        // removed for sending is therefore never modified again.
+        Batch[] full = new Batch[1];
+        Batch opened = BATCHES.compute(channel.getIdLong(), (id, batch) -> {
+            if (batch != null && batch.add(replyTo, text, embed, priority))
+                return batch;
+
+            full[0] = batch;
+            Batch next = new Batch(channel);
+            next.add(replyTo, text, embed, priority);
+            return next;
+        });
+
+        // A batch that was replaced because the item didn't fit is sent now, and its scheduled flush does nothing
+        if (full[0] != null)
+            send(full[0]);
+
+        if (opened.scheduled.compareAndSet(false, true))
+            SCHEDULER.schedule(() -> {
+                if (BATCHES.remove(channel.getIdLong(), opened))
+                    send(opened);
+            }, window, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send a batch as one message. If building or queueing the message fails right away, such as when the bot is
+     * missing permissions in the channel, the error is logged here rather than thrown. Batches are usually sent by
+     * {@link #SCHEDULER}, where a thrown exception would be silently swallowed, and its items never subtracted from
+     * the {@link #getDepth() depth}.
+     *
+     * @param batch the batch, which must no longer be in {@link #BATCHES}
+     */
+    private static void send(@Nonnull Batch batch) {
+        MESSAGES.increment();
+        MESSAGES_TOTAL.increment();
+        try {
+            MessageAction action = batch.text.length() > 0
+                    ? batch.channel.sendMessage(batch.text).setEmbeds(batch.embeds)
+                    : batch.channel.sendMessageEmbeds(batch.embeds);
+            if (batch.replyTo != null)
+                action = action.reference(batch.replyTo);
+
+            RestScheduler.queue(action, batch.priority, batch.channel.getIdLong(),
+                    message -> {
+                        DEPTH.addAndGet(-batch.items);
+                        FLUSH.record(System.nanoTime() - batch.created);
+                    },
+                    failure -> {
+                        DEPTH.addAndGet(-batch.items);
+                        // Dropped messages are counted by the scheduler, and logging each one would add to the load
+                        if (failure instanceof CancellationException)
+                            LOG.debug("Dropped {} queued items for channel {}.", batch.items,
+                                      batch.channel.getIdLong());
+                        else
+                            LOG.error("Failed to send {} queued items to channel {}.", batch.items,
+                                      batch.channel.getIdLong(), failure);
+                    });
+        } catch (RuntimeException e) {
+            // The scheduler only throws before it has called either callback, so the items are subtracted once
+            DEPTH.addAndGet(-batch.items);
+            LOG.error("Failed to send {} queued items to channel {}.", batch.items, batch.channel.getIdLong(), e);
+        }
+    }
+
+    /**
+     * The items waiting to be sent to one channel as a single message.
+     */
+    private static class Batch {
+        private final MessageChannel channel;
+        private final long created = System.nanoTime();
+        private final StringBuilder text = new StringBuilder();
+        private final List<MessageEmbed> embeds = new ArrayList<>(1);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * The total length of the embeds, which Discord limits per message.
+         */
+        private int embedLength;
+
+        private Message replyTo;
+        private int items;
+
+        /**
+         * The highest priority of the items in this batch.
+         */
+        private RestScheduler.Priority priority = RestScheduler.Priority.DIAGNOSTIC;
+
+        private Batch(@Nonnull MessageChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Add an item to this batch, if it fits. An empty batch accepts any item.
+         *
+         * @param replyTo  the message to reply to, or <code>null</code>
+         * @param text     the text, or <code>null</code>
+         * @param embed    the embed, or <code>null</code>
+         * @param priority the item's priority
+         *
+         * @return <code>true</code> if the item was added
+         */
+        private boolean add(@Nullable Message replyTo, @Nullable String text, @Nullable MessageEmbed embed,
+                            @Nonnull RestScheduler.Priority priority) {
+            if (items > 0) {
+                if (text != null && this.text.length() + 1 + text.length() > Message.MAX_CONTENT_LENGTH)
+                    return false;
+                if (embed != null && (embeds.size() == MAX_EMBEDS ||
+                                      embedLength + embed.getLength() > MessageEmbed.EMBED_MAX_LENGTH_BOT))
+                    return false;
+            }
+
+            if (text != null)
+                (this.text.length() > 0 ? this.text.append('\n') : this.text).append(text);
+            if (embed != null) {
+                embeds.add(embed);
+                embedLength += embed.getLength();
+            }
+            if (this.replyTo == null)
+                this.replyTo = replyTo;
+            if (priority.compareTo(this.priority) < 0)
+                this.priority = priority;
+            items++;
+            return true;
+        }
+    }
+}
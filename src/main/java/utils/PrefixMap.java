@@ -0,0 +1,239 @@
+package utils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This maps guild {@link net.dv8tion.jda.api.entities.ISnowflake ids} to the set of command prefixes used in that
+ * guild. Guilds without their own prefixes, and direct messages, use the default prefixes.
+ * <p>
+ * The map uses open addressing over a primitive <code>long[]</code> of guild ids, so lookups never box the key or
+ * allocate, and there is no entry object per guild. Each guild's prefixes are stored in a {@link PrefixTrie}, which
+ * finds the matching prefix in one pass over the message.
+ * <p>
+ * A map is built once (with {@link #put(long, PrefixTrie)} or {@link #parse(String, String)}) and then only read. It
+ * is safe to read from many threads once it has been safely published, such as through a <code>final</code> or
+ * <code>volatile</code> field, but it must not be modified after that.
+ */
+public class PrefixMap {
+    /**
+     * The id used to mark empty slots. No guild has the id <code>0</code>.
+     */
+    private static final long EMPTY = 0;
+
+    /**
+     * The prefixes used where a guild doesn't have its own.
+     */
+    private final PrefixTrie defaults;
+
+    /**
+     * The guild ids in each slot, or {@link #EMPTY}.
+     */
+    private long[] keys;
+
+    /**
+     * The prefixes for the guild in the matching slot of {@link #keys}.
+     */
+    private PrefixTrie[] values;
+
+    /**
+     * The number of guilds in the map.
+     */
+    private int size;
+
+    /**
+     * Create a map with no guild-specific prefixes.
+     *
+     * @param defaults the prefixes used for guilds that aren't in the map and for direct messages
+     */
+    public PrefixMap(@Nonnull PrefixTrie defaults) {
+        this.defaults = defaults;
+        this.keys = new long[16];
+        this.values = new PrefixTrie[16];
+    }
+
+    /**
+     * Parse the prefix settings from <code>bot.properties</code>.
+     * <p>
+     * The guild prefixes are given as a list of entries separated by semicolons. Each entry is a guild id, a colon,
+     * and one or more prefixes separated by spaces. For example, <code>123456789012345678: ! ?; 876543210987654321:
+     * $</code> gives the first guild the prefixes <code>!</code> and <code>?</code>, and the second guild the prefix
+     * <code>$</code>.
+     *
+     * @param defaultPrefixes the default prefixes, separated by spaces
+     * @param guildPrefixes   the guild prefixes in the format above, or an empty string for none
+     *
+     * @return the parsed map
+     * @throws IllegalArgumentException if either setting is malformed
+     */
+    @Nonnull
+    public static PrefixMap parse(@Nonnull String defaultPrefixes, @Nullable String guildPrefixes) {
+        PrefixMap map = new PrefixMap(new PrefixTrie(split(defaultPrefixes)));
+        if (guildPrefixes == null || guildPrefixes.isBlank())
+            return map;
+
+        for (String entry : guildPrefixes.split(";")) {
+            if (entry.isBlank())
+                continue;
+
+            int colon = entry.indexOf(':');
+            if (colon < 0)
+                throw new IllegalArgumentException("Guild prefix entry '" + entry.trim() + "' is missing a colon " +
+                                                   "between the guild id and its prefixes.");
+
+            long id;
+            try {
+                id = Long.parseLong(entry.substring(0, colon).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Guild prefix entry '" + entry.trim() + "' has an invalid " +
+                                                   "guild id.");
+            }
+
+            map.put(id, new PrefixTrie(split(entry.substring(colon + 1))));
+        }
+
+        return map;
+    }
+
+    /**
+     * Set the prefixes for a guild, replacing any it already has. This must only be called while the map is being
+     * built, before it's shared with other threads.
+     *
+     * @param guild    the id of the guild
+     * @param prefixes the guild's prefixes
+     *
+     * @throws IllegalArgumentException if the guild id is <code>0</code>
+     */
+    public void put(long guild, @Nonnull PrefixTrie prefixes) {
+        if (guild == EMPTY)
+            throw new IllegalArgumentException("Guild id 0 is not valid.");
+
+        // Keep the load factor at or below 1/2, so that probe sequences stay short
+        if ((size + 1) * 2 > keys.length)
+            resize(keys.length * 2);
+
+        int slot = slot(guild);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = guild;
+            size++;
+        }
+        values[slot] = prefixes;
+    }
+
+    /**
+     * Get the prefixes used in a guild.
+     *
+     * @param guild the id of the guild, or <code>0</code> for direct messages
+     *
+     * @return the guild's prefixes, or the default prefixes if it doesn't have its own
+     */
+    @Nonnull
+    public PrefixTrie get(long guild) {
+        if (guild == EMPTY)
+            return defaults;
+
+        int slot = slot(guild);
+        return keys[slot] == EMPTY ? defaults : values[slot];
+    }
+
+    /**
+     * Find which of a guild's prefixes a message starts with. This does not allocate.
+     *
+     * @param guild the id of the guild that the message was sent in, or <code>0</code> for direct messages
+     * @param text  the raw contents of the message
+     *
+     * @return the length of the matching prefix, or <code>-1</code> if the message doesn't start with a prefix
+     */
+    public int match(long guild, @Nonnull CharSequence text) {
+        return get(guild).match(text);
+    }
+
+    /**
+     * Get the default prefixes, used for direct messages and guilds without their own.
+     *
+     * @return the default prefixes
+     */
+    @Nonnull
+    public PrefixTrie getDefaults() {
+        return defaults;
+    }
+
+    /**
+     * Get the number of guilds with their own prefixes.
+     *
+     * @return the number of guilds
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the slot for a guild id: either the slot that contains it, or the empty slot where it would be inserted.
+     *
+     * @param guild the id of the guild
+     *
+     * @return the slot index
+     */
+    private int slot(long guild) {
+        int mask = keys.length - 1;
+        int slot = mix(guild) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != guild)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Grow the table and reinsert every guild.
+     *
+     * @param capacity the new capacity, which must be a power of two
+     */
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        PrefixTrie[] oldValues = values;
+        keys = new long[capacity];
+        values = new PrefixTrie[capacity];
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Spread the bits of a snowflake id. The low bits of a snowflake are a per-process counter that is often zero,
+     * so they can't be used as a hash directly.
+     *
+     * @param id the snowflake id
+     *
+     * @return the hash
+     */
+    private static int mix(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Split a list of prefixes separated by whitespace.
+     *
+     * @param prefixes the prefixes
+     *
+     * @return the list of prefixes
+     */
+    @Nonnull
+    private static List<String> split(@Nonnull String prefixes) {
+        List<String> list = new ArrayList<>(Arrays.asList(prefixes.trim().split("\\s+")));
+        list.removeIf(String::isEmpty);
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return "PrefixMap(defaults: " + defaults + ", guilds: " + size + ")";
+    }
+}
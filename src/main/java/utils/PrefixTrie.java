@@ -0,0 +1,161 @@
+package utils;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * An immutable set of command prefixes that can find which prefix a message starts with in a single pass over the
+ * message, without allocating.
+ * <p>
+ * The trie is stored in flat arrays. Each node has a contiguous, sorted range of child edges, so matching a message
+ * only involves reading characters and comparing them against the edges of the current node.
+ *
+ * @see PrefixMap
+ */
+public class PrefixTrie {
+    /**
+     * The character on each edge, grouped by parent node and sorted within each group.
+     */
+    private final char[] labels;
+
+    /**
+     * The node that each edge leads to.
+     */
+    private final int[] targets;
+
+    /**
+     * The index of the first edge of each node in {@link #labels}, and the number of edges it has.
+     */
+    private final int[] firstEdge, edgeCount;
+
+    /**
+     * Whether a prefix ends at each node.
+     */
+    private final boolean[] terminal;
+
+    /**
+     * The prefixes in this trie, for display.
+     */
+    private final List<String> prefixes;
+
+    /**
+     * Build a trie containing the given prefixes. Empty prefixes are ignored.
+     *
+     * @param prefixes the prefixes
+     *
+     * @throws IllegalArgumentException if there are no non-empty prefixes
+     */
+    public PrefixTrie(@Nonnull Collection<String> prefixes) {
+        // Sort the prefixes so that each node's children are added in order
+        TreeSet<String> sorted = new TreeSet<>();
+        for (String prefix : prefixes)
+            if (!prefix.isEmpty())
+                sorted.add(prefix);
+
+        if (sorted.isEmpty())
+            throw new IllegalArgumentException("A prefix set must contain at least one non-empty prefix.");
+
+        this.prefixes = List.copyOf(sorted);
+
+        // Build a conventional tree first, then flatten it breadth-first
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<Boolean> ends = new ArrayList<>();
+        children.add(new TreeMap<>());
+        ends.add(false);
+
+        for (String prefix : sorted) {
+            int node = 0;
+            for (char c : prefix.toCharArray()) {
+                Integer next = children.get(node).get(c);
+                if (next == null) {
+                    next = children.size();
+                    children.get(node).put(c, next);
+                    children.add(new TreeMap<>());
+                    ends.add(false);
+                }
+                node = next;
+            }
+            ends.set(node, true);
+        }
+
+        int nodes = children.size();
+        this.labels = new char[nodes - 1];
+        this.targets = new int[nodes - 1];
+        this.firstEdge = new int[nodes];
+        this.edgeCount = new int[nodes];
+        this.terminal = new boolean[nodes];
+
+        int edge = 0;
+        for (int node = 0; node < nodes; node++) {
+            firstEdge[node] = edge;
+            edgeCount[node] = children.get(node).size();
+            terminal[node] = ends.get(node);
+            for (Map.Entry<Character, Integer> child : children.get(node).entrySet()) {
+                labels[edge] = child.getKey();
+                targets[edge] = child.getValue();
+                edge++;
+            }
+        }
+    }
+
+    /**
+     * Find the longest prefix in this trie that the given text starts with.
+     *
+     * @param text the text, typically the raw contents of a message
+     *
+     * @return the length of the matching prefix, or <code>-1</code> if the text doesn't start with any of them
+     */
+    public int match(@Nonnull CharSequence text) {
+        int node = 0, longest = -1;
+
+        for (int i = 0, length = text.length(); i < length; i++) {
+            node = child(node, text.charAt(i));
+            if (node < 0)
+                break;
+            if (terminal[node])
+                longest = i + 1;
+        }
+
+        return longest;
+    }
+
+    /**
+     * Get the prefixes in this trie, in sorted order.
+     *
+     * @return an unmodifiable list of the prefixes
+     */
+    @Nonnull
+    public List<String> getPrefixes() {
+        return prefixes;
+    }
+
+    /**
+     * Follow the edge with the given character from a node.
+     *
+     * @param node the node
+     * @param c    the character
+     *
+     * @return the child node, or <code>-1</code> if there is no such edge
+     */
+    private int child(int node, char c) {
+        int low = firstEdge[node], high = low + edgeCount[node] - 1;
+
+        // Nodes rarely have more than a few children, so a binary search is plenty
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (labels[mid] < c)
+                low = mid + 1;
+            else if (labels[mid] > c)
+                high = mid - 1;
+            else
+                return targets[mid];
+        }
+
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(" ", prefixes);
+    }
+}
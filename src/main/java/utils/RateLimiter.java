@@ -0,0 +1,227 @@
+package utils;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free token-bucket rate limiter keyed by Discord snowflake ids, such as user or guild ids. Each key may use up
+ * to {@link #getLimit() limit} permits at once, and permits are refilled continuously so that the bucket is full again
+ * after one {@link #getPeriodMillis() period}.
+ * <p>
+ * Each bucket is a single <code>long</code>: the time at which it will be full again (the "theoretical arrival time"
+ * of the generic cell rate algorithm). Acquiring a permit is one compare-and-set on that value, so there are no locks
+ * and no allocation. Buckets live in a fixed-size, open-addressed table. A bucket that has refilled completely is
+ * indistinguishable from a new one, so its slot is simply reused by the next key that needs it. This evicts idle
+ * buckets lazily, and memory stays constant no matter how many distinct keys are seen.
+ * <p>
+ * If every slot near a key's hash is held by an active bucket, the key is allowed through and counted as an {@link
+ * #getOverflows() overflow}. Size the table well above the number of keys expected to be active within one period.
+ */
+public class RateLimiter {
+    /**
+     * The key used to mark empty slots. No snowflake has the id <code>0</code>.
+     */
+    private static final long EMPTY = 0;
+
+    /**
+     * The number of slots to check for a key before giving up.
+     */
+    private static final int PROBES = 8;
+
+    private final int limit;
+    private final long periodMillis;
+
+    /**
+     * The time that each permit adds to a bucket, in nanoseconds.
+     */
+    private final long interval;
+
+    /**
+     * How far ahead of the current time a bucket may be before requests are denied, in nanoseconds.
+     */
+    private final long tolerance;
+
+    /**
+     * The {@link System#nanoTime()} when this limiter was created. Times are stored relative to this, so that they are
+     * always positive.
+     */
+    private final long origin = System.nanoTime();
+
+    private final AtomicLongArray keys;
+    private final AtomicLongArray buckets;
+    private final int mask;
+
+    private final LongAdder denied = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+
+    /**
+     * Create a new rate limiter.
+     *
+     * @param limit        the number of permits each key can use in one period
+     * @param periodMillis the period, in milliseconds
+     * @param slots        the number of buckets in the table. This is rounded up to a power of two.
+     *
+     * @throws IllegalArgumentException if any argument is not positive
+     */
+    public RateLimiter(int limit, long periodMillis, int slots) {
+        if (limit <= 0 || periodMillis <= 0 || slots <= 0)
+            throw new IllegalArgumentException("Rate limits must have a positive limit, period, and size.");
+
+        this.limit = limit;
+        this.periodMillis = periodMillis;
+        this.interval = periodMillis * 1_000_000 / limit;
+        this.tolerance = interval * (limit - 1);
+
+        int capacity = Integer.highestOneBit(Math.max(slots, PROBES) - 1) << 1;
+        this.keys = new AtomicLongArray(capacity);
+        this.buckets = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Parse a rate limit in the form <code>count/seconds</code> from <code>bot.properties</code>. For example,
+     * <code>5/10</code> allows 5 permits every 10 seconds.
+     *
+     * @param limit the rate limit
+     * @param slots the number of buckets in the table
+     *
+     * @return the new rate limiter
+     * @throws IllegalArgumentException if the limit is malformed
+     */
+    @Nonnull
+    public static RateLimiter parse(@Nonnull String limit, int slots) {
+        int slash = limit.indexOf('/');
+        try {
+            if (slash < 0)
+                throw new NumberFormatException();
+            return new RateLimiter(
+                    Integer.parseInt(limit.substring(0, slash).trim()),
+                    Math.round(Double.parseDouble(limit.substring(slash + 1).trim()) * 1000),
+                    slots);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid rate limit '" + limit + "'. Use the form count/seconds, " +
+                                               "such as 5/10.");
+        }
+    }
+
+    /**
+     * Try to use one permit for the given key.
+     *
+     * @param key the snowflake id to limit, such as a user id
+     *
+     * @return <code>true</code> if the request is allowed; <code>false</code> if the key has used up its permits
+     */
+    public boolean tryAcquire(long key) {
+        if (key == EMPTY)
+            return true;
+
+        long now = System.nanoTime() - origin;
+        int start = mix(key);
+
+        // Look for the key's own bucket first, remembering the first slot that could be reused for it
+        int free = -1;
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (start + i) & mask;
+            long current = keys.get(slot);
+
+            if (current == key)
+                return acquire(slot, now);
+            if (free < 0 && (current == EMPTY || buckets.get(slot) <= now))
+                free = slot;
+            if (current == EMPTY)
+                break;
+        }
+
+        // Claim an empty slot, or one whose bucket has completely refilled. A full bucket behaves exactly like a new
+        // one, so its time doesn't need to be reset.
+        if (free >= 0) {
+            long current = keys.get(free);
+            if ((current == EMPTY || buckets.get(free) <= now) && keys.compareAndSet(free, current, key))
+                return acquire(free, now);
+            if (keys.get(free) == key)
+                return acquire(free, now);
+        }
+
+        overflows.increment();
+        return true;
+    }
+
+    /**
+     * Use one permit from the bucket in a slot.
+     *
+     * @param slot the slot
+     * @param now  the current time, relative to {@link #origin}
+     *
+     * @return <code>true</code> if a permit was available
+     */
+    private boolean acquire(int slot, long now) {
+        while (true) {
+            long full = buckets.get(slot);
+            long base = Math.max(full, now);
+
+            if (base - now > tolerance) {
+                denied.increment();
+                return false;
+            }
+
+            if (buckets.compareAndSet(slot, full, base + interval))
+                return true;
+        }
+    }
+
+    /**
+     * Get the number of permits each key can use in one period.
+     *
+     * @return the limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Get the length of the period, after which an empty bucket is full again.
+     *
+     * @return the period in milliseconds
+     */
+    public long getPeriodMillis() {
+        return periodMillis;
+    }
+
+    /**
+     * Get the number of requests that have been denied.
+     *
+     * @return the number of denied requests
+     */
+    public long getDenied() {
+        return denied.sum();
+    }
+
+    /**
+     * Get the number of requests that were allowed without a bucket because the table was too crowded. If this grows,
+     * the table should be larger.
+     *
+     * @return the number of overflows
+     */
+    public long getOverflows() {
+        return overflows.sum();
+    }
+
+    /**
+     * Spread the bits of a snowflake id. The low bits of a snowflake are a per-process counter that is often zero,
+     * so they can't be used as a hash directly.
+     *
+     * @param id the snowflake id
+     *
+     * @return the hash
+     */
+    private static int mix(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return limit + "/" + (periodMillis / 1000.0) + "s";
+    }
+}
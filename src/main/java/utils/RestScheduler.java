@@ -0,0 +1,513 @@
+package utils;
+
+import events.OnStartup;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.Metrics;
+import net.dv8tion.jda.api.requests.RestAction;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+/**
+ * This sits in front of JDA's requester and decides the order in which the bot's outbound REST requests are sent, so
+ * that under rate-limit pressure, low-value traffic like log channel posts and error spam doesn't delay the replies
+ * users are waiting for. Each request is given a {@link Priority}:
+ * <ol>
+ *     <li>{@link Priority#INTERACTION} requests are sent immediately. Discord fails interactions that aren't answered
+ *     within 3 seconds, so these never wait.
+ *     <li>{@link Priority#REPLY}, {@link Priority#ERROR}, and {@link Priority#DIAGNOSTIC} requests share at most
+ *     {@link Bot.Config#REST_CONCURRENCY} requests in flight at once, and at most one for each channel. The rest wait
+ *     in a queue for their priority, and whenever a request finishes, the next one is the oldest request in the
+ *     highest priority queue whose channel doesn't already have a request in flight.
+ * </ol>
+ * Discord rate limits messages per channel, and JDA sends the requests for one channel one at a time anyway. Limiting
+ * each channel to one request in flight means that a channel that's being rate limited only holds one slot, and the
+ * requests for other channels go ahead of the ones waiting behind it, instead of all the slots waiting on the same
+ * channel. Requests that aren't sent to a channel share a single lane.
+ * Each queue has a {@link Bot.Config#REST_QUEUE_LIMITS limit}. When a queue is full, it drops a request according to
+ * its priority's {@link DropPolicy}: stale replies are dropped first, while for errors and diagnostics, the newest
+ * request is dropped, since the first few errors of a burst are the useful ones. A dropped request's failure callback
+ * gets a {@link CancellationException}.
+ * <p>
+ * For each priority, the time requests spend waiting in the queue is recorded in a histogram, and dropped requests are
+ * counted, both in the {@link Metrics metrics}.
+ */
+public class RestScheduler {
+    /**
+     * The priority classes of outbound requests, from first to last.
+     */
+    public enum Priority {
+        /**
+         * Responses to interactions, such as slash command replies and deferrals.
+         */
+        INTERACTION(DropPolicy.DROP_NEWEST),
+
+        /**
+         * Replies to text commands.
+         */
+        REPLY(DropPolicy.DROP_OLDEST),
+
+        /**
+         * Error messages sent to channels.
+         */
+        ERROR(DropPolicy.DROP_NEWEST),
+
+        /**
+         * Messages for the bot's developers, like the startup message in the log channel.
+         */
+        DIAGNOSTIC(DropPolicy.DROP_NEWEST);
+
+        private final DropPolicy dropPolicy;
+        private final Histogram wait;
+        private final Counter dropped;
+
+        Priority(@Nonnull DropPolicy dropPolicy) {
+            String name = name().toLowerCase(Locale.ROOT);
+            this.dropPolicy = dropPolicy;
+            this.wait = Metrics.histogram("templatebot_rest_queue_seconds",
+                    "The time outbound requests waited in the REST scheduler, by priority.", "priority", name);
+            this.dropped = Metrics.counter("templatebot_rest_dropped_total",
+                    "Outbound requests dropped because their queue was full, by priority.", "priority", name);
+        }
+
+        /**
+         * Get what happens to requests with this priority when their queue is full.
+         *
+         * @return the drop policy
+         */
+        @Nonnull
+        public DropPolicy getDropPolicy() {
+            return dropPolicy;
+        }
+
+        /**
+         * Get the histogram of how long requests with this priority waited before being sent.
+         *
+         * @return the histogram
+         */
+        @Nonnull
+        public Histogram getWait() {
+            return wait;
+        }
+
+        /**
+         * Get the number of requests with this priority that were dropped.
+         *
+         * @return the counter
+         */
+        @Nonnull
+        public Counter getDropped() {
+            return dropped;
+        }
+    }
+
+    /**
+     * What a queue does with a new request when it's full.
+     */
+    public enum DropPolicy {
+        /**
+         * Drop the new request.
+         */
+        DROP_NEWEST,
+
+        /**
+         * Drop the request that has waited the longest, and queue the new one.
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * The queue limits used for priorities that aren't given one in {@link Bot.Config#REST_QUEUE_LIMITS}.
+     */
+    private static final Map<Priority, Integer> DEFAULT_LIMITS = Map.of(
+            Priority.INTERACTION, 0, Priority.REPLY, 500, Priority.ERROR, 100, Priority.DIAGNOSTIC, 20);
+
+    /**
+     * The channel used for requests that aren't sent to a channel.
+     */
+    public static final long NO_CHANNEL = 0;
+
+    /**
+     * The lock that guards the queues, {@link #inFlight}, and {@link #BUSY}.
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * The waiting requests, by priority. {@link Priority#INTERACTION} requests are never queued.
+     */
+    private static final EnumMap<Priority, ArrayDeque<Pending<?>>> QUEUES = new EnumMap<>(Priority.class);
+
+    static {
+        for (Priority priority : Priority.values()) {
+            ArrayDeque<Pending<?>> queue = new ArrayDeque<>();
+            QUEUES.put(priority, queue);
+            Metrics.gauge("templatebot_rest_queued", "Outbound requests waiting in the REST scheduler, by priority.",
+                    () -> size(queue), "priority", priority.name().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * The maximum number of queued requests in flight at once, or <code>0</code> to send every request immediately.
+     */
+    private static volatile int concurrency;
+
+    /**
+     * The queue limit for each priority.
+     */
+    private static volatile Map<Priority, Integer> limits = DEFAULT_LIMITS;
+
+    /**
+     * The number of queued requests that have been sent but haven't finished yet.
+     */
+    private static int inFlight;
+
+    /**
+     * The number of queued requests in flight for each channel that has any. This is at most one per channel, except
+     * for requests sent while the scheduler was {@link #concurrency turned off}.
+     */
+    private static final Map<Long, Integer> BUSY = new HashMap<>();
+
+    /**
+     * Send a request with the given priority, using JDA's default callbacks. This is meant for {@link
+     * Priority#INTERACTION interaction responses}, which don't wait; other requests should say which channel they're
+     * sent to.
+     *
+     * @param action   the request
+     * @param priority its priority
+     */
+    public static void queue(@Nonnull RestAction<?> action, @Nonnull Priority priority) {
+        queue(action, priority, NO_CHANNEL, null, null);
+    }
+
+    /**
+     * Send a request to a channel with the given priority, using JDA's default callbacks.
+     *
+     * @param action   the request
+     * @param priority its priority
+     * @param channel  the id of the channel it's sent to, or {@link #NO_CHANNEL}
+     */
+    public static void queue(@Nonnull RestAction<?> action, @Nonnull Priority priority, long channel) {
+        queue(action, priority, channel, null, null);
+    }
+
+    /**
+     * Send a request with the given priority. This is the scheduled equivalent of {@link RestAction#queue(Consumer,
+     * Consumer)}, and like {@link #queue(RestAction, Priority)}, it's meant for interaction responses.
+     *
+     * @param action   the request
+     * @param priority its priority
+     * @param success  called with the result if the request succeeds, or <code>null</code> to ignore it
+     * @param failure  called if the request fails or is dropped, or <code>null</code> to use {@link
+     *                 RestAction#getDefaultFailure() JDA's default}
+     * @param <T>      the type of the result
+     */
+    public static <T> void queue(@Nonnull RestAction<T> action, @Nonnull Priority priority,
+                                 @Nullable Consumer<? super T> success, @Nullable Consumer<? super Throwable> failure) {
+        queue(action, priority, NO_CHANNEL, success, failure);
+    }
+
+    /**
+     * Send a request to a channel with the given priority. This is the scheduled equivalent of {@link
+     * RestAction#queue(Consumer, Consumer)}.
+     *
+     * @param action   the request
+     * @param priority its priority
+     * @param channel  the id of the channel it's sent to, or {@link #NO_CHANNEL}. Only one request for each channel is
+     *                 in flight at once.
+     * @param success  called with the result if the request succeeds, or <code>null</code> to ignore it
+     * @param failure  called if the request fails or is dropped, or <code>null</code> to use {@link
+     *                 RestAction#getDefaultFailure() JDA's default}
+     * @param <T>      the type of the result
+     */
+    public static <T> void queue(@Nonnull RestAction<T> action, @Nonnull Priority priority, long channel,
+                                 @Nullable Consumer<? super T> success, @Nullable Consumer<? super Throwable> failure) {
+        Pending<T> pending = new Pending<>(action, priority, channel, success, failure, System.nanoTime());
+        if (priority == Priority.INTERACTION || concurrency <= 0) {
+            pending.send(false);
+            return;
+        }
+
+        Pending<?> dropped = null;
+        boolean send = false;
+        synchronized (LOCK) {
+            ArrayDeque<Pending<?>> queue = QUEUES.get(priority);
+            if (inFlight < concurrency && !BUSY.containsKey(channel)) {
+                // While there's a free slot, every waiting request is for a busy channel, since they're sent as soon
+                // as they can be. So this request doesn't skip ahead of any that could go first.
+                inFlight++;
+                BUSY.merge(channel, 1, Integer::sum);
+                send = true;
+            } else if (queue.size() >= limits.getOrDefault(priority, 0)) {
+                if (priority.dropPolicy == DropPolicy.DROP_OLDEST && !queue.isEmpty()) {
+                    dropped = queue.poll();
+                    queue.add(pending);
+                } else {
+                    dropped = pending;
+                }
+            } else {
+                queue.add(pending);
+            }
+        }
+
+        if (send)
+            sendAll(pending.send(true));
+        else if (dropped != null)
+            dropped.drop();
+    }
+
+    /**
+     * Load the concurrency and queue limits from the {@link Bot} settings. This is called on {@link OnStartup
+     * startup} and whenever <code>bot.properties</code> is reloaded. Until then, every request is sent immediately.
+     *
+     * @return {@link OnStartup.Result#SUCCESS Success} if every setting was loaded; {@link OnStartup.Result#FAILURE
+     *         failure} if any of them were malformed, in which case those use their defaults
+     */
+    public static OnStartup.Result load() {
+        OnStartup.Result result = OnStartup.Result.SUCCESS;
+
+        int concurrency = Bot.Config.REST_CONCURRENCY;
+        if (concurrency < 0) {
+            OnStartup.LOG.error("Failed to load rest_concurrency. It can't be negative.");
+            concurrency = 0;
+            result = OnStartup.Result.FAILURE;
+        }
+
+        Map<Priority, Integer> map = new EnumMap<>(DEFAULT_LIMITS);
+        String limits = Bot.Config.REST_QUEUE_LIMITS;
+        if (limits != null) {
+            for (String entry : limits.split(";")) {
+                if (entry.isBlank())
+                    continue;
+
+                int colon = entry.indexOf(':');
+                try {
+                    if (colon < 0)
+                        throw new IllegalArgumentException("Each entry must be a priority, a colon, and a limit.");
+                    Priority priority = Priority.valueOf(entry.substring(0, colon).trim().toUpperCase(Locale.ROOT));
+                    int limit = Integer.parseInt(entry.substring(colon + 1).trim());
+                    if (limit < 0)
+                        throw new IllegalArgumentException("The limit can't be negative.");
+                    map.put(priority, limit);
+                } catch (IllegalArgumentException e) {
+                    OnStartup.LOG.error("Failed to load the REST queue limit '{}'. {}", entry.trim(), e.getMessage());
+                    result = OnStartup.Result.FAILURE;
+                }
+            }
+        }
+
+        RestScheduler.limits = Map.copyOf(map);
+        RestScheduler.concurrency = concurrency;
+        drain();
+
+        if (concurrency == 0)
+            OnStartup.LOG.info("Loaded the REST scheduler: every request is sent immediately");
+        else
+            OnStartup.LOG.info("Loaded the REST scheduler: {} requests in flight, queue limits {}",
+                               concurrency, RestScheduler.limits);
+        return result;
+    }
+
+    /**
+     * Get a one-line summary of the requests waiting in each queue, and how long requests have waited.
+     *
+     * @return the summary
+     */
+    @Nonnull
+    public static String summarize() {
+        StringBuilder summary = new StringBuilder("REST scheduler:");
+        for (Priority priority : Priority.values()) {
+            Histogram wait = priority.wait;
+            summary.append(String.format(Locale.ROOT, " %s %d waiting, %d dropped, p99 wait %.1f ms;",
+                    priority.name().toLowerCase(Locale.ROOT), size(QUEUES.get(priority)), priority.dropped.get(),
+                    wait.getPercentile(99) / 1e6));
+        }
+        return summary.substring(0, summary.length() - 1);
+    }
+
+    /**
+     * Send queued requests, highest priority first, until there are no free slots or no request left whose channel is
+     * free. When the concurrency is <code>0</code>, everything that's queued is sent.
+     */
+    private static void drain() {
+        Pending<?> next;
+        synchronized (LOCK) {
+            next = next();
+        }
+        sendAll(next);
+    }
+
+    /**
+     * Free the slot and the channel held by a queued request that has finished, and send the next requests. The slot
+     * is handed to the next request while still holding the lock, so that a new request can't take it first.
+     *
+     * @param channel the finished request's channel
+     */
+    private static void release(long channel) {
+        Pending<?> next;
+        synchronized (LOCK) {
+            next = handOver(channel);
+        }
+        sendAll(next);
+    }
+
+    /**
+     * Free the slot and the channel held by a queued request that has finished, and take the next request to send in
+     * its place. This must be called while holding {@link #LOCK}.
+     *
+     * @param channel the finished request's channel
+     *
+     * @return the next request, or <code>null</code> if there's none that can be sent
+     */
+    @Nullable
+    private static Pending<?> handOver(long channel) {
+        inFlight--;
+        BUSY.computeIfPresent(channel, (id, count) -> count == 1 ? null : count - 1);
+        return next();
+    }
+
+    /**
+     * Send a request taken by {@link #next()}, and then keep taking and sending requests until there are none left
+     * that can be sent. A request that fails right away has already handed its slot over, so the request it was
+     * handed to is sent next, in this loop rather than by recursing.
+     *
+     * @param next the first request, or <code>null</code>
+     */
+    private static void sendAll(@Nullable Pending<?> next) {
+        while (next != null) {
+            Pending<?> after = next.send(true);
+            if (after == null) {
+                synchronized (LOCK) {
+                    after = next();
+                }
+            }
+            next = after;
+        }
+    }
+
+    /**
+     * Take the next request to send, if there's a free slot, and have it hold the slot and its channel. That's the
+     * oldest request in the highest priority queue whose channel doesn't have a request in flight. When the
+     * concurrency is <code>0</code>, channels are ignored, so that the queues are emptied. This must be called while
+     * holding {@link #LOCK}.
+     *
+     * @return the request, or <code>null</code> if there's no free slot or no request that can be sent
+     */
+    @Nullable
+    private static Pending<?> next() {
+        int concurrency = RestScheduler.concurrency;
+        if (concurrency > 0 && inFlight >= concurrency)
+            return null;
+
+        for (ArrayDeque<Pending<?>> queue : QUEUES.values()) {
+            for (Iterator<Pending<?>> iterator = queue.iterator(); iterator.hasNext(); ) {
+                Pending<?> pending = iterator.next();
+                if (concurrency > 0 && BUSY.containsKey(pending.channel))
+                    continue;
+
+                iterator.remove();
+                inFlight++;
+                BUSY.merge(pending.channel, 1, Integer::sum);
+                return pending;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the size of a queue.
+     *
+     * @param queue the queue
+     *
+     * @return the number of waiting requests
+     */
+    private static int size(@Nonnull ArrayDeque<Pending<?>> queue) {
+        synchronized (LOCK) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * A request waiting to be sent, along with its callbacks.
+     *
+     * @param action   the request
+     * @param priority its priority
+     * @param channel  the id of the channel it's sent to
+     * @param success  the success callback, or <code>null</code>
+     * @param failure  the failure callback, or <code>null</code>
+     * @param queued   the {@link System#nanoTime()} when it was queued
+     * @param <T>      the type of the result
+     */
+    private record Pending<T>(RestAction<T> action, Priority priority, long channel, Consumer<? super T> success,
+                              Consumer<? super Throwable> failure, long queued) {
+        /**
+         * Pass the request to JDA.
+         *
+         * @param holdsSlot whether the request holds one of the {@link #concurrency} slots and its channel, which are
+         *                  freed once the request finishes
+         *
+         * @return if the request held a slot and failed right away, the request that its slot was {@link
+         *         #handOver(long) handed over} to, which the caller must {@link #sendAll(Pending) send}; otherwise
+         *         <code>null</code>
+         */
+        @Nullable
+        Pending<?> send(boolean holdsSlot) {
+            priority.wait.record(System.nanoTime() - queued);
+            try {
+                action.queue(result -> {
+                    if (holdsSlot)
+                        release(channel);
+                    if (success != null)
+                        success.accept(result);
+                }, error -> {
+                    if (holdsSlot)
+                        release(channel);
+                    fail(error);
+                });
+                return null;
+            } catch (RuntimeException e) {
+                // queue() can throw right away, such as for missing permissions. A request that doesn't hold a slot
+                // throws to its caller, as it would without the scheduler. One that does may have been queued, and its
+                // caller is long gone, so the failure callback gets the exception, and the slot is handed over just
+                // as when a request finishes, so that the requests waiting for it aren't stranded.
+                if (!holdsSlot)
+                    throw e;
+                Pending<?> next;
+                synchronized (LOCK) {
+                    next = handOver(channel);
+                }
+                fail(e);
+                return next;
+            }
+        }
+
+        /**
+         * Drop the request without sending it.
+         */
+        void drop() {
+            priority.dropped.increment();
+            fail(new CancellationException("The " + priority.name().toLowerCase(Locale.ROOT) + " queue in the " +
+                                           "REST scheduler was full, so the request was dropped."));
+        }
+
+        /**
+         * Pass an error to the failure callback.
+         *
+         * @param error the error
+         */
+        private void fail(@Nonnull Throwable error) {
+            if (failure != null)
+                failure.accept(error);
+            else
+                RestAction.getDefaultFailure().accept(error);
+        }
+    }
+}
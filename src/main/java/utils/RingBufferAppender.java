@@ -0,0 +1,354 @@
+package utils;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import metrics.Counter;
+import metrics.Metrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A logback appender that hands every event to a bounded ring buffer and returns, leaving a single background thread
+ * to format the events and write them to the appenders attached to it (normally the console). This keeps slow console
+ * I/O off the gateway and command threads: logging an event costs formatting its message and one slot in the buffer,
+ * and nothing else.
+ * <p>
+ * The buffer holds {@link #setCapacity(int) capacity} events, rounded up to a power of two. When it's full, which only
+ * happens when events are logged faster than the console can take them (such as during an incident), the {@link
+ * DropPolicy drop policy} decides what gives way. Dropped events are counted in
+ * <code>templatebot_log_dropped_total</code>, and the writer thread logs how many were dropped once it catches up.
+ * <p>
+ * It's selected in <code>logback.xml</code>, which uses it by default. Start the bot with
+ * <code>-Dtemplatebot.logging=STDOUT</code> to write to the console directly instead, as the bot used to.
+ */
+public class RingBufferAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
+        implements AppenderAttachable<ILoggingEvent> {
+    /**
+     * What to do with an event when the buffer is full.
+     */
+    public enum DropPolicy {
+        /**
+         * Wait for the writer thread to make room. No events are lost, but the thread that's logging waits for the
+         * console, just like a synchronous appender.
+         */
+        BLOCK,
+        /**
+         * Drop the new event.
+         */
+        DISCARD_NEWEST,
+        /**
+         * Drop the oldest event in the buffer to make room for the new one.
+         */
+        DISCARD_OLDEST,
+        /**
+         * Drop new events below {@link Level#WARN WARN}, and make room for warnings and errors by dropping the oldest
+         * event in the buffer. Nothing ever waits, and the most important events are kept. This is the default.
+         */
+        DISCARD_BELOW_WARN
+    }
+
+    private final AppenderAttachableImpl<ILoggingEvent> appenders = new AppenderAttachableImpl<>();
+    private int capacity = 8192;
+    private DropPolicy policy = DropPolicy.DISCARD_BELOW_WARN;
+    private int maxFlushMillis = 1000;
+
+    /*
+     * The buffer is a bounded multi-producer queue (Dmitry Vyukov's design). Every slot has a sequence number, which
+     * says whether it's ready to be written at a given tail position or read at a given head position, so producers
+     * claim slots with a single compare-and-set and never lock. The writer thread is normally the only consumer, but
+     * DISCARD_OLDEST also takes events from the head, so taking is safe from any thread too.
+     */
+    private ILoggingEvent[] events;
+    private AtomicLongArray sequences;
+    private int mask;
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+
+    private Counter dropped;
+    private long droppedReported;
+    private Logger logger;
+    private volatile Thread writer;
+    private volatile boolean waiting;
+
+    /**
+     * Set the number of events the buffer holds. This is rounded up to a power of two.
+     *
+     * @param capacity the capacity, which must be positive
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Set what happens to an event when the buffer is full.
+     *
+     * @param policy the name of a {@link DropPolicy}, in any case
+     */
+    public void setDropPolicy(@Nonnull String policy) {
+        try {
+            this.policy = DropPolicy.valueOf(policy.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            addError("Unknown drop policy '" + policy + "'. Using " + this.policy + ".");
+        }
+    }
+
+    /**
+     * Set how long to keep writing the events left in the buffer when the appender stops, such as on shutdown.
+     *
+     * @param maxFlushMillis the time in milliseconds
+     */
+    public void setMaxFlushMillis(int maxFlushMillis) {
+        this.maxFlushMillis = maxFlushMillis;
+    }
+
+    @Override
+    public void start() {
+        if (isStarted())
+            return;
+        if (capacity < 1) {
+            addError("The capacity of the appender '" + name + "' must be positive.");
+            return;
+        }
+        if (!appenders.iteratorForAppenders().hasNext()) {
+            addError("The appender '" + name + "' has no appenders to write to.");
+            return;
+        }
+
+        int size = Integer.highestOneBit(Math.min(capacity, 1 << 30) - 1) << 1;
+        size = Math.max(size, 1);
+        events = new ILoggingEvent[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        mask = size - 1;
+
+        String appender = name == null ? "async" : name;
+        dropped = Metrics.counter("templatebot_log_dropped_total",
+                "The log events dropped because the log buffer was full.", "appender", appender);
+        Metrics.gauge("templatebot_log_buffered", "The log events waiting to be written.", this::getDepth,
+                "appender", appender);
+        logger = ((LoggerContext) getContext()).getLogger(RingBufferAppender.class);
+
+        Thread thread = new Thread(this::write, "Log Writer");
+        thread.setDaemon(true);
+        writer = thread;
+        super.start();
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted())
+            return;
+        super.stop();
+
+        Thread thread = writer;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(maxFlushMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive())
+            addWarn("Stopped the appender '" + name + "' with " + getDepth() + " events left unwritten.");
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    protected void append(@Nonnull ILoggingEvent event) {
+        // Fix the message, thread name, and MDC now, since they'll be read on the writer thread
+        event.prepareForDeferredProcessing();
+
+        if (!offer(event)) {
+            switch (policy) {
+                case BLOCK -> {
+                    do {
+                        signal();
+                        LockSupport.parkNanos(10_000);
+                    } while (isStarted() && !offer(event));
+                }
+                case DISCARD_NEWEST -> dropped.increment();
+                case DISCARD_OLDEST -> makeRoom(event);
+                case DISCARD_BELOW_WARN -> {
+                    if (event.getLevel().isGreaterOrEqual(Level.WARN))
+                        makeRoom(event);
+                    else
+                        dropped.increment();
+                }
+            }
+        }
+        signal();
+    }
+
+    /**
+     * Drop the oldest events in the buffer until the new one fits.
+     *
+     * @param event the new event
+     */
+    private void makeRoom(@Nonnull ILoggingEvent event) {
+        do {
+            if (poll() != null)
+                dropped.increment();
+        } while (!offer(event));
+    }
+
+    /**
+     * Wake the writer thread if it's waiting for events. This is only a volatile read when it's already awake.
+     */
+    private void signal() {
+        if (waiting) {
+            waiting = false;
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Add an event to the tail of the buffer.
+     *
+     * @param event the event
+     *
+     * @return <code>true</code> if it was added, or <code>false</code> if the buffer is full
+     */
+    private boolean offer(@Nonnull ILoggingEvent event) {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) (position & mask);
+            long difference = sequences.get(slot) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    events[slot] = event;
+                    sequences.set(slot, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Take the event at the head of the buffer.
+     *
+     * @return the event, or <code>null</code> if the buffer is empty
+     */
+    @Nullable
+    private ILoggingEvent poll() {
+        long position = head.get();
+        while (true) {
+            int slot = (int) (position & mask);
+            long difference = sequences.get(slot) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    ILoggingEvent event = events[slot];
+                    events[slot] = null;
+                    sequences.set(slot, position + mask + 1);
+                    return event;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Get the number of events waiting to be written.
+     *
+     * @return the number of events
+     */
+    public int getDepth() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * Write the events in the buffer to the attached appenders until the appender stops and the buffer is empty. This
+     * runs on the writer thread.
+     */
+    private void write() {
+        while (true) {
+            ILoggingEvent event = poll();
+            if (event != null) {
+                appenders.appendLoopOnAppenders(event);
+                continue;
+            }
+
+            reportDropped();
+            if (!isStarted())
+                return;
+
+            // Check again after announcing the wait, so that an event added in between isn't missed
+            waiting = true;
+            if (getDepth() == 0 && isStarted())
+                LockSupport.parkNanos(100_000_000);
+            waiting = false;
+        }
+    }
+
+    /**
+     * Log the number of events dropped since the last report, if there were any. This is called once the writer has
+     * caught up, so the report itself isn't dropped.
+     */
+    private void reportDropped() {
+        long total = dropped.get();
+        if (total == droppedReported)
+            return;
+
+        LoggingEvent event = new LoggingEvent(Logger.FQCN, logger, Level.WARN,
+                "Dropped {} log events because the log buffer was full.",
+                null, new Object[]{total - droppedReported});
+        droppedReported = total;
+        appenders.appendLoopOnAppenders(event);
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> appender) {
+        appenders.addAppender(appender);
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return appenders.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String name) {
+        return appenders.getAppender(name);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return appenders.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return appenders.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String name) {
+        return appenders.detachAppender(name);
+    }
+}
@@ -0,0 +1,108 @@
+package utils;
+
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dv8tion.jda.api.entities.User;
+
+import javax.annotation.Nonnull;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This caches the rendered {@link Utils#getUserPanel(User) user panel} for each user, so that showing the same user
+ * again only copies the finished embed with a new timestamp instead of formatting every field again.
+ * <p>
+ * Entries are removed when the user's name, discriminator, avatar, or flags change (see {@link
+ * events.OnUserUpdate OnUserUpdate}). Discord only sends those updates for users that the bot has cached, so entries
+ * also expire after {@link #TTL_MILLIS} to bound how stale a panel can be. The cache holds at most {@link #MAX_SIZE}
+ * users; when it's full, expired entries are removed first, and then arbitrary ones.
+ */
+public class UserPanelCache {
+    /**
+     * The maximum number of panels to cache.
+     */
+    public static final int MAX_SIZE = 10_000;
+
+    /**
+     * How long a panel is cached, in milliseconds.
+     */
+    public static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * The cached panels, by user id.
+     */
+    private static final ConcurrentHashMap<Long, Entry> PANELS = new ConcurrentHashMap<>();
+
+    /**
+     * Get the panel for a user, stamped with the current time. The panel is rendered and cached if it isn't cached
+     * already, or if the cached one has expired.
+     *
+     * @param user the user to display
+     *
+     * @return the user's panel
+     */
+    @Nonnull
+    public static MessageEmbed get(@Nonnull User user) {
+        long now = System.currentTimeMillis();
+        Entry entry = PANELS.get(user.getIdLong());
+
+        if (entry == null || entry.expires < now) {
+            entry = new Entry(Utils.getUserPanel(user).build(), now + TTL_MILLIS);
+            if (PANELS.size() >= MAX_SIZE)
+                evict(now);
+            PANELS.put(user.getIdLong(), entry);
+        }
+
+        return EmbedCache.withTimestamp(entry.panel, OffsetDateTime.now(ZoneOffset.UTC));
+    }
+
+    /**
+     * Remove a user's panel, so that it's rendered again the next time it's shown. This is called whenever a user's
+     * profile changes.
+     *
+     * @param id the id of the user
+     */
+    public static void invalidate(long id) {
+        PANELS.remove(id);
+    }
+
+    /**
+     * Remove every cached panel.
+     */
+    public static void clear() {
+        PANELS.clear();
+    }
+
+    /**
+     * Get the number of cached panels.
+     *
+     * @return the size of the cache
+     */
+    public static int size() {
+        return PANELS.size();
+    }
+
+    /**
+     * Make room in the full cache. Expired entries are removed; if that frees less than a tenth of the cache, arbitrary
+     * entries are removed until it does, so that this doesn't run again on every new user.
+     *
+     * @param now the current time in milliseconds
+     */
+    private static void evict(long now) {
+        PANELS.values().removeIf(entry -> entry.expires < now);
+
+        Iterator<Long> ids = PANELS.keySet().iterator();
+        while (PANELS.size() > MAX_SIZE - MAX_SIZE / 10 && ids.hasNext()) {
+            ids.next();
+            ids.remove();
+        }
+    }
+
+    /**
+     * A rendered panel and the time at which it expires.
+     */
+    private record Entry(MessageEmbed panel, long expires) {
+    }
+}
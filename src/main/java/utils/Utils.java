@@ -64,7 +64,7 @@ public class Utils {
                     Main.class.getResourceAsStream(fileName.startsWith("/") ? fileName : "/" + fileName)
             );
         } catch (NullPointerException e) {
-            LOG.error("Failed to create an input stream from the resource '" + fileName + "'.");
+            LOG.error("Failed to create an input stream from the resource '{}'.", fileName);
             throw e;
         }
     }
@@ -86,9 +86,9 @@ public class Utils {
         try {
             return new File(Objects.requireNonNull(getResource(fileName)).toURI());
         } catch (NullPointerException e) {
-            LOG.error("Failed to find a resource file called '" + fileName + "'.");
+            LOG.error("Failed to find a resource file called '{}'.", fileName);
         } catch (URISyntaxException e) {
-            LOG.error("Failed to obtain a URI and create a File from the resource '" + fileName + "'.");
+            LOG.error("Failed to obtain a URI and create a File from the resource '{}'.", fileName);
         }
         return new File("");
     }
@@ -199,6 +199,9 @@ public class Utils {
 
     /**
      * Create a fancy {@link EmbedBuilder} titled "Error" with the provided message as the description.
+     * <p>
+     * The methods that send an error with a {@link String} message use a copy from the {@link EmbedCache} instead of
+     * building a new embed each time.
      *
      * @param message the error message
      *
@@ -222,7 +225,8 @@ public class Utils {
     }
 
     /**
-     * Send an {@link #error(String) error} to the given {@link MessageChannel channel}.
+     * Send an {@link #error(String) error} to the given {@link MessageChannel channel}. This goes through the {@link
+     * OutboundQueue}, so it may be merged with other messages to the same channel.
      *
      * @param channel the channel
      * @param message the error message
@@ -232,11 +236,12 @@ public class Utils {
      * @see #error(Message, String)
      */
     public static void error(@Nonnull MessageChannel channel, @Nonnull String message) {
-        channel.sendMessageEmbeds(error(message).build()).queue();
+        OutboundQueue.error(channel, EmbedCache.error(message));
     }
 
     /**
-     * Send an {@link #error(String) error} as a reply to a given {@link Message}.
+     * Send an {@link #error(String) error} as a reply to a given {@link Message}. This goes through the {@link
+     * OutboundQueue}, so it may be merged with other messages to the same channel.
      *
      * @param message the channel
      * @param error   the error message
@@ -246,7 +251,7 @@ public class Utils {
      * @see #error(MessageChannel, String)
      */
     public static void error(@Nonnull Message message, @Nonnull String error) {
-        message.replyEmbeds(error(error).build()).queue();
+        OutboundQueue.error(message, EmbedCache.error(error));
     }
 
     /**
@@ -262,7 +267,8 @@ public class Utils {
      * @see #error(InteractionHook, String)
      */
     public static void error(@Nonnull GenericInteractionCreateEvent interaction, @Nonnull String message) {
-        interaction.replyEmbeds(error(message).build()).setEphemeral(true).queue();
+        RestScheduler.queue(interaction.replyEmbeds(EmbedCache.error(message)).setEphemeral(true),
+                RestScheduler.Priority.INTERACTION);
     }
 
     /**
@@ -281,7 +287,8 @@ public class Utils {
      */
     public static void error(@Nonnull GenericInteractionCreateEvent interaction, @Nonnull String message,
                              boolean ephemeral) {
-        interaction.replyEmbeds(error(message).build()).setEphemeral(ephemeral).queue();
+        RestScheduler.queue(interaction.replyEmbeds(EmbedCache.error(message)).setEphemeral(ephemeral),
+                RestScheduler.Priority.INTERACTION);
     }
 
     /**
@@ -297,11 +304,13 @@ public class Utils {
      * @see #error(GenericInteractionCreateEvent, String, boolean)
      */
     public static void error(@Nonnull InteractionHook interaction, @Nonnull String message) {
-        interaction.editOriginalEmbeds(error(message).build()).queue();
+        RestScheduler.queue(interaction.editOriginalEmbeds(EmbedCache.error(message)),
+                RestScheduler.Priority.INTERACTION);
     }
 
     /**
-     * Send an {@link #error(Throwable) error} to the given {@link MessageChannel channel}.
+     * Send an {@link #error(Throwable) error} to the given {@link MessageChannel channel}. This goes through the {@link
+     * OutboundQueue}, so it may be merged with other messages to the same channel.
      *
      * @param channel   the channel
      * @param exception the exception that was thrown
@@ -311,11 +320,12 @@ public class Utils {
      * @see #error(Message, Throwable)
      */
     public static void error(@Nonnull MessageChannel channel, @Nonnull Throwable exception) {
-        channel.sendMessageEmbeds(error(exception).build()).queue();
+        OutboundQueue.error(channel, error(exception).build());
     }
 
     /**
-     * Send an {@link #error(Throwable) error} as a reply to a given {@link Message}.
+     * Send an {@link #error(Throwable) error} as a reply to a given {@link Message}. This goes through the {@link
+     * OutboundQueue}, so it may be merged with other messages to the same channel.
      *
      * @param message   the channel
      * @param exception the exception that was thrown
@@ -325,7 +335,7 @@ public class Utils {
      * @see #error(MessageChannel, Throwable)
      */
     public static void error(@Nonnull Message message, @Nonnull Throwable exception) {
-        message.replyEmbeds(error(exception).build()).queue();
+        OutboundQueue.error(message, error(exception).build());
     }
 
     /**
@@ -341,7 +351,8 @@ public class Utils {
      * @see #error(MessageChannel, Throwable)
      */
     public static void error(@Nonnull GenericInteractionCreateEvent interaction, @Nonnull Throwable exception) {
-        interaction.replyEmbeds(error(exception).build()).setEphemeral(true).queue();
+        RestScheduler.queue(interaction.replyEmbeds(error(exception).build()).setEphemeral(true),
+                RestScheduler.Priority.INTERACTION);
     }
 
     /**
@@ -360,7 +371,8 @@ public class Utils {
      */
     public static void error(@Nonnull GenericInteractionCreateEvent interaction, @Nonnull Throwable exception,
                              boolean ephemeral) {
-        interaction.replyEmbeds(error(exception).build()).setEphemeral(ephemeral).queue();
+        RestScheduler.queue(interaction.replyEmbeds(error(exception).build()).setEphemeral(ephemeral),
+                RestScheduler.Priority.INTERACTION);
     }
 
     /**
@@ -376,11 +388,13 @@ public class Utils {
      * @see #error(GenericInteractionCreateEvent, Throwable, boolean)
      */
     public static void error(@Nonnull InteractionHook interaction, @Nonnull Throwable exception) {
-        interaction.editOriginalEmbeds(error(exception).build()).queue();
+        RestScheduler.queue(interaction.editOriginalEmbeds(error(exception).build()),
+                RestScheduler.Priority.INTERACTION);
     }
 
     /**
-     * Get a {@link Guild} with the matching snowflake id.
+     * Get a {@link Guild} with the matching snowflake id. When the bot is {@link GatewayConfig#isSharded() sharded},
+     * every shard run by this process is searched.
      * <p>
      * If no connected guild is found, <code>null</code> is returned, and an error message is {@link #LOG logged} to the
      * console.
@@ -390,9 +404,9 @@ public class Utils {
      * @return the guild (or <code>null</code> if not found)
      */
     public static Guild getGuild(long id) {
-        Guild guild = Main.JDA.getGuildById(id);
+        Guild guild = Main.SHARDS != null ? Main.SHARDS.getGuildById(id) : Main.JDA.getGuildById(id);
         if (guild == null)
-            LOG.error("Failed to retrieve a guild with the id " + id + ".");
+            LOG.error("Failed to retrieve a guild with the id {}.", id);
         return guild;
     }
 
@@ -439,7 +453,8 @@ public class Utils {
     }
 
     /**
-     * Get an {@link EmbedBuilder} that contains a nicely formatted profile display for user.
+     * Get an {@link EmbedBuilder} that contains a nicely formatted profile display for user. To show a panel without
+     * rendering it every time, use {@link UserPanelCache#get(User)}.
      *
      * @param user the user to display
      *